@@ -0,0 +1,94 @@
+package org.apache.onami.persist.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import org.apache.onami.persist.AllPersistenceServices;
+import org.apache.onami.persist.PersistenceModule;
+
+/**
+ * The persistence setups the benchmarks run against. Both setups define two persistence units annotated with
+ * {@link Units.U00} and {@link Units.U01}.
+ */
+public enum Backend {
+
+  /**
+   * Container managed persistence units backed by allocation-light stubs of the JPA interfaces.
+   */
+  STUB {
+    @Override
+    PersistenceModule createPersistenceModule() {
+      return new PersistenceModule() {
+        @Override
+        protected void configurePersistence() {
+          bindContainerManagedPersistenceUnit(Stubs.entityManagerFactory()).annotatedWith(Units.U00.class);
+          bindContainerManagedPersistenceUnit(Stubs.entityManagerFactory()).annotatedWith(Units.U01.class);
+        }
+      };
+    }
+  },
+
+  /**
+   * Application managed persistence units using the in-memory HSQLDB units of the test persistence.xml.
+   */
+  HSQLDB {
+    @Override
+    PersistenceModule createPersistenceModule() {
+      return new PersistenceModule() {
+        @Override
+        protected void configurePersistence() {
+          bindApplicationManagedPersistenceUnit("firstUnit").annotatedWith(Units.U00.class);
+          bindApplicationManagedPersistenceUnit("secondUnit").annotatedWith(Units.U01.class);
+        }
+      };
+    }
+  };
+
+  /**
+   * @return the module defining the persistence units of this backend.
+   */
+  abstract PersistenceModule createPersistenceModule();
+
+  /**
+   * Creates an injector and starts all persistence services.
+   *
+   * @param modules additional modules.
+   * @return the injector.
+   */
+  Injector start(Module... modules) {
+    final Module[] all = new Module[modules.length + 1];
+    all[0] = createPersistenceModule();
+    System.arraycopy(modules, 0, all, 1, modules.length);
+    final Injector injector = Guice.createInjector(all);
+    injector.getInstance(AllPersistenceServices.class).startAllStoppedPersistenceServices();
+    return injector;
+  }
+
+  /**
+   * Stops all persistence services of the given injector.
+   *
+   * @param injector the injector returned by {@link #start(Module...)}.
+   */
+  static void stop(Injector injector) {
+    injector.getInstance(AllPersistenceServices.class).stopAllPersistenceServices();
+  }
+}
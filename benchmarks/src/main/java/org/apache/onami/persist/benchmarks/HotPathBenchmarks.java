@@ -0,0 +1,55 @@
+package org.apache.onami.persist.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of the transaction hot path at 1, 2 and 16 threads with the gc profiler enabled.
+ * The gc profiler reports the allocation rate per operation which is used to catch regressions in the
+ * interceptor path.
+ */
+public final class HotPathBenchmarks {
+
+  /**
+   * Number of concurrent benchmark threads.
+   */
+  private static final int[] THREADS = {1, 2, 16};
+
+  private HotPathBenchmarks() {
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    for (int threads : THREADS) {
+      final Options options = new OptionsBuilder()
+          .include(UnitOfWorkBenchmark.class.getSimpleName())
+          .include(TransactionalBenchmark.class.getSimpleName())
+          .include(PersistenceFilterBenchmark.class.getSimpleName())
+          .threads(threads)
+          .addProfiler(GCProfiler.class)
+          .build();
+      new Runner(options).run();
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package org.apache.onami.persist.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.PersistenceFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link PersistenceFilter#doFilter(ServletRequest, ServletResponse, FilterChain)} for a request which
+ * uses no persistence unit and for a request which uses one of the two persistence units.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistenceFilterBenchmark {
+
+  @Param({"STUB", "HSQLDB"})
+  public Backend backend;
+
+  private Injector injector;
+
+  private PersistenceFilter filter;
+
+  private FilterChain emptyChain;
+
+  private FilterChain firstUnitChain;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    injector = backend.start();
+    filter = injector.getInstance(PersistenceFilter.class);
+    final EntityManagerProvider firstEmp = injector.getInstance(Key.get(EntityManagerProvider.class, Units.U00.class));
+
+    emptyChain = new FilterChain() {
+      @Override
+      public void doFilter(ServletRequest request, ServletResponse response) {
+        // nothing to do
+      }
+    };
+    firstUnitChain = new FilterChain() {
+      @Override
+      public void doFilter(ServletRequest request, ServletResponse response) {
+        firstEmp.get();
+      }
+    };
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Backend.stop(injector);
+  }
+
+  @Benchmark
+  public void noUnitUsed() throws IOException, ServletException {
+    filter.doFilter(null, null, emptyChain);
+  }
+
+  @Benchmark
+  public void oneUnitUsed() throws IOException, ServletException {
+    filter.doFilter(null, null, firstUnitChain);
+  }
+}
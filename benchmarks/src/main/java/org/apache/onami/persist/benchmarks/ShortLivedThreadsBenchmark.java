@@ -0,0 +1,216 @@
+package org.apache.onami.persist.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.ScopedUnitOfWork;
+import org.apache.onami.persist.UnitOfWork;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of the thread local state of a unit of work on many short lived threads, the way a
+ * thread-per-request server or a virtual thread per task executor uses them.
+ * <p/>
+ * Every operation starts {@link #threads} threads and waits for them to complete. {@link #start()} runs nothing on
+ * them and is the baseline. {@link #threadLocal()} sets and removes a plain {@link ThreadLocal} and is the lower
+ * bound for any state bound to the thread. {@link #unitOfWork()} runs a {@link ScopedUnitOfWork} obtaining an
+ * entity manager. Subtracting the baseline and dividing by {@link #threads} gives the cost per thread. Run with
+ * {@code -prof gc} to compare the allocation per thread including the thread local maps.
+ * <p/>
+ * Virtual threads require Java 21. They are created reflectively so that the benchmarks still compile for older
+ * targets. Guice 3 needs {@code -jvmArgsAppend --add-opens=java.base/java.lang=ALL-UNNAMED} on Java 9 and later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShortLivedThreadsBenchmark {
+
+  private static final ThreadLocal<Object> PLAIN = new ThreadLocal<Object>();
+
+  @Param({"PLATFORM", "VIRTUAL"})
+  public ThreadKind kind;
+
+  @Param({"1000"})
+  public int threads;
+
+  private Injector injector;
+
+  private UnitOfWork unitOfWork;
+
+  private EntityManagerProvider emProvider;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    // fail fast if the kind of thread is not supported by the running JVM
+    kind.newThread(new Runnable() {
+      @Override
+      public void run() {
+      }
+    });
+    injector = Backend.STUB.start();
+    unitOfWork = injector.getInstance(Key.get(UnitOfWork.class, Units.U00.class));
+    emProvider = injector.getInstance(Key.get(EntityManagerProvider.class, Units.U00.class));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Backend.stop(injector);
+  }
+
+  @Benchmark
+  public void start() throws InterruptedException {
+    runOnThreads(new Runnable() {
+      @Override
+      public void run() {
+      }
+    });
+  }
+
+  @Benchmark
+  public void threadLocal() throws InterruptedException {
+    runOnThreads(new Runnable() {
+      @Override
+      public void run() {
+        PLAIN.set(this);
+        PLAIN.remove();
+      }
+    });
+  }
+
+  @Benchmark
+  public void unitOfWork() throws InterruptedException {
+    final Callable<EntityManager> work = new Callable<EntityManager>() {
+      @Override
+      public EntityManager call() {
+        return emProvider.get();
+      }
+    };
+    runOnThreads(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          ScopedUnitOfWork.run(unitOfWork, work);
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Starts all threads at once and waits for them to complete.
+   *
+   * @param task the task to run on each thread.
+   */
+  private void runOnThreads(Runnable task) throws InterruptedException {
+    final Thread[] started = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      started[i] = kind.newThread(task);
+      started[i].start();
+    }
+    for (Thread thread : started) {
+      thread.join();
+    }
+  }
+
+  /**
+   * The kinds of threads to run the units of work on.
+   */
+  public enum ThreadKind {
+
+    PLATFORM {
+      @Override
+      Thread newThread(Runnable task) {
+        return new Thread(task);
+      }
+    },
+
+    VIRTUAL {
+      @Override
+      Thread newThread(Runnable task) {
+        return VirtualThreads.newThread(task);
+      }
+    };
+
+    /**
+     * @param task the task to run.
+     * @return a new thread which has not been started yet.
+     */
+    abstract Thread newThread(Runnable task);
+  }
+
+  /**
+   * Creates virtual threads over {@code Thread.ofVirtual().unstarted(Runnable)}.
+   */
+  private static final class VirtualThreads {
+
+    private static final Object BUILDER;
+
+    private static final Method UNSTARTED;
+
+    static {
+      Object builder = null;
+      Method unstarted = null;
+      try {
+        builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+      } catch (ReflectiveOperationException e) {
+        // not supported by this JVM
+      }
+      BUILDER = builder;
+      UNSTARTED = unstarted;
+    }
+
+    static Thread newThread(Runnable task) {
+      if (UNSTARTED == null) {
+        throw new UnsupportedOperationException("virtual threads require Java 21 or later");
+      }
+      try {
+        return (Thread) UNSTARTED.invoke(BUILDER, task);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      } catch (InvocationTargetException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package org.apache.onami.persist.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+/**
+ * Allocation-light stubs of the JPA interfaces.
+ * <p/>
+ * Mocking frameworks record every invocation which distorts measurements and leaks memory in long running
+ * benchmarks. These stubs only keep the state required by onami-persist.
+ */
+final class Stubs {
+
+  private Stubs() {
+  }
+
+  /**
+   * @return a new entity manager factory creating stubbed entity managers.
+   */
+  static EntityManagerFactory entityManagerFactory() {
+    return proxy(EntityManagerFactory.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        final String name = method.getName();
+        if ("createEntityManager".equals(name)) {
+          return entityManager();
+        }
+        if ("isOpen".equals(name)) {
+          return Boolean.TRUE;
+        }
+        return defaultValue(proxy, method, args);
+      }
+    });
+  }
+
+  /**
+   * @return a new stubbed entity manager with its own resource local transaction.
+   */
+  static EntityManager entityManager() {
+    final EntityTransaction txn = entityTransaction();
+    return proxy(EntityManager.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        final String name = method.getName();
+        if ("getTransaction".equals(name)) {
+          return txn;
+        }
+        if ("isOpen".equals(name)) {
+          return Boolean.TRUE;
+        }
+        return defaultValue(proxy, method, args);
+      }
+    });
+  }
+
+  /**
+   * @return a new stubbed resource local transaction.
+   */
+  static EntityTransaction entityTransaction() {
+    return proxy(EntityTransaction.class, new InvocationHandler() {
+      private boolean active;
+
+      private boolean rollbackOnly;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        final String name = method.getName();
+        if ("begin".equals(name)) {
+          active = true;
+          rollbackOnly = false;
+        } else if ("commit".equals(name) || "rollback".equals(name)) {
+          active = false;
+        } else if ("setRollbackOnly".equals(name)) {
+          rollbackOnly = true;
+        } else if ("getRollbackOnly".equals(name)) {
+          return rollbackOnly;
+        } else if ("isActive".equals(name)) {
+          return active;
+        } else {
+          return defaultValue(proxy, method, args);
+        }
+        return null;
+      }
+    });
+  }
+
+  private static Object defaultValue(Object proxy, Method method, Object[] args) {
+    final String name = method.getName();
+    if ("equals".equals(name)) {
+      return proxy == args[0];
+    }
+    if ("hashCode".equals(name)) {
+      return System.identityHashCode(proxy);
+    }
+    if ("toString".equals(name)) {
+      return "stub@" + Integer.toHexString(System.identityHashCode(proxy));
+    }
+    final Class<?> returnType = method.getReturnType();
+    if (returnType == boolean.class) {
+      return Boolean.FALSE;
+    }
+    if (returnType == int.class) {
+      return 0;
+    }
+    if (returnType == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[]{type}, handler));
+  }
+}
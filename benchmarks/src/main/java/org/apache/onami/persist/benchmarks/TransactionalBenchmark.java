@@ -0,0 +1,115 @@
+package org.apache.onami.persist.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.inject.Injector;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.Transactional;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures calls of {@link Transactional @Transactional} methods including the unit of work handling done by the
+ * transaction interceptor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionalBenchmark {
+
+  @Param({"STUB", "HSQLDB"})
+  public Backend backend;
+
+  private Injector injector;
+
+  private Service service;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    injector = backend.start();
+    service = injector.getInstance(Service.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Backend.stop(injector);
+  }
+
+  @Benchmark
+  public Object singleUnit() {
+    return service.onFirstUnit();
+  }
+
+  @Benchmark
+  public Object allUnits() {
+    return service.onAllUnits();
+  }
+
+  @Benchmark
+  public Object nested() {
+    return service.nested();
+  }
+
+  /**
+   * Service with transactional methods. Must be public and non final to be intercepted.
+   */
+  public static class Service {
+
+    @Inject
+    @Units.U00
+    private EntityManagerProvider firstEmp;
+
+    @Inject
+    private Provider<Service> self;
+
+    @Transactional(onUnits = Units.U00.class)
+    public Object onFirstUnit() {
+      return firstEmp.get();
+    }
+
+    @Transactional
+    public Object onAllUnits() {
+      return firstEmp.get();
+    }
+
+    @Transactional(onUnits = Units.U00.class)
+    public Object nested() {
+      firstEmp.get();
+      return self.get().onFirstUnit();
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package org.apache.onami.persist.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import java.util.concurrent.TimeUnit;
+import org.apache.onami.persist.AllPersistenceServices;
+import org.apache.onami.persist.PersistenceModule;
+import org.apache.onami.persist.Transactional;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of a {@link Transactional @Transactional} call depending on the number of configured
+ * persistence units.
+ * <p/>
+ * {@link #singleUnit()} only participates on one unit and should stay flat when the number of configured units grows.
+ * {@link #allUnits()} participates on every unit and is expected to grow linearly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionalDispatchBenchmark {
+
+  @Param({"1", "2", "4", "8", "16", "32"})
+  public int units;
+
+  private AllPersistenceServices persistenceServices;
+
+  private Service service;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final Injector injector = Guice.createInjector(new PersistenceModule() {
+      @Override
+      protected void configurePersistence() {
+        for (int i = 0; i < units; i++) {
+          bindContainerManagedPersistenceUnit(Stubs.entityManagerFactory()).annotatedWith(Units.ALL[i]);
+        }
+      }
+    });
+    persistenceServices = injector.getInstance(AllPersistenceServices.class);
+    persistenceServices.startAllStoppedPersistenceServices();
+    service = injector.getInstance(Service.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    persistenceServices.stopAllPersistenceServices();
+  }
+
+  @Benchmark
+  public int singleUnit() {
+    return service.onFirstUnit();
+  }
+
+  @Benchmark
+  public int allUnits() {
+    return service.onAllUnits();
+  }
+
+  /**
+   * Service with transactional methods. Must be public and non final to be intercepted.
+   */
+  public static class Service {
+
+    private int counter;
+
+    @Transactional(onUnits = Units.U00.class)
+    public int onFirstUnit() {
+      return ++counter;
+    }
+
+    @Transactional
+    public int onAllUnits() {
+      return ++counter;
+    }
+  }
+}
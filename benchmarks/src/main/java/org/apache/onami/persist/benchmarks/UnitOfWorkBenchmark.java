@@ -0,0 +1,131 @@
+package org.apache.onami.persist.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.ScopedUnitOfWork;
+import org.apache.onami.persist.UnitOfWork;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link UnitOfWork#begin()}, {@link EntityManagerProvider#get()}, {@link UnitOfWork#end()}
+ * and {@link ScopedUnitOfWork#run(UnitOfWork, Callable)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnitOfWorkBenchmark {
+
+  @Param({"STUB", "HSQLDB"})
+  public Backend backend;
+
+  private Injector injector;
+
+  private UnitOfWork unitOfWork;
+
+  private EntityManagerProvider emProvider;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    injector = backend.start();
+    unitOfWork = injector.getInstance(Key.get(UnitOfWork.class, Units.U00.class));
+    emProvider = injector.getInstance(Key.get(EntityManagerProvider.class, Units.U00.class));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Backend.stop(injector);
+  }
+
+  @Benchmark
+  public boolean beginEnd() {
+    unitOfWork.begin();
+    try {
+      return unitOfWork.isActive();
+    } finally {
+      unitOfWork.end();
+    }
+  }
+
+  @Benchmark
+  public EntityManager beginGetEnd() {
+    unitOfWork.begin();
+    try {
+      return emProvider.get();
+    } finally {
+      unitOfWork.end();
+    }
+  }
+
+  @Benchmark
+  public EntityManager run() throws Exception {
+    return ScopedUnitOfWork.run(unitOfWork, new Callable<EntityManager>() {
+      @Override
+      public EntityManager call() {
+        return emProvider.get();
+      }
+    });
+  }
+
+  /**
+   * State holding a unit of work which is active for the whole iteration of a benchmark thread.
+   */
+  @State(Scope.Thread)
+  public static class ActiveUnitOfWork {
+
+    private UnitOfWork unitOfWork;
+
+    @Setup(Level.Iteration)
+    public void begin(UnitOfWorkBenchmark benchmark) {
+      unitOfWork = benchmark.unitOfWork;
+      unitOfWork.begin();
+    }
+
+    @TearDown(Level.Iteration)
+    public void end() {
+      unitOfWork.end();
+    }
+  }
+
+  @Benchmark
+  public EntityManager get(ActiveUnitOfWork active) {
+    return emProvider.get();
+  }
+}
@@ -0,0 +1,115 @@
+package org.apache.onami.persist.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Retention;
+import javax.inject.Qualifier;
+
+/**
+ * Binding annotations for up to {@value #MAX} persistence units.
+ */
+final class Units {
+
+  /**
+   * Maximum number of distinct persistence units.
+   */
+  static final int MAX = 32;
+
+  @Qualifier @Retention(RUNTIME) @interface U00 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U01 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U02 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U03 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U04 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U05 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U06 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U07 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U08 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U09 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U10 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U11 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U12 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U13 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U14 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U15 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U16 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U17 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U18 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U19 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U20 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U21 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U22 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U23 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U24 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U25 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U26 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U27 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U28 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U29 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U30 {}
+
+  @Qualifier @Retention(RUNTIME) @interface U31 {}
+
+  /**
+   * All annotations in ascending order.
+   */
+  @SuppressWarnings("unchecked")
+  static final Class<? extends Annotation>[] ALL = new Class[]{
+      U00.class, U01.class, U02.class, U03.class, U04.class, U05.class, U06.class, U07.class,
+      U08.class, U09.class, U10.class, U11.class, U12.class, U13.class, U14.class, U15.class,
+      U16.class, U17.class, U18.class, U19.class, U20.class, U21.class, U22.class, U23.class,
+      U24.class, U25.class, U26.class, U27.class, U28.class, U29.class, U30.class, U31.class
+  };
+
+  private Units() {
+  }
+}
@@ -0,0 +1,469 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Base implementation of {@link PersistenceService} and {@link EntityManagerFactoryProvider}.
+ * <p/>
+ * The life cycle ({@link State#STOPPED} &rarr; {@link State#STARTING} &rarr; {@link State#RUNNING} &rarr;
+ * {@link State#STOPPING} &rarr; {@link State#STOPPED}) is held in a single atomic reference to an immutable
+ * {@link Lifecycle} and changed only by compare and set. Concurrent callers of {@link #start()} share one
+ * bootstrap instead of creating several factories.
+ * <p/>
+ * If a background bootstrap timeout is configured {@link #start()} returns immediately and the
+ * {@link EntityManagerFactory} is obtained on a separate thread. {@link #get()} then blocks until the factory
+ * is ready. Once it is ready {@link #get()} is a single volatile read.
+ * <p/>
+ * The factory can be replaced while the persistence unit is in use. Replaced factories are released once the
+ * last entity manager created from them has been closed.
+ */
+abstract class AbstractEntityManagerFactoryProvider implements EntityManagerFactoryProvider, PersistenceService {
+
+  /**
+   * States of the life cycle of a persistence service.
+   */
+  enum State {
+    STOPPED, STARTING, RUNNING, STOPPING
+  }
+
+  /**
+   * Life cycle of a stopped persistence service.
+   */
+  private static final Lifecycle STOPPED = new Lifecycle(State.STOPPED, null, null);
+
+  /**
+   * Life cycle of a persistence service which is stopping.
+   */
+  private static final Lifecycle STOPPING = new Lifecycle(State.STOPPING, null, null);
+
+  /**
+   * Time in milliseconds {@link #get()} waits for a factory which is obtained in the background.
+   * A value of zero or less means the factory is obtained synchronously in {@link #start()}.
+   */
+  private final long backgroundBootstrapTimeout;
+
+  /**
+   * Reference count of the active units of work of this persistence unit.
+   */
+  private final UnitOfWorkGate gate;
+
+  /**
+   * Replaced factories which are waiting for their entity managers to be closed.
+   */
+  private final List<EntityManagerFactoryBootstrap> retired = new CopyOnWriteArrayList<EntityManagerFactoryBootstrap>();
+
+  /**
+   * The current life cycle.
+   */
+  private final AtomicReference<Lifecycle> lifecycle = new AtomicReference<Lifecycle>(STOPPED);
+
+  /**
+   * Constructor.
+   *
+   * @param backgroundBootstrapTimeout time in milliseconds to wait for a factory which is obtained in the
+   * background. Zero or less to obtain the factory synchronously.
+   * @param gate the reference count of the active units of work. Must not be {@code null}.
+   */
+  AbstractEntityManagerFactoryProvider(long backgroundBootstrapTimeout, UnitOfWorkGate gate) {
+    this.backgroundBootstrapTimeout = backgroundBootstrapTimeout;
+    this.gate = checkNotNull(gate, "gate is mandatory!");
+  }
+
+  /**
+   * Obtains a new entity manager factory.
+   *
+   * @param properties properties overruling the configured ones. {@code null} to use the configuration as is.
+   * @return the entity manager factory. Must not be {@code null}.
+   */
+  abstract EntityManagerFactory createEntityManagerFactory(Properties properties);
+
+  /**
+   * Releases an entity manager factory which is no longer used by this persistence unit.
+   *
+   * @param emf the entity manager factory to release.
+   */
+  abstract void releaseEntityManagerFactory(EntityManagerFactory emf);
+
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * Blocks until the entity manager factory is ready if it is obtained in the background.
+   */
+  @Override
+  public EntityManagerFactory get() {
+    final Lifecycle current = lifecycle.get();
+    if (current.emf != null) {
+      return current.emf;
+    }
+    return awaitEntityManagerFactory(current);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public EntityManagerFactory acquire() {
+    for (; ; ) {
+      final Lifecycle current = lifecycle.get();
+      final EntityManagerFactory emf = current.emf != null ? current.emf : awaitEntityManagerFactory(current);
+      if (current.bootstrap.tryAcquire()) {
+        return emf;
+      }
+      // the factory has been replaced in the meantime - retry with the new one
+    }
+  }
+
+  /**
+   * @param current the life cycle without a ready entity manager factory.
+   * @return the entity manager factory once it is ready.
+   * @throws IllegalStateException if the service is not running or the bootstrap failed.
+   */
+  private EntityManagerFactory awaitEntityManagerFactory(Lifecycle current) {
+    if (current.bootstrap == null) {
+      throw new IllegalStateException("PersistenceService is not running.");
+    }
+    return current.bootstrap.await();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void release(EntityManagerFactory emf) {
+    final Lifecycle current = lifecycle.get();
+    if (current.bootstrap != null && current.bootstrap.release(emf)) {
+      return;
+    }
+    for (EntityManagerFactoryBootstrap replaced : retired) {
+      if (replaced.release(emf)) {
+        if (replaced.isReleased()) {
+          retired.remove(replaced);
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * If another thread is already starting the service the calling thread waits for the same bootstrap.
+   *
+   * @throws IllegalStateException also if the service is stopping or was stopped while starting.
+   */
+  @Override
+  public void start() {
+    for (; ; ) {
+      final Lifecycle current = lifecycle.get();
+      switch (current.state) {
+        case STOPPED:
+          final Lifecycle starting = new Lifecycle(State.STARTING, newBootstrap(null), null);
+          if (lifecycle.compareAndSet(current, starting)) {
+            bootstrap(starting);
+            return;
+          }
+          break;
+        case STARTING:
+          joinBootstrap(current);
+          return;
+        case RUNNING:
+          throw new IllegalStateException("PersistenceService is already running.");
+        default:
+          throw new IllegalStateException("PersistenceService is stopping.");
+      }
+    }
+  }
+
+  /**
+   * Runs the bootstrap of a life cycle which has just been set to {@link State#STARTING}.
+   *
+   * @param starting the life cycle to complete.
+   */
+  private void bootstrap(final Lifecycle starting) {
+    gate.open();
+    if (backgroundBootstrapTimeout > 0) {
+      starting.bootstrap.startInBackground("onami-persist-bootstrap", new Runnable() {
+        @Override
+        public void run() {
+          completeStart(starting);
+        }
+      });
+    } else {
+      try {
+        starting.bootstrap.run();
+      } finally {
+        completeStart(starting);
+      }
+      checkStarted(starting);
+    }
+  }
+
+  /**
+   * Waits for a bootstrap started by another thread. Returns immediately if the factory is obtained in the
+   * background.
+   *
+   * @param starting the life cycle of the other thread.
+   */
+  private void joinBootstrap(Lifecycle starting) {
+    if (backgroundBootstrapTimeout <= 0) {
+      starting.bootstrap.awaitCompletion();
+      checkStarted(starting);
+    }
+  }
+
+  /**
+   * @param starting the life cycle of the completed bootstrap.
+   * @throws IllegalStateException if the bootstrap failed or the service was stopped in the meantime.
+   */
+  private void checkStarted(Lifecycle starting) {
+    final Lifecycle current = lifecycle.get();
+    if (current.bootstrap != starting.bootstrap || current.state != State.RUNNING) {
+      // reports the failure of the bootstrap if there is one
+      starting.bootstrap.await();
+      throw new IllegalStateException("PersistenceService was stopped while starting.");
+    }
+  }
+
+  /**
+   * Moves the life cycle from {@link State#STARTING} to {@link State#RUNNING} or back to {@link State#STOPPED} if
+   * the bootstrap failed. Does nothing if the service was stopped in the meantime.
+   *
+   * @param starting the life cycle of the completed bootstrap.
+   */
+  private void completeStart(Lifecycle starting) {
+    final EntityManagerFactory emf = starting.bootstrap.getIfReady();
+    final Lifecycle completed;
+    if (emf != null) {
+      completed = new Lifecycle(State.RUNNING, starting.bootstrap, emf);
+    } else {
+      // keeps the failed bootstrap to report the failure from get()
+      completed = new Lifecycle(State.STOPPED, starting.bootstrap, null);
+    }
+    lifecycle.compareAndSet(starting, completed);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Future<Void> swapEntityManagerFactory(final Properties properties) {
+    final Lifecycle replaced = lifecycle.get();
+    if (replaced.state != State.RUNNING) {
+      throw new IllegalStateException("PersistenceService is not running.");
+    }
+    final EntityManagerFactoryBootstrap next = newBootstrap(properties);
+    final FutureTask<Void> swap = new FutureTask<Void>(new Runnable() {
+      @Override
+      public void run() {
+        next.run();
+        completeSwap(replaced, next);
+      }
+    }, null);
+    final Thread thread = new Thread(swap, "onami-persist-swap");
+    thread.setDaemon(true);
+    thread.start();
+    return swap;
+  }
+
+  /**
+   * Points new entity managers to the new factory and retires the replaced one.
+   *
+   * @param replaced the life cycle which was active when the swap began.
+   * @param next the bootstrap of the new factory.
+   */
+  private void completeSwap(Lifecycle replaced, EntityManagerFactoryBootstrap next) {
+    final Lifecycle swapped = new Lifecycle(State.RUNNING, next, next.getIfReady());
+    retired.add(replaced.bootstrap);
+    if (!lifecycle.compareAndSet(replaced, swapped)) {
+      retired.remove(replaced.bootstrap);
+      final EntityManagerFactory emf = next.cancel();
+      if (emf != null) {
+        releaseEntityManagerFactory(emf);
+      }
+      throw new IllegalStateException("PersistenceService was stopped or swapped concurrently.");
+    }
+    replaced.bootstrap.retire();
+    if (replaced.bootstrap.isReleased()) {
+      retired.remove(replaced.bootstrap);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isRunning() {
+    final Lifecycle current = lifecycle.get();
+    return current.state == State.RUNNING || (current.state == State.STARTING && !current.bootstrap.hasFailed());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isReady() {
+    final Lifecycle current = lifecycle.get();
+    // the bootstrap publishes the factory shortly before the life cycle moves to RUNNING
+    return current.emf != null || (current.state == State.STARTING && current.bootstrap.isReady());
+  }
+
+  /**
+   * @return the current state of the life cycle.
+   */
+  State getState() {
+    return lifecycle.get().state;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void stop() {
+    if (isNeverStartedOrStopped()) {
+      return;
+    }
+    gate.close();
+    Lifecycle current;
+    do {
+      current = lifecycle.get();
+      if (current.state == State.STOPPING) {
+        return;
+      }
+      if (current.state == State.STOPPED) {
+        // forgets a failed bootstrap
+        lifecycle.compareAndSet(current, STOPPED);
+        return;
+      }
+    } while (!lifecycle.compareAndSet(current, STOPPING));
+
+    final AggregatedException.Builder exceptionBuilder = new AggregatedException.Builder();
+    try {
+      cancel(current.bootstrap, exceptionBuilder);
+      for (EntityManagerFactoryBootstrap replaced : retired) {
+        cancel(replaced, exceptionBuilder);
+      }
+      retired.clear();
+    } finally {
+      lifecycle.set(STOPPED);
+    }
+    exceptionBuilder.throwRuntimeExceptionIfHasCauses("multiple exception occurred while stopping the persistence service");
+  }
+
+  /**
+   * Cancels a bootstrap and releases its factory regardless of the entity managers still open.
+   *
+   * @param toCancel the bootstrap to cancel.
+   * @param exceptionBuilder the builder to collect failures into.
+   */
+  private void cancel(EntityManagerFactoryBootstrap toCancel, AggregatedException.Builder exceptionBuilder) {
+    try {
+      final EntityManagerFactory emf = toCancel.cancel();
+      if (emf != null) {
+        releaseEntityManagerFactory(emf);
+      }
+    } catch (Exception e) {
+      exceptionBuilder.add(e);
+    }
+  }
+
+  /**
+   * @return {@code true} if the service is stopped and the gate therefore needs no closing. A failed bootstrap
+   * leaves the gate open and is not considered as stopped.
+   */
+  private boolean isNeverStartedOrStopped() {
+    final Lifecycle current = lifecycle.get();
+    return current.state == State.STOPPED && current.bootstrap == null;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * Units of work which are still active after the timeout are not ended. Their threads keep their entity managers
+   * and transactions while the entity manager factory is closed.
+   */
+  @Override
+  public int stop(long timeout, TimeUnit unit) {
+    checkNotNull(unit, "unit is mandatory!");
+    if (isNeverStartedOrStopped()) {
+      return 0;
+    }
+    final long start = System.nanoTime();
+    gate.close(timeout, unit);
+    final int stillActive = gate.awaitDrained(unit.toNanos(timeout) - (System.nanoTime() - start), TimeUnit.NANOSECONDS);
+    stop();
+    return stillActive;
+  }
+
+  /**
+   * @param properties properties overruling the configured ones. May be {@code null}.
+   * @return a new bootstrap for obtaining an entity manager factory.
+   */
+  private EntityManagerFactoryBootstrap newBootstrap(final Properties properties) {
+    return new EntityManagerFactoryBootstrap(new EntityManagerFactoryBootstrap.Creator() {
+      @Override
+      public EntityManagerFactory create() {
+        return createEntityManagerFactory(properties);
+      }
+    }, new EntityManagerFactoryBootstrap.Releaser() {
+      @Override
+      public void release(EntityManagerFactory emf) {
+        releaseEntityManagerFactory(emf);
+      }
+    }, backgroundBootstrapTimeout);
+  }
+
+  /**
+   * Immutable snapshot of the life cycle.
+   */
+  private static final class Lifecycle {
+
+    /**
+     * The state of the life cycle.
+     */
+    private final State state;
+
+    /**
+     * The bootstrap of the current factory. {@code null} if stopping or stopped without failure.
+     */
+    private final EntityManagerFactoryBootstrap bootstrap;
+
+    /**
+     * The current factory. {@code null} unless the state is {@link State#RUNNING}.
+     */
+    private final EntityManagerFactory emf;
+
+    Lifecycle(State state, EntityManagerFactoryBootstrap bootstrap, EntityManagerFactory emf) {
+      this.state = state;
+      this.bootstrap = bootstrap;
+      this.emf = emf;
+    }
+  }
+}
@@ -29,7 +29,7 @@ import java.util.List;
 /**
  * Exception holding an aggregation of multiple exceptions which were collected.
  */
-class AggregatedException extends RuntimeException {
+public class AggregatedException extends RuntimeException {
 
   private static final long serialVersionUID = 1L;
 
@@ -19,6 +19,9 @@ package org.apache.onami.persist;
  * under the License.
  */
 
+import com.google.inject.Key;
+import java.util.Map;
+
 /**
  * Interface for aggregation of multiple {@link PersistenceService PersistenceServices}.
  */
@@ -33,4 +36,20 @@ public interface AllPersistenceServices {
    * Calls {@link PersistenceService#stop()} on all persistence services.
    */
   void stopAllPersistenceServices();
+
+  /**
+   * Tells whether all persistence services can be used without waiting. Never blocks.
+   *
+   * @return {@code true} if {@link PersistenceService#isReady()} returns {@code true} for all persistence services.
+   */
+  boolean areAllPersistenceServicesReady();
+
+  /**
+   * Returns how long the last start of each persistence service took. Persistence services which have not been
+   * started by {@link #startAllStoppedPersistenceServices()} are not contained.
+   *
+   * @return the start up durations in milliseconds in the order the persistence services were bound.
+   * For persistence services which failed to start the time until the failure is reported.
+   */
+  Map<Key<PersistenceService>, Long> getStartupDurations();
 }
@@ -24,9 +24,20 @@ import static org.apache.onami.persist.Preconditions.checkNotNull;
 import com.google.inject.Injector;
 import com.google.inject.Key;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -37,9 +48,10 @@ import javax.inject.Singleton;
 class AllPersistenceUnits implements AllPersistenceServices, AllUnitsOfWork {
 
   /**
-   * Collection of all known persistence services.
+   * Collection of all known persistence services by their key.
    */
-  private final List<PersistenceService> persistenceServices = new ArrayList<PersistenceService>();
+  private final Map<Key<PersistenceService>, PersistenceService> persistenceServices =
+      new LinkedHashMap<Key<PersistenceService>, PersistenceService>();
 
   /**
    * Collection of all known units of work.
@@ -56,6 +68,37 @@ class AllPersistenceUnits implements AllPersistenceServices, AllUnitsOfWork {
    */
   private final Set<Key<UnitOfWork>> unitOfWorkKeys = new HashSet<Key<UnitOfWork>>();
 
+  /**
+   * Maximum number of persistence services which are started concurrently.
+   */
+  private final int startupParallelism;
+
+  /**
+   * Duration in milliseconds of the last start of each persistence service.
+   */
+  private final Map<Key<PersistenceService>, Long> startupDurations =
+      Collections.synchronizedMap(new LinkedHashMap<Key<PersistenceService>, Long>());
+
+  /**
+   * Constructor for starting the persistence services one after another.
+   */
+  AllPersistenceUnits() {
+    this(1);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param startupParallelism the maximum number of persistence services to start concurrently.
+   * A value of {@code 1} starts them one after another on the calling thread. Must be positive.
+   */
+  AllPersistenceUnits(int startupParallelism) {
+    if (startupParallelism < 1) {
+      throw new IllegalArgumentException("startupParallelism must be positive but was " + startupParallelism);
+    }
+    this.startupParallelism = startupParallelism;
+  }
+
   /**
    * Adds a persistence service and a unit of work to this collection.
    *
@@ -70,7 +113,7 @@ class AllPersistenceUnits implements AllPersistenceServices, AllUnitsOfWork {
   @Inject
   private void init(Injector injector) {
     for (Key<PersistenceService> persistenceServiceKey : persistenceServiceKeys) {
-      persistenceServices.add(injector.getInstance(persistenceServiceKey));
+      persistenceServices.put(persistenceServiceKey, injector.getInstance(persistenceServiceKey));
     }
     for (Key<UnitOfWork> unitOfWorkKey : unitOfWorkKeys) {
       unitsOfWork.add(injector.getInstance(unitOfWorkKey));
@@ -82,26 +125,90 @@ class AllPersistenceUnits implements AllPersistenceServices, AllUnitsOfWork {
    */
   @Override
   public void startAllStoppedPersistenceServices() {
+    final Map<Key<PersistenceService>, PersistenceService> stopped =
+        new LinkedHashMap<Key<PersistenceService>, PersistenceService>();
+    for (Map.Entry<Key<PersistenceService>, PersistenceService> entry : persistenceServices.entrySet()) {
+      if (!entry.getValue().isRunning()) {
+        stopped.put(entry.getKey(), entry.getValue());
+      }
+    }
+
     AggregatedException.Builder exceptionBuilder = new AggregatedException.Builder();
-    for (PersistenceService ps : persistenceServices) {
-      try {
-        if (!ps.isRunning()) {
-          ps.start();
+    if (startupParallelism == 1 || stopped.size() < 2) {
+      for (Map.Entry<Key<PersistenceService>, PersistenceService> entry : stopped.entrySet()) {
+        try {
+          new StartTask(entry.getKey(), entry.getValue()).call();
+        } catch (Exception e) {
+          exceptionBuilder.add(e);
         }
-      } catch (Exception e) {
-        exceptionBuilder.add(e);
       }
+    } else {
+      startInParallel(stopped, exceptionBuilder);
     }
     exceptionBuilder.throwRuntimeExceptionIfHasCauses("multiple exception occurred while starting the persistence service");
   }
 
+  /**
+   * Starts the given persistence services on a bounded pool of threads and waits for all of them to complete.
+   *
+   * @param stopped the persistence services to start.
+   * @param exceptionBuilder the builder to collect the failures into.
+   */
+  private void startInParallel(Map<Key<PersistenceService>, PersistenceService> stopped,
+                               AggregatedException.Builder exceptionBuilder) {
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(Math.min(startupParallelism, stopped.size()), new StartupThreadFactory());
+    try {
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>(stopped.size());
+      for (Map.Entry<Key<PersistenceService>, PersistenceService> entry : stopped.entrySet()) {
+        futures.add(executor.submit(new StartTask(entry.getKey(), entry.getValue())));
+      }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          exceptionBuilder.add(e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          exceptionBuilder.add(e);
+          break;
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean areAllPersistenceServicesReady() {
+    for (PersistenceService ps : persistenceServices.values()) {
+      if (!ps.isReady()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Map<Key<PersistenceService>, Long> getStartupDurations() {
+    synchronized (startupDurations) {
+      return Collections.unmodifiableMap(new LinkedHashMap<Key<PersistenceService>, Long>(startupDurations));
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public void stopAllPersistenceServices() {
     AggregatedException.Builder exceptionBuilder = new AggregatedException.Builder();
-    for (PersistenceService ps : persistenceServices) {
+    for (PersistenceService ps : persistenceServices.values()) {
       try {
         ps.stop();
       } catch (Exception e) {
@@ -144,4 +251,51 @@ class AllPersistenceUnits implements AllPersistenceServices, AllUnitsOfWork {
     }
     exceptionBuilder.throwRuntimeExceptionIfHasCauses("multiple exception occurred while ending the unit of work");
   }
+
+  /**
+   * Task starting a single persistence service and recording how long it took.
+   */
+  private class StartTask implements Callable<Void> {
+
+    private final Key<PersistenceService> key;
+
+    private final PersistenceService ps;
+
+    StartTask(Key<PersistenceService> key, PersistenceService ps) {
+      this.key = key;
+      this.ps = ps;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Void call() {
+      final long start = System.nanoTime();
+      try {
+        ps.start();
+      } finally {
+        startupDurations.put(key, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Factory for the daemon threads used to start the persistence services in parallel.
+   */
+  private static class StartupThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Thread newThread(Runnable r) {
+      final Thread thread = new Thread(r, "onami-persist-startup-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
 }
@@ -21,6 +21,7 @@ package org.apache.onami.persist;
 
 import static org.apache.onami.persist.Preconditions.checkNotNull;
 
+import java.util.Properties;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.persistence.EntityManagerFactory;
@@ -30,71 +31,67 @@ import javax.persistence.EntityManagerFactory;
  * application managed persistence units.
  */
 @Singleton
-class ApplicationManagedEntityManagerFactoryProvider implements EntityManagerFactoryProvider, PersistenceService {
+class ApplicationManagedEntityManagerFactoryProvider extends AbstractEntityManagerFactoryProvider {
 
   /**
    * Factory for creating the {@link EntityManagerFactory}.
    */
   private final EntityManagerFactoryFactory emfFactory;
 
-  /**
-   * Currently active entity manager factory.
-   * Is {@code null} when the persistence service is not running.
-   */
-  private EntityManagerFactory emf;
-
   /**
    * Constructor.
    *
    * @param emfFactory the factory for the  {@link EntityManagerFactory}. Must not be {@code null}.
    */
-  @Inject
   ApplicationManagedEntityManagerFactoryProvider(EntityManagerFactoryFactory emfFactory) {
-    this.emfFactory = checkNotNull(emfFactory, "emfFactory is mandatory!");
+    this(emfFactory, 0L);
   }
 
   /**
-   * {@inheritDoc}
+   * Constructor.
+   *
+   * @param emfFactory the factory for the  {@link EntityManagerFactory}. Must not be {@code null}.
+   * @param backgroundBootstrapTimeout time in milliseconds to wait for a factory which is created in the
+   * background. Zero or less to create the factory synchronously.
    */
-  @Override
-  public EntityManagerFactory get() {
-    if (isRunning()) {
-      return emf;
-    }
-
-    throw new IllegalStateException("PersistenceService is not running.");
+  ApplicationManagedEntityManagerFactoryProvider(EntityManagerFactoryFactory emfFactory, long backgroundBootstrapTimeout) {
+    this(emfFactory, backgroundBootstrapTimeout, new UnitOfWorkGate());
   }
 
   /**
-   * {@inheritDoc}
+   * Constructor.
+   *
+   * @param emfFactory the factory for the  {@link EntityManagerFactory}. Must not be {@code null}.
+   * @param backgroundBootstrapTimeout time in milliseconds to wait for a factory which is created in the
+   * background. Zero or less to create the factory synchronously.
+   * @param gate the reference count of the active units of work. Must not be {@code null}.
    */
-  @Override
-  public void start() {
-    if (isRunning()) {
-      throw new IllegalStateException("PersistenceService is already running.");
-    }
-    emf = emfFactory.createApplicationManagedEntityManagerFactory();
+  @Inject
+  ApplicationManagedEntityManagerFactoryProvider(
+      EntityManagerFactoryFactory emfFactory,
+      @BackgroundBootstrapTimeout Long backgroundBootstrapTimeout,
+      UnitOfWorkGate gate
+  ) {
+    super(checkNotNull(backgroundBootstrapTimeout, "backgroundBootstrapTimeout is mandatory!"), gate);
+    this.emfFactory = checkNotNull(emfFactory, "emfFactory is mandatory!");
   }
 
   /**
    * {@inheritDoc}
    */
   @Override
-  public boolean isRunning() {
-    return null != emf;
+  EntityManagerFactory createEntityManagerFactory(Properties properties) {
+    if (properties == null) {
+      return emfFactory.createApplicationManagedEntityManagerFactory();
+    }
+    return emfFactory.createApplicationManagedEntityManagerFactory(properties);
   }
 
   /**
    * {@inheritDoc}
    */
   @Override
-  public void stop() {
-    if (isRunning()) {
-      try {
-        emf.close();
-      } finally {
-        emf = null;
-      }
-    }
+  void releaseEntityManagerFactory(EntityManagerFactory emf) {
+    emf.close();
   }
 }
@@ -0,0 +1,206 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dedicated executor of a single persistence unit for {@link Transactional @Transactional} methods returning a
+ * {@link Future}.
+ * <p/>
+ * Every running task holds a unit of work and a transaction, and therefore usually a database connection, until the
+ * future returned by the method completes. The number of threads is bounded so that asynchronous callers cannot
+ * exhaust the connection pool. Additional tasks wait in a bounded queue. If it is full new tasks are rejected with a
+ * {@link RejectedExecutionException} which the caller of the intercepted method receives instead of a future.
+ * The threads are daemon threads and terminate when they have been idle for a minute.
+ * <p/>
+ * The executor follows the life cycle of the persistence unit. It accepts tasks only while the persistence service
+ * is running. Before the service stops, the executor waits for the submitted tasks to complete.
+ */
+class AsyncTransactionExecutor implements UnitOfWorkGate.Listener {
+
+  /**
+   * Time after which idle threads terminate in seconds.
+   */
+  private static final long KEEP_ALIVE_SECONDS = 60L;
+
+  private final String name;
+
+  private final int maxConcurrent;
+
+  private final int maxQueued;
+
+  /**
+   * The executor running the tasks. {@code null} while the persistence service is stopped.
+   */
+  private volatile ThreadPoolExecutor executor;
+
+  /**
+   * Constructor.
+   *
+   * @param name the name of the persistence unit. Used for naming the threads. Must not be {@code null}.
+   * @param maxConcurrent the maximum number of asynchronous transactions running at the same time. Must be positive.
+   * @param maxQueued the maximum number of tasks waiting for a free thread. Must not be negative.
+   */
+  AsyncTransactionExecutor(String name, int maxConcurrent, int maxQueued) {
+    this.name = checkNotNull(name, "name is mandatory!");
+    if (maxConcurrent < 1) {
+      throw new IllegalArgumentException("maxConcurrent must be positive but was " + maxConcurrent);
+    }
+    if (maxQueued < 0) {
+      throw new IllegalArgumentException("maxQueued must not be negative but was " + maxQueued);
+    }
+    this.maxConcurrent = maxConcurrent;
+    this.maxQueued = maxQueued;
+  }
+
+  /**
+   * Starts accepting tasks. Does nothing if already started.
+   */
+  synchronized void start() {
+    if (executor == null) {
+      final BlockingQueue<Runnable> queue = maxQueued == 0
+          ? new SynchronousQueue<Runnable>()
+          : new ArrayBlockingQueue<Runnable>(maxQueued);
+      final ThreadPoolExecutor started = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, KEEP_ALIVE_SECONDS,
+          TimeUnit.SECONDS, queue, new AsyncThreadFactory(name), new ThreadPoolExecutor.AbortPolicy());
+      started.allowCoreThreadTimeOut(true);
+      executor = started;
+    }
+  }
+
+  /**
+   * Stops accepting tasks and waits for the submitted ones to complete. Tasks which have not completed within the
+   * timeout are cancelled and their threads are interrupted.
+   *
+   * @param timeout the maximum time to wait.
+   * @param unit the unit of the timeout.
+   */
+  void stop(long timeout, TimeUnit unit) {
+    final ThreadPoolExecutor stopping;
+    synchronized (this) {
+      stopping = executor;
+      executor = null;
+    }
+    if (stopping == null) {
+      return;
+    }
+    stopping.shutdown();
+    try {
+      if (!stopping.awaitTermination(timeout, unit)) {
+        stopping.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      stopping.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void opened() {
+    start();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void closing(long timeout, TimeUnit unit) {
+    stop(timeout, unit);
+  }
+
+  /**
+   * Submits a task for execution.
+   *
+   * @param task the task to run. Must not be {@code null}.
+   * @param <T> the type of the result of the task.
+   * @return the future of the task.
+   * @throws RejectedExecutionException if the persistence service is not running or if all threads are busy and
+   * the queue is full.
+   */
+  <T> Future<T> submit(Callable<T> task) {
+    checkNotNull(task, "task is mandatory!");
+    final ThreadPoolExecutor current = executor;
+    if (current == null) {
+      throw new RejectedExecutionException("PersistenceService is not running.");
+    }
+    return current.submit(task);
+  }
+
+  /**
+   * @return the maximum number of asynchronous transactions running at the same time.
+   */
+  int getMaxConcurrent() {
+    return maxConcurrent;
+  }
+
+  /**
+   * @return the maximum number of tasks waiting for a free thread.
+   */
+  int getMaxQueued() {
+    return maxQueued;
+  }
+
+  /**
+   * @return the number of tasks which are waiting for a free thread.
+   */
+  int getQueuedTasks() {
+    final ThreadPoolExecutor current = executor;
+    return current == null ? 0 : current.getQueue().size();
+  }
+
+  /**
+   * Thread factory for daemon threads named after the persistence unit.
+   */
+  private static class AsyncThreadFactory implements ThreadFactory {
+
+    private final String name;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    AsyncThreadFactory(String name) {
+      this.name = name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Thread newThread(Runnable r) {
+      final Thread thread = new Thread(r, "onami-persist-async-" + name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
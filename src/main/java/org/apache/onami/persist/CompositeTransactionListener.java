@@ -0,0 +1,104 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * {@link TransactionListener} which notifies multiple listeners in the order they have been registered.
+ */
+class CompositeTransactionListener implements TransactionListener {
+
+  /**
+   * The listeners to notify.
+   */
+  private final TransactionListener[] listeners;
+
+  /**
+   * Constructor.
+   *
+   * @param listeners the listeners to notify. Must not be {@code null}.
+   */
+  CompositeTransactionListener(List<TransactionListener> listeners) {
+    this.listeners = listeners.toArray(new TransactionListener[listeners.size()]);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void transactionBegun(Class<? extends Annotation> unit, Method method, boolean outer) {
+    for (TransactionListener listener : listeners) {
+      listener.transactionBegun(unit, method, outer);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void transactionCommitted(Class<? extends Annotation> unit, Method method, boolean outer, long durationNanos) {
+    for (TransactionListener listener : listeners) {
+      listener.transactionCommitted(unit, method, outer, durationNanos);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void transactionRolledBack(Class<? extends Annotation> unit, Method method, boolean outer, long durationNanos) {
+    for (TransactionListener listener : listeners) {
+      listener.transactionRolledBack(unit, method, outer, durationNanos);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void exceptionThrown(Class<? extends Annotation> unit, Method method, boolean outer, Throwable exc) {
+    for (TransactionListener listener : listeners) {
+      listener.exceptionThrown(unit, method, outer, exc);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void transactionRetried(Class<? extends Annotation> unit, Method method, int attempt, Throwable exc) {
+    for (TransactionListener listener : listeners) {
+      listener.transactionRetried(unit, method, attempt, exc);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void transactionTimedOut(Class<? extends Annotation> unit, Method method, long elapsedNanos) {
+    for (TransactionListener listener : listeners) {
+      listener.transactionTimedOut(unit, method, elapsedNanos);
+    }
+  }
+}
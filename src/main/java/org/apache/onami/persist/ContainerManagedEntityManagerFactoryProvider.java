@@ -21,6 +21,8 @@ package org.apache.onami.persist;
 
 import static org.apache.onami.persist.Preconditions.checkNotNull;
 
+import java.util.Properties;
+import java.util.concurrent.Future;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.persistence.EntityManagerFactory;
@@ -30,7 +32,7 @@ import javax.persistence.EntityManagerFactory;
  * container managed persistence units.
  */
 @Singleton
-class ContainerManagedEntityManagerFactoryProvider implements EntityManagerFactoryProvider, PersistenceService {
+class ContainerManagedEntityManagerFactoryProvider extends AbstractEntityManagerFactoryProvider {
 
   /**
    * The source for retrieving the entity manager factory instance.
@@ -38,59 +40,71 @@ class ContainerManagedEntityManagerFactoryProvider implements EntityManagerFacto
   private final EntityManagerFactorySource emfSource;
 
   /**
-   * Currently active entity manager factory.
-   * Is {@code null} when the persistence service is not running.
+   * Constructor.
+   *
+   * @param emfSource the source for the  {@link EntityManagerFactory}. Must not be {@code null}.
    */
-  private EntityManagerFactory emf;
+  ContainerManagedEntityManagerFactoryProvider(EntityManagerFactorySource emfSource) {
+    this(emfSource, 0L);
+  }
 
   /**
    * Constructor.
    *
    * @param emfSource the source for the  {@link EntityManagerFactory}. Must not be {@code null}.
+   * @param backgroundBootstrapTimeout time in milliseconds to wait for a factory which is obtained in the
+   * background. Zero or less to obtain the factory synchronously.
    */
-  @Inject
-  ContainerManagedEntityManagerFactoryProvider(EntityManagerFactorySource emfSource) {
-    this.emfSource = checkNotNull(emfSource, "emfSource is mandatory!");
+  ContainerManagedEntityManagerFactoryProvider(EntityManagerFactorySource emfSource, long backgroundBootstrapTimeout) {
+    this(emfSource, backgroundBootstrapTimeout, new UnitOfWorkGate());
   }
 
   /**
-   * {@inheritDoc}
+   * Constructor.
+   *
+   * @param emfSource the source for the  {@link EntityManagerFactory}. Must not be {@code null}.
+   * @param backgroundBootstrapTimeout time in milliseconds to wait for a factory which is obtained in the
+   * background. Zero or less to obtain the factory synchronously.
+   * @param gate the reference count of the active units of work. Must not be {@code null}.
    */
-  @Override
-  public EntityManagerFactory get() {
-    if (isRunning()) {
-      return emf;
-    }
-
-    throw new IllegalStateException("PersistenceService is not running.");
+  @Inject
+  ContainerManagedEntityManagerFactoryProvider(
+      EntityManagerFactorySource emfSource,
+      @BackgroundBootstrapTimeout Long backgroundBootstrapTimeout,
+      UnitOfWorkGate gate
+  ) {
+    super(checkNotNull(backgroundBootstrapTimeout, "backgroundBootstrapTimeout is mandatory!"), gate);
+    this.emfSource = checkNotNull(emfSource, "emfSource is mandatory!");
   }
 
   /**
    * {@inheritDoc}
+   * <p/>
+   * The new factory is obtained again from the source. Properties are not supported.
+   *
+   * @throws IllegalArgumentException if properties are passed.
    */
   @Override
-  public void start() {
-    if (isRunning()) {
-      throw new IllegalStateException("PersistenceService is already running.");
+  public Future<Void> swapEntityManagerFactory(Properties properties) {
+    if (properties != null) {
+      throw new IllegalArgumentException("container managed persistence units do not support properties");
     }
-
-    emf = emfSource.getEntityManagerFactory();
+    return super.swapEntityManagerFactory(null);
   }
 
   /**
    * {@inheritDoc}
    */
   @Override
-  public boolean isRunning() {
-    return null != emf;
+  EntityManagerFactory createEntityManagerFactory(Properties properties) {
+    return emfSource.getEntityManagerFactory();
   }
 
   /**
    * {@inheritDoc}
    */
   @Override
-  public void stop() {
-    emf = null;
+  void releaseEntityManagerFactory(EntityManagerFactory emf) {
     // the entity manager factory must NOT be closed:
     // - it was created by the container and it is therefore the responsibility of the container to close it
     // - we cannot know if another part of the application has obtained the same instance
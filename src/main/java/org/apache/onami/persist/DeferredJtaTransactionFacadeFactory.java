@@ -0,0 +1,322 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+
+/**
+ * Factory for transaction facades in case of JTA transactions where the entity manager is only joined to the
+ * transaction when it is first used.
+ * <p/>
+ * An outer transaction which never uses the entity manager will neither begin nor commit the user transaction.
+ * If the user transaction has already been started (i.e. by another persistence unit) when the entity manager is
+ * first used, the entity manager only joins it and leaves committing to the one who started it.
+ */
+@Singleton
+class DeferredJtaTransactionFacadeFactory implements TransactionFacadeFactory {
+
+  /**
+   * The facade to the user transaction.
+   */
+  private final UserTransactionFacade utFacade;
+
+  /**
+   * Provider for the entity manager.
+   * The entity manager will be joined to the the transaction.
+   */
+  private final EntityManagerProviderImpl emProvider;
+
+  /**
+   * Constructor.
+   *
+   * @param utFacade the user transaction facade.
+   * @param emProvider the entity manager provider.
+   */
+  @Inject
+  DeferredJtaTransactionFacadeFactory(UserTransactionFacade utFacade, EntityManagerProviderImpl emProvider) {
+    this.utFacade = checkNotNull(utFacade, "utFacade is mandatory!");
+    this.emProvider = checkNotNull(emProvider, "emProvider is mandatory!");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TransactionFacade createTransactionFacade() {
+    final EntityManagerUseListener pending = emProvider.getPendingUseListener();
+    if (pending instanceof Outer) {
+      return new DeferredInner((Outer) pending);
+    }
+    if (emProvider.hasEntityManager() && utFacade.isActive()) {
+      return new Inner(utFacade, emProvider.get());
+    }
+    return new Outer(utFacade, emProvider);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isTransactionActive() {
+    return emProvider.getPendingUseListener() instanceof Outer || utFacade.isActive();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public SuspendedTransaction suspend() {
+    return SuspendedTransaction.suspend(emProvider, utFacade);
+  }
+
+  /**
+   * TransactionFacade representing an inner (nested) transaction. Starting and
+   * committing a transaction has no effect. This Facade will set the
+   * rollbackOnly flag on the underlying transaction in case of a rollback.
+   */
+  private static class Inner implements TransactionFacade {
+
+    private final UserTransactionFacade txn;
+
+    private final EntityManager em;
+
+    Inner(UserTransactionFacade txn, EntityManager em) {
+      this.txn = checkNotNull(txn, "txn is mandatory!");
+      this.em = checkNotNull(em, "em is mandatory!");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimeout(int timeoutSeconds) {
+      // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void begin() {
+      em.joinTransaction();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit() {
+      // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rollback() {
+      txn.setRollbackOnly();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOuter() {
+      return false;
+    }
+  }
+
+  /**
+   * TransactionFacade representing an inner (nested) transaction of an outer transaction which has not been
+   * started yet. Starting and committing a transaction has no effect.
+   * This facade will set the rollbackOnly flag on the outer transaction in case of a roll back.
+   */
+  private static class DeferredInner implements TransactionFacade {
+
+    private final Outer outer;
+
+    DeferredInner(Outer outer) {
+      this.outer = checkNotNull(outer, "outer is mandatory!");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimeout(int timeoutSeconds) {
+      // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void begin() {
+      // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit() {
+      // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rollback() {
+      outer.setRollbackOnly();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOuter() {
+      return false;
+    }
+  }
+
+  /**
+   * TransactionFacade representing an outer transaction. This Facade starts the user transaction (unless it is
+   * already active) and joins the entity manager when the entity manager is first used. Only a user transaction
+   * started by this facade is ended by it. If an inner transaction has set the rollbackOnly flag the transaction
+   * will be rolled back in any case.
+   */
+  private static class Outer implements TransactionFacade, EntityManagerUseListener {
+
+    private final UserTransactionFacade txn;
+
+    private final EntityManagerProviderImpl emProvider;
+
+    /**
+     * Timeout of the user transaction in seconds. 0 for the default timeout.
+     */
+    private int timeoutSeconds;
+
+    /**
+     * {@code true} once the entity manager has joined the transaction.
+     */
+    private boolean joined;
+
+    /**
+     * {@code true} if this facade has started the user transaction.
+     */
+    private boolean started;
+
+    /**
+     * Rollback only flag set by inner transactions before the entity manager joined the transaction.
+     */
+    private boolean rollbackOnly;
+
+    Outer(UserTransactionFacade txn, EntityManagerProviderImpl emProvider) {
+      this.txn = checkNotNull(txn, "txn is mandatory!");
+      this.emProvider = checkNotNull(emProvider, "emProvider is mandatory!");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimeout(int timeoutSeconds) {
+      this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void begin() {
+      emProvider.notifyBeforeNextUse(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeUse(EntityManager em) {
+      if (!txn.isActive()) {
+        txn.begin(timeoutSeconds);
+        started = true;
+      }
+      em.joinTransaction();
+      joined = true;
+      if (rollbackOnly) {
+        txn.setRollbackOnly();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit() {
+      if (!joined) {
+        emProvider.removePendingUseListener(this);
+      } else if (started) {
+        if (txn.getRollbackOnly()) {
+          txn.rollback();
+        } else {
+          txn.commit();
+        }
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rollback() {
+      if (!joined) {
+        emProvider.removePendingUseListener(this);
+      } else if (started) {
+        txn.rollback();
+      } else {
+        txn.setRollbackOnly();
+      }
+    }
+
+    /**
+     * Marks the transaction for rollback only.
+     */
+    void setRollbackOnly() {
+      if (joined) {
+        txn.setRollbackOnly();
+      } else {
+        rollbackOnly = true;
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOuter() {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,294 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+
+/**
+ * Factory for transaction facades in case of resource local transactions which are only started when the
+ * {@link EntityManager} is first used.
+ * <p/>
+ * An outer transaction which never uses the entity manager will neither begin nor commit the underlying
+ * {@link EntityTransaction}.
+ */
+@Singleton
+class DeferredResourceLocalTransactionFacadeFactory implements TransactionFacadeFactory {
+
+  /**
+   * The provider for the entity manager.
+   */
+  private final EntityManagerProviderImpl emProvider;
+
+  /**
+   * Constructor.
+   *
+   * @param emProvider the provider for the entity manager
+   */
+  @Inject
+  DeferredResourceLocalTransactionFacadeFactory(EntityManagerProviderImpl emProvider) {
+    this.emProvider = checkNotNull(emProvider, "emProvider is mandatory!");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TransactionFacade createTransactionFacade() {
+    final EntityManagerUseListener pending = emProvider.getPendingUseListener();
+    if (pending instanceof Outer) {
+      return new DeferredInner((Outer) pending);
+    }
+    if (emProvider.hasEntityManager()) {
+      final EntityTransaction txn = emProvider.get().getTransaction();
+      if (txn.isActive()) {
+        return new Inner(txn);
+      }
+    }
+    return new Outer(emProvider);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isTransactionActive() {
+    return emProvider.getPendingUseListener() instanceof Outer
+        || (emProvider.hasEntityManager() && emProvider.get().getTransaction().isActive());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public SuspendedTransaction suspend() {
+    return SuspendedTransaction.suspend(emProvider);
+  }
+
+  /**
+   * TransactionFacade representing an inner (nested) transaction of an already started transaction.
+   * Starting and committing a transaction has no effect.
+   * This facade will set the rollbackOnly flag in case of a roll back.
+   */
+  private static class Inner implements TransactionFacade {
+
+    private final EntityTransaction txn;
+
+    Inner(EntityTransaction txn) {
+      this.txn = checkNotNull(txn, "txn is mandatory!");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimeout(int timeoutSeconds) {
+      // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void begin() {
+      // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit() {
+      // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rollback() {
+      txn.setRollbackOnly();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOuter() {
+      return false;
+    }
+  }
+
+  /**
+   * TransactionFacade representing an inner (nested) transaction of an outer transaction which has not been
+   * started yet. Starting and committing a transaction has no effect.
+   * This facade will set the rollbackOnly flag on the outer transaction in case of a roll back.
+   */
+  private static class DeferredInner implements TransactionFacade {
+
+    private final Outer outer;
+
+    DeferredInner(Outer outer) {
+      this.outer = checkNotNull(outer, "outer is mandatory!");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimeout(int timeoutSeconds) {
+      // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void begin() {
+      // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit() {
+      // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rollback() {
+      outer.setRollbackOnly();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOuter() {
+      return false;
+    }
+  }
+
+  /**
+   * TransactionFacade representing an outer transaction.
+   * This facade starts the transaction when the entity manager is first used and ends it if it was started.
+   * If an inner transaction has set the rollbackOnly flag the transaction will be rolled back in any case.
+   */
+  private static class Outer implements TransactionFacade, EntityManagerUseListener {
+
+    private final EntityManagerProviderImpl emProvider;
+
+    /**
+     * The started transaction. {@code null} until the entity manager is used.
+     */
+    private EntityTransaction txn;
+
+    /**
+     * Rollback only flag set by inner transactions before the transaction was started.
+     */
+    private boolean rollbackOnly;
+
+    Outer(EntityManagerProviderImpl emProvider) {
+      this.emProvider = checkNotNull(emProvider, "emProvider is mandatory!");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimeout(int timeoutSeconds) {
+      // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void begin() {
+      emProvider.notifyBeforeNextUse(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeUse(EntityManager em) {
+      final EntityTransaction entityTransaction = em.getTransaction();
+      entityTransaction.begin();
+      txn = entityTransaction;
+      if (rollbackOnly) {
+        txn.setRollbackOnly();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit() {
+      if (txn == null) {
+        emProvider.removePendingUseListener(this);
+      } else if (txn.getRollbackOnly()) {
+        txn.rollback();
+      } else {
+        txn.commit();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rollback() {
+      if (txn == null) {
+        emProvider.removePendingUseListener(this);
+      } else {
+        txn.rollback();
+      }
+    }
+
+    /**
+     * Marks the transaction for rollback only.
+     */
+    void setRollbackOnly() {
+      if (txn == null) {
+        rollbackOnly = true;
+      } else {
+        txn.setRollbackOnly();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOuter() {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Method invocation which may be proceeded on another thread than the one it was intercepted on.
+ * <p/>
+ * The invocations created by Guice keep the position in the interceptor chain in a mutable field which is reset once
+ * the interceptor returned. They must therefore not be proceeded after the interceptor returned nor on another
+ * thread. This invocation only captures the target object, the method and the arguments. It calls the original
+ * method directly without passing through the remaining interceptors again.
+ */
+class DetachedInvocation implements MethodInvocation {
+
+  /**
+   * Prefix of the methods which Guice generates into its proxies to call the original method of the super class.
+   */
+  private static final String SUPER_METHOD_PREFIX = "CGLIB$";
+
+  /**
+   * Cache of the methods to call per proxy class and intercepted method.
+   */
+  private static final ConcurrentMap<Class<?>, ConcurrentMap<Method, Method>> SUPER_METHODS =
+      new ConcurrentHashMap<Class<?>, ConcurrentMap<Method, Method>>();
+
+  private final Object target;
+
+  private final Method method;
+
+  private final Object[] arguments;
+
+  /**
+   * Constructor. Must be called on the thread the method was intercepted on.
+   *
+   * @param original the intercepted invocation. Must not be {@code null}.
+   */
+  DetachedInvocation(MethodInvocation original) {
+    checkNotNull(original, "original is mandatory!");
+    this.target = original.getThis();
+    this.method = original.getMethod();
+    final Object[] originalArguments = original.getArguments();
+    this.arguments = originalArguments == null ? new Object[0] : originalArguments.clone();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object proceed() throws Throwable {
+    try {
+      return superMethodOf(target.getClass(), method).invoke(target, arguments);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Returns the method which calls the original implementation of the given method. For Guice proxies this is the
+   * generated super method, otherwise the method itself.
+   */
+  private static Method superMethodOf(Class<?> targetClass, Method method) {
+    ConcurrentMap<Method, Method> methods = SUPER_METHODS.get(targetClass);
+    if (methods == null) {
+      final ConcurrentMap<Method, Method> newMethods = new ConcurrentHashMap<Method, Method>();
+      methods = SUPER_METHODS.putIfAbsent(targetClass, newMethods);
+      if (methods == null) {
+        methods = newMethods;
+      }
+    }
+    Method result = methods.get(method);
+    if (result == null) {
+      result = findSuperMethod(targetClass, method);
+      result.setAccessible(true);
+      methods.put(method, result);
+    }
+    return result;
+  }
+
+  private static Method findSuperMethod(Class<?> targetClass, Method method) {
+    final String prefix = SUPER_METHOD_PREFIX + method.getName() + "$";
+    for (Method candidate : targetClass.getDeclaredMethods()) {
+      if (candidate.getName().startsWith(prefix)
+          && Arrays.equals(candidate.getParameterTypes(), method.getParameterTypes())) {
+        return candidate;
+      }
+    }
+    return method;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Method getMethod() {
+    return method;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object[] getArguments() {
+    return arguments;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object getThis() {
+    return target;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public AccessibleObject getStaticPart() {
+    return method;
+  }
+}
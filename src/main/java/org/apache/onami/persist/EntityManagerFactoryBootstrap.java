@@ -0,0 +1,310 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Creation of a single {@link EntityManagerFactory} either on the calling thread or in the background.
+ * <p/>
+ * Consumers obtain the factory with {@link #await()} which blocks until the factory is ready or the timeout
+ * elapsed. {@link #isReady()} can be used to query the state without blocking (i.e. for health checks).
+ * <p/>
+ * Entity managers created from the factory are tracked as leases. After the bootstrap is {@link #retire() retired}
+ * the factory is released as soon as the last lease has been returned.
+ */
+final class EntityManagerFactoryBootstrap implements Runnable {
+
+  /**
+   * Creates the entity manager factory.
+   */
+  interface Creator {
+
+    /**
+     * @return the newly created entity manager factory. Must not be {@code null}.
+     */
+    EntityManagerFactory create();
+  }
+
+  /**
+   * Releases an entity manager factory which is no longer needed.
+   */
+  interface Releaser {
+
+    /**
+     * @param emf the entity manager factory to release.
+     */
+    void release(EntityManagerFactory emf);
+  }
+
+  /**
+   * Creates the entity manager factory.
+   */
+  private final Creator creator;
+
+  /**
+   * Releases a factory which is no longer needed.
+   */
+  private final Releaser releaser;
+
+  /**
+   * Maximum time in milliseconds {@link #await()} waits for the factory to become ready.
+   */
+  private final long timeoutMillis;
+
+  /**
+   * Released once the bootstrap completed either successfully or with a failure.
+   */
+  private final CountDownLatch done = new CountDownLatch(1);
+
+  /**
+   * The created entity manager factory. {@code null} until the bootstrap completed successfully.
+   */
+  private volatile EntityManagerFactory emf;
+
+  /**
+   * The failure which aborted the bootstrap. {@code null} if the bootstrap has not failed.
+   */
+  private volatile Throwable failure;
+
+  /**
+   * Flag indicating that the entity manager factory is no longer needed.
+   */
+  private volatile boolean cancelled;
+
+  /**
+   * Reference count of the entity managers created from the factory. Closed once the bootstrap is retired.
+   */
+  private final UnitOfWorkGate leases = new UnitOfWorkGate();
+
+  /**
+   * Flag guaranteeing that the factory is passed to the releaser only once.
+   */
+  private final AtomicBoolean released = new AtomicBoolean();
+
+  /**
+   * Constructor.
+   *
+   * @param creator creates the entity manager factory. Must not be {@code null}.
+   * @param releaser releases the factory once it is no longer needed. Must not be {@code null}.
+   * @param timeoutMillis maximum time {@link #await()} waits for the factory.
+   */
+  EntityManagerFactoryBootstrap(Creator creator, Releaser releaser, long timeoutMillis) {
+    this.creator = checkNotNull(creator, "creator is mandatory!");
+    this.releaser = checkNotNull(releaser, "releaser is mandatory!");
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Starts the bootstrap on a new daemon thread and returns immediately. A failure is not propagated but
+   * reported by {@link #await()}.
+   *
+   * @param name the name of the bootstrap thread.
+   * @param completion called on the bootstrap thread once the bootstrap completed either successfully or with
+   * a failure.
+   */
+  void startInBackground(String name, final Runnable completion) {
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          EntityManagerFactoryBootstrap.this.run();
+        } catch (RuntimeException e) {
+          // recorded as failure and reported by await()
+        } finally {
+          completion.run();
+        }
+      }
+    }, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Blocks without timeout until the bootstrap completed either successfully or with a failure.
+   *
+   * @throws IllegalStateException if the calling thread was interrupted.
+   */
+  void awaitCompletion() throws IllegalStateException {
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the EntityManagerFactory.", e);
+    }
+  }
+
+  /**
+   * Creates the entity manager factory on the calling thread. Failures are propagated to the caller.
+   */
+  @Override
+  public void run() {
+    EntityManagerFactory created = null;
+    try {
+      created = checkNotNull(creator.create(), "created entity manager factory must not be null");
+    } catch (RuntimeException e) {
+      failure = e;
+      throw e;
+    } catch (Error e) {
+      failure = e;
+      throw e;
+    } finally {
+      if (created != null && !publish(created)) {
+        releaser.release(created);
+      }
+      done.countDown();
+    }
+  }
+
+  /**
+   * @param created the created entity manager factory.
+   * @return {@code true} if the factory was published. {@code false} if the bootstrap was cancelled before.
+   */
+  private synchronized boolean publish(EntityManagerFactory created) {
+    if (cancelled) {
+      released.set(true);
+      return false;
+    }
+    emf = created;
+    return true;
+  }
+
+  /**
+   * Blocks until the entity manager factory is ready.
+   *
+   * @return the created entity manager factory.
+   * @throws IllegalStateException if the bootstrap failed, was cancelled, did not complete within the timeout
+   * or the calling thread was interrupted.
+   */
+  EntityManagerFactory await() throws IllegalStateException {
+    final EntityManagerFactory result = emf;
+    if (result != null && !cancelled) {
+      return result;
+    }
+    try {
+      if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+        throw new IllegalStateException("EntityManagerFactory is not ready after " + timeoutMillis + " ms.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the EntityManagerFactory.", e);
+    }
+    if (failure != null) {
+      throw new IllegalStateException("Bootstrap of the EntityManagerFactory failed.", failure);
+    }
+    if (cancelled) {
+      throw new IllegalStateException("PersistenceService is not running.");
+    }
+    return emf;
+  }
+
+  /**
+   * Registers an entity manager which is about to be created from the factory.
+   *
+   * @return {@code true} if the lease was granted. {@code false} if the bootstrap has been retired or cancelled.
+   */
+  boolean tryAcquire() {
+    return leases.tryEnter();
+  }
+
+  /**
+   * Returns a lease granted by {@link #tryAcquire()}.
+   *
+   * @param factory the factory the entity manager was created from.
+   * @return {@code true} if the factory is the one of this bootstrap. {@code false} otherwise.
+   */
+  boolean release(EntityManagerFactory factory) {
+    if (factory == null || factory != emf) {
+      return false;
+    }
+    leases.exit();
+    releaseIfDrained();
+    return true;
+  }
+
+  /**
+   * Stops granting leases. The factory is released once all granted leases have been returned.
+   */
+  void retire() {
+    leases.close();
+    releaseIfDrained();
+  }
+
+  /**
+   * @return {@code true} if the factory has been passed to the releaser.
+   */
+  boolean isReleased() {
+    return released.get();
+  }
+
+  /**
+   * Passes the factory to the releaser if the bootstrap is retired and no leases are outstanding.
+   */
+  private void releaseIfDrained() {
+    final EntityManagerFactory factory = emf;
+    if (factory != null && leases.isClosed() && leases.getActiveCount() == 0 && released.compareAndSet(false, true)) {
+      releaser.release(factory);
+    }
+  }
+
+  /**
+   * @return the created entity manager factory. {@code null} if it is not ready or the bootstrap was cancelled.
+   * Never blocks.
+   */
+  EntityManagerFactory getIfReady() {
+    final EntityManagerFactory result = emf;
+    return cancelled ? null : result;
+  }
+
+  /**
+   * @return {@code true} if the entity manager factory has been created. Never blocks.
+   */
+  boolean isReady() {
+    return emf != null && !cancelled;
+  }
+
+  /**
+   * @return {@code true} if the bootstrap failed. Never blocks.
+   */
+  boolean hasFailed() {
+    return failure != null;
+  }
+
+  /**
+   * Cancels the bootstrap regardless of outstanding leases. A factory which is created afterwards is passed to
+   * the releaser.
+   *
+   * @return the already created entity manager factory which must be closed by the caller.
+   * {@code null} if it has not been created yet or has already been released.
+   */
+  synchronized EntityManagerFactory cancel() {
+    cancelled = true;
+    leases.close();
+    if (emf != null && released.compareAndSet(false, true)) {
+      return emf;
+    }
+    return null;
+  }
+}
@@ -64,4 +64,19 @@ class EntityManagerFactoryFactory {
   EntityManagerFactory createApplicationManagedEntityManagerFactory() {
     return Persistence.createEntityManagerFactory(puName, properties);
   }
+
+  /**
+   * Creates a new {@link EntityManagerFactory} with additional properties.
+   *
+   * @param overrides properties which override the configured ones. Must not be {@code null}.
+   * @return the newly created entity manager factory.
+   */
+  EntityManagerFactory createApplicationManagedEntityManagerFactory(Properties overrides) {
+    final Properties merged = new Properties();
+    if (properties != null) {
+      merged.putAll(properties);
+    }
+    merged.putAll(checkNotNull(overrides, "overrides is mandatory!"));
+    return Persistence.createEntityManagerFactory(puName, merged);
+  }
 }
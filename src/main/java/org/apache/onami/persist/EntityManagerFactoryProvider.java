@@ -30,4 +30,20 @@ interface EntityManagerFactoryProvider {
    * @throws IllegalStateException if {@link PersistenceService#isRunning()} returns {@code false}.
    */
   EntityManagerFactory get() throws IllegalStateException;
+
+  /**
+   * Obtains the factory for creating an entity manager. The factory is not closed due to a swap before
+   * {@link #release(EntityManagerFactory)} has been called.
+   *
+   * @return the entity manager factory to create an entity manager from.
+   * @throws IllegalStateException if {@link PersistenceService#isRunning()} returns {@code false}.
+   */
+  EntityManagerFactory acquire() throws IllegalStateException;
+
+  /**
+   * Signals that the entity manager created from a factory obtained by {@link #acquire()} has been closed.
+   *
+   * @param emf the factory returned by {@link #acquire()}.
+   */
+  void release(EntityManagerFactory emf);
 }
@@ -21,7 +21,10 @@ package org.apache.onami.persist;
 
 import static org.apache.onami.persist.Preconditions.checkNotNull;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.persistence.EntityManager;
@@ -29,9 +32,12 @@ import javax.persistence.EntityManagerFactory;
 
 /**
  * Implementation of {@link EntityManagerProvider} and {@link UnitOfWork}.
+ * <p/>
+ * If lazy creation is enabled {@link #begin()} only marks the unit of work as active. The {@link EntityManager}
+ * is then created upon the first call to {@link #get()}.
  */
 @Singleton
-class EntityManagerProviderImpl implements EntityManagerProvider, UnitOfWork {
+class EntityManagerProviderImpl implements EntityManagerProvider, UnitOfWork, UnitOfWorkStatistics {
 
   /**
    * Provider for {@link javax.persistence.EntityManagerFactory}.
@@ -44,20 +50,92 @@ class EntityManagerProviderImpl implements EntityManagerProvider, UnitOfWork {
   private final Properties properties;
 
   /**
-   * Thread local store of {@link EntityManager}s.
+   * Flag indicating if the {@link EntityManager} is created on first use instead of at the begin of the unit of work.
    */
-  private final ThreadLocal<EntityManager> entityManagers = new ThreadLocal<EntityManager>();
+  private final boolean lazy;
+
+  /**
+   * Reference count of the active units of work. Rejects new units of work while the persistence service stops.
+   */
+  private final UnitOfWorkGate gate;
+
+  /**
+   * Per thread store of the active units of work of all persistence units.
+   */
+  private final PersistenceContexts unitsOfWork;
+
+  /**
+   * Index of this persistence unit in the {@link PersistenceContexts}.
+   */
+  private final int ordinal;
+
+  /**
+   * Number of created entity managers.
+   */
+  private final AtomicLong entityManagersCreated = new AtomicLong();
+
+  /**
+   * Number of units of work which ended without creating an entity manager.
+   */
+  private final AtomicLong entityManagerCreationsAvoided = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param emfProvider the provider for {@link EntityManagerFactory}. Must not be {@code null}.
+   * @param properties additional properties to be set on every {@link EntityManager} which is created.
+   */
+  public EntityManagerProviderImpl(EntityManagerFactoryProvider emfProvider, Properties properties) {
+    this(emfProvider, properties, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param emfProvider the provider for {@link EntityManagerFactory}. Must not be {@code null}.
+   * @param properties additional properties to be set on every {@link EntityManager} which is created.
+   * @param lazy {@code true} if the {@link EntityManager} should be created upon first use.
+   */
+  public EntityManagerProviderImpl(EntityManagerFactoryProvider emfProvider, Properties properties, boolean lazy) {
+    this(emfProvider, properties, lazy, new UnitOfWorkGate());
+  }
 
   /**
    * Constructor.
    *
    * @param emfProvider the provider for {@link EntityManagerFactory}. Must not be {@code null}.
    * @param properties additional properties to be set on every {@link EntityManager} which is created.
+   * @param lazy {@code true} if the {@link EntityManager} should be created upon first use.
+   * @param gate the reference count of the active units of work. Must not be {@code null}.
+   */
+  EntityManagerProviderImpl(EntityManagerFactoryProvider emfProvider, Properties properties, boolean lazy, UnitOfWorkGate gate) {
+    this(emfProvider, properties, lazy, gate, new PersistenceContexts());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param emfProvider the provider for {@link EntityManagerFactory}. Must not be {@code null}.
+   * @param properties additional properties to be set on every {@link EntityManager} which is created.
+   * @param lazy {@code true} if the {@link EntityManager} should be created upon first use.
+   * @param gate the reference count of the active units of work. Must not be {@code null}.
+   * @param unitsOfWork the per thread store of the units of work shared by all persistence units.
+   * Must not be {@code null}.
    */
   @Inject
-  public EntityManagerProviderImpl(EntityManagerFactoryProvider emfProvider, @Nullable @ForContainerManaged Properties properties) {
+  public EntityManagerProviderImpl(
+      EntityManagerFactoryProvider emfProvider,
+      @Nullable @ForContainerManaged Properties properties,
+      @LazyEntityManagerCreation boolean lazy,
+      UnitOfWorkGate gate,
+      PersistenceContexts unitsOfWork
+  ) {
     this.emfProvider = checkNotNull(emfProvider, "emfProvider is mandatory!");
     this.properties = properties;
+    this.lazy = lazy;
+    this.gate = checkNotNull(gate, "gate is mandatory!");
+    this.unitsOfWork = checkNotNull(unitsOfWork, "unitsOfWork is mandatory!");
+    this.ordinal = unitsOfWork.allocateOrdinal();
   }
 
   /**
@@ -65,37 +143,180 @@ class EntityManagerProviderImpl implements EntityManagerProvider, UnitOfWork {
    */
   @Override
   public EntityManager get() throws IllegalStateException {
-    final EntityManager entityManager = entityManagers.get();
-    if (entityManager != null) {
-      return entityManager;
-    } else {
+    final ActiveUnitOfWork unitOfWork = unitsOfWork.get(ordinal);
+    if (unitOfWork == null) {
       throw new IllegalStateException("UnitOfWork is not running.");
     }
+    if (unitOfWork.entityManager == null) {
+      unitOfWork.entityManager = createEntityManager(unitOfWork);
+    }
+    if (unitOfWork.useListener != null) {
+      final EntityManagerUseListener listener = unitOfWork.useListener;
+      unitOfWork.useListener = null;
+      listener.beforeUse(unitOfWork.entityManager);
+    }
+    if (unitOfWork.additionalUseListeners != null) {
+      final List<EntityManagerUseListener> listeners = unitOfWork.additionalUseListeners;
+      unitOfWork.additionalUseListeners = null;
+      for (EntityManagerUseListener listener : listeners) {
+        listener.beforeUse(unitOfWork.entityManager);
+      }
+    }
+    return unitOfWork.entityManager;
+  }
+
+  /**
+   * Registers a listener which is notified the next time the entity manager of the current unit of work is
+   * obtained by calling {@link #get()}. The listener is notified only once.
+   *
+   * @param listener the listener to notify. Must not be {@code null}.
+   * @throws IllegalStateException if the unit of work is not active or another listener is already registered.
+   */
+  void notifyBeforeNextUse(EntityManagerUseListener listener) {
+    final ActiveUnitOfWork unitOfWork = unitsOfWork.get(ordinal);
+    if (unitOfWork == null) {
+      throw new IllegalStateException("UnitOfWork is not running.");
+    }
+    if (unitOfWork.useListener != null) {
+      throw new IllegalStateException("Another listener is already waiting for the entity manager to be used.");
+    }
+    unitOfWork.useListener = checkNotNull(listener, "listener is mandatory!");
+  }
+
+  /**
+   * Registers an additional listener which is notified the next time the entity manager of the current unit of work
+   * is obtained by calling {@link #get()}. Additional listeners are notified once, after the listener registered by
+   * {@link #notifyBeforeNextUse(EntityManagerUseListener)}. This allows to prepare the entity manager without
+   * beginning a deferred transaction.
+   *
+   * @param listener the listener to notify. Must not be {@code null}.
+   * @throws IllegalStateException if the unit of work is not active.
+   */
+  void addUseListener(EntityManagerUseListener listener) {
+    checkNotNull(listener, "listener is mandatory!");
+    final ActiveUnitOfWork unitOfWork = unitsOfWork.get(ordinal);
+    if (unitOfWork == null) {
+      throw new IllegalStateException("UnitOfWork is not running.");
+    }
+    if (unitOfWork.additionalUseListeners == null) {
+      unitOfWork.additionalUseListeners = new ArrayList<EntityManagerUseListener>(2);
+    }
+    unitOfWork.additionalUseListeners.add(listener);
+  }
+
+  /**
+   * Removes the given additional listener if it is still waiting for the next use of the entity manager.
+   *
+   * @param listener the listener to remove.
+   */
+  void removeUseListener(EntityManagerUseListener listener) {
+    final ActiveUnitOfWork unitOfWork = unitsOfWork.get(ordinal);
+    if (unitOfWork != null && unitOfWork.additionalUseListeners != null) {
+      unitOfWork.additionalUseListeners.remove(listener);
+    }
+  }
+
+  /**
+   * @return the listener waiting for the next use of the entity manager of the current unit of work.
+   * {@code null} if there is none.
+   */
+  EntityManagerUseListener getPendingUseListener() {
+    final ActiveUnitOfWork unitOfWork = unitsOfWork.get(ordinal);
+    return unitOfWork == null ? null : unitOfWork.useListener;
+  }
+
+  /**
+   * Removes the given listener if it is still waiting for the next use of the entity manager.
+   *
+   * @param listener the listener to remove.
+   */
+  void removePendingUseListener(EntityManagerUseListener listener) {
+    final ActiveUnitOfWork unitOfWork = unitsOfWork.get(ordinal);
+    if (unitOfWork != null && unitOfWork.useListener == listener) {
+      unitOfWork.useListener = null;
+    }
+  }
+
+  /**
+   * @return {@code true} if the entity manager of the current unit of work has been created.
+   */
+  boolean hasEntityManager() {
+    final ActiveUnitOfWork unitOfWork = unitsOfWork.get(ordinal);
+    return unitOfWork != null && unitOfWork.entityManager != null;
+  }
+
+  /**
+   * Detaches the unit of work from the current thread. Afterwards a new unit of work may be started.
+   *
+   * @return the detached unit of work. {@code null} if no unit of work was active.
+   * @see #resume(ActiveUnitOfWork)
+   */
+  ActiveUnitOfWork suspend() {
+    final ActiveUnitOfWork unitOfWork = unitsOfWork.get(ordinal);
+    unitsOfWork.remove(ordinal);
+    return unitOfWork;
+  }
+
+  /**
+   * Attaches a previously detached unit of work to the current thread.
+   *
+   * @param unitOfWork the unit of work returned by {@link #suspend()}. May be {@code null}.
+   * @throws IllegalStateException if a unit of work is active for the current thread.
+   */
+  void resume(ActiveUnitOfWork unitOfWork) {
+    if (isActive()) {
+      throw new IllegalStateException("Cannot resume a unit of work while another one is active.");
+    }
+    if (unitOfWork != null) {
+      unitsOfWork.set(ordinal, unitOfWork);
+    }
   }
 
   /**
    * {@inheritDoc}
+   *
+   * @throws IllegalStateException also if the persistence service is stopping.
    */
   @Override
   public void begin() {
     if (isActive()) {
       throw new IllegalStateException("Unit of work has already been started.");
+    } else if (!gate.tryEnter()) {
+      throw new IllegalStateException("PersistenceService is stopping or stopped.");
     } else {
-      final EntityManager em = createEntityManager();
-      entityManagers.set(em);
+      final ActiveUnitOfWork unitOfWork = new ActiveUnitOfWork();
+      try {
+        if (!lazy) {
+          unitOfWork.entityManager = createEntityManager(unitOfWork);
+        }
+      } catch (RuntimeException e) {
+        gate.exit();
+        throw e;
+      }
+      unitsOfWork.set(ordinal, unitOfWork);
     }
   }
 
   /**
+   * @param unitOfWork the unit of work to remember the factory of the entity manager in.
    * @return a new entity manager instance.
    */
-  private EntityManager createEntityManager() {
-    final EntityManagerFactory emf = emfProvider.get();
-    if (null == properties) {
-      return emf.createEntityManager();
-    } else {
-      return emf.createEntityManager(properties);
+  private EntityManager createEntityManager(ActiveUnitOfWork unitOfWork) {
+    final EntityManagerFactory emf = emfProvider.acquire();
+    final EntityManager em;
+    try {
+      if (null == properties) {
+        em = emf.createEntityManager();
+      } else {
+        em = emf.createEntityManager(properties);
+      }
+    } catch (RuntimeException e) {
+      emfProvider.release(emf);
+      throw e;
     }
+    unitOfWork.entityManagerFactory = emf;
+    entityManagersCreated.incrementAndGet();
+    return em;
   }
 
   /**
@@ -103,7 +324,7 @@ class EntityManagerProviderImpl implements EntityManagerProvider, UnitOfWork {
    */
   @Override
   public boolean isActive() {
-    return entityManagers.get() != null;
+    return unitsOfWork.get(ordinal) != null;
   }
 
   /**
@@ -111,22 +332,74 @@ class EntityManagerProviderImpl implements EntityManagerProvider, UnitOfWork {
    */
   @Override
   public void end() {
-    final EntityManager em = entityManagers.get();
-    if (em != null) {
-      closeAndRemoveEntityManager(em);
+    final ActiveUnitOfWork unitOfWork = unitsOfWork.get(ordinal);
+    if (unitOfWork != null) {
+      try {
+        if (unitOfWork.entityManager != null) {
+          closeAndRemoveEntityManager(unitOfWork);
+        } else {
+          entityManagerCreationsAvoided.incrementAndGet();
+          unitsOfWork.remove(ordinal);
+        }
+      } finally {
+        gate.exit();
+      }
     }
   }
 
   /**
    * closes the entity manager and removes it from the internal storage.
    *
-   * @param em the entity manager to close
+   * @param unitOfWork the unit of work holding the entity manager to close
    */
-  private void closeAndRemoveEntityManager(EntityManager em) {
+  private void closeAndRemoveEntityManager(ActiveUnitOfWork unitOfWork) {
     try {
-      em.close();
+      unitOfWork.entityManager.close();
     } finally {
-      entityManagers.remove();
+      unitsOfWork.remove(ordinal);
+      emfProvider.release(unitOfWork.entityManagerFactory);
     }
   }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getEntityManagersCreated() {
+    return entityManagersCreated.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getEntityManagerCreationsAvoided() {
+    return entityManagerCreationsAvoided.get();
+  }
+
+  /**
+   * State of the unit of work of a single thread.
+   */
+  static final class ActiveUnitOfWork {
+
+    /**
+     * The entity manager of the unit of work. {@code null} until it is created.
+     */
+    private EntityManager entityManager;
+
+    /**
+     * The factory the entity manager was created from. {@code null} until the entity manager is created.
+     */
+    private EntityManagerFactory entityManagerFactory;
+
+    /**
+     * Listener to notify before the entity manager is used next. May be {@code null}.
+     */
+    private EntityManagerUseListener useListener;
+
+    /**
+     * Listeners to notify after {@link #useListener} before the entity manager is used next. May be {@code null}.
+     */
+    private List<EntityManagerUseListener> additionalUseListeners;
+  }
 }
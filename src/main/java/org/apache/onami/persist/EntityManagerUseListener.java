@@ -0,0 +1,39 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.EntityManager;
+
+/**
+ * Listener which is notified right before the {@link EntityManager} of a unit of work is handed out by the
+ * {@link EntityManagerProviderImpl}.
+ *
+ * @see EntityManagerProviderImpl#notifyBeforeNextUse(EntityManagerUseListener)
+ */
+interface EntityManagerUseListener {
+
+  /**
+   * Called right before the entity manager is returned by {@link EntityManagerProvider#get()}.
+   * Exceptions thrown by this method are propagated to the caller of {@link EntityManagerProvider#get()}.
+   *
+   * @param em the entity manager which is about to be used.
+   */
+  void beforeUse(EntityManager em);
+}
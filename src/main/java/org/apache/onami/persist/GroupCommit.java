@@ -0,0 +1,418 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.MappedSuperclass;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Coalesces concurrent {@link Transactional#groupCommit() group commit} invocations of a single persistence unit
+ * into one shared transaction.
+ * <p/>
+ * The batching follows the leader/follower pattern and needs no thread of its own. The first caller becomes the
+ * leader. It optionally waits up to the window for further callers, takes up to {@code maxBatchSize} queued
+ * invocations and runs all of them in one unit of work and one transaction on its own thread. Meanwhile new callers
+ * queue up and are taken by the next leader. Without a window the batches therefore form naturally from the
+ * invocations arriving while the previous commit is running.
+ * <p/>
+ * If any invocation of a batch fails or the shared commit fails the whole batch is rolled back and every caller
+ * runs its invocation again alone in its own transaction on its own thread. A single failing invocation therefore
+ * cannot make the others fail. Like retried methods, group commit methods must not have side effects outside of the
+ * transaction.
+ * <p/>
+ * Running an invocation again is only safe if it starts from the same state. The rollback does not restore entities
+ * which were passed in by the caller and modified or persisted by the batch, e.g. their generated ids or changed
+ * fields. Methods declaring a parameter whose type is or contains an entity, embeddable or mapped superclass are
+ * therefore rejected with an {@link IllegalStateException}.
+ * <p/>
+ * Since the leader runs the invocations of its followers, they see the thread local state of the leader's thread,
+ * e.g. its units of work of other persistence units, its logging MDC and its security context.
+ */
+class GroupCommit {
+
+  /**
+   * Default for the maximum number of invocations in a single transaction.
+   */
+  static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+  /**
+   * Runs the invocations of a batch.
+   */
+  interface Batch {
+
+    /**
+     * Runs all invocations in one unit of work and one transaction. The transaction is rolled back if any
+     * invocation fails.
+     *
+     * @param invocations the invocations to run in the given order.
+     * @return the results of the invocations in the same order.
+     * @throws Throwable if any invocation or the commit failed.
+     */
+    Object[] invokeTogether(List<MethodInvocation> invocations) throws Throwable;
+
+    /**
+     * Runs a single invocation in its own unit of work and transaction.
+     *
+     * @param invocation the invocation to run.
+     * @return the result of the invocation.
+     * @throws Throwable if the invocation failed.
+     */
+    Object invokeAlone(MethodInvocation invocation) throws Throwable;
+  }
+
+  private final boolean enabled;
+
+  private final int maxBatchSize;
+
+  private final long windowNanos;
+
+  /**
+   * Lock guarding {@link #queue} and {@link #leaderActive}.
+   */
+  private final Object lock = new Object();
+
+  /**
+   * The invocations waiting to be taken by a leader.
+   */
+  private final List<Item> queue = new ArrayList<Item>();
+
+  /**
+   * Flag indicating that a leader is collecting or running a batch.
+   */
+  private boolean leaderActive;
+
+  private final AtomicLong groups = new AtomicLong();
+
+  private final AtomicLong groupedInvocations = new AtomicLong();
+
+  private final AtomicLong fallbacks = new AtomicLong();
+
+  /**
+   * Cache of the methods which have been checked for entity parameters. The value is {@code true} if the method
+   * declares such a parameter.
+   */
+  private final ConcurrentMap<Method, Boolean> takesEntities = new ConcurrentHashMap<Method, Boolean>();
+
+  /**
+   * Constructor for a disabled group commit. Group commit methods are invoked like any other method.
+   */
+  GroupCommit() {
+    this.enabled = false;
+    this.maxBatchSize = 1;
+    this.windowNanos = 0L;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxBatchSize the maximum number of invocations in a single transaction. Must be positive.
+   * @param window the time a leader waits for further invocations. Must not be negative.
+   * @param unit the unit of the window. Must not be {@code null}.
+   */
+  GroupCommit(int maxBatchSize, long window, TimeUnit unit) {
+    checkNotNull(unit, "unit is mandatory!");
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("maxBatchSize must be positive but was " + maxBatchSize);
+    }
+    if (window < 0) {
+      throw new IllegalArgumentException("window must not be negative but was " + window);
+    }
+    this.enabled = true;
+    this.maxBatchSize = maxBatchSize;
+    this.windowNanos = unit.toNanos(window);
+  }
+
+  /**
+   * @return {@code true} if invocations are coalesced.
+   */
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Runs the invocation as part of a batch. Blocks until the batch has been committed or, if the batch failed,
+   * until the invocation has been run alone.
+   *
+   * @param invocation the invocation to run. Must not be {@code null}.
+   * @param batch runs the invocations. Must not be {@code null}.
+   * @return the result of the invocation.
+   * @throws IllegalStateException if the method declares a parameter whose type is or contains an entity.
+   * @throws Throwable the exception of the invocation if it failed when run alone.
+   */
+  Object invoke(MethodInvocation invocation, Batch batch) throws Throwable {
+    checkNotNull(invocation, "invocation is mandatory!");
+    if (takesEntities(invocation.getMethod())) {
+      throw new IllegalStateException("group commit is not supported for methods with entity parameters since their "
+          + "state cannot be restored after a rolled back batch: " + invocation.getMethod());
+    }
+    final Item item = new Item(invocation);
+    final boolean leader;
+    synchronized (lock) {
+      queue.add(item);
+      leader = !leaderActive;
+      if (leader) {
+        leaderActive = true;
+      } else if (queue.size() >= maxBatchSize) {
+        lock.notifyAll();
+      }
+    }
+
+    if (leader || item.awaitCompletionOrLeadership()) {
+      lead(checkNotNull(batch, "batch is mandatory!"));
+    }
+
+    if (item.state == State.COMMITTED) {
+      return item.result;
+    }
+    return batch.invokeAlone(invocation);
+  }
+
+  /**
+   * Collects a batch, runs it and hands the leadership over to the next waiting invocation.
+   */
+  private void lead(Batch batch) {
+    final List<Item> items;
+    synchronized (lock) {
+      awaitWindow();
+      final int size = Math.min(queue.size(), maxBatchSize);
+      items = new ArrayList<Item>(queue.subList(0, size));
+      queue.subList(0, size).clear();
+    }
+    try {
+      run(items, batch);
+    } finally {
+      synchronized (lock) {
+        if (queue.isEmpty()) {
+          leaderActive = false;
+        } else {
+          queue.get(0).complete(State.LEADER, null);
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits until the batch is full or the window elapsed. Must be called while holding the lock.
+   */
+  private void awaitWindow() {
+    final long deadline = System.nanoTime() + windowNanos;
+    long remaining = windowNanos;
+    while (queue.size() < maxBatchSize && remaining > 0) {
+      try {
+        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      remaining = deadline - System.nanoTime();
+    }
+  }
+
+  /**
+   * Runs the items in one transaction. Completes all items either as committed or as to be run alone.
+   */
+  private void run(List<Item> items, Batch batch) {
+    if (items.size() == 1) {
+      items.get(0).complete(State.RUN_ALONE, null);
+      return;
+    }
+    final List<MethodInvocation> invocations = new ArrayList<MethodInvocation>(items.size());
+    for (Item item : items) {
+      invocations.add(item.invocation);
+    }
+    Object[] results = null;
+    try {
+      results = batch.invokeTogether(invocations);
+    } catch (Throwable e) {
+      // every invocation is run again alone by its own caller
+      fallbacks.incrementAndGet();
+    }
+    for (int i = 0; i < items.size(); i++) {
+      if (results == null) {
+        items.get(i).complete(State.RUN_ALONE, null);
+      } else {
+        items.get(i).complete(State.COMMITTED, results[i]);
+      }
+    }
+    if (results != null) {
+      groups.incrementAndGet();
+      groupedInvocations.addAndGet(items.size());
+    }
+  }
+
+  /**
+   * @return {@code true} if the method declares a parameter whose type is or contains an entity.
+   */
+  private boolean takesEntities(Method method) {
+    Boolean result = takesEntities.get(method);
+    if (result == null) {
+      result = Boolean.FALSE;
+      for (Type type : method.getGenericParameterTypes()) {
+        if (containsEntityType(type)) {
+          result = Boolean.TRUE;
+          break;
+        }
+      }
+      takesEntities.put(method, result);
+    }
+    return result;
+  }
+
+  /**
+   * @return {@code true} if the type is an entity type or an array or a parameterized type of entity types.
+   */
+  private static boolean containsEntityType(Type type) {
+    if (type instanceof Class) {
+      final Class<?> clazz = (Class<?>) type;
+      return clazz.isArray() ? containsEntityType(clazz.getComponentType()) : isEntityType(clazz);
+    }
+    if (type instanceof ParameterizedType) {
+      final ParameterizedType parameterized = (ParameterizedType) type;
+      return containsEntityType(parameterized.getRawType())
+          || containsAnyEntityType(parameterized.getActualTypeArguments());
+    }
+    if (type instanceof GenericArrayType) {
+      return containsEntityType(((GenericArrayType) type).getGenericComponentType());
+    }
+    if (type instanceof WildcardType) {
+      return containsAnyEntityType(((WildcardType) type).getUpperBounds());
+    }
+    if (type instanceof TypeVariable) {
+      // only the raw bounds since bounds may refer to the variable itself
+      for (Type bound : ((TypeVariable<?>) type).getBounds()) {
+        final Type raw = bound instanceof ParameterizedType ? ((ParameterizedType) bound).getRawType() : bound;
+        if (raw instanceof Class && isEntityType((Class<?>) raw)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean containsAnyEntityType(Type[] types) {
+    for (Type type : types) {
+      if (containsEntityType(type)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isEntityType(Class<?> clazz) {
+    for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+      if (c.isAnnotationPresent(Entity.class) || c.isAnnotationPresent(Embeddable.class)
+          || c.isAnnotationPresent(MappedSuperclass.class)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the number of batches committed together.
+   */
+  long getGroups() {
+    return groups.get();
+  }
+
+  /**
+   * @return the number of invocations committed as part of a batch.
+   */
+  long getGroupedInvocations() {
+    return groupedInvocations.get();
+  }
+
+  /**
+   * @return the number of batches which failed and whose invocations were run alone.
+   */
+  long getFallbacks() {
+    return fallbacks.get();
+  }
+
+  /**
+   * The state of a queued invocation.
+   */
+  private enum State {
+    WAITING, LEADER, COMMITTED, RUN_ALONE
+  }
+
+  /**
+   * A queued invocation. The state is guarded by the monitor of the item.
+   */
+  private static class Item {
+
+    private final MethodInvocation invocation;
+
+    private State state = State.WAITING;
+
+    private Object result;
+
+    Item(MethodInvocation invocation) {
+      this.invocation = invocation;
+    }
+
+    /**
+     * Waits until the item has been completed by a leader. Interrupts are deferred since the leader may already be
+     * running the invocation.
+     *
+     * @return {@code true} if the item has been promoted to be the next leader.
+     */
+    synchronized boolean awaitCompletionOrLeadership() {
+      boolean interrupted = false;
+      while (state == State.WAITING) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (state == State.LEADER) {
+        state = State.WAITING;
+        return true;
+      }
+      return false;
+    }
+
+    synchronized void complete(State newState, Object newResult) {
+      state = newState;
+      result = newResult;
+      notifyAll();
+    }
+  }
+}
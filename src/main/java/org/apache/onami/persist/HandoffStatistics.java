@@ -0,0 +1,93 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Immutable snapshot of the statistics recorded by a {@link UnitOfWorkExecutorService}.
+ * <p/>
+ * The handoff latency of a task is measured from its submission until a worker thread picks it up, right before
+ * the unit of work of the task is begun. It is given in nanoseconds.
+ */
+public final class HandoffStatistics {
+
+  private final long completedTasks;
+
+  private final long failedTasks;
+
+  private final LatencyHistogram.Snapshot latencies;
+
+  HandoffStatistics(long completedTasks, long failedTasks, LatencyHistogram.Snapshot latencies) {
+    this.completedTasks = completedTasks;
+    this.failedTasks = failedTasks;
+    this.latencies = latencies;
+  }
+
+  /**
+   * @return the number of tasks which completed normally.
+   */
+  public long getCompletedTasks() {
+    return completedTasks;
+  }
+
+  /**
+   * @return the number of tasks which threw an exception. Includes tasks for which no unit of work could be begun.
+   */
+  public long getFailedTasks() {
+    return failedTasks;
+  }
+
+  /**
+   * @return the number of tasks which have been handed off to a worker thread.
+   */
+  public long getCount() {
+    return latencies.getCount();
+  }
+
+  /**
+   * @return the mean handoff latency in nanoseconds.
+   */
+  public long getMeanNanos() {
+    return latencies.getMean();
+  }
+
+  /**
+   * @return the maximum handoff latency in nanoseconds.
+   */
+  public long getMaxNanos() {
+    return latencies.getMax();
+  }
+
+  /**
+   * @param percentile the percentile in the range [0, 100]. i.e. 99.9
+   * @return the handoff latency in nanoseconds below which the given percentage of the tasks were picked up.
+   */
+  public long getPercentileNanos(double percentile) {
+    return latencies.getPercentile(percentile);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return "HandoffStatistics{completedTasks=" + completedTasks + ", failedTasks=" + failedTasks
+        + ", p50=" + getPercentileNanos(50) + "ns, p99=" + getPercentileNanos(99) + "ns, max=" + getMaxNanos() + "ns}";
+  }
+}
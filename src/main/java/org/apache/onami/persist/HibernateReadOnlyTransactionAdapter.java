@@ -0,0 +1,102 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+
+/**
+ * {@link ReadOnlyTransactionAdapter} for Hibernate.
+ * <p/>
+ * This adapter
+ * <ul>
+ * <li>loads all entities in read only mode. Hibernate will not keep snapshots of them for dirty checking.</li>
+ * <li>sets the flush mode of the session to {@link FlushMode#MANUAL}.</li>
+ * <li>marks the JDBC connection as read only.</li>
+ * </ul>
+ * Requires Hibernate 4.x on the class path.
+ */
+public class HibernateReadOnlyTransactionAdapter implements ReadOnlyTransactionAdapter {
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Runnable beginReadOnly(final EntityManager em) {
+    final FlushModeType previousFlushMode = em.getFlushMode();
+    final Session session = em.unwrap(Session.class);
+    final boolean previousDefaultReadOnly = session.isDefaultReadOnly();
+    final ReadOnlyConnectionWork connectionWork = new ReadOnlyConnectionWork();
+
+    session.setDefaultReadOnly(true);
+    session.setFlushMode(FlushMode.MANUAL);
+    session.doWork(connectionWork);
+
+    return new Runnable() {
+      @Override
+      public void run() {
+        try {
+          connectionWork.restore();
+        } finally {
+          session.setDefaultReadOnly(previousDefaultReadOnly);
+          em.setFlushMode(previousFlushMode);
+        }
+      }
+    };
+  }
+
+  /**
+   * Marks the JDBC connection as read only and remembers the previous state.
+   */
+  private static class ReadOnlyConnectionWork implements Work {
+
+    private Connection connection;
+
+    private boolean previousReadOnly;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute(Connection connection) throws SQLException {
+      this.connection = connection;
+      this.previousReadOnly = connection.isReadOnly();
+      connection.setReadOnly(true);
+    }
+
+    /**
+     * Restores the read only state of the connection.
+     */
+    void restore() {
+      if (connection != null) {
+        try {
+          connection.setReadOnly(previousReadOnly);
+        } catch (SQLException e) {
+          throw new RuntimeException("unable to restore read only state of connection", e);
+        }
+      }
+    }
+  }
+}
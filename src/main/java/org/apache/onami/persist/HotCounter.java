@@ -0,0 +1,547 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.persistence.EntityManager;
+
+/**
+ * Counter for a numeric attribute of frequently updated rows, i.e. counters or quotas.
+ * <p/>
+ * Instead of updating the row in every transaction, and thereby serializing the transactions on the row lock, the
+ * deltas are accumulated in memory in a {@link StripedCounter} per entity id. A background thread flushes the
+ * accumulated deltas every interval in a single transaction with one
+ * {@code UPDATE Entity e SET e.counter = e.counter + :delta WHERE e.id = :id} per changed id. A last flush happens
+ * before the {@link PersistenceService} stops.
+ * <p/>
+ * {@link #get(Object)} combines the persisted value with the pending deltas. The persisted value is read in a unit
+ * of work of its own so that a snapshot of the caller's transaction never hides a flush whose deltas are no longer
+ * pending. The lock guarding the deltas is never held while talking to the database, otherwise a reader waiting for
+ * a row locked by the running flush and the flush waiting for the lock would deadlock. Instead the reader checks the
+ * flush sequence after reading the persisted value and reads again if a flush committed in the meantime.
+ * <p/>
+ * Deltas of a failed flush are kept and retried with the next flush. Deltas for ids without a row are discarded and
+ * counted as unmatched. A delta which is added while the counter is being closed may miss the final flush of the
+ * flusher thread. The adding thread then flushes it itself.
+ * <p/>
+ * The counter keeps one cell per id it has seen. It is therefore meant for a limited set of hot rows.
+ */
+public class HotCounter {
+
+  /**
+   * Counter for naming the flusher threads.
+   */
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private final EntityManagerProvider emProvider;
+
+  private final UnitOfWork unitOfWork;
+
+  private final TransactionFacadeFactory tfProvider;
+
+  private final Class<?> entityClass;
+
+  private final String idAttribute;
+
+  private final String counterAttribute;
+
+  private final long flushIntervalNanos;
+
+  private final ConcurrentMap<Object, Cell> cells = new ConcurrentHashMap<Object, Cell>();
+
+  /**
+   * Write locked while deltas move between pending, flushing and persisted. Read locked while combining them.
+   * Never held during database access.
+   */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Incremented under the write lock right before a flush commits and again once the committed deltas have been
+   * removed from flushing. Odd while a commit is in progress.
+   */
+  private volatile long flushSequence;
+
+  /**
+   * Notified whenever {@link #flushSequence} becomes even again.
+   */
+  private final Object commitMonitor = new Object();
+
+  private final CountDownLatch closeSignal = new CountDownLatch(1);
+
+  private final Thread flusher;
+
+  private volatile boolean closed;
+
+  private final AtomicLong flushes = new AtomicLong();
+
+  private final AtomicLong failedFlushes = new AtomicLong();
+
+  private final AtomicLong updatedRows = new AtomicLong();
+
+  private final AtomicLong unmatchedUpdates = new AtomicLong();
+
+  private volatile RuntimeException lastFailure;
+
+  /**
+   * Constructor.
+   *
+   * @param emProvider the provider for the entity manager of the persistence unit. Must not be {@code null}.
+   * @param unitOfWork the unit of work of the persistence unit. Must not be {@code null}.
+   * @param tfProvider the factory for the transactions of the persistence unit. Must not be {@code null}.
+   * @param entityClass the entity class holding the counter. Must not be {@code null}.
+   * @param idAttribute the name of the id attribute of the entity. Must not be {@code null}.
+   * @param counterAttribute the name of the numeric counter attribute. Must not be {@code null}.
+   * @param flushInterval the time between two flushes. Must be positive.
+   * @param unit the unit of the flush interval. Must not be {@code null}.
+   */
+  HotCounter(
+      EntityManagerProvider emProvider,
+      UnitOfWork unitOfWork,
+      TransactionFacadeFactory tfProvider,
+      Class<?> entityClass,
+      String idAttribute,
+      String counterAttribute,
+      long flushInterval,
+      TimeUnit unit
+  ) {
+    this.emProvider = checkNotNull(emProvider, "emProvider is mandatory!");
+    this.unitOfWork = checkNotNull(unitOfWork, "unitOfWork is mandatory!");
+    this.tfProvider = checkNotNull(tfProvider, "tfProvider is mandatory!");
+    this.entityClass = checkNotNull(entityClass, "entityClass is mandatory!");
+    this.idAttribute = checkNotNull(idAttribute, "idAttribute is mandatory!");
+    this.counterAttribute = checkNotNull(counterAttribute, "counterAttribute is mandatory!");
+    checkNotNull(unit, "unit is mandatory!");
+    if (flushInterval <= 0) {
+      throw new IllegalArgumentException("flushInterval must be positive but was " + flushInterval);
+    }
+    this.flushIntervalNanos = unit.toNanos(flushInterval);
+    this.flusher = new Thread(new Flusher(), "onami-persist-hot-counter-" + THREAD_COUNT.incrementAndGet());
+    this.flusher.setDaemon(true);
+  }
+
+  /**
+   * Starts the flusher thread.
+   */
+  void start() {
+    flusher.start();
+  }
+
+  /**
+   * Adds a delta to the counter of the given entity. Never blocks and never touches the database.
+   *
+   * @param id the id of the entity. Must not be {@code null}.
+   * @param delta the value to add. May be negative.
+   * @throws IllegalStateException if the counter has been closed.
+   */
+  public void add(Object id, long delta) {
+    checkNotNull(id, "id is mandatory!");
+    if (closed) {
+      throw new IllegalStateException("HotCounter has been closed.");
+    }
+    Cell cell = cells.get(id);
+    if (cell == null) {
+      final Cell newCell = new Cell();
+      cell = cells.putIfAbsent(id, newCell);
+      if (cell == null) {
+        cell = newCell;
+      }
+    }
+    cell.pending.add(delta);
+    if (closed) {
+      // the final flush may already have drained the cell. flush again so that the delta is not left behind.
+      flush();
+    }
+  }
+
+  /**
+   * Adds one to the counter of the given entity.
+   *
+   * @param id the id of the entity. Must not be {@code null}.
+   * @throws IllegalStateException if the counter has been closed.
+   */
+  public void increment(Object id) {
+    add(id, 1L);
+  }
+
+  /**
+   * @param id the id of the entity. Must not be {@code null}.
+   * @return the sum of the deltas which have not yet been committed to the database.
+   */
+  public long getPending(Object id) {
+    checkNotNull(id, "id is mandatory!");
+    lock.readLock().lock();
+    try {
+      return pendingOf(id);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Reads the persisted value and adds the pending deltas. The persisted value is read in a new unit of work. An
+   * active unit of work of the current thread is suspended meanwhile, like for {@link Propagation#REQUIRES_NEW}.
+   * The persisted value is read again if a flush committed while reading it.
+   *
+   * @param id the id of the entity. Must not be {@code null}.
+   * @return the persisted value plus the pending deltas. Only the pending deltas if the row does not exist.
+   */
+  public long get(Object id) {
+    checkNotNull(id, "id is mandatory!");
+    final SuspendedTransaction suspended = unitOfWork.isActive() ? tfProvider.suspend() : null;
+    try {
+      for (; ; ) {
+        final long sequence = awaitNoCommitInProgress();
+        final long persisted = readPersistedInNewUnitOfWork(id);
+        lock.readLock().lock();
+        try {
+          if (flushSequence == sequence) {
+            return persisted + pendingOf(id);
+          }
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+    } finally {
+      if (suspended != null) {
+        suspended.resume();
+      }
+    }
+  }
+
+  /**
+   * Reads the persisted value in a unit of work of its own so that it sees every committed flush.
+   */
+  private long readPersistedInNewUnitOfWork(Object id) {
+    unitOfWork.begin();
+    try {
+      return readPersisted(emProvider.get(), id);
+    } finally {
+      unitOfWork.end();
+    }
+  }
+
+  /**
+   * Waits while a flush is committing. The commit itself needs no further row locks, so waiting for it cannot
+   * deadlock with the transaction of the caller.
+   *
+   * @return the current flush sequence. Always even.
+   */
+  private long awaitNoCommitInProgress() {
+    long sequence = flushSequence;
+    if ((sequence & 1L) == 0L) {
+      return sequence;
+    }
+    boolean interrupted = false;
+    synchronized (commitMonitor) {
+      sequence = flushSequence;
+      while ((sequence & 1L) != 0L) {
+        try {
+          commitMonitor.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+        sequence = flushSequence;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return sequence;
+  }
+
+  private long pendingOf(Object id) {
+    final Cell cell = cells.get(id);
+    return cell == null ? 0L : cell.pending.sum() + cell.flushing;
+  }
+
+  private long readPersisted(EntityManager em, Object id) {
+    final List<Number> result = em.createQuery(
+        "SELECT e." + counterAttribute + " FROM " + entityName(em) + " e WHERE e." + idAttribute + " = :id",
+        Number.class).setParameter("id", id).getResultList();
+    if (result.isEmpty() || result.get(0) == null) {
+      return 0L;
+    }
+    return result.get(0).longValue();
+  }
+
+  private String entityName(EntityManager em) {
+    return em.getMetamodel().entity(entityClass).getName();
+  }
+
+  /**
+   * Writes the pending deltas to the database in a single transaction.
+   */
+  synchronized void flush() {
+    final Map<Object, Long> deltas = takePending();
+    if (deltas.isEmpty()) {
+      return;
+    }
+    flushes.incrementAndGet();
+    final boolean unitOfWorkWasInactive = !unitOfWork.isActive();
+    try {
+      if (unitOfWorkWasInactive) {
+        unitOfWork.begin();
+      }
+      final TransactionFacade transactionFacade = tfProvider.createTransactionFacade();
+      transactionFacade.begin();
+      int updated = 0;
+      int unmatched = 0;
+      try {
+        // the entity manager is obtained after the begin. a deferred transaction begins on its first use.
+        final EntityManager em = emProvider.get();
+        final String statement = "UPDATE " + entityName(em) + " e SET e." + counterAttribute + " = e."
+            + counterAttribute + " + :delta WHERE e." + idAttribute + " = :id";
+        for (Map.Entry<Object, Long> delta : deltas.entrySet()) {
+          if (em.createQuery(statement)
+              .setParameter("delta", delta.getValue())
+              .setParameter("id", delta.getKey())
+              .executeUpdate() == 0) {
+            unmatched++;
+          } else {
+            updated++;
+          }
+        }
+      } catch (RuntimeException e) {
+        transactionFacade.rollback();
+        throw e;
+      }
+      commit(transactionFacade, deltas);
+      updatedRows.addAndGet(updated);
+      unmatchedUpdates.addAndGet(unmatched);
+    } catch (RuntimeException e) {
+      restorePending(deltas);
+      failedFlushes.incrementAndGet();
+      lastFailure = e;
+    } finally {
+      if (unitOfWorkWasInactive) {
+        unitOfWork.end();
+      }
+    }
+  }
+
+  /**
+   * Moves the pending deltas of all ids to flushing.
+   */
+  private Map<Object, Long> takePending() {
+    final Map<Object, Long> deltas = new LinkedHashMap<Object, Long>();
+    lock.writeLock().lock();
+    try {
+      for (Map.Entry<Object, Cell> entry : cells.entrySet()) {
+        final Cell cell = entry.getValue();
+        final long delta = cell.pending.drain();
+        if (delta != 0L) {
+          cell.flushing += delta;
+          deltas.put(entry.getKey(), delta);
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return deltas;
+  }
+
+  /**
+   * Commits and removes the deltas from flushing. The flush sequence is odd while committing so that readers never
+   * count a delta twice or not at all. The lock is not held during the commit.
+   */
+  private void commit(TransactionFacade transactionFacade, Map<Object, Long> deltas) {
+    advanceFlushSequence(null);
+    boolean committed = false;
+    try {
+      transactionFacade.commit();
+      committed = true;
+    } finally {
+      advanceFlushSequence(committed ? deltas : null);
+      synchronized (commitMonitor) {
+        commitMonitor.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Increments the flush sequence under the write lock.
+   *
+   * @param committed the deltas to remove from flushing. {@code null} if none.
+   */
+  private void advanceFlushSequence(Map<Object, Long> committed) {
+    lock.writeLock().lock();
+    try {
+      if (committed != null) {
+        for (Map.Entry<Object, Long> delta : committed.entrySet()) {
+          cells.get(delta.getKey()).flushing -= delta.getValue();
+        }
+      }
+      flushSequence++;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Moves the deltas of a failed flush back to pending.
+   */
+  private void restorePending(Map<Object, Long> deltas) {
+    lock.writeLock().lock();
+    try {
+      for (Map.Entry<Object, Long> delta : deltas.entrySet()) {
+        final Cell cell = cells.get(delta.getKey());
+        cell.flushing -= delta.getValue();
+        cell.pending.add(delta.getValue());
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Stops accepting deltas, flushes a last time and terminates the flusher thread. Blocks until the flusher thread
+   * has terminated.
+   */
+  void close() {
+    close(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Stops accepting deltas, flushes a last time and terminates the flusher thread. Called when the persistence
+   * service stops. Returns after the timeout even if the last flush is still running.
+   *
+   * @param timeout the maximum time to wait for the last flush.
+   * @param unit the unit of the timeout.
+   */
+  void close(long timeout, TimeUnit unit) {
+    closed = true;
+    closeSignal.countDown();
+    if (Thread.currentThread() == flusher) {
+      return;
+    }
+    final long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+    boolean interrupted = false;
+    long remaining = deadline - System.nanoTime();
+    while (flusher.isAlive() && remaining > 0) {
+      try {
+        TimeUnit.NANOSECONDS.timedJoin(flusher, remaining);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+      remaining = deadline - System.nanoTime();
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return {@code true} if the counter no longer accepts deltas.
+   */
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * @return the number of flushes which found pending deltas.
+   */
+  public long getFlushes() {
+    return flushes.get();
+  }
+
+  /**
+   * @return the number of flushes which failed. Their deltas have been retried with the next flush.
+   */
+  public long getFailedFlushes() {
+    return failedFlushes.get();
+  }
+
+  /**
+   * @return the number of rows updated by successful flushes.
+   */
+  public long getUpdatedRows() {
+    return updatedRows.get();
+  }
+
+  /**
+   * @return the number of deltas which were discarded because no row with their id existed.
+   */
+  public long getUnmatchedUpdates() {
+    return unmatchedUpdates.get();
+  }
+
+  /**
+   * @return the number of ids for which the counter keeps a cell.
+   */
+  public int getTrackedIds() {
+    return cells.size();
+  }
+
+  /**
+   * @return the exception of the last failed flush. {@code null} if no flush failed.
+   */
+  public RuntimeException getLastFailure() {
+    return lastFailure;
+  }
+
+  /**
+   * Deltas of a single id.
+   */
+  private static final class Cell {
+
+    /**
+     * Deltas which have not yet been taken by a flush.
+     */
+    private final StripedCounter pending = new StripedCounter();
+
+    /**
+     * Deltas taken by the running flush which is not yet committed. Guarded by the write lock.
+     */
+    private long flushing;
+  }
+
+  /**
+   * Body of the flusher thread. Flushes every interval and a last time once the counter is closed.
+   */
+  private class Flusher implements Runnable {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+      try {
+        while (!closeSignal.await(flushIntervalNanos, TimeUnit.NANOSECONDS)) {
+          flush();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      flush();
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory for {@link HotCounter}s of a persistence unit.
+ * <p/>
+ * Inject with the annotation of the persistence unit if more than one persistence unit is configured.
+ */
+public interface HotCounterFactory {
+
+  /**
+   * Creates a counter for a numeric attribute of an entity. The pending deltas are flushed every interval and a
+   * last time before the persistence service stops.
+   *
+   * @param entityClass the entity class holding the counter. Must not be {@code null}.
+   * @param idAttribute the name of the id attribute of the entity. Must not be {@code null}.
+   * @param counterAttribute the name of the numeric counter attribute. Must not be {@code null}.
+   * @param flushInterval the time between two flushes. Must be positive.
+   * @param unit the unit of the flush interval. Must not be {@code null}.
+   * @return the new and running counter.
+   */
+  HotCounter newCounter(
+      Class<?> entityClass,
+      String idAttribute,
+      String counterAttribute,
+      long flushInterval,
+      TimeUnit unit
+  );
+}
@@ -0,0 +1,61 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+
+/**
+ * {@link ReadOnlyTransactionAdapter} which only relies on the JPA API.
+ * <p/>
+ * Sets the flush mode to {@link FlushModeType#COMMIT} so queries do not cause a flush and passes the read only hints
+ * of the most common persistence providers to the entity manager.
+ */
+class JpaReadOnlyTransactionAdapter implements ReadOnlyTransactionAdapter {
+
+  /**
+   * Read only hints of common persistence providers.
+   */
+  private static final String[] READ_ONLY_HINTS = { "org.hibernate.readOnly", "eclipselink.read-only" };
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Runnable beginReadOnly(final EntityManager em) {
+    final FlushModeType previousFlushMode = em.getFlushMode();
+    em.setFlushMode(FlushModeType.COMMIT);
+    setReadOnlyHints(em, Boolean.TRUE);
+
+    return new Runnable() {
+      @Override
+      public void run() {
+        setReadOnlyHints(em, Boolean.FALSE);
+        em.setFlushMode(previousFlushMode);
+      }
+    };
+  }
+
+  private static void setReadOnlyHints(EntityManager em, Boolean value) {
+    for (String hint : READ_ONLY_HINTS) {
+      em.setProperty(hint, value);
+    }
+  }
+}
@@ -40,7 +40,7 @@ class JtaTransactionFacadeFactory implements TransactionFacadeFactory {
    * Provider for the entity manager.
    * The entity manager will be joined to the the transaction.
    */
-  private final EntityManagerProvider emProvider;
+  private final EntityManagerProviderImpl emProvider;
 
   /**
    * Constructor.
@@ -49,7 +49,7 @@ class JtaTransactionFacadeFactory implements TransactionFacadeFactory {
    * @param emProvider the entity manager provider.
    */
   @Inject
-  public JtaTransactionFacadeFactory(UserTransactionFacade utFacade, EntityManagerProvider emProvider) {
+  public JtaTransactionFacadeFactory(UserTransactionFacade utFacade, EntityManagerProviderImpl emProvider) {
     this.utFacade = checkNotNull(utFacade, "utFacade is mandatory!");
     this.emProvider = checkNotNull(emProvider, "emProvider is mandatory!");
   }
@@ -66,6 +66,22 @@ class JtaTransactionFacadeFactory implements TransactionFacadeFactory {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isTransactionActive() {
+    return utFacade.isActive();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public SuspendedTransaction suspend() {
+    return SuspendedTransaction.suspend(emProvider, utFacade);
+  }
+
   /**
    * TransactionFacade representing an inner (nested) transaction. Starting and
    * committing a transaction has no effect. This Facade will set the
@@ -82,6 +98,14 @@ class JtaTransactionFacadeFactory implements TransactionFacadeFactory {
       this.em = checkNotNull(em, "em is mandatory!");
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimeout(int timeoutSeconds) {
+      // Do nothing
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -105,6 +129,14 @@ class JtaTransactionFacadeFactory implements TransactionFacadeFactory {
     public void rollback() {
       txn.setRollbackOnly();
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOuter() {
+      return false;
+    }
   }
 
   /**
@@ -118,17 +150,30 @@ class JtaTransactionFacadeFactory implements TransactionFacadeFactory {
 
     private final EntityManager em;
 
+    /**
+     * Timeout of the user transaction in seconds. 0 for the default timeout.
+     */
+    private int timeoutSeconds;
+
     Outer(UserTransactionFacade txn, EntityManager em) {
       this.txn = checkNotNull(txn, "txn is mandatory!");
       this.em = checkNotNull(em, "em is mandatory!");
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimeout(int timeoutSeconds) {
+      this.timeoutSeconds = timeoutSeconds;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void begin() {
-      txn.begin();
+      txn.begin(timeoutSeconds);
       em.joinTransaction();
     }
 
@@ -151,5 +196,13 @@ class JtaTransactionFacadeFactory implements TransactionFacadeFactory {
     public void rollback() {
       txn.rollback();
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOuter() {
+      return true;
+    }
   }
 }
@@ -0,0 +1,134 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.onami.persist.EntityManagerProviderImpl.ActiveUnitOfWork;
+
+/**
+ * Per thread store of the active units of work of all persistence units of a {@link PersistenceModule}.
+ * <p/>
+ * Every persistence unit is assigned a dense ordinal. A thread holds a single context in one {@link ThreadLocal}
+ * which stores the units of work in an array indexed by this ordinal. A thread touching several persistence
+ * units therefore performs one thread local lookup per access instead of one per persistence unit and thread
+ * local map. The context is removed from the thread as soon as its last unit of work ends.
+ */
+final class PersistenceContexts {
+
+  /**
+   * Source of the ordinals of the persistence units.
+   */
+  private final AtomicInteger ordinals = new AtomicInteger();
+
+  /**
+   * The context of the current thread.
+   */
+  private final ThreadLocal<Context> contexts = new ThreadLocal<Context>();
+
+  /**
+   * @return a new ordinal for a persistence unit.
+   */
+  int allocateOrdinal() {
+    return ordinals.getAndIncrement();
+  }
+
+  /**
+   * @param ordinal the ordinal of the persistence unit.
+   * @return the unit of work of the persistence unit for the current thread. {@code null} if there is none.
+   */
+  ActiveUnitOfWork get(int ordinal) {
+    final Context context = contexts.get();
+    return context == null ? null : context.get(ordinal);
+  }
+
+  /**
+   * Stores the unit of work of a persistence unit for the current thread.
+   *
+   * @param ordinal the ordinal of the persistence unit.
+   * @param unitOfWork the unit of work to store. Must not be {@code null}.
+   */
+  void set(int ordinal, ActiveUnitOfWork unitOfWork) {
+    Context context = contexts.get();
+    if (context == null) {
+      context = new Context(ordinals.get());
+      contexts.set(context);
+    }
+    context.set(ordinal, unitOfWork);
+  }
+
+  /**
+   * Removes the unit of work of a persistence unit for the current thread.
+   *
+   * @param ordinal the ordinal of the persistence unit.
+   */
+  void remove(int ordinal) {
+    final Context context = contexts.get();
+    if (context != null && context.remove(ordinal)) {
+      contexts.remove();
+    }
+  }
+
+  /**
+   * The units of work of a single thread.
+   */
+  private static final class Context {
+
+    /**
+     * The units of work indexed by the ordinal of their persistence unit.
+     */
+    private ActiveUnitOfWork[] unitsOfWork;
+
+    /**
+     * The number of non {@code null} entries in {@link #unitsOfWork}.
+     */
+    private int active;
+
+    Context(int size) {
+      unitsOfWork = new ActiveUnitOfWork[Math.max(size, 1)];
+    }
+
+    ActiveUnitOfWork get(int ordinal) {
+      return ordinal < unitsOfWork.length ? unitsOfWork[ordinal] : null;
+    }
+
+    void set(int ordinal, ActiveUnitOfWork unitOfWork) {
+      if (ordinal >= unitsOfWork.length) {
+        final ActiveUnitOfWork[] grown = new ActiveUnitOfWork[Math.max(ordinal + 1, unitsOfWork.length * 2)];
+        System.arraycopy(unitsOfWork, 0, grown, 0, unitsOfWork.length);
+        unitsOfWork = grown;
+      }
+      if (unitsOfWork[ordinal] == null) {
+        active++;
+      }
+      unitsOfWork[ordinal] = unitOfWork;
+    }
+
+    /**
+     * @return {@code true} if the context holds no more units of work.
+     */
+    boolean remove(int ordinal) {
+      if (ordinal < unitsOfWork.length && unitsOfWork[ordinal] != null) {
+        unitsOfWork[ordinal] = null;
+        active--;
+      }
+      return active == 0;
+    }
+  }
+}
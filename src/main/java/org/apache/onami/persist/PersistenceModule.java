@@ -21,6 +21,7 @@ package org.apache.onami.persist;
 
 import static com.google.inject.matcher.Matchers.annotatedWith;
 import static com.google.inject.matcher.Matchers.any;
+import static com.google.inject.matcher.Matchers.not;
 import static org.apache.onami.persist.Preconditions.checkNotNull;
 
 import com.google.inject.AbstractModule;
@@ -42,6 +43,16 @@ public abstract class PersistenceModule extends AbstractModule {
    */
   private List<PersistenceUnitModuleConfiguration> configurations;
 
+  /**
+   * List of listeners to notify about transactions.
+   */
+  private List<TransactionListener> transactionListeners;
+
+  /**
+   * Maximum number of persistence units started concurrently by {@link AllPersistenceServices}.
+   */
+  private int startupParallelism;
+
   /**
    * {@inheritDoc}
    */
@@ -52,9 +63,12 @@ public abstract class PersistenceModule extends AbstractModule {
     }
     try {
       configurations = new ArrayList<PersistenceUnitModuleConfiguration>();
+      transactionListeners = new ArrayList<TransactionListener>();
+      startupParallelism = 1;
       configurePersistenceUnits();
     } finally {
       configurations = null;
+      transactionListeners = null;
     }
   }
 
@@ -66,18 +80,60 @@ public abstract class PersistenceModule extends AbstractModule {
 
     bind(PersistenceFilter.class).to(PersistenceFilterImpl.class).in(Scopes.SINGLETON);
 
-    final AllPersistenceUnits allPersistenceUnits = new AllPersistenceUnits();
+    final AllPersistenceUnits allPersistenceUnits = new AllPersistenceUnits(startupParallelism);
     requestInjection(allPersistenceUnits);
     bind(AllPersistenceServices.class).toInstance(allPersistenceUnits);
     bind(AllUnitsOfWork.class).toInstance(allPersistenceUnits);
 
+    // a single thread local for the units of work of all persistence units
+    bind(PersistenceContexts.class).toInstance(new PersistenceContexts());
+
+    final TxnDispatcher txnDispatcher = new TxnDispatcher();
+    requestInjection(txnDispatcher);
+
+    final TransactionListener transactionListener = getTransactionListener();
+    final TransactionWatchdog watchdog = new TransactionWatchdog();
     for (PersistenceUnitModuleConfiguration config : configurations) {
-      final TxnInterceptor txnInterceptor = new TxnInterceptor();
+      final TxnInterceptor txnInterceptor =
+          new TxnInterceptor(config.getAnnotation(), transactionListener, watchdog, createAsyncExecutor(config));
 
       install(new PersistenceUnitModule(config, txnInterceptor, allPersistenceUnits));
 
-      bindInterceptor(any(), annotatedWith(Transactional.class), txnInterceptor);
-      bindInterceptor(annotatedWith(Transactional.class), any(), txnInterceptor);
+      txnDispatcher.add(txnInterceptor);
+    }
+
+    if (!configurations.isEmpty()) {
+      // a single interceptor for all persistence units. Methods are only intercepted once even if both the
+      // method and its class are annotated.
+      bindInterceptor(any(), annotatedWith(Transactional.class), txnDispatcher);
+      bindInterceptor(annotatedWith(Transactional.class), not(annotatedWith(Transactional.class)), txnDispatcher);
+    }
+  }
+
+  /**
+   * @return the executor for asynchronous transactions of the given persistence unit. {@code null} if they are
+   * not enabled.
+   */
+  private static AsyncTransactionExecutor createAsyncExecutor(PersistenceUnitModuleConfiguration config) {
+    final int maxConcurrent = config.getMaxConcurrentAsyncTransactions();
+    if (maxConcurrent == 0) {
+      return null;
+    }
+    final String name = config.isAnnotated() ? config.getAnnotation().getSimpleName() : "default";
+    return new AsyncTransactionExecutor(name, maxConcurrent, config.getMaxQueuedAsyncTransactions());
+  }
+
+  /**
+   * @return the listener to pass to the transaction interceptors. {@code null} if no listener has been added.
+   */
+  private TransactionListener getTransactionListener() {
+    switch (transactionListeners.size()) {
+      case 0:
+        return null;
+      case 1:
+        return transactionListeners.get(0);
+      default:
+        return new CompositeTransactionListener(transactionListeners);
     }
   }
 
@@ -183,6 +239,34 @@ public abstract class PersistenceModule extends AbstractModule {
     return configuration;
   }
 
+  /**
+   * Adds a listener which is notified about the transactions of all persistence units.
+   * When no listener is added, no notifications and no time measurements take place.
+   *
+   * @param listener the listener to add. Must not be {@code null}.
+   * @see TransactionMetrics
+   */
+  protected void addTransactionListener(TransactionListener listener) {
+    checkNotNull(transactionListeners, "calling addTransactionListener outside of configurePersistence is not supported");
+    transactionListeners.add(checkNotNull(listener, "listener is mandatory!"));
+  }
+
+  /**
+   * Lets {@link AllPersistenceServices#startAllStoppedPersistenceServices()} start the persistence units
+   * concurrently instead of one after another. This shortens the boot time if several application managed
+   * persistence units have to be created. Failures are still collected into a single exception.
+   *
+   * @param maxThreads the maximum number of persistence units to start concurrently. Must be positive.
+   * @see AllPersistenceServices#getStartupDurations()
+   */
+  protected void startPersistenceUnitsInParallel(int maxThreads) {
+    checkNotNull(configurations, "calling startPersistenceUnitsInParallel outside of configurePersistence is not supported");
+    if (maxThreads < 1) {
+      throw new IllegalArgumentException("maxThreads must be positive but was " + maxThreads);
+    }
+    startupParallelism = maxThreads;
+  }
+
   private PersistenceUnitModuleConfiguration createAndAddConfiguration() {
     final PersistenceUnitModuleConfiguration configurator = new PersistenceUnitModuleConfiguration();
     configurations.add(configurator);
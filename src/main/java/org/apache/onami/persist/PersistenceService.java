@@ -19,6 +19,10 @@ package org.apache.onami.persist;
  * under the License.
  */
 
+import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 /**
  * This is the main control to the entire persistence engine. Before calling any other method
  * of either {@link UnitOfWork}, {@link EntityManagerProvider}, or any method annotated with
@@ -42,6 +46,17 @@ public interface PersistenceService {
    */
   boolean isRunning();
 
+  /**
+   * Tells whether the underlying persistence engine can be used without waiting. This differs from
+   * {@link #isRunning()} while the entity manager factory is still created in the background.
+   * This method never blocks and is therefore suitable for health checks.
+   *
+   * @return {@code true} if the entity manager factory is available.
+   * {@code false} otherwise.
+   * @see UnconfiguredPersistenceUnitBuilder#bootstrapInBackground(long, java.util.concurrent.TimeUnit)
+   */
+  boolean isReady();
+
   /**
    * Stops the underlying persistence engine.
    * <ul>
@@ -50,4 +65,36 @@ public interface PersistenceService {
    * </ul>
    */
   void stop();
+
+  /**
+   * Stops the underlying persistence engine after the active units of work have ended.
+   * <p/>
+   * Beginning a new {@link UnitOfWork} is rejected from the moment this method is called. The method then
+   * waits for the units of work which are already active on other threads. If they do not end within the
+   * timeout the persistence engine is stopped regardless. These units of work are neither ended nor rolled back
+   * since their entity managers and transactions are owned by other threads. They remain open until those threads
+   * end their units of work. Depending on the persistence provider any further use of their entity managers fails.
+   * <p/>
+   * If the service is not running, calling this method does nothing.
+   *
+   * @param timeout the maximum time to wait for the active units of work.
+   * @param unit the unit of the timeout. Must not be {@code null}.
+   * @return the number of units of work which were still active when the persistence engine was stopped.
+   */
+  int stop(long timeout, TimeUnit unit);
+
+  /**
+   * Replaces the entity manager factory while the persistence engine is in use (i.e. to rotate credentials
+   * or after a database fail over).
+   * <p/>
+   * The new factory is created in the background. Once it is ready, all entity managers created afterwards use
+   * the new factory. The replaced factory is closed as soon as the last entity manager created from it has been
+   * closed. If the new factory cannot be created the current one remains in use.
+   *
+   * @param properties properties which override the configured ones for the new factory. May be {@code null}.
+   * Container managed persistence units obtain the factory again from their source and do not support properties.
+   * @return future which completes once the new factory is in use. Fails if the new factory could not be created.
+   * @throws IllegalStateException if the service is not running.
+   */
+  Future<Void> swapEntityManagerFactory(Properties properties);
 }
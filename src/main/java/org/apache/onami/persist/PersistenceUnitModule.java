@@ -26,6 +26,7 @@ import com.google.inject.PrivateModule;
 import com.google.inject.util.Providers;
 import java.util.Properties;
 import javax.persistence.EntityManagerFactory;
+import javax.transaction.TransactionManager;
 import javax.transaction.UserTransaction;
 
 /**
@@ -79,6 +80,17 @@ class PersistenceUnitModule extends PrivateModule {
 
     bind(EntityManagerProvider.class).to(EntityManagerProviderImpl.class);
     bind(UnitOfWork.class).to(EntityManagerProviderImpl.class);
+    bind(UnitOfWorkStatistics.class).to(EntityManagerProviderImpl.class);
+    // bound explicitly to have one instance per persistence unit
+    bind(UnitOfWorkGate.class);
+    bind(Boolean.class).annotatedWith(LazyEntityManagerCreation.class).toInstance(config.isLazyEntityManagerCreation());
+    bind(ReadOnlyTransactionAdapter.class).toInstance(config.getReadOnlyTransactionAdapter());
+    bind(Long.class).annotatedWith(BackgroundBootstrapTimeout.class).toInstance(config.getBackgroundBootstrapTimeout());
+    bind(TransactionBulkhead.class).toInstance(config.getTransactionBulkhead());
+    bind(TransactionBulkheadStatistics.class).to(TransactionBulkhead.class);
+    bind(GroupCommit.class).toInstance(config.getGroupCommit());
+    bind(WriteBehindQueueFactory.class).to(WriteBehindQueues.class);
+    bind(HotCounterFactory.class).to(HotCounters.class);
 
     exposePersistenceServiceAndEntityManagerProviderAndUnitOfWork();
 
@@ -96,6 +108,10 @@ class PersistenceUnitModule extends PrivateModule {
    * <li>{@link PersistenceService}</li>
    * <li>{@link EntityManagerProvider}</li>
    * <li>{@link UnitOfWork}</li>
+   * <li>{@link UnitOfWorkStatistics}</li>
+   * <li>{@link TransactionBulkheadStatistics}</li>
+   * <li>{@link WriteBehindQueueFactory}</li>
+   * <li>{@link HotCounterFactory}</li>
    * </ul>
    */
   private void exposePersistenceServiceAndEntityManagerProviderAndUnitOfWork() {
@@ -103,10 +119,18 @@ class PersistenceUnitModule extends PrivateModule {
       bindAndExposedAnnotated(PersistenceService.class);
       bindAndExposedAnnotated(EntityManagerProvider.class);
       bindAndExposedAnnotated(UnitOfWork.class);
+      bindAndExposedAnnotated(UnitOfWorkStatistics.class);
+      bindAndExposedAnnotated(TransactionBulkheadStatistics.class);
+      bindAndExposedAnnotated(WriteBehindQueueFactory.class);
+      bindAndExposedAnnotated(HotCounterFactory.class);
     } else {
       expose(PersistenceService.class);
       expose(EntityManagerProvider.class);
       expose(UnitOfWork.class);
+      expose(UnitOfWorkStatistics.class);
+      expose(TransactionBulkheadStatistics.class);
+      expose(WriteBehindQueueFactory.class);
+      expose(HotCounterFactory.class);
     }
   }
 
@@ -203,16 +227,23 @@ class PersistenceUnitModule extends PrivateModule {
   private void bindTransactionFacadeFactory() {
     if (config.isJta()) {
       bindJtaTransactionFacadeFactory();
+    } else if (config.isDeferredTransactionBegin()) {
+      bind(TransactionFacadeFactory.class).to(DeferredResourceLocalTransactionFacadeFactory.class);
     } else {
       bind(TransactionFacadeFactory.class).to(ResourceLocalTransactionFacadeFactory.class);
     }
   }
 
   private void bindJtaTransactionFacadeFactory() {
-    bind(TransactionFacadeFactory.class).to(JtaTransactionFacadeFactory.class);
+    if (config.isDeferredTransactionBegin()) {
+      bind(TransactionFacadeFactory.class).to(DeferredJtaTransactionFacadeFactory.class);
+    } else {
+      bind(TransactionFacadeFactory.class).to(JtaTransactionFacadeFactory.class);
+    }
 
     // required in JtaTransactionFacadeFactory
     binInternalUserTransactionProvider();
+    bindInternalTransactionManagerProvider();
   }
 
   private void binInternalUserTransactionProvider() {
@@ -231,4 +262,20 @@ class PersistenceUnitModule extends PrivateModule {
       throw new RuntimeException("UserTransaction is improperly configured");
     }
   }
+
+  /**
+   * Binds the transaction manager if one is configured. Otherwise the user transaction is used if it implements
+   * {@link TransactionManager}.
+   */
+  private void bindInternalTransactionManagerProvider() {
+    if (config.isTransactionManagerProvidedByInstance()) {
+      bind(TransactionManager.class).toInstance(config.getTransactionManager());
+    } else if (config.isTransactionManagerProvidedByJndiLookup()) {
+      // looked up eagerly so that a missing transaction manager fails the creation of the injector
+      bind(TransactionManager.class).toProvider(TransactionManagerProviderByJndiLookup.class).asEagerSingleton();
+
+      // required in TransactionManagerProviderByJndiLookup
+      bind(String.class).annotatedWith(TransactionManagerJndiName.class).toInstance(config.getTmJndiName());
+    }
+  }
 }
@@ -19,12 +19,16 @@ package org.apache.onami.persist;
  * under the License.
  */
 
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
 import com.google.inject.Key;
 import com.google.inject.TypeLiteral;
 import java.lang.annotation.Annotation;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Provider;
 import javax.persistence.EntityManagerFactory;
+import javax.transaction.TransactionManager;
 import javax.transaction.UserTransaction;
 
 /**
@@ -45,6 +49,10 @@ class PersistenceUnitModuleConfiguration
 
   private Key<? extends Provider<UserTransaction>> utProviderKey;
 
+  private TransactionManager transactionManager;
+
+  private String tmJndiName;
+
   private Properties properties;
 
   private String puName;
@@ -57,6 +65,22 @@ class PersistenceUnitModuleConfiguration
 
   private Key<? extends Provider<EntityManagerFactory>> emfProviderKey;
 
+  private boolean isLazyEntityManagerCreation = false;
+
+  private boolean isDeferredTransactionBegin = false;
+
+  private ReadOnlyTransactionAdapter readOnlyTransactionAdapter = new JpaReadOnlyTransactionAdapter();
+
+  private long backgroundBootstrapTimeout = 0L;
+
+  private int maxConcurrentAsyncTransactions = 0;
+
+  private int maxQueuedAsyncTransactions = 0;
+
+  private TransactionBulkhead transactionBulkhead = new TransactionBulkhead();
+
+  private GroupCommit groupCommit = new GroupCommit(GroupCommit.DEFAULT_MAX_BATCH_SIZE, 0L, TimeUnit.MILLISECONDS);
+
   /**
    * {@inheritDoc}
    */
@@ -125,6 +149,108 @@ class PersistenceUnitModuleConfiguration
     return this;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public UnconfiguredPersistenceUnitBuilder createEntityManagerLazily() {
+    this.isLazyEntityManagerCreation = true;
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public UnconfiguredPersistenceUnitBuilder deferTransactionBegin() {
+    this.isDeferredTransactionBegin = true;
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public UnconfiguredPersistenceUnitBuilder useReadOnlyTransactionAdapter(ReadOnlyTransactionAdapter adapter) {
+    this.readOnlyTransactionAdapter = checkNotNull(adapter, "adapter is mandatory!");
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public UnconfiguredPersistenceUnitBuilder bootstrapInBackground(long readyTimeout, TimeUnit unit) {
+    checkNotNull(unit, "unit is mandatory!");
+    if (readyTimeout <= 0) {
+      throw new IllegalArgumentException("readyTimeout must be positive but was " + readyTimeout);
+    }
+    this.backgroundBootstrapTimeout = Math.max(1L, unit.toMillis(readyTimeout));
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public UnconfiguredPersistenceUnitBuilder runAsyncTransactions(int maxConcurrent, int maxQueued) {
+    if (maxConcurrent < 1) {
+      throw new IllegalArgumentException("maxConcurrent must be positive but was " + maxConcurrent);
+    }
+    if (maxQueued < 0) {
+      throw new IllegalArgumentException("maxQueued must not be negative but was " + maxQueued);
+    }
+    this.maxConcurrentAsyncTransactions = maxConcurrent;
+    this.maxQueuedAsyncTransactions = maxQueued;
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public UnconfiguredPersistenceUnitBuilder limitConcurrentTransactions(int maxConcurrent, int maxQueued, long maxWait, TimeUnit unit) {
+    this.transactionBulkhead = new TransactionBulkhead(maxConcurrent, maxQueued, maxWait, unit);
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public UnconfiguredPersistenceUnitBuilder limitConcurrentTransactionsAdaptively(
+      int initialLimit, int maxLimit, int maxQueued, long maxWait, TimeUnit unit) {
+    this.transactionBulkhead = new TransactionBulkhead(new VegasLimit(initialLimit, 1, maxLimit), maxQueued, maxWait, unit);
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public UnconfiguredPersistenceUnitBuilder configureGroupCommit(int maxBatchSize, long window, TimeUnit unit) {
+    this.groupCommit = new GroupCommit(maxBatchSize, window, unit);
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public UnconfiguredPersistenceUnitBuilder useTransactionManager(TransactionManager transactionManager) {
+    checkNotNull(transactionManager, "transactionManager is mandatory!");
+    checkJta();
+    this.transactionManager = transactionManager;
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public UnconfiguredPersistenceUnitBuilder useTransactionManagerWithJndiName(String tmJndiName) {
+    checkNotNull(tmJndiName, "tmJndiName is mandatory!");
+    checkJta();
+    this.tmJndiName = tmJndiName;
+    return this;
+  }
+
+  private void checkJta() {
+    if (!isJta) {
+      throw new IllegalStateException("a transaction manager is only supported for JTA transactions");
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -181,6 +307,14 @@ class PersistenceUnitModuleConfiguration
     return utProviderKey;
   }
 
+  TransactionManager getTransactionManager() {
+    return transactionManager;
+  }
+
+  String getTmJndiName() {
+    return tmJndiName;
+  }
+
   Properties getProperties() {
     return properties;
   }
@@ -225,6 +359,41 @@ class PersistenceUnitModuleConfiguration
     return isJta;
   }
 
+  boolean isLazyEntityManagerCreation() {
+    return isLazyEntityManagerCreation;
+  }
+
+  boolean isDeferredTransactionBegin() {
+    return isDeferredTransactionBegin;
+  }
+
+  ReadOnlyTransactionAdapter getReadOnlyTransactionAdapter() {
+    return readOnlyTransactionAdapter;
+  }
+
+  long getBackgroundBootstrapTimeout() {
+    return backgroundBootstrapTimeout;
+  }
+
+  int getMaxConcurrentAsyncTransactions() {
+    return maxConcurrentAsyncTransactions;
+  }
+
+  int getMaxQueuedAsyncTransactions() {
+    return maxQueuedAsyncTransactions;
+  }
+
+  TransactionBulkhead getTransactionBulkhead() {
+    return transactionBulkhead;
+  }
+
+  /**
+   * @return the group commit of the persistence unit. Disabled for JTA transactions.
+   */
+  GroupCommit getGroupCommit() {
+    return isJta ? new GroupCommit() : groupCommit;
+  }
+
   boolean isUserTransactionProvidedByJndiLookup() {
     return utJndiName != null;
   }
@@ -242,6 +411,14 @@ class PersistenceUnitModuleConfiguration
     return utProviderKey != null;
   }
 
+  boolean isTransactionManagerProvidedByInstance() {
+    return transactionManager != null;
+  }
+
+  boolean isTransactionManagerProvidedByJndiLookup() {
+    return tmJndiName != null;
+  }
+
   boolean isAnnotated() {
     return annotation != null;
   }
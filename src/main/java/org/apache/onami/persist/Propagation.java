@@ -0,0 +1,62 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Propagation behaviour of a {@link Transactional @Transactional} method.
+ * <p/>
+ * The propagation is evaluated for every persistence unit which participates in the transaction.
+ */
+public enum Propagation {
+
+  /**
+   * Join the running transaction or start a new one if there is none. This is the default.
+   */
+  REQUIRED,
+
+  /**
+   * Always start a new transaction. A running transaction is suspended until the method returns.
+   * <p/>
+   * For resource local transactions the method is executed in a new unit of work with its own
+   * {@link javax.persistence.EntityManager}. For JTA transactions the {@link javax.transaction.UserTransaction}
+   * is suspended and resumed which requires it to also implement {@link javax.transaction.TransactionManager}.
+   */
+  REQUIRES_NEW,
+
+  /**
+   * Join the running transaction. If there is none the method is executed without a transaction.
+   */
+  SUPPORTS,
+
+  /**
+   * Execute without a transaction. A running transaction is suspended until the method returns.
+   */
+  NOT_SUPPORTED,
+
+  /**
+   * Execute without a transaction. Throws an {@link IllegalStateException} if a transaction is running.
+   */
+  NEVER,
+
+  /**
+   * Join the running transaction. Throws a {@link javax.persistence.TransactionRequiredException} if there is none.
+   */
+  MANDATORY
+}
@@ -0,0 +1,42 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.EntityManager;
+
+/**
+ * Adapter for preparing an {@link EntityManager} for a read only transaction.
+ * <p/>
+ * Read only transactions are declared by {@link Transactional#readOnly()}. The adapter allows to apply optimizations
+ * which are specific to a persistence provider (i.e. {@link HibernateReadOnlyTransactionAdapter}).
+ * Implementations must be thread safe.
+ */
+public interface ReadOnlyTransactionAdapter {
+
+  /**
+   * Prepares the entity manager for a read only transaction.
+   * This method is called after the transaction has begun.
+   *
+   * @param em the entity manager used within the transaction.
+   * @return the action which reverts all changes made to the entity manager. It is run right before the transaction
+   * ends, while the transaction still holds its connection. Must not be {@code null}.
+   */
+  Runnable beginReadOnly(EntityManager em);
+}
@@ -0,0 +1,132 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Decorator for the {@link TransactionFacade} of an outer transaction which is declared as read only.
+ * <p/>
+ * The entity manager is prepared by a {@link ReadOnlyTransactionAdapter} once the transaction has begun. If the
+ * entity manager has not been created yet or a deferred transaction has not been begun yet it is prepared when it is
+ * first used.
+ * The transaction is always rolled back instead of committed. The changes of the adapter are reverted right before.
+ */
+class ReadOnlyTransactionFacade implements TransactionFacade {
+
+  private final TransactionFacade delegate;
+
+  private final EntityManagerProviderImpl emProvider;
+
+  private final ReadOnlyTransactionAdapter adapter;
+
+  /**
+   * Action reverting the changes of the adapter. {@code null} until the transaction has begun.
+   */
+  private Runnable restore;
+
+  /**
+   * Prepares the entity manager when it is first used. {@code null} if it was prepared at begin.
+   */
+  private EntityManagerUseListener prepareOnUse;
+
+  ReadOnlyTransactionFacade(TransactionFacade delegate, EntityManagerProviderImpl emProvider, ReadOnlyTransactionAdapter adapter) {
+    this.delegate = checkNotNull(delegate, "delegate is mandatory!");
+    this.emProvider = checkNotNull(emProvider, "emProvider is mandatory!");
+    this.adapter = checkNotNull(adapter, "adapter is mandatory!");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setTimeout(int timeoutSeconds) {
+    delegate.setTimeout(timeoutSeconds);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void begin() {
+    delegate.begin();
+    if (emProvider.hasEntityManager() && emProvider.getPendingUseListener() == null) {
+      try {
+        restore = adapter.beginReadOnly(emProvider.get());
+      } catch (RuntimeException e) {
+        delegate.rollback();
+        throw e;
+      }
+    } else {
+      // calling get() now would create the entity manager or begin a deferred transaction
+      prepareOnUse = new EntityManagerUseListener() {
+        @Override
+        public void beforeUse(EntityManager em) {
+          prepareOnUse = null;
+          restore = adapter.beginReadOnly(em);
+        }
+      };
+      emProvider.addUseListener(prepareOnUse);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * A read only transaction is rolled back instead of committed.
+   */
+  @Override
+  public void commit() {
+    rollback();
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * The entity manager is restored before the transaction ends. Afterwards the persistence provider may already
+   * have returned the connection to the pool.
+   */
+  @Override
+  public void rollback() {
+    if (prepareOnUse != null) {
+      emProvider.removeUseListener(prepareOnUse);
+      prepareOnUse = null;
+    }
+    try {
+      if (restore != null) {
+        final Runnable action = restore;
+        restore = null;
+        action.run();
+      }
+    } finally {
+      delegate.rollback();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isOuter() {
+    return delegate.isOuter();
+  }
+}
@@ -34,7 +34,7 @@ class ResourceLocalTransactionFacadeFactory implements TransactionFacadeFactory
   /**
    * The provider for the entity manager.
    */
-  private final EntityManagerProvider emProvider;
+  private final EntityManagerProviderImpl emProvider;
 
   /**
    * Constructor.
@@ -42,7 +42,7 @@ class ResourceLocalTransactionFacadeFactory implements TransactionFacadeFactory
    * @param emProvider the provider for the entity manager
    */
   @Inject
-  ResourceLocalTransactionFacadeFactory(EntityManagerProvider emProvider) {
+  ResourceLocalTransactionFacadeFactory(EntityManagerProviderImpl emProvider) {
     this.emProvider = checkNotNull(emProvider, "emProvider is mandatory!");
   }
 
@@ -59,6 +59,22 @@ class ResourceLocalTransactionFacadeFactory implements TransactionFacadeFactory
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isTransactionActive() {
+    return emProvider.hasEntityManager() && emProvider.get().getTransaction().isActive();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public SuspendedTransaction suspend() {
+    return SuspendedTransaction.suspend(emProvider);
+  }
+
   /**
    * TransactionFacade representing an inner (nested) transaction.
    * Starting and committing a transaction has no effect.
@@ -72,6 +88,14 @@ class ResourceLocalTransactionFacadeFactory implements TransactionFacadeFactory
       this.txn = checkNotNull(txn, "txn is mandatory!");
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimeout(int timeoutSeconds) {
+      // Do nothing
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -95,6 +119,14 @@ class ResourceLocalTransactionFacadeFactory implements TransactionFacadeFactory
     public void rollback() {
       txn.setRollbackOnly();
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOuter() {
+      return false;
+    }
   }
 
   /**
@@ -113,6 +145,14 @@ class ResourceLocalTransactionFacadeFactory implements TransactionFacadeFactory
       this.txn = checkNotNull(txn, "txn is mandatory!");
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimeout(int timeoutSeconds) {
+      // Do nothing
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -140,5 +180,13 @@ class ResourceLocalTransactionFacadeFactory implements TransactionFacadeFactory
     public void rollback() {
       txn.rollback();
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOuter() {
+      return true;
+    }
   }
 }
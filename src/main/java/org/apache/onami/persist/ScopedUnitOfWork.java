@@ -0,0 +1,63 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Runs work within a unit of work which is strictly bound to the scope of the call.
+ * <p/>
+ * If a unit of work is already active for the current thread the work joins it. Otherwise a unit of work is begun
+ * before and ended after the work. No state of the unit of work remains attached to the thread afterwards. This
+ * makes it suitable for large numbers of short lived threads.
+ * <p/>
+ * This implements the pattern recommended by {@link UnitOfWork} for any implementation of the interface.
+ */
+public final class ScopedUnitOfWork {
+
+  private ScopedUnitOfWork() {
+    // utility class
+  }
+
+  /**
+   * Runs the given work within a unit of work.
+   *
+   * @param unitOfWork the unit of work to join or to begin. Must not be {@code null}.
+   * @param work the work to run. Must not be {@code null}.
+   * @param <T> the type of the result of the work.
+   * @return the result of the work.
+   * @throws Exception any exception thrown by the work.
+   */
+  public static <T> T run(UnitOfWork unitOfWork, Callable<T> work) throws Exception {
+    checkNotNull(unitOfWork, "unitOfWork is mandatory!");
+    checkNotNull(work, "work is mandatory!");
+    if (unitOfWork.isActive()) {
+      return work.call();
+    }
+    unitOfWork.begin();
+    try {
+      return work.call();
+    } finally {
+      unitOfWork.end();
+    }
+  }
+}
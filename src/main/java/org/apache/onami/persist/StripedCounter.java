@@ -0,0 +1,98 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter which spreads concurrent updates over several cells to avoid contention on a single memory location.
+ * The cell is chosen by the id of the updating thread. The value is the sum of all cells.
+ * <p/>
+ * The cells are spread over the array so that no two of them share a cache line. Otherwise every update would still
+ * invalidate the line of the neighbouring cells on the other cores.
+ */
+class StripedCounter {
+
+  /**
+   * Number of cells. A power of two so that the cell can be selected by masking.
+   */
+  private static final int STRIPES = stripes();
+
+  /**
+   * Distance between two cells in longs. 128 bytes also cover processors which prefetch pairs of cache lines.
+   */
+  private static final int PAD = 16;
+
+  /**
+   * The cells at the indexes {@code PAD, 2 * PAD, ...}. The first slot is left empty so that the first cell does not
+   * share a cache line with the array header.
+   */
+  private final AtomicLongArray cells = new AtomicLongArray((STRIPES + 1) * PAD);
+
+  private static int stripes() {
+    int stripes = 1;
+    while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+      stripes <<= 1;
+    }
+    return stripes;
+  }
+
+  /**
+   * Adds the given delta.
+   *
+   * @param delta the value to add. May be negative.
+   */
+  void add(long delta) {
+    final long id = Thread.currentThread().getId();
+    cells.addAndGet(indexOf((int) (id ^ (id >>> 32)) & (STRIPES - 1)), delta);
+  }
+
+  private static int indexOf(int stripe) {
+    return (stripe + 1) * PAD;
+  }
+
+  /**
+   * @return the current sum of all cells. Not an atomic snapshot if updates are concurrent.
+   */
+  long sum() {
+    long sum = 0L;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += cells.get(indexOf(i));
+    }
+    return sum;
+  }
+
+  /**
+   * Resets all cells to zero.
+   *
+   * @return the sum of the cells before they were reset. Concurrent updates are either included in the returned
+   * sum or remain in the counter. None are lost.
+   */
+  long drain() {
+    long sum = 0L;
+    for (int i = 0; i < STRIPES; i++) {
+      final int index = indexOf(i);
+      if (cells.get(index) != 0L) {
+        sum += cells.getAndSet(index, 0L);
+      }
+    }
+    return sum;
+  }
+}
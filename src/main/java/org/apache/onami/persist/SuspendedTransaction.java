@@ -0,0 +1,95 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import javax.transaction.Transaction;
+
+/**
+ * Handle to the unit of work and transaction of a thread which have been suspended.
+ * Calling {@link #resume()} will re-associate them with the thread.
+ *
+ * @see Propagation#REQUIRES_NEW
+ * @see Propagation#NOT_SUPPORTED
+ */
+class SuspendedTransaction {
+
+  private final EntityManagerProviderImpl emProvider;
+
+  private final EntityManagerProviderImpl.ActiveUnitOfWork unitOfWork;
+
+  private final UserTransactionFacade utFacade;
+
+  private final Transaction txn;
+
+  private SuspendedTransaction(
+      EntityManagerProviderImpl emProvider,
+      EntityManagerProviderImpl.ActiveUnitOfWork unitOfWork,
+      UserTransactionFacade utFacade,
+      Transaction txn
+  ) {
+    this.emProvider = emProvider;
+    this.unitOfWork = unitOfWork;
+    this.utFacade = utFacade;
+    this.txn = txn;
+  }
+
+  /**
+   * Suspends the unit of work of the current thread.
+   * In case of resource local transactions this suspends the transaction as well.
+   *
+   * @param emProvider the entity manager provider holding the unit of work.
+   * @return the handle for resuming.
+   */
+  static SuspendedTransaction suspend(EntityManagerProviderImpl emProvider) {
+    checkNotNull(emProvider, "emProvider is mandatory!");
+    return new SuspendedTransaction(emProvider, emProvider.suspend(), null, null);
+  }
+
+  /**
+   * Suspends the unit of work and the JTA transaction of the current thread.
+   *
+   * @param emProvider the entity manager provider holding the unit of work.
+   * @param utFacade the facade to the user transaction.
+   * @return the handle for resuming.
+   */
+  static SuspendedTransaction suspend(EntityManagerProviderImpl emProvider, UserTransactionFacade utFacade) {
+    checkNotNull(emProvider, "emProvider is mandatory!");
+    checkNotNull(utFacade, "utFacade is mandatory!");
+    final Transaction txn = utFacade.isActive() ? utFacade.suspend() : null;
+    return new SuspendedTransaction(emProvider, emProvider.suspend(), utFacade, txn);
+  }
+
+  /**
+   * Re-associates the suspended unit of work and transaction with the current thread.
+   *
+   * @throws IllegalStateException if a unit of work is active for the current thread.
+   */
+  void resume() {
+    try {
+      if (txn != null) {
+        utFacade.resume(txn);
+      }
+    } finally {
+      emProvider.resume(unitOfWork);
+    }
+  }
+}
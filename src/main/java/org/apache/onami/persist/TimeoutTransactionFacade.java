@@ -0,0 +1,221 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.RollbackException;
+
+/**
+ * Decorator for the {@link TransactionFacade} of an outer transaction which has a timeout.
+ * <p/>
+ * The timeout is enforced in several ways:
+ * <ul>
+ * <li>JTA transactions get the timeout as transaction timeout of the user transaction.</li>
+ * <li>The timeout is passed as query timeout hint to the entity manager. If the entity manager has not been created
+ * yet or a deferred transaction has not been begun yet the hint is set when the entity manager is first used.</li>
+ * <li>The {@link TransactionWatchdog} marks the transaction as timed out and reports it to the
+ * {@link TransactionListener} as soon as the timeout has elapsed.</li>
+ * <li>A timed out transaction is rolled back instead of committed and a {@link RollbackException} is thrown.</li>
+ * </ul>
+ */
+class TimeoutTransactionFacade implements TransactionFacade {
+
+  /**
+   * Standard JPA hint for the query timeout in milliseconds.
+   */
+  static final String QUERY_TIMEOUT_HINT = "javax.persistence.query.timeout";
+
+  private final TransactionFacade delegate;
+
+  private final EntityManagerProviderImpl emProvider;
+
+  private final TransactionWatchdog watchdog;
+
+  private final int timeoutSeconds;
+
+  private final Class<? extends Annotation> unit;
+
+  private final Method method;
+
+  private final TransactionListener listener;
+
+  /**
+   * Time of the begin of the transaction in nanoseconds.
+   */
+  private long beginNanos;
+
+  /**
+   * Handle of the watchdog task. {@code null} until the transaction has begun.
+   */
+  private TransactionWatchdog.Timeout timeout;
+
+  /**
+   * Entity manager on which the query timeout hint has been set. {@code null} if no hint was set.
+   */
+  private EntityManager hintedEntityManager;
+
+  /**
+   * Value of the query timeout hint before it was set by this facade.
+   */
+  private Object previousQueryTimeout;
+
+  /**
+   * Sets the query timeout hint when the entity manager is first used. {@code null} if the hint was set at begin.
+   */
+  private EntityManagerUseListener hintOnUse;
+
+  TimeoutTransactionFacade(
+      TransactionFacade delegate,
+      EntityManagerProviderImpl emProvider,
+      TransactionWatchdog watchdog,
+      int timeoutSeconds,
+      Class<? extends Annotation> unit,
+      Method method,
+      TransactionListener listener
+  ) {
+    this.delegate = checkNotNull(delegate, "delegate is mandatory!");
+    this.emProvider = checkNotNull(emProvider, "emProvider is mandatory!");
+    this.watchdog = checkNotNull(watchdog, "watchdog is mandatory!");
+    this.timeoutSeconds = timeoutSeconds;
+    this.unit = unit;
+    this.method = method;
+    this.listener = listener;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setTimeout(int timeoutSeconds) {
+    delegate.setTimeout(timeoutSeconds);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void begin() {
+    delegate.setTimeout(timeoutSeconds);
+    delegate.begin();
+    beginNanos = System.nanoTime();
+    timeout = watchdog.schedule(new Expiry(), TimeUnit.SECONDS.toMillis(timeoutSeconds));
+    if (emProvider.hasEntityManager() && emProvider.getPendingUseListener() == null) {
+      setQueryTimeoutHint(emProvider.get());
+    } else {
+      // calling get() now would create the entity manager or begin a deferred transaction
+      hintOnUse = new EntityManagerUseListener() {
+        @Override
+        public void beforeUse(EntityManager em) {
+          hintOnUse = null;
+          setQueryTimeoutHint(em);
+        }
+      };
+      emProvider.addUseListener(hintOnUse);
+    }
+  }
+
+  private void setQueryTimeoutHint(EntityManager em) {
+    hintedEntityManager = em;
+    previousQueryTimeout = em.getProperties().get(QUERY_TIMEOUT_HINT);
+    final long remaining = TimeUnit.SECONDS.toMillis(timeoutSeconds)
+        - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginNanos);
+    em.setProperty(QUERY_TIMEOUT_HINT, (int) Math.max(1L, remaining));
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * A transaction which exceeded its timeout is rolled back.
+   *
+   * @throws RollbackException if the transaction has been rolled back because of the timeout.
+   */
+  @Override
+  public void commit() {
+    try {
+      if (isTimedOut()) {
+        delegate.rollback();
+        throw new RollbackException("transaction rolled back because it exceeded its timeout of "
+            + timeoutSeconds + " seconds");
+      }
+      delegate.commit();
+    } finally {
+      end();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void rollback() {
+    try {
+      delegate.rollback();
+    } finally {
+      end();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isOuter() {
+    return delegate.isOuter();
+  }
+
+  /**
+   * @return {@code true} if the timeout of the transaction has elapsed.
+   */
+  private boolean isTimedOut() {
+    return timeout.isExpired() || System.nanoTime() - beginNanos > TimeUnit.SECONDS.toNanos(timeoutSeconds);
+  }
+
+  private void end() {
+    timeout.cancel();
+    if (hintOnUse != null) {
+      emProvider.removeUseListener(hintOnUse);
+      hintOnUse = null;
+    }
+    if (hintedEntityManager != null && hintedEntityManager.isOpen()) {
+      hintedEntityManager.setProperty(QUERY_TIMEOUT_HINT, previousQueryTimeout == null ? 0 : previousQueryTimeout);
+    }
+  }
+
+  /**
+   * Task run by the watchdog when the timeout has elapsed.
+   */
+  private class Expiry implements Runnable {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+      if (listener != null) {
+        listener.transactionTimedOut(unit, method, System.nanoTime() - beginNanos);
+      }
+    }
+  }
+}
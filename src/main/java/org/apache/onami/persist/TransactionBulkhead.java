@@ -0,0 +1,311 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for the outer transactions of a single persistence unit.
+ * <p/>
+ * At most {@code maxConcurrent} outer transactions are admitted at the same time. Further callers wait in a fair
+ * (first in first out) queue of at most {@code maxQueued} entries for at most {@code maxWaitNanos}. Callers finding
+ * the queue full or waiting too long are rejected with a {@link TransactionRejectedException}. This keeps a
+ * saturated persistence unit from piling up threads on its connection pool.
+ * <p/>
+ * Only outer transactions are counted. Nested transactions already hold the admission of their outer transaction
+ * and must not wait for another one, otherwise they could deadlock.
+ * <p/>
+ * If created with a {@link VegasLimit} the maximum number of concurrent transactions is not fixed but follows the
+ * latency of the admitted transactions. The latency is recorded by the caller through {@link #recordLatency(long)}
+ * and covers the physical transactions only. The time spent waiting for admission, between retries or for a group
+ * commit batch would otherwise be mistaken for load on the database.
+ */
+class TransactionBulkhead implements TransactionBulkheadStatistics {
+
+  /**
+   * Permits for the admitted transactions. {@code null} if the bulkhead is disabled.
+   */
+  private final ResizableSemaphore permits;
+
+  /**
+   * Adaptive limit. {@code null} if the limit is fixed.
+   */
+  private final VegasLimit adaptiveLimit;
+
+  /**
+   * The current maximum number of concurrent transactions. Only changed while holding the lock of the adaptive limit.
+   */
+  private volatile int limit;
+
+  private final int maxQueued;
+
+  private final long maxWaitNanos;
+
+  private final AtomicInteger queued = new AtomicInteger();
+
+  private final AtomicLong rejectedBecauseQueueFull = new AtomicLong();
+
+  private final AtomicLong rejectedBecauseTimeout = new AtomicLong();
+
+  private final LatencyHistogram waitTimes = new LatencyHistogram();
+
+  /**
+   * Constructor for a disabled bulkhead which admits every transaction.
+   */
+  TransactionBulkhead() {
+    this.permits = null;
+    this.adaptiveLimit = null;
+    this.limit = 0;
+    this.maxQueued = 0;
+    this.maxWaitNanos = 0L;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxConcurrent the maximum number of concurrent outer transactions. Must be positive.
+   * @param maxQueued the maximum number of transactions waiting for admission. Must not be negative.
+   * @param maxWait the maximum time to wait for admission. Must not be negative.
+   * @param unit the unit of the maximum wait time. Must not be {@code null}.
+   */
+  TransactionBulkhead(int maxConcurrent, int maxQueued, long maxWait, TimeUnit unit) {
+    this(maxConcurrent, null, maxQueued, maxWait, unit);
+  }
+
+  /**
+   * Constructor for a bulkhead with an adaptive limit.
+   *
+   * @param adaptiveLimit the limit which adapts to the latency of the transactions. Must not be {@code null}.
+   * @param maxQueued the maximum number of transactions waiting for admission. Must not be negative.
+   * @param maxWait the maximum time to wait for admission. Must not be negative.
+   * @param unit the unit of the maximum wait time. Must not be {@code null}.
+   */
+  TransactionBulkhead(VegasLimit adaptiveLimit, int maxQueued, long maxWait, TimeUnit unit) {
+    this(checkNotNull(adaptiveLimit, "adaptiveLimit is mandatory!").getLimit(), adaptiveLimit, maxQueued, maxWait, unit);
+  }
+
+  private TransactionBulkhead(int maxConcurrent, VegasLimit adaptiveLimit, int maxQueued, long maxWait, TimeUnit unit) {
+    checkNotNull(unit, "unit is mandatory!");
+    if (maxConcurrent < 1) {
+      throw new IllegalArgumentException("maxConcurrent must be positive but was " + maxConcurrent);
+    }
+    if (maxQueued < 0) {
+      throw new IllegalArgumentException("maxQueued must not be negative but was " + maxQueued);
+    }
+    if (maxWait < 0) {
+      throw new IllegalArgumentException("maxWait must not be negative but was " + maxWait);
+    }
+    this.permits = new ResizableSemaphore(maxConcurrent);
+    this.adaptiveLimit = adaptiveLimit;
+    this.limit = maxConcurrent;
+    this.maxQueued = maxQueued;
+    this.maxWaitNanos = unit.toNanos(maxWait);
+  }
+
+  /**
+   * @return {@code true} if the bulkhead limits the concurrent transactions.
+   */
+  boolean isEnabled() {
+    return permits != null;
+  }
+
+  /**
+   * Admits an outer transaction. Every successful call must be followed by a call to {@link #exit()}.
+   *
+   * @throws TransactionRejectedException if the wait queue is full, the transaction waited too long or the
+   * thread was interrupted while waiting.
+   */
+  void enter() {
+    if (tryAcquire(0L)) {
+      waitTimes.record(0L);
+      return;
+    }
+    if (queued.incrementAndGet() > maxQueued) {
+      queued.decrementAndGet();
+      rejectedBecauseQueueFull.incrementAndGet();
+      throw new TransactionRejectedException("persistence unit is saturated: " + limit
+          + " transactions are running and " + maxQueued + " are waiting");
+    }
+    final long start = System.nanoTime();
+    try {
+      if (!tryAcquire(maxWaitNanos)) {
+        rejectedBecauseTimeout.incrementAndGet();
+        throw new TransactionRejectedException("persistence unit is saturated: no transaction completed within "
+            + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + " ms");
+      }
+    } finally {
+      queued.decrementAndGet();
+    }
+    waitTimes.record(System.nanoTime() - start);
+  }
+
+  /**
+   * Acquires a permit. A timed try acquire is used even without waiting since it respects the fairness of the
+   * semaphore unlike the untimed one.
+   */
+  private boolean tryAcquire(long nanos) {
+    try {
+      return permits.tryAcquire(nanos, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TransactionRejectedException("interrupted while waiting for admission");
+    }
+  }
+
+  /**
+   * Records the latency of a physical transaction which ran while holding an admission. With an adaptive limit
+   * the latency is used to adjust the limit, otherwise it is ignored.
+   *
+   * @param rttNanos the time from the begin to the end of the transaction in nanoseconds.
+   */
+  void recordLatency(long rttNanos) {
+    if (adaptiveLimit != null) {
+      synchronized (adaptiveLimit) {
+        resize(adaptiveLimit.update(rttNanos, limit - permits.availablePermits()));
+      }
+    }
+  }
+
+  /**
+   * Releases the admission of an outer transaction.
+   */
+  void exit() {
+    permits.release();
+  }
+
+  /**
+   * Changes the maximum number of concurrent transactions. Admitted transactions are never revoked, a smaller limit
+   * only delays further admissions.
+   */
+  private void resize(int newLimit) {
+    final int delta = newLimit - limit;
+    if (delta > 0) {
+      permits.release(delta);
+    } else if (delta < 0) {
+      permits.reducePermits(-delta);
+    }
+    limit = newLimit;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getActiveTransactions() {
+    return permits == null ? 0 : limit - permits.availablePermits();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getMinRttNanos() {
+    return adaptiveLimit == null ? 0L : adaptiveLimit.getMinRtt();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getSmoothedRttNanos() {
+    return adaptiveLimit == null ? 0L : adaptiveLimit.getSmoothedRtt();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getQueuedTransactions() {
+    return queued.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getRejectedBecauseQueueFull() {
+    return rejectedBecauseQueueFull.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getRejectedBecauseTimeout() {
+    return rejectedBecauseTimeout.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getAdmittedTransactions() {
+    return waitTimes.snapshot().getCount();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getMaxWaitNanos() {
+    return waitTimes.snapshot().getMax();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getWaitPercentileNanos(double percentile) {
+    return waitTimes.snapshot().getPercentile(percentile);
+  }
+
+  /**
+   * Fair semaphore whose number of permits can be reduced.
+   */
+  private static class ResizableSemaphore extends Semaphore {
+
+    private static final long serialVersionUID = 1L;
+
+    ResizableSemaphore(int permits) {
+      super(permits, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void reducePermits(int reduction) {
+      super.reducePermits(reduction);
+    }
+  }
+}
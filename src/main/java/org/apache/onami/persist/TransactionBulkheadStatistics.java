@@ -0,0 +1,84 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Counters and wait times of the admission control of a persistence unit.
+ * <p/>
+ * Is bound for every persistence unit the same way as the {@link UnitOfWork} is. If the concurrent transactions
+ * of the persistence unit are not limited all values are 0.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#limitConcurrentTransactions(int, int, long, java.util.concurrent.TimeUnit)
+ */
+public interface TransactionBulkheadStatistics {
+
+  /**
+   * @return the number of outer transactions currently admitted.
+   */
+  int getActiveTransactions();
+
+  /**
+   * @return the current maximum number of concurrent outer transactions. Changes over time if the limit is adaptive.
+   */
+  int getLimit();
+
+  /**
+   * @return the estimated latency of an outer transaction without load in nanoseconds. Only measured if the limit
+   * is adaptive, 0 otherwise.
+   */
+  long getMinRttNanos();
+
+  /**
+   * @return the smoothed latency of the outer transactions in nanoseconds. Only measured if the limit is adaptive,
+   * 0 otherwise.
+   */
+  long getSmoothedRttNanos();
+
+  /**
+   * @return the number of outer transactions currently waiting for admission.
+   */
+  int getQueuedTransactions();
+
+  /**
+   * @return the number of outer transactions rejected because the wait queue was full.
+   */
+  long getRejectedBecauseQueueFull();
+
+  /**
+   * @return the number of outer transactions rejected because they waited too long.
+   */
+  long getRejectedBecauseTimeout();
+
+  /**
+   * @return the number of admitted outer transactions for which a wait time has been recorded.
+   */
+  long getAdmittedTransactions();
+
+  /**
+   * @return the maximum time in nanoseconds an admitted outer transaction waited for admission.
+   */
+  long getMaxWaitNanos();
+
+  /**
+   * @param percentile the percentile in the range [0, 100]. i.e. 99.9
+   * @return the wait time in nanoseconds below which the given percentage of the admitted transactions were admitted.
+   */
+  long getWaitPercentileNanos(double percentile);
+}
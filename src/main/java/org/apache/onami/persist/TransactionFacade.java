@@ -25,6 +25,15 @@ package org.apache.onami.persist;
  */
 interface TransactionFacade {
 
+  /**
+   * Sets the timeout of the transaction. Must be called before {@link #begin()}.
+   * <p/>
+   * Only outer JTA transactions enforce the timeout natively. All other facades ignore it.
+   *
+   * @param timeoutSeconds the timeout in seconds. 0 for the default timeout.
+   */
+  void setTimeout(int timeoutSeconds);
+
   /**
    * Starts a transaction.
    * <p/>
@@ -46,4 +55,9 @@ interface TransactionFacade {
    * flag on the outer transaction. Setting this flag wil cause an outer transaction to be rolled back in any case.
    */
   void rollback();
+
+  /**
+   * @return {@code true} if this facade represents an outer transaction. {@code false} for an inner transaction.
+   */
+  boolean isOuter();
 }
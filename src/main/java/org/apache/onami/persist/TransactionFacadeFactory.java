@@ -30,4 +30,17 @@ interface TransactionFacadeFactory {
    * @return the transaction facade
    */
   TransactionFacade createTransactionFacade();
+
+  /**
+   * @return {@code true} if a transaction is running for the current thread. Transactions which are only started
+   * upon first use of the entity manager are considered running as well.
+   */
+  boolean isTransactionActive();
+
+  /**
+   * Suspends the unit of work and the transaction of the current thread.
+   *
+   * @return the handle for resuming the suspended unit of work and transaction.
+   */
+  SuspendedTransaction suspend();
 }
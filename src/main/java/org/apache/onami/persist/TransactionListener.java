@@ -0,0 +1,106 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+
+/**
+ * Listener which is notified about the transactions handled for {@link Transactional @Transactional} methods.
+ * <p/>
+ * Listeners are registered with {@link PersistenceModule#addTransactionListener(TransactionListener)}.
+ * The callbacks are invoked synchronously on the thread executing the transactional method, once for every
+ * participating persistence unit. Implementations must therefore be thread safe and should return quickly.
+ * Exceptions thrown by a listener are propagated to the caller of the transactional method.
+ * <p/>
+ * The {@code unit} parameter holds the annotation of the persistence unit. It is {@code null} for a persistence
+ * unit which is not annotated. The {@code outer} parameter tells if the transaction is an outer transaction or an
+ * inner (nested) transaction which joined an already running transaction.
+ *
+ * @see TransactionMetrics
+ */
+public interface TransactionListener {
+
+  /**
+   * Called after a transaction has been started.
+   *
+   * @param unit the annotation of the persistence unit. May be {@code null}.
+   * @param method the transactional method.
+   * @param outer {@code true} for an outer transaction, {@code false} for an inner transaction.
+   */
+  void transactionBegun(Class<? extends Annotation> unit, Method method, boolean outer);
+
+  /**
+   * Called after a transaction has been committed.
+   *
+   * @param unit the annotation of the persistence unit. May be {@code null}.
+   * @param method the transactional method.
+   * @param outer {@code true} for an outer transaction, {@code false} for an inner transaction.
+   * @param durationNanos the time between begin and the end of commit in nanoseconds.
+   */
+  void transactionCommitted(Class<? extends Annotation> unit, Method method, boolean outer, long durationNanos);
+
+  /**
+   * Called after a transaction has been rolled back (respectively marked for rollback in case of an inner
+   * transaction).
+   *
+   * @param unit the annotation of the persistence unit. May be {@code null}.
+   * @param method the transactional method.
+   * @param outer {@code true} for an outer transaction, {@code false} for an inner transaction.
+   * @param durationNanos the time between begin and the end of the rollback in nanoseconds.
+   */
+  void transactionRolledBack(Class<? extends Annotation> unit, Method method, boolean outer, long durationNanos);
+
+  /**
+   * Called when the transactional method has thrown an exception. Is followed by either
+   * {@link #transactionCommitted} or {@link #transactionRolledBack} depending on the rollback rules.
+   *
+   * @param unit the annotation of the persistence unit. May be {@code null}.
+   * @param method the transactional method.
+   * @param outer {@code true} for an outer transaction, {@code false} for an inner transaction.
+   * @param exc the exception thrown by the method.
+   */
+  void exceptionThrown(Class<? extends Annotation> unit, Method method, boolean outer, Throwable exc);
+
+  /**
+   * Called before a failed method is retried. Only the persistence unit which started the outermost unit of work
+   * reports the retry.
+   *
+   * @param unit the annotation of the persistence unit. May be {@code null}.
+   * @param method the transactional method.
+   * @param attempt the number of the retry starting with 1.
+   * @param exc the exception which caused the retry.
+   * @see Transactional#maxRetries()
+   */
+  void transactionRetried(Class<? extends Annotation> unit, Method method, int attempt, Throwable exc);
+
+  /**
+   * Called when an outer transaction has exceeded its timeout. The transaction will be rolled back when it ends.
+   * <p/>
+   * Unlike all other callbacks this method is invoked on the watchdog thread and not on the thread executing
+   * the transaction.
+   *
+   * @param unit the annotation of the persistence unit. May be {@code null}.
+   * @param method the transactional method.
+   * @param elapsedNanos the time since the begin of the transaction in nanoseconds.
+   * @see Transactional#timeout()
+   */
+  void transactionTimedOut(Class<? extends Annotation> unit, Method method, long elapsedNanos);
+}
@@ -0,0 +1,61 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.transaction.TransactionManager;
+
+/**
+ * Provider for {@link TransactionManager} which retrieves the value from the JNDI context.
+ */
+@Singleton
+class TransactionManagerProviderByJndiLookup implements Provider<TransactionManager> {
+
+  private final String jndiName;
+
+  private final JndiLookupHelper jndiLookupHelper;
+
+  /**
+   * Constructor.
+   *
+   * @param jndiName jndi name of the transaction manager. Must not be {@code null}.
+   * @param jndiLookupHelper the helper for the lookup. Must not be {@code null}.
+   */
+  @Inject
+  TransactionManagerProviderByJndiLookup(@TransactionManagerJndiName String jndiName, JndiLookupHelper jndiLookupHelper) {
+    this.jndiName = checkNotNull(jndiName, "jndiName is mandatory!");
+    this.jndiLookupHelper = checkNotNull(jndiLookupHelper, "jndiLookupHelper is mandatory!");
+  }
+
+  /**
+   * Gets a {@link TransactionManager} by looking it up in the JNDI context.
+   *
+   * @return the found transaction manager
+   * @throws RuntimeException when no transaction manager was found.
+   */
+  @Override
+  public TransactionManager get() {
+    return jndiLookupHelper.doJndiLookup(TransactionManager.class, jndiName);
+  }
+}
@@ -0,0 +1,226 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Built-in {@link TransactionListener} which records counters and latency histograms per transactional method
+ * and per persistence unit.
+ * <p/>
+ * Recording is lock free and does not allocate once a method or persistence unit has been seen for the first time.
+ * Statistics are obtained as immutable {@link TransactionStatistics} snapshots.
+ * <p/>
+ * Usage:
+ * <pre>
+ * public class MyPersistenceModule extends PersistenceModule {
+ *   private final TransactionMetrics metrics = new TransactionMetrics();
+ *
+ *   protected void configurePersistence() {
+ *     addTransactionListener(metrics);
+ *     bind(TransactionMetrics.class).toInstance(metrics);
+ *     ...
+ *   }
+ * }
+ * </pre>
+ */
+public class TransactionMetrics implements TransactionListener {
+
+  /**
+   * Key under which the statistics of a persistence unit without annotation are stored.
+   */
+  private static final Object UNANNOTATED_UNIT = new Object();
+
+  /**
+   * Recorders per transactional method.
+   */
+  private final ConcurrentMap<Method, Recorder> methods = new ConcurrentHashMap<Method, Recorder>();
+
+  /**
+   * Recorders per persistence unit.
+   */
+  private final ConcurrentMap<Object, Recorder> units = new ConcurrentHashMap<Object, Recorder>();
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void transactionBegun(Class<? extends Annotation> unit, Method method, boolean outer) {
+    recorderOf(unit).begun(outer);
+    recorderOf(method).begun(outer);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void transactionCommitted(Class<? extends Annotation> unit, Method method, boolean outer, long durationNanos) {
+    recorderOf(unit).committed(outer, durationNanos);
+    recorderOf(method).committed(outer, durationNanos);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void transactionRolledBack(Class<? extends Annotation> unit, Method method, boolean outer, long durationNanos) {
+    recorderOf(unit).rolledBack(outer, durationNanos);
+    recorderOf(method).rolledBack(outer, durationNanos);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void exceptionThrown(Class<? extends Annotation> unit, Method method, boolean outer, Throwable exc) {
+    recorderOf(unit).exceptions.incrementAndGet();
+    recorderOf(method).exceptions.incrementAndGet();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void transactionRetried(Class<? extends Annotation> unit, Method method, int attempt, Throwable exc) {
+    recorderOf(unit).retries.incrementAndGet();
+    recorderOf(method).retries.incrementAndGet();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void transactionTimedOut(Class<? extends Annotation> unit, Method method, long elapsedNanos) {
+    recorderOf(unit).timeouts.incrementAndGet();
+    recorderOf(method).timeouts.incrementAndGet();
+  }
+
+  /**
+   * @param unit the annotation of the persistence unit. {@code null} for the persistence unit without annotation.
+   * @return the statistics of the given persistence unit.
+   */
+  public TransactionStatistics getUnitStatistics(Class<? extends Annotation> unit) {
+    return snapshotOf(units.get(unit == null ? UNANNOTATED_UNIT : unit));
+  }
+
+  /**
+   * @param method the transactional method.
+   * @return the statistics of the given method summed up over all participating persistence units.
+   */
+  public TransactionStatistics getMethodStatistics(Method method) {
+    return snapshotOf(methods.get(method));
+  }
+
+  /**
+   * @return the statistics of all methods which have been invoked so far.
+   */
+  public Map<Method, TransactionStatistics> getAllMethodStatistics() {
+    final Map<Method, TransactionStatistics> result = new HashMap<Method, TransactionStatistics>();
+    for (Map.Entry<Method, Recorder> entry : methods.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return result;
+  }
+
+  private static TransactionStatistics snapshotOf(Recorder recorder) {
+    return (recorder == null ? new Recorder() : recorder).snapshot();
+  }
+
+  private Recorder recorderOf(Class<? extends Annotation> unit) {
+    return recorderOf(units, unit == null ? UNANNOTATED_UNIT : unit);
+  }
+
+  private Recorder recorderOf(Method method) {
+    return recorderOf(methods, method);
+  }
+
+  private static <K> Recorder recorderOf(ConcurrentMap<K, Recorder> recorders, K key) {
+    Recorder recorder = recorders.get(key);
+    if (recorder == null) {
+      final Recorder newRecorder = new Recorder();
+      recorder = recorders.putIfAbsent(key, newRecorder);
+      if (recorder == null) {
+        recorder = newRecorder;
+      }
+    }
+    return recorder;
+  }
+
+  /**
+   * Counters and histogram for a single key.
+   */
+  private static class Recorder {
+
+    private final AtomicLong commits = new AtomicLong();
+
+    private final AtomicLong rollbacks = new AtomicLong();
+
+    private final AtomicLong exceptions = new AtomicLong();
+
+    private final AtomicLong retries = new AtomicLong();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private final AtomicLong innerTransactions = new AtomicLong();
+
+    private final AtomicLong activeTransactions = new AtomicLong();
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    void begun(boolean outer) {
+      if (outer) {
+        activeTransactions.incrementAndGet();
+      } else {
+        innerTransactions.incrementAndGet();
+      }
+    }
+
+    void committed(boolean outer, long durationNanos) {
+      if (outer) {
+        commits.incrementAndGet();
+        ended(durationNanos);
+      }
+    }
+
+    void rolledBack(boolean outer, long durationNanos) {
+      if (outer) {
+        rollbacks.incrementAndGet();
+        ended(durationNanos);
+      }
+    }
+
+    private void ended(long durationNanos) {
+      activeTransactions.decrementAndGet();
+      latencies.record(durationNanos);
+    }
+
+    TransactionStatistics snapshot() {
+      return new TransactionStatistics(
+          commits.get(), rollbacks.get(), exceptions.get(), retries.get(), timeouts.get(), innerTransactions.get(), activeTransactions.get(),
+          latencies.snapshot());
+    }
+  }
+}
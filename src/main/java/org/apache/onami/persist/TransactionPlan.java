@@ -0,0 +1,229 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Immutable, pre-resolved view of a {@link Transactional @Transactional} annotation.
+ * <p/>
+ * Instances are computed once per method (or class) by the {@link TransactionalAnnotationReader} and may be read
+ * concurrently without any locking.
+ */
+class TransactionPlan {
+
+  /**
+   * Constant for an empty array of exception classes.
+   */
+  @SuppressWarnings("unchecked")
+  private static final Class<? extends Exception>[] NO_EXCEPTIONS = new Class[0];
+
+  /**
+   * The annotations of the persistence units which participate. An empty set means all persistence units.
+   */
+  private final Set<Class<? extends Annotation>> units;
+
+  /**
+   * Exceptions to rollback on.
+   */
+  private final Class<? extends Exception>[] rollbackOn;
+
+  /**
+   * Exceptions to <b>not</b> rollback on.
+   */
+  private final Class<? extends Exception>[] ignore;
+
+  /**
+   * The propagation behaviour.
+   */
+  private final Propagation propagation;
+
+  /**
+   * Flag indicating a read only transaction.
+   */
+  private final boolean readOnly;
+
+  /**
+   * Timeout in seconds. 0 for no timeout.
+   */
+  private final int timeout;
+
+  /**
+   * Maximal number of retries.
+   */
+  private final int maxRetries;
+
+  /**
+   * Exceptions to retry on.
+   */
+  private final Class<? extends Exception>[] retryOn;
+
+  /**
+   * Base delay before the first retry in milliseconds.
+   */
+  private final long retryBackoffMillis;
+
+  /**
+   * Upper bound of the delay between two attempts in milliseconds.
+   */
+  private final long maxRetryBackoffMillis;
+
+  /**
+   * Flag indicating that concurrent invocations may share a transaction.
+   */
+  private final boolean groupCommit;
+
+  /**
+   * Constructor.
+   *
+   * @param transactional the annotation from which to build the plan. Must not be {@code null}.
+   */
+  TransactionPlan(Transactional transactional) {
+    this.units = unitsOf(transactional.onUnits());
+    this.rollbackOn = copyOf(transactional.rollbackOn());
+    this.ignore = copyOf(transactional.ignore());
+    this.propagation = transactional.propagation() == null ? Propagation.REQUIRED : transactional.propagation();
+    this.readOnly = transactional.readOnly();
+    this.timeout = Math.max(0, transactional.timeout());
+    this.maxRetries = Math.max(0, transactional.maxRetries());
+    this.retryOn = copyOf(transactional.retryOn());
+    this.retryBackoffMillis = Math.max(0L, transactional.retryBackoffMillis());
+    this.maxRetryBackoffMillis = Math.max(retryBackoffMillis, transactional.maxRetryBackoffMillis());
+    this.groupCommit = transactional.groupCommit() && propagation == Propagation.REQUIRED && !readOnly && timeout == 0;
+  }
+
+  /**
+   * Decides if the persistence unit with the given annotation participates in the transaction.
+   *
+   * @param puAnnotation the annotation of the persistence unit. May be {@code null}.
+   * @return {@code true} if the persistence unit participates in the transaction.
+   */
+  boolean participates(Class<? extends Annotation> puAnnotation) {
+    return puAnnotation == null || units.isEmpty() || units.contains(puAnnotation);
+  }
+
+  /**
+   * Decides if a rollback is necessary for the given exception.
+   *
+   * @param exc the exception which was thrown.
+   * @return {@code true} if the transaction needs to be rolled back.
+   */
+  boolean isRollbackNecessaryFor(Throwable exc) {
+    return containsSuper(rollbackOn, exc) && !containsSuper(ignore, exc);
+  }
+
+  /**
+   * @return the propagation behaviour of the transaction.
+   */
+  Propagation getPropagation() {
+    return propagation;
+  }
+
+  /**
+   * @return {@code true} if the transaction is read only.
+   */
+  boolean isReadOnly() {
+    return readOnly;
+  }
+
+  /**
+   * @return the timeout of the transaction in seconds. 0 for no timeout.
+   */
+  int getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * @return the maximal number of retries. 0 if retrying is disabled.
+   */
+  int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * @return {@code true} if concurrent invocations may share a transaction.
+   */
+  boolean isGroupCommit() {
+    return groupCommit;
+  }
+
+  /**
+   * Decides if a method should be retried after the given exception.
+   *
+   * @param exc the exception which was thrown.
+   * @return {@code true} if the exception or one of its causes is an exception to retry on.
+   */
+  boolean isRetryNecessaryFor(Throwable exc) {
+    for (Throwable t = exc; t != null; t = t.getCause() == t ? null : t.getCause()) {
+      if (containsSuper(retryOn, t)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Computes the delay before a retry. The delay grows exponentially with the attempt and is randomized by the
+   * given jitter.
+   *
+   * @param attempt the number of the retry starting with 1.
+   * @param jitter a random value in the range [0, 1).
+   * @return the delay in milliseconds.
+   */
+  long retryBackoffMillis(int attempt, double jitter) {
+    final int shift = Math.min(Math.max(attempt - 1, 0), 30);
+    final long backoff = Math.min(maxRetryBackoffMillis, retryBackoffMillis << shift);
+    return backoff / 2 + (long) (backoff / 2 * jitter);
+  }
+
+  /**
+   * Decides if the array of classes contains a super class of exc.
+   *
+   * @param classes the classes in which to look fore
+   * @param exc the class to search for
+   * @return {@code true} when the array contains a super class of exc.
+   */
+  private static boolean containsSuper(Class<? extends Exception>[] classes, Throwable exc) {
+    for (Class<? extends Exception> c : classes) {
+      if (c.isInstance(exc)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Set<Class<? extends Annotation>> unitsOf(Class<? extends Annotation>[] onUnits) {
+    if (onUnits == null || onUnits.length == 0) {
+      return Collections.emptySet();
+    }
+    return Collections.unmodifiableSet(new HashSet<Class<? extends Annotation>>(Arrays.asList(onUnits)));
+  }
+
+  private static Class<? extends Exception>[] copyOf(Class<? extends Exception>[] classes) {
+    if (classes == null) {
+      return NO_EXCEPTIONS;
+    }
+    return classes.clone();
+  }
+}
@@ -0,0 +1,41 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Thrown by a {@link Transactional @Transactional} method if the persistence unit is saturated. This is the case if
+ * the maximum number of concurrent transactions is reached and either the wait queue is full or the maximum wait
+ * time elapsed. No unit of work and no transaction have been started.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#limitConcurrentTransactions(int, int, long, java.util.concurrent.TimeUnit)
+ */
+public class TransactionRejectedException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Constructor.
+   *
+   * @param message the message of the exception.
+   */
+  public TransactionRejectedException(String message) {
+    super(message);
+  }
+}
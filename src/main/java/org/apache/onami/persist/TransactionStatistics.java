@@ -0,0 +1,155 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Immutable snapshot of the statistics recorded by {@link TransactionMetrics} for a single method or a single
+ * persistence unit.
+ * <p/>
+ * Latencies are measured from the begin of an outer transaction until the end of its commit or rollback and are
+ * given in nanoseconds. Inner transactions are only counted.
+ */
+public final class TransactionStatistics {
+
+  private final long commits;
+
+  private final long rollbacks;
+
+  private final long exceptions;
+
+  private final long retries;
+
+  private final long timeouts;
+
+  private final long innerTransactions;
+
+  private final long activeTransactions;
+
+  private final LatencyHistogram.Snapshot latencies;
+
+  TransactionStatistics(
+      long commits,
+      long rollbacks,
+      long exceptions,
+      long retries,
+      long timeouts,
+      long innerTransactions,
+      long activeTransactions,
+      LatencyHistogram.Snapshot latencies
+  ) {
+    this.commits = commits;
+    this.rollbacks = rollbacks;
+    this.exceptions = exceptions;
+    this.retries = retries;
+    this.timeouts = timeouts;
+    this.innerTransactions = innerTransactions;
+    this.activeTransactions = activeTransactions;
+    this.latencies = latencies;
+  }
+
+  /**
+   * @return the number of committed outer transactions.
+   */
+  public long getCommits() {
+    return commits;
+  }
+
+  /**
+   * @return the number of rolled back outer transactions.
+   */
+  public long getRollbacks() {
+    return rollbacks;
+  }
+
+  /**
+   * @return the number of exceptions thrown by transactional methods (inner and outer).
+   */
+  public long getExceptions() {
+    return exceptions;
+  }
+
+  /**
+   * @return the number of times a transactional method has been retried.
+   */
+  public long getRetries() {
+    return retries;
+  }
+
+  /**
+   * @return the number of transactions which exceeded their timeout.
+   */
+  public long getTimeouts() {
+    return timeouts;
+  }
+
+  /**
+   * @return the number of inner transactions which joined an already running transaction.
+   */
+  public long getInnerTransactions() {
+    return innerTransactions;
+  }
+
+  /**
+   * @return the number of outer transactions which were running when the snapshot was taken.
+   */
+  public long getActiveTransactions() {
+    return activeTransactions;
+  }
+
+  /**
+   * @return the number of completed outer transactions for which a latency has been recorded.
+   */
+  public long getCount() {
+    return latencies.getCount();
+  }
+
+  /**
+   * @return the mean latency in nanoseconds.
+   */
+  public long getMeanNanos() {
+    return latencies.getMean();
+  }
+
+  /**
+   * @return the maximum latency in nanoseconds.
+   */
+  public long getMaxNanos() {
+    return latencies.getMax();
+  }
+
+  /**
+   * @param percentile the percentile in the range [0, 100]. i.e. 99.9
+   * @return the latency in nanoseconds below which the given percentage of the transactions completed.
+   */
+  public long getPercentileNanos(double percentile) {
+    return latencies.getPercentile(percentile);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return "TransactionStatistics{commits=" + commits + ", rollbacks=" + rollbacks + ", exceptions=" + exceptions
+        + ", retries=" + retries + ", timeouts=" + timeouts
+        + ", innerTransactions=" + innerTransactions + ", activeTransactions=" + activeTransactions
+        + ", p50=" + getPercentileNanos(50) + "ns, p99=" + getPercentileNanos(99) + "ns, max=" + getMaxNanos() + "ns}";
+  }
+}
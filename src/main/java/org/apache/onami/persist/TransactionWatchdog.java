@@ -0,0 +1,401 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watchdog for transactions with a timeout.
+ * <p/>
+ * The watchdog is a hashed timer wheel driven by a single daemon thread which is started upon the first call to
+ * {@link #schedule(Runnable, long)}. Scheduling and cancelling a timeout never blocks: new timeouts are handed over
+ * to the watchdog thread through a lock free queue and cancelled timeouts are only flagged and removed lazily.
+ * Since most transactions end long before their timeout the common case costs one queue insertion and one CAS.
+ * <p/>
+ * The watchdog is shared by all persistence units of a module. Each of them registers the listener returned by
+ * {@link #newUnitListener()} with its {@link UnitOfWorkGate}. The thread terminates once no persistence unit is
+ * running and no timeout is scheduled anymore, so transactions which are still draining while their persistence
+ * unit stops keep their timeout. The next call to {@link #schedule(Runnable, long)} starts a new thread.
+ * <p/>
+ * Expired tasks are run on the watchdog thread and must therefore return quickly.
+ */
+class TransactionWatchdog {
+
+  /**
+   * Number of buckets of the wheel. Must be a power of two.
+   */
+  private static final int WHEEL_SIZE = 512;
+
+  /**
+   * Duration of a single tick in nanoseconds.
+   */
+  private final long tickNanos;
+
+  /**
+   * Timeouts which have not yet been transferred into the wheel.
+   */
+  private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+
+  /**
+   * Number of timeouts which have neither been cancelled nor expired.
+   */
+  private final AtomicInteger scheduled = new AtomicInteger();
+
+  /**
+   * Number of persistence units which are running.
+   */
+  private final AtomicInteger runningUnits = new AtomicInteger();
+
+  private volatile boolean stopped;
+
+  /**
+   * The running worker. {@code null} if there is none. Only changed while holding the monitor of the watchdog.
+   */
+  private volatile Worker worker;
+
+  /**
+   * Constructor for a watchdog with a resolution of 100 milliseconds.
+   */
+  TransactionWatchdog() {
+    this(100, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param tickDuration the resolution of the watchdog.
+   * @param unit the unit of the tick duration.
+   */
+  TransactionWatchdog(long tickDuration, TimeUnit unit) {
+    this.tickNanos = Math.max(1L, unit.toNanos(tickDuration));
+  }
+
+  /**
+   * Schedules a task to run after the given delay unless it is cancelled before.
+   *
+   * @param task the task to run on expiry. Must not be {@code null}.
+   * @param delayMillis the delay in milliseconds.
+   * @return the handle for cancelling the task.
+   */
+  Timeout schedule(Runnable task, long delayMillis) {
+    checkNotNull(task, "task is mandatory!");
+    // count first so that a retiring worker cannot miss the new timeout
+    scheduled.incrementAndGet();
+    final Timeout timeout =
+        new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis), scheduled);
+    pending.add(timeout);
+    startIfNecessary();
+    return timeout;
+  }
+
+  /**
+   * Creates a listener which tracks whether a persistence unit is running. The watchdog thread keeps running as
+   * long as at least one persistence unit is running.
+   *
+   * @return the listener to register with the {@link UnitOfWorkGate} of a persistence unit.
+   */
+  UnitOfWorkGate.Listener newUnitListener() {
+    return new UnitListener();
+  }
+
+  /**
+   * Stops the watchdog thread for good. Pending tasks will not run anymore.
+   */
+  void stop() {
+    final Worker current;
+    synchronized (this) {
+      stopped = true;
+      current = worker;
+      worker = null;
+    }
+    if (current != null) {
+      current.thread.interrupt();
+    }
+  }
+
+  /**
+   * @return {@code true} if the watchdog thread is running.
+   */
+  @VisibleForTesting
+  boolean isRunning() {
+    return worker != null;
+  }
+
+  private void startIfNecessary() {
+    if (worker == null) {
+      synchronized (this) {
+        if (worker == null && !stopped) {
+          final Worker newWorker = new Worker();
+          worker = newWorker;
+          newWorker.thread.start();
+        }
+      }
+    }
+  }
+
+  /**
+   * Ends the given worker if no persistence unit is running and no timeout is scheduled.
+   *
+   * @return {@code true} if the worker must terminate.
+   */
+  private synchronized boolean retire(Worker current) {
+    if (worker != current) {
+      return true;
+    }
+    // clear first so that a concurrent schedule either is counted below or starts a new worker
+    worker = null;
+    if (runningUnits.get() == 0 && scheduled.get() == 0) {
+      return true;
+    }
+    worker = current;
+    return false;
+  }
+
+  /**
+   * The loop of the watchdog thread.
+   */
+  private class Worker implements Runnable {
+
+    private final Thread thread;
+
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * The buckets of the wheel. Only accessed by the watchdog thread.
+     */
+    private final Bucket[] wheel = new Bucket[WHEEL_SIZE];
+
+    private long tick;
+
+    Worker() {
+      for (int i = 0; i < WHEEL_SIZE; i++) {
+        wheel[i] = new Bucket();
+      }
+      thread = new Thread(this, "onami-persist-transaction-watchdog");
+      thread.setDaemon(true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+      while (!stopped) {
+        if (!waitForNextTick()) {
+          return;
+        }
+        transferPending();
+        wheel[(int) (tick & (WHEEL_SIZE - 1))].expire();
+        tick++;
+        if (runningUnits.get() == 0 && scheduled.get() == 0 && retire(this)) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * @return {@code false} if the watchdog has been stopped.
+     */
+    private boolean waitForNextTick() {
+      final long deadline = startNanos + (tick + 1) * tickNanos;
+      long sleepNanos = deadline - System.nanoTime();
+      while (sleepNanos > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        } catch (InterruptedException e) {
+          if (stopped) {
+            return false;
+          }
+        }
+        sleepNanos = deadline - System.nanoTime();
+      }
+      return !stopped;
+    }
+
+    private void transferPending() {
+      for (Timeout timeout = pending.poll(); timeout != null; timeout = pending.poll()) {
+        if (timeout.isCancelled()) {
+          continue;
+        }
+        final long expiryTick = Math.max(tick, (timeout.deadlineNanos - startNanos) / tickNanos);
+        timeout.remainingRounds = (expiryTick - tick) / WHEEL_SIZE;
+        wheel[(int) (expiryTick & (WHEEL_SIZE - 1))].add(timeout);
+      }
+    }
+  }
+
+  /**
+   * Counts the running persistence units. Ignores repeated notifications so that every persistence unit is
+   * counted at most once.
+   */
+  private class UnitListener implements UnitOfWorkGate.Listener {
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void opened() {
+      if (running.compareAndSet(false, true)) {
+        runningUnits.incrementAndGet();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void closing(long timeout, TimeUnit unit) {
+      if (running.compareAndSet(true, false)) {
+        runningUnits.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Doubly linked list of timeouts. Only accessed by the watchdog thread.
+   */
+  private static class Bucket {
+
+    private Timeout head;
+
+    private Timeout tail;
+
+    void add(Timeout timeout) {
+      timeout.prev = tail;
+      if (tail == null) {
+        head = timeout;
+      } else {
+        tail.next = timeout;
+      }
+      tail = timeout;
+    }
+
+    void expire() {
+      Timeout timeout = head;
+      while (timeout != null) {
+        final Timeout next = timeout.next;
+        if (timeout.isCancelled()) {
+          remove(timeout);
+        } else if (timeout.remainingRounds <= 0) {
+          remove(timeout);
+          timeout.expire();
+        } else {
+          timeout.remainingRounds--;
+        }
+        timeout = next;
+      }
+    }
+
+    private void remove(Timeout timeout) {
+      if (timeout.prev == null) {
+        head = timeout.next;
+      } else {
+        timeout.prev.next = timeout.next;
+      }
+      if (timeout.next == null) {
+        tail = timeout.prev;
+      } else {
+        timeout.next.prev = timeout.prev;
+      }
+      timeout.prev = null;
+      timeout.next = null;
+    }
+  }
+
+  /**
+   * Handle of a scheduled task.
+   */
+  static class Timeout {
+
+    private static final int ST_INIT = 0;
+
+    private static final int ST_CANCELLED = 1;
+
+    private static final int ST_EXPIRED = 2;
+
+    private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+    private final Runnable task;
+
+    private final long deadlineNanos;
+
+    private final AtomicInteger scheduled;
+
+    // fields below are only accessed by the watchdog thread
+
+    private long remainingRounds;
+
+    private Timeout prev;
+
+    private Timeout next;
+
+    Timeout(Runnable task, long deadlineNanos, AtomicInteger scheduled) {
+      this.task = task;
+      this.deadlineNanos = deadlineNanos;
+      this.scheduled = scheduled;
+    }
+
+    /**
+     * Cancels the task.
+     *
+     * @return {@code true} if the task was cancelled. {@code false} if it has already expired.
+     */
+    boolean cancel() {
+      if (state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+        scheduled.decrementAndGet();
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * @return {@code true} if the task has been cancelled.
+     */
+    boolean isCancelled() {
+      return state.get() == ST_CANCELLED;
+    }
+
+    /**
+     * @return {@code true} if the task has expired.
+     */
+    boolean isExpired() {
+      return state.get() == ST_EXPIRED;
+    }
+
+    private void expire() {
+      if (state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+        scheduled.decrementAndGet();
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          // a failing task must not stop the watchdog
+        }
+      }
+    }
+  }
+}
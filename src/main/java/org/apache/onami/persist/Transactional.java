@@ -28,6 +28,9 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import javax.inject.Provider;
+import javax.persistence.LockTimeoutException;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PessimisticLockException;
 
 /**
  * Marks a method or class to be executed within a transaction.
@@ -37,6 +40,8 @@ import javax.inject.Provider;
  * If a rollback happens for a method which did not start the transaction the already existing
  * transaction will be marked as rollbackOnly.
  * <p/>
+ * This behaviour can be changed by specifying a different {@link #propagation()}.
+ * <p/>
  * Guice uses AOP to enhance a method annotated with {@link Transactional @Transactional} with a wrapper.
  * This means the {@link Transactional @Transactional} only works as expected when:
  * <ul>
@@ -71,4 +76,78 @@ public @interface Transactional {
    * the exceptions defined in rollbackOn(). Default is none.
    */
   Class<? extends Exception>[] ignore() default {};
+
+  /**
+   * The propagation behaviour of the transaction. Default is {@link Propagation#REQUIRED}.
+   */
+  Propagation propagation() default Propagation.REQUIRED;
+
+  /**
+   * Marks the transaction as read only. Default is {@code false}.
+   * <p/>
+   * A read only transaction is always rolled back instead of committed. The entity manager is configured to not
+   * flush before queries and the {@link ReadOnlyTransactionAdapter} of the persistence unit may apply further
+   * provider specific optimizations. This flag only has an effect on the method which starts the transaction.
+   */
+  boolean readOnly() default false;
+
+  /**
+   * The timeout of the transaction in seconds. Default is 0 which means no timeout.
+   * <p/>
+   * For JTA the timeout is passed to {@link javax.transaction.UserTransaction#setTransactionTimeout(int)}. For
+   * resource local transactions it is passed as query timeout hint to the entity manager and checked before the
+   * transaction is committed. In both cases a watchdog reports transactions exceeding their timeout to the
+   * {@link TransactionListener} and causes them to be rolled back. This attribute only has an effect on the method
+   * which starts the transaction.
+   */
+  int timeout() default 0;
+
+  /**
+   * The maximum number of times the method is retried if it fails with one of the exceptions defined in
+   * {@link #retryOn()}. Default is 0 which disables retrying.
+   * <p/>
+   * Only a method which starts the unit of work is retried. Every attempt runs in a new unit of work and a new
+   * transaction. Nested transactional methods are never retried, their exceptions are propagated to the outermost
+   * method instead. Retrying should only be used for methods without side effects outside of the transaction.
+   */
+  int maxRetries() default 0;
+
+  /**
+   * A list of exceptions to retry on. An exception matches if it or one of its causes is an instance of one of the
+   * listed exceptions. Default is {@link OptimisticLockException}, {@link PessimisticLockException} (which includes
+   * deadlocks) and {@link LockTimeoutException}.
+   */
+  Class<? extends Exception>[] retryOn() default {
+      OptimisticLockException.class, PessimisticLockException.class, LockTimeoutException.class
+  };
+
+  /**
+   * The base delay in milliseconds before the first retry. The delay doubles with every further attempt and is
+   * randomized by up to 50% to avoid that competing transactions retry in lockstep. Default is 10.
+   */
+  long retryBackoffMillis() default 10;
+
+  /**
+   * The upper bound for the delay between two attempts in milliseconds. Default is 1000.
+   */
+  long maxRetryBackoffMillis() default 1000;
+
+  /**
+   * Allows concurrent invocations of this method to share a single transaction. Default is {@code false}.
+   * <p/>
+   * For persistence units with resource local transactions invocations which start a new unit of work are collected
+   * into batches and committed together. Every caller blocks until the shared transaction has been committed. If
+   * any invocation of a batch fails the batch is rolled back and every invocation is run again in its own
+   * transaction. The method must therefore not have side effects outside of the transaction. Since the rollback
+   * does not restore entities passed in by the caller, methods with parameters of entity types are rejected.
+   * <p/>
+   * The invocations of a batch all run on the thread of the first caller, the leader. The other callers only wait.
+   * Thread local state such as the units of work of other persistence units, the logging MDC or the security context
+   * is therefore the one of the leader and not the one of the caller. Methods which depend on it must not use group
+   * commit.
+   * <p/>
+   * Invocations with a {@link #timeout()}, a {@link #readOnly() read only} transaction or a propagation other than
+   * {@link Propagation#REQUIRED} always run in their own transaction.
+   */
+  boolean groupCommit() default false;
 }
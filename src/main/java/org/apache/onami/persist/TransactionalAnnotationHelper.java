@@ -19,7 +19,6 @@ package org.apache.onami.persist;
  * under the License.
  */
 
-import static java.util.Arrays.asList;
 import static org.apache.onami.persist.Preconditions.checkNotNull;
 
 import java.lang.annotation.Annotation;
@@ -64,79 +63,89 @@ class TransactionalAnnotationHelper {
    * @return {@code true} if the current persistence unit participates in a transaction for the given method.
    */
   boolean persistenceUnitParticipatesInTransactionFor(MethodInvocation methodInvocation) {
-    return puAnnotation == null || participates(methodInvocation);
+    return puAnnotation == null || txnAnnoReader.readTransactionPlanFrom(methodInvocation).participates(puAnnotation);
   }
 
   /**
-   * Decides if the current persistence unit participates in a transaction for the given method invocation.
-   * The persistence unit has is annotated.
+   * Decides if a rollback is necessary for the given method invocation and a thrown exception.
+   *
+   * @param methodInvocation the method invocation during which an exception was thrown.
+   * @param exc the exception which was thrown
+   * @return {@code true} if the transaction needs to be rolled back.
+   */
+  boolean isRollbackNecessaryFor(MethodInvocation methodInvocation, Throwable exc) {
+    return txnAnnoReader.readTransactionPlanFrom(methodInvocation).isRollbackNecessaryFor(exc);
+  }
+
+  /**
+   * Reads the propagation behaviour for the given method invocation.
    *
    * @param methodInvocation the method invocation which may be wrapped in a transaction.
-   * @return {@code true} if the current persistence unit participates in a transaction for the given method.
+   * @return the propagation behaviour of the transaction.
    */
-  private boolean participates(MethodInvocation methodInvocation) {
-    final Transactional transactional = txnAnnoReader.readAnnotationFrom(methodInvocation);
-    final Class<? extends Annotation>[] onUnits = transactional.onUnits();
-    return isEmpty(onUnits) || contains(onUnits, puAnnotation);
+  Propagation propagationFor(MethodInvocation methodInvocation) {
+    return txnAnnoReader.readTransactionPlanFrom(methodInvocation).getPropagation();
   }
 
   /**
-   * Returns {@code true} if the given array is empty.
+   * Decides if the transaction for the given method invocation is read only.
    *
-   * @param array the array to test for emptiness.
-   * @return {@code true} if the the given array has is {@code null} or has length 0.
+   * @param methodInvocation the method invocation which may be wrapped in a transaction.
+   * @return {@code true} if the transaction is read only.
    */
-  private boolean isEmpty(Object[] array) {
-    return array == null || array.length == 0;
+  boolean isReadOnly(MethodInvocation methodInvocation) {
+    return txnAnnoReader.readTransactionPlanFrom(methodInvocation).isReadOnly();
   }
 
   /**
-   * Returns {@code true} if the given array contains the specified element.
+   * Reads the timeout for the given method invocation.
    *
-   * @param array the array in which to search for the specified element.
-   * @param key the element to look for.
-   * @return {@code true} if the given array contains the specified element.
+   * @param methodInvocation the method invocation which may be wrapped in a transaction.
+   * @return the timeout in seconds. 0 for no timeout.
    */
-  private boolean contains(Object[] array, Object key) {
-    return asList(array).contains(key);
+  int timeoutFor(MethodInvocation methodInvocation) {
+    return txnAnnoReader.readTransactionPlanFrom(methodInvocation).getTimeout();
   }
 
   /**
-   * Decides if a rollback is necessary for the given method invocation and a thrown exception.
+   * Decides if concurrent invocations of the given method may share a transaction.
    *
-   * @param methodInvocation the method invocation during which an exception was thrown.
-   * @param exc the exception which was thrown
-   * @return {@code true} if the transaction needs to be rolled back.
+   * @param methodInvocation the method invocation which may be wrapped in a transaction.
+   * @return {@code true} if the invocation is eligible for group commit.
    */
-  boolean isRollbackNecessaryFor(MethodInvocation methodInvocation, Throwable exc) {
-    final Transactional transactional = txnAnnoReader.readAnnotationFrom(methodInvocation);
-    return isRollbackNecessaryFor(transactional, exc);
+  boolean isGroupCommit(MethodInvocation methodInvocation) {
+    return txnAnnoReader.readTransactionPlanFrom(methodInvocation).isGroupCommit();
   }
 
   /**
-   * Decides if a rollback is necessary for the given transactional annotation and a thrown exception.
+   * Reads the maximal number of retries for the given method invocation.
    *
-   * @param transactional the transactional annotation of the method during which an exception was thrown.
-   * @param exc the exception which was thrown
-   * @return {@code true} if the transaction needs to be rolled back.
+   * @param methodInvocation the method invocation which may be wrapped in a transaction.
+   * @return the maximal number of retries. 0 if retrying is disabled.
+   */
+  int maxRetriesFor(MethodInvocation methodInvocation) {
+    return txnAnnoReader.readTransactionPlanFrom(methodInvocation).getMaxRetries();
+  }
+
+  /**
+   * Decides if the given method invocation should be retried after an exception was thrown.
+   *
+   * @param methodInvocation the method invocation during which an exception was thrown.
+   * @param exc the exception which was thrown.
+   * @return {@code true} if the method should be retried.
    */
-  private boolean isRollbackNecessaryFor(Transactional transactional, Throwable exc) {
-    return containsSuper(transactional.rollbackOn(), exc) && !containsSuper(transactional.ignore(), exc);
+  boolean isRetryNecessaryFor(MethodInvocation methodInvocation, Throwable exc) {
+    return txnAnnoReader.readTransactionPlanFrom(methodInvocation).isRetryNecessaryFor(exc);
   }
 
   /**
-   * Decides if the array of classes contains a super class of exc.
+   * Computes the randomized delay before retrying the given method invocation.
    *
-   * @param classes the classes in which to look fore
-   * @param exc the class to search for
-   * @return {@code true} when the array contains a super class of exc.
+   * @param methodInvocation the method invocation to retry.
+   * @param attempt the number of the retry starting with 1.
+   * @return the delay in milliseconds.
    */
-  private boolean containsSuper(Class<? extends Exception>[] classes, Throwable exc) {
-    for (Class<? extends Exception> c : classes) {
-      if (c.isInstance(exc)) {
-        return true;
-      }
-    }
-    return false;
+  long retryBackoffMillisFor(MethodInvocation methodInvocation, int attempt) {
+    return txnAnnoReader.readTransactionPlanFrom(methodInvocation).retryBackoffMillis(attempt, Math.random());
   }
 }
@@ -20,11 +20,14 @@ package org.apache.onami.persist;
  */
 
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.inject.Singleton;
 import org.aopalliance.intercept.MethodInvocation;
 
 /**
- * Reader which obtains the concrete {@link Transactional @Transactional} annotation of a method.
+ * Reader which obtains the {@link TransactionPlan} of the concrete {@link Transactional @Transactional} annotation of
+ * a method.
  */
 @Singleton
 class TransactionalAnnotationReader {
@@ -35,23 +38,60 @@ class TransactionalAnnotationReader {
   private static final Transactional DEFAULT_TRANSACTIONAL = DefaultTransactional.class.getAnnotation(Transactional.class);
 
   /**
-   * Reads the {@link Transactional @Transactional} of a given method invocation.
+   * Marker stored in the method cache for methods which are not annotated themselves.
+   */
+  private static final TransactionPlan NOT_ANNOTATED = new TransactionPlan(DEFAULT_TRANSACTIONAL);
+
+  /**
+   * Cache of plans resolved from annotated methods. Holds {@link #NOT_ANNOTATED} for methods without annotation.
+   */
+  private final ConcurrentMap<Method, TransactionPlan> methodPlans = new ConcurrentHashMap<Method, TransactionPlan>();
+
+  /**
+   * Cache of plans resolved from the class of the intercepted instance (or the defaults).
+   * This is kept separate from the method cache because the same method may be invoked on instances of
+   * different (sub-)classes carrying different annotations.
+   */
+  private final ConcurrentMap<Class<?>, TransactionPlan> classPlans = new ConcurrentHashMap<Class<?>, TransactionPlan>();
+
+  /**
+   * Reads the {@link TransactionPlan} of a given method invocation.
+   * The plan is resolved only once per method (respectively class) and then served from a cache.
    *
-   * @param methodInvocation the method invocation for which to obtain the {@link Transactional @Transactional}.
-   * @return the {@link Transactional @Transactional} of the given method invocation. Never {@code null}.
+   * @param methodInvocation the method invocation for which to obtain the {@link TransactionPlan}.
+   * @return the {@link TransactionPlan} of the given method invocation. Never {@code null}.
    */
-  Transactional readAnnotationFrom(MethodInvocation methodInvocation) {
-    Transactional result;
+  TransactionPlan readTransactionPlanFrom(MethodInvocation methodInvocation) {
     final Method method = methodInvocation.getMethod();
-    result = method.getAnnotation(Transactional.class);
-    if (null == result) {
-      final Class<?> targetClass = methodInvocation.getThis().getClass();
-      result = targetClass.getAnnotation(Transactional.class);
+    TransactionPlan plan = methodPlans.get(method);
+    if (plan == null) {
+      final Transactional transactional = method.getAnnotation(Transactional.class);
+      plan = cache(methodPlans, method, transactional == null ? NOT_ANNOTATED : new TransactionPlan(transactional));
+    }
+    if (plan != NOT_ANNOTATED) {
+      return plan;
     }
-    if (null == result) {
-      result = DEFAULT_TRANSACTIONAL;
+
+    final Class<?> targetClass = methodInvocation.getThis().getClass();
+    plan = classPlans.get(targetClass);
+    if (plan == null) {
+      Transactional transactional = targetClass.getAnnotation(Transactional.class);
+      if (transactional == null) {
+        transactional = DEFAULT_TRANSACTIONAL;
+      }
+      plan = cache(classPlans, targetClass, new TransactionPlan(transactional));
     }
-    return result;
+    return plan;
+  }
+
+  /**
+   * Puts a plan into the given cache unless another thread was faster.
+   *
+   * @return the plan which is in the cache.
+   */
+  private static <K> TransactionPlan cache(ConcurrentMap<K, TransactionPlan> cache, K key, TransactionPlan plan) {
+    final TransactionPlan existing = cache.putIfAbsent(key, plan);
+    return existing == null ? plan : existing;
   }
 
   /**
@@ -0,0 +1,213 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.inject.Inject;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Single interceptor for methods and classes annotated with {@link Transactional @Transactional} annotation.
+ * <p/>
+ * Instead of binding one {@link TxnInterceptor} per persistence unit, which would require every unit to inspect
+ * every call, the dispatcher looks up the precomputed list of participating persistence units and only passes the
+ * invocation through the {@link TxnInterceptor} of those units. The participating units are computed once per
+ * {@link TransactionPlan}. The order in which the units are wrapped around the invocation is the order in which they
+ * have been configured.
+ */
+class TxnDispatcher implements MethodInterceptor {
+
+  /**
+   * Constant for no participating persistence units.
+   */
+  private static final TxnInterceptor[] NO_PARTICIPANTS = new TxnInterceptor[0];
+
+  /**
+   * The transaction interceptors of all persistence units in the order of their configuration.
+   */
+  private final List<TxnInterceptor> txnInterceptors = new ArrayList<TxnInterceptor>();
+
+  /**
+   * Cache of the participating transaction interceptors per transaction plan.
+   * Transaction plans are canonical instances cached by the {@link TransactionalAnnotationReader}.
+   */
+  private final ConcurrentMap<TransactionPlan, TxnInterceptor[]> participants =
+      new ConcurrentHashMap<TransactionPlan, TxnInterceptor[]>();
+
+  /**
+   * Reader for {@link Transactional @Transactional} annotations.
+   */
+  private TransactionalAnnotationReader txnAnnoReader;
+
+  @Inject
+  @VisibleForTesting
+  void init(TransactionalAnnotationReader txnAnnoReader) {
+    this.txnAnnoReader = txnAnnoReader;
+  }
+
+  /**
+   * Adds the transaction interceptor of a persistence unit.
+   *
+   * @param txnInterceptor the interceptor to add. Must not be {@code null}.
+   */
+  void add(TxnInterceptor txnInterceptor) {
+    txnInterceptors.add(checkNotNull(txnInterceptor, "txnInterceptor is mandatory!"));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final Object invoke(MethodInvocation methodInvocation) throws Throwable {
+    final TxnInterceptor[] units = participantsFor(methodInvocation);
+    switch (units.length) {
+      case 0:
+        return methodInvocation.proceed();
+      case 1:
+        return units[0].invokeInTransactionAndUnitOfWork(methodInvocation);
+      default:
+        return new ChainedInvocation(methodInvocation, units, 0).proceed();
+    }
+  }
+
+  /**
+   * Returns the transaction interceptors of all persistence units which participate in a transaction for the
+   * given method invocation.
+   *
+   * @param methodInvocation the method invocation which may be wrapped in a transaction.
+   * @return the participating interceptors in the order of configuration. Never {@code null}.
+   */
+  private TxnInterceptor[] participantsFor(MethodInvocation methodInvocation) {
+    final TransactionPlan plan = txnAnnoReader.readTransactionPlanFrom(methodInvocation);
+    TxnInterceptor[] result = participants.get(plan);
+    if (result == null) {
+      result = computeParticipantsFor(methodInvocation);
+      final TxnInterceptor[] existing = participants.putIfAbsent(plan, result);
+      if (existing != null) {
+        result = existing;
+      }
+    }
+    return result;
+  }
+
+  private TxnInterceptor[] computeParticipantsFor(MethodInvocation methodInvocation) {
+    final List<TxnInterceptor> result = new ArrayList<TxnInterceptor>();
+    for (TxnInterceptor txnInterceptor : txnInterceptors) {
+      if (txnInterceptor.persistenceUnitParticipatesInTransactionFor(methodInvocation)) {
+        result.add(txnInterceptor);
+      }
+    }
+    return result.isEmpty() ? NO_PARTICIPANTS : result.toArray(new TxnInterceptor[result.size()]);
+  }
+
+  /**
+   * Method invocation which passes the original invocation through the given interceptors, one after the other.
+   * A new instance is created for every step so {@link #proceed()} may be called repeatedly.
+   * <p/>
+   * Only the outermost unit may run the invocation asynchronously. The inner units run on the thread of the outer
+   * one so that all units of work and transactions are bound to the same thread.
+   */
+  static class ChainedInvocation implements MethodInvocation {
+
+    private final MethodInvocation original;
+
+    private final TxnInterceptor[] units;
+
+    private final int index;
+
+    ChainedInvocation(MethodInvocation original, TxnInterceptor[] units, int index) {
+      this.original = original;
+      this.units = units;
+      this.index = index;
+    }
+
+    /**
+     * @return {@code true} if this is the invocation passed to the outermost unit and the original method is not
+     * yet awaited by an asynchronous outer unit.
+     */
+    boolean mayRunAsync() {
+      return index == 1 && !(original instanceof TxnInterceptor.AwaitingInvocation);
+    }
+
+    /**
+     * Must be called on the thread the method was intercepted on.
+     *
+     * @return a copy of this invocation which may be proceeded on another thread and which waits for the future
+     * returned by the original method once all inner units have been passed. The transactions of all units therefore
+     * stay open until the future completed.
+     */
+    ChainedInvocation awaitingOriginal() {
+      return new ChainedInvocation(
+          new TxnInterceptor.AwaitingInvocation(new DetachedInvocation(original)), units, index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object proceed() throws Throwable {
+      if (index < units.length) {
+        return units[index].invokeInTransactionAndUnitOfWork(new ChainedInvocation(original, units, index + 1));
+      } else {
+        return original.proceed();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Method getMethod() {
+      return original.getMethod();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object[] getArguments() {
+      return original.getArguments();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getThis() {
+      return original.getThis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AccessibleObject getStaticPart() {
+      return original.getStaticPart();
+    }
+  }
+}
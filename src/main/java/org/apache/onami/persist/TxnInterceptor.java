@@ -19,15 +19,56 @@ package org.apache.onami.persist;
  * under the License.
  */
 
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import javax.inject.Inject;
+import javax.persistence.TransactionRequiredException;
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
 
 /**
  * Interceptor for methods and classes annotated with {@link Transactional @Transactional} annotation.
+ * Handles the unit of work and the transaction of a single persistence unit.
+ *
+ * @see TxnDispatcher
  */
 class TxnInterceptor implements MethodInterceptor {
 
+  /**
+   * Marks threads which are executing a method that will be retried on failure.
+   * Nested transactional methods of such a thread are never retried themselves.
+   */
+  private static final ThreadLocal<Boolean> RETRYING = new ThreadLocal<Boolean>();
+
+  /**
+   * Annotation of the persistence unit. May be {@code null}.
+   */
+  private final Class<? extends Annotation> puAnnotation;
+
+  /**
+   * Listener to notify about transactions. {@code null} if no listener is registered.
+   */
+  private final TransactionListener listener;
+
+  /**
+   * Watchdog for transactions with a timeout.
+   */
+  private final TransactionWatchdog watchdog;
+
+  /**
+   * Executor for methods returning a {@link Future}. {@code null} if such methods are invoked synchronously.
+   */
+  private final AsyncTransactionExecutor asyncExecutor;
+
   /**
    * Unit of work.
    */
@@ -43,6 +84,79 @@ class TxnInterceptor implements MethodInterceptor {
    */
   private TransactionalAnnotationHelper txnAnnotationHelper;
 
+  /**
+   * Provider for the entity manager. Used for read only transactions and transactions with a timeout.
+   */
+  private EntityManagerProviderImpl emProvider;
+
+  /**
+   * Adapter for read only transactions.
+   */
+  private ReadOnlyTransactionAdapter readOnlyAdapter;
+
+  /**
+   * Admission control for outer transactions. {@code null} if the concurrent transactions are not limited.
+   */
+  private TransactionBulkhead bulkhead;
+
+  /**
+   * Coalesces group commit invocations. {@code null} if group commit is not supported by the persistence unit.
+   */
+  private GroupCommit groupCommit;
+
+  /**
+   * Runs the batches of the group commit.
+   */
+  private final GroupCommit.Batch groupCommitBatch = new SharedTransaction();
+
+  /**
+   * Constructor for an interceptor without transaction listener.
+   */
+  TxnInterceptor() {
+    this(null, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param puAnnotation the annotation of the persistence unit. May be {@code null}.
+   * @param listener the listener to notify about transactions. May be {@code null}.
+   */
+  TxnInterceptor(Class<? extends Annotation> puAnnotation, TransactionListener listener) {
+    this(puAnnotation, listener, new TransactionWatchdog());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param puAnnotation the annotation of the persistence unit. May be {@code null}.
+   * @param listener the listener to notify about transactions. May be {@code null}.
+   * @param watchdog the watchdog for transactions with a timeout. Must not be {@code null}.
+   */
+  TxnInterceptor(Class<? extends Annotation> puAnnotation, TransactionListener listener, TransactionWatchdog watchdog) {
+    this(puAnnotation, listener, watchdog, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param puAnnotation the annotation of the persistence unit. May be {@code null}.
+   * @param listener the listener to notify about transactions. May be {@code null}.
+   * @param watchdog the watchdog for transactions with a timeout. Must not be {@code null}.
+   * @param asyncExecutor the executor for methods returning a {@link Future}. May be {@code null}.
+   */
+  TxnInterceptor(
+      Class<? extends Annotation> puAnnotation,
+      TransactionListener listener,
+      TransactionWatchdog watchdog,
+      AsyncTransactionExecutor asyncExecutor
+  ) {
+    this.puAnnotation = puAnnotation;
+    this.listener = listener;
+    this.watchdog = checkNotNull(watchdog, "watchdog is mandatory!");
+    this.asyncExecutor = asyncExecutor;
+  }
+
   @Inject
   @VisibleForTesting
   void init(UnitOfWork unitOfWork, TransactionFacadeFactory tfProvider, TransactionalAnnotationHelper txnAnnotationHelper) {
@@ -51,6 +165,36 @@ class TxnInterceptor implements MethodInterceptor {
     this.txnAnnotationHelper = txnAnnotationHelper;
   }
 
+  @Inject
+  @VisibleForTesting
+  void initDecorators(EntityManagerProviderImpl emProvider, ReadOnlyTransactionAdapter readOnlyAdapter) {
+    this.emProvider = emProvider;
+    this.readOnlyAdapter = readOnlyAdapter;
+  }
+
+  @Inject
+  @VisibleForTesting
+  void initBulkhead(TransactionBulkhead bulkhead) {
+    this.bulkhead = bulkhead.isEnabled() ? bulkhead : null;
+  }
+
+  @Inject
+  @VisibleForTesting
+  void initLifecycle(UnitOfWorkGate gate) {
+    // the watchdog thread terminates once no persistence unit is running anymore
+    gate.addListener(watchdog.newUnitListener());
+    if (asyncExecutor != null) {
+      // the executor accepts tasks only while the persistence unit is running
+      gate.addListener(asyncExecutor);
+    }
+  }
+
+  @Inject
+  @VisibleForTesting
+  void initGroupCommit(GroupCommit groupCommit) {
+    this.groupCommit = groupCommit.isEnabled() ? groupCommit : null;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -71,18 +215,280 @@ class TxnInterceptor implements MethodInterceptor {
    * @param methodInvocation the method invocation which may be wrapped in a transaction.
    * @return {@code true} if the current persistence unit participates in a transaction for the given method.
    */
-  private boolean persistenceUnitParticipatesInTransactionFor(MethodInvocation methodInvocation) {
+  boolean persistenceUnitParticipatesInTransactionFor(MethodInvocation methodInvocation) {
     return txnAnnotationHelper.persistenceUnitParticipatesInTransactionFor(methodInvocation);
   }
 
   /**
    * Invokes the original method within a unit of work and a transaction.
+   * Outer units of work must first be admitted by the {@link TransactionBulkhead} if one is configured.
    *
    * @param methodInvocation the method to be executed within the transaction
    * @return the result of the invocation of the original method.
    * @throws Throwable if an exception occurs during the call to the original method.
    */
-  private Object invokeInTransactionAndUnitOfWork(MethodInvocation methodInvocation) throws Throwable {
+  Object invokeInTransactionAndUnitOfWork(MethodInvocation methodInvocation) throws Throwable {
+    if (isAsync(methodInvocation)) {
+      return invokeAsync(methodInvocation);
+    }
+    if (bulkhead == null || unitOfWork.isActive()) {
+      return invokeAdmitted(methodInvocation);
+    }
+    // only outer units of work are admitted. nested ones already hold the admission of the outer one.
+    bulkhead.enter();
+    try {
+      return invokeAdmitted(methodInvocation);
+    } finally {
+      bulkhead.exit();
+    }
+  }
+
+  /**
+   * Invokes the original method within a unit of work and a transaction. Outer group commit invocations share the
+   * transaction with concurrent ones.
+   *
+   * @param methodInvocation the method to be executed within the transaction
+   * @return the result of the invocation of the original method.
+   * @throws Throwable if an exception occurs during the call to the original method.
+   */
+  private Object invokeAdmitted(MethodInvocation methodInvocation) throws Throwable {
+    if (groupCommit != null && txnAnnotationHelper.isGroupCommit(methodInvocation) && !unitOfWork.isActive()) {
+      return groupCommit.invoke(methodInvocation, groupCommitBatch);
+    }
+    return invokeWithRetriesIfNecessary(methodInvocation);
+  }
+
+  /**
+   * Invokes the original method within a unit of work and a transaction.
+   * The method is retried if configured by {@link Transactional#maxRetries()}.
+   *
+   * @param methodInvocation the method to be executed within the transaction
+   * @return the result of the invocation of the original method.
+   * @throws Throwable if an exception occurs during the call to the original method.
+   */
+  private Object invokeWithRetriesIfNecessary(MethodInvocation methodInvocation) throws Throwable {
+    if (unitOfWork.isActive()) {
+      return invokeWithPropagation(methodInvocation);
+    }
+    final int maxRetries = txnAnnotationHelper.maxRetriesFor(methodInvocation);
+    if (maxRetries > 0 && RETRYING.get() == null) {
+      return invokeWithRetries(methodInvocation, maxRetries);
+    }
+    return invokeMeasured(methodInvocation);
+  }
+
+  /**
+   * Invokes the original method within a new outer unit of work and reports its latency to the bulkhead. Only the
+   * physical transaction is measured, neither the wait for admission nor the back off between retries.
+   *
+   * @param methodInvocation the method to be executed within the transaction
+   * @return the result of the invocation of the original method.
+   * @throws Throwable if an exception occurs during the call to the original method.
+   */
+  private Object invokeMeasured(MethodInvocation methodInvocation) throws Throwable {
+    if (bulkhead == null) {
+      return invokeWithPropagation(methodInvocation);
+    }
+    final long begin = System.nanoTime();
+    try {
+      return invokeWithPropagation(methodInvocation);
+    } finally {
+      bulkhead.recordLatency(System.nanoTime() - begin);
+    }
+  }
+
+  /**
+   * Decides if the given method invocation is handed over to the {@link AsyncTransactionExecutor}. This is the case
+   * for methods returning a {@link Future} if no unit of work is active. Otherwise the method joins the active unit
+   * of work on the current thread. If several units participate only the outermost one may run the method
+   * asynchronously. The inner ones run on its thread.
+   */
+  private boolean isAsync(MethodInvocation methodInvocation) {
+    return asyncExecutor != null
+        && !(methodInvocation instanceof AwaitingInvocation)
+        && (!(methodInvocation instanceof TxnDispatcher.ChainedInvocation)
+        || ((TxnDispatcher.ChainedInvocation) methodInvocation).mayRunAsync())
+        && methodInvocation.getMethod().getReturnType() == Future.class
+        && !unitOfWork.isActive();
+  }
+
+  /**
+   * Must be called on the thread the method was intercepted on.
+   *
+   * @return an invocation which may be proceeded on another thread and waits for the future returned by the
+   * original method. For chained invocations the waiting happens inside the innermost unit.
+   */
+  private static MethodInvocation awaiting(MethodInvocation methodInvocation) {
+    if (methodInvocation instanceof TxnDispatcher.ChainedInvocation) {
+      return ((TxnDispatcher.ChainedInvocation) methodInvocation).awaitingOriginal();
+    }
+    return new AwaitingInvocation(new DetachedInvocation(methodInvocation));
+  }
+
+  /**
+   * Invokes the original method on a thread of the {@link AsyncTransactionExecutor}. The unit of work and the
+   * transaction are begun on that thread and stay open until the future returned by the original method completed.
+   * The transaction is then committed or rolled back as if the method had returned the value of the future or had
+   * thrown its exception.
+   * <p/>
+   * The intercepted invocation is not proceeded on the executor thread. The original method is called directly
+   * instead, interceptors bound after this one are therefore skipped.
+   *
+   * @param methodInvocation the method to be executed.
+   * @return a future for the value of the future returned by the original method.
+   */
+  private Future<Object> invokeAsync(MethodInvocation methodInvocation) {
+    final MethodInvocation detached = awaiting(methodInvocation);
+    return asyncExecutor.submit(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        try {
+          return invokeInTransactionAndUnitOfWork(detached);
+        } catch (Exception e) {
+          throw e;
+        } catch (Error e) {
+          throw e;
+        } catch (Throwable e) {
+          throw new UndeclaredThrowableException(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Invokes the original method and retries it as long as it fails with an exception to retry on.
+   * Every attempt runs in a new unit of work.
+   *
+   * @param methodInvocation the method to be executed.
+   * @param maxRetries the maximal number of retries.
+   * @return the result of the invocation of the original method.
+   * @throws Throwable if the last attempt failed or the exception is not one to retry on.
+   */
+  private Object invokeWithRetries(MethodInvocation methodInvocation, int maxRetries) throws Throwable {
+    RETRYING.set(Boolean.TRUE);
+    try {
+      for (int attempt = 1; ; attempt++) {
+        try {
+          return invokeMeasured(methodInvocation);
+        } catch (Throwable exc) {
+          if (attempt > maxRetries || !txnAnnotationHelper.isRetryNecessaryFor(methodInvocation, exc)) {
+            throw exc;
+          }
+          if (listener != null) {
+            listener.transactionRetried(puAnnotation, methodInvocation.getMethod(), attempt, exc);
+          }
+          sleepBeforeRetry(txnAnnotationHelper.retryBackoffMillisFor(methodInvocation, attempt), exc);
+        }
+      }
+    } finally {
+      RETRYING.remove();
+    }
+  }
+
+  /**
+   * Waits before the next attempt. If the thread is interrupted the exception of the last attempt is thrown.
+   *
+   * @param millis the time to wait in milliseconds.
+   * @param exc the exception of the last attempt.
+   * @throws Throwable the exception of the last attempt if the thread has been interrupted.
+   */
+  private static void sleepBeforeRetry(long millis, Throwable exc) throws Throwable {
+    if (millis <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw exc;
+    }
+  }
+
+  /**
+   * Invokes the original method within a unit of work and a transaction according to the
+   * {@link Propagation propagation} of the method.
+   *
+   * @param methodInvocation the method to be executed within the transaction
+   * @return the result of the invocation of the original method.
+   * @throws Throwable if an exception occurs during the call to the original method.
+   */
+  private Object invokeWithPropagation(MethodInvocation methodInvocation) throws Throwable {
+    switch (txnAnnotationHelper.propagationFor(methodInvocation)) {
+      case REQUIRES_NEW:
+        return invokeSuspended(methodInvocation, true);
+      case NOT_SUPPORTED:
+        if (tfProvider.isTransactionActive()) {
+          return invokeSuspended(methodInvocation, false);
+        }
+        return invokeInUnitOfWork(methodInvocation, false);
+      case SUPPORTS:
+        return invokeInUnitOfWork(methodInvocation, tfProvider.isTransactionActive());
+      case MANDATORY:
+        if (!tfProvider.isTransactionActive()) {
+          throw new TransactionRequiredException("no transaction is running for " + methodInvocation.getMethod());
+        }
+        return invokeInUnitOfWork(methodInvocation, true);
+      case NEVER:
+        if (tfProvider.isTransactionActive()) {
+          throw new IllegalStateException("a transaction is running for " + methodInvocation.getMethod());
+        }
+        return invokeInUnitOfWork(methodInvocation, false);
+      default:
+        return invokeInUnitOfWork(methodInvocation, true);
+    }
+  }
+
+  /**
+   * Suspends the current unit of work and transaction and invokes the original method within a new unit of work.
+   *
+   * @param methodInvocation the method to be executed.
+   * @param transactional {@code true} if the method should be executed within a new transaction.
+   * @return the result of the invocation of the original method.
+   * @throws Throwable if an exception occurs during the call to the original method.
+   */
+  private Object invokeSuspended(MethodInvocation methodInvocation, boolean transactional) throws Throwable {
+    final SuspendedTransaction suspended = tfProvider.suspend();
+    Throwable originalException = null;
+    try {
+      return invokeInUnitOfWork(methodInvocation, transactional);
+    } catch (Throwable exc) {
+      originalException = exc;
+      throw exc;
+    } finally {
+      resume(suspended, originalException);
+    }
+  }
+
+  /**
+   * Resumes a suspended unit of work and transaction. If an exception occurs while resuming it is neglected in
+   * preference of an original exception.
+   *
+   * @param suspended the suspended unit of work and transaction.
+   * @param originalException the original exception. will be thrown in preference to an exception occurring during
+   * execution of this method.
+   * @throws Throwable if an exception happened while resuming.
+   */
+  private void resume(SuspendedTransaction suspended, Throwable originalException) throws Throwable {
+    try {
+      suspended.resume();
+    } catch (Throwable exc) {
+      if (originalException != null) {
+        throw originalException;
+      } else {
+        throw exc;
+      }
+    }
+  }
+
+  /**
+   * Invokes the original method within a unit of work and optionally within a transaction.
+   *
+   * @param methodInvocation the method to be executed.
+   * @param transactional {@code true} if the method should be executed within a transaction.
+   * @return the result of the invocation of the original method.
+   * @throws Throwable if an exception occurs during the call to the original method.
+   */
+  private Object invokeInUnitOfWork(MethodInvocation methodInvocation, boolean transactional) throws Throwable {
     final boolean weStartedTheUnitOfWork = !unitOfWork.isActive();
     if (weStartedTheUnitOfWork) {
       unitOfWork.begin();
@@ -90,7 +496,7 @@ class TxnInterceptor implements MethodInterceptor {
 
     Throwable originalException = null;
     try {
-      return invokeInTransaction(methodInvocation);
+      return transactional ? invokeInTransaction(methodInvocation) : methodInvocation.proceed();
     } catch (Throwable exc) {
       originalException = exc;
       throw exc;
@@ -129,28 +535,96 @@ class TxnInterceptor implements MethodInterceptor {
    * @throws Throwable if an exception occurs during the call to the original method.
    */
   private Object invokeInTransaction(MethodInvocation methodInvocation) throws Throwable {
-    final TransactionFacade transactionFacade = tfProvider.createTransactionFacade();
+    final TransactionFacade transactionFacade = createTransactionFacade(methodInvocation);
     transactionFacade.begin();
-    final Object result = invokeAndHandleException(methodInvocation, transactionFacade);
-    transactionFacade.commit();
+    final long begin = transactionBegun(methodInvocation, transactionFacade);
+    final Object result = invokeAndHandleException(methodInvocation, transactionFacade, begin);
+    commit(methodInvocation, transactionFacade, begin);
 
     return result;
   }
 
+  /**
+   * Creates the transaction facade. Outer transactions are decorated with a {@link TimeoutTransactionFacade} if
+   * the method has a timeout and with a {@link ReadOnlyTransactionFacade} if the method is read only.
+   */
+  private TransactionFacade createTransactionFacade(MethodInvocation methodInvocation) {
+    TransactionFacade transactionFacade = tfProvider.createTransactionFacade();
+    if (!transactionFacade.isOuter()) {
+      return transactionFacade;
+    }
+    final int timeout = txnAnnotationHelper.timeoutFor(methodInvocation);
+    if (timeout > 0) {
+      transactionFacade = new TimeoutTransactionFacade(
+          transactionFacade, emProvider, watchdog, timeout, puAnnotation, methodInvocation.getMethod(), listener);
+    }
+    if (txnAnnotationHelper.isReadOnly(methodInvocation)) {
+      transactionFacade = new ReadOnlyTransactionFacade(transactionFacade, emProvider, readOnlyAdapter);
+    }
+    return transactionFacade;
+  }
+
+  /**
+   * Notifies the listener about the begin of a transaction.
+   *
+   * @return the time of the begin in nanoseconds. 0 if there is no listener.
+   */
+  private long transactionBegun(MethodInvocation methodInvocation, TransactionFacade transactionFacade) {
+    if (listener == null) {
+      return 0L;
+    }
+    listener.transactionBegun(puAnnotation, methodInvocation.getMethod(), transactionFacade.isOuter());
+    return System.nanoTime();
+  }
+
+  /**
+   * Commits the transaction and notifies the listener.
+   * A failing commit is reported as rollback.
+   */
+  private void commit(MethodInvocation methodInvocation, TransactionFacade transactionFacade, long begin) {
+    if (listener == null) {
+      transactionFacade.commit();
+      return;
+    }
+    try {
+      transactionFacade.commit();
+    } catch (RuntimeException e) {
+      listener.transactionRolledBack(puAnnotation, methodInvocation.getMethod(), transactionFacade.isOuter(), System.nanoTime() - begin);
+      throw e;
+    }
+    listener.transactionCommitted(puAnnotation, methodInvocation.getMethod(), transactionFacade.isOuter(), System.nanoTime() - begin);
+  }
+
+  /**
+   * Rolls back the transaction and notifies the listener.
+   * The listener is notified even if the rollback fails.
+   */
+  private void rollback(MethodInvocation methodInvocation, TransactionFacade transactionFacade, long begin) {
+    try {
+      transactionFacade.rollback();
+    } finally {
+      if (listener != null) {
+        listener.transactionRolledBack(puAnnotation, methodInvocation.getMethod(), transactionFacade.isOuter(), System.nanoTime() - begin);
+      }
+    }
+  }
+
   /**
    * Invoke the original method assuming a transaction has already been started.
    * This method is responsible of calling rollback if necessary.
    *
    * @param methodInvocation the original method invocation.
    * @param transactionFacade the facade to the underlying resource local or jta transaction.
+   * @param begin the time of the begin of the transaction in nanoseconds.
    * @return the result of the invocation of the original method.
    * @throws Throwable if an exception occurs during the call to the original method.
    */
-  private Object invokeAndHandleException(MethodInvocation methodInvocation, TransactionFacade transactionFacade) throws Throwable {
+  private Object invokeAndHandleException(MethodInvocation methodInvocation, TransactionFacade transactionFacade, long begin)
+      throws Throwable {
     try {
       return methodInvocation.proceed();
     } catch (Throwable exc) {
-      handleException(methodInvocation, transactionFacade, exc);
+      handleException(methodInvocation, transactionFacade, begin, exc);
       throw exc;
     }
   }
@@ -160,14 +634,19 @@ class TxnInterceptor implements MethodInterceptor {
    *
    * @param methodInvocation the original method invocation.
    * @param transactionFacade the facade to the underlying resource local or jta transaction.
+   * @param begin the time of the begin of the transaction in nanoseconds.
    * @param exc the exception thrown by the original method.
    */
-  private void handleException(MethodInvocation methodInvocation, TransactionFacade transactionFacade, Throwable exc) throws Throwable {
+  private void handleException(MethodInvocation methodInvocation, TransactionFacade transactionFacade, long begin, Throwable exc)
+      throws Throwable {
     try {
+      if (listener != null) {
+        listener.exceptionThrown(puAnnotation, methodInvocation.getMethod(), transactionFacade.isOuter(), exc);
+      }
       if (isRollbackNecessaryFor(methodInvocation, exc)) {
-        transactionFacade.rollback();
+        rollback(methodInvocation, transactionFacade, begin);
       } else {
-        transactionFacade.commit();
+        commit(methodInvocation, transactionFacade, begin);
       }
     } catch (Exception swallowedException) {
       // swallow exception from transaction facade in favor of th exception thrown by the original method.
@@ -185,4 +664,128 @@ class TxnInterceptor implements MethodInterceptor {
   private boolean isRollbackNecessaryFor(MethodInvocation methodInvocation, Throwable exc) {
     return txnAnnotationHelper.isRollbackNecessaryFor(methodInvocation, exc);
   }
+
+  /**
+   * Runs the batches of the {@link GroupCommit}.
+   */
+  private class SharedTransaction implements GroupCommit.Batch {
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The listener is notified about a committed transaction for every invocation once the shared transaction has
+     * been committed. A rolled back batch is not reported since its invocations are run again alone.
+     */
+    @Override
+    public Object[] invokeTogether(List<MethodInvocation> invocations) throws Throwable {
+      unitOfWork.begin();
+      try {
+        final TransactionFacade transactionFacade = tfProvider.createTransactionFacade();
+        transactionFacade.begin();
+        final long begin = System.nanoTime();
+        final Object[] results = new Object[invocations.size()];
+        try {
+          for (int i = 0; i < results.length; i++) {
+            results[i] = invocations.get(i).proceed();
+          }
+        } catch (Throwable exc) {
+          try {
+            transactionFacade.rollback();
+          } catch (Exception swallowedException) {
+            // swallow exception from transaction facade in favor of the exception thrown by the original method.
+          }
+          throw exc;
+        }
+        transactionFacade.commit();
+        final long duration = System.nanoTime() - begin;
+        if (bulkhead != null) {
+          // one sample for the shared transaction. the time the invocations waited for the batch is not included.
+          bulkhead.recordLatency(duration);
+        }
+        if (listener != null) {
+          for (MethodInvocation invocation : invocations) {
+            listener.transactionBegun(puAnnotation, invocation.getMethod(), true);
+            listener.transactionCommitted(puAnnotation, invocation.getMethod(), true, duration);
+          }
+        }
+        return results;
+      } finally {
+        unitOfWork.end();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object invokeAlone(MethodInvocation invocation) throws Throwable {
+      return invokeWithRetriesIfNecessary(invocation);
+    }
+  }
+
+  /**
+   * Method invocation which waits for the future returned by the original method. The value of the future is
+   * returned and its exception is thrown as if they were the outcome of the original method.
+   */
+  static class AwaitingInvocation implements MethodInvocation {
+
+    private final MethodInvocation original;
+
+    AwaitingInvocation(MethodInvocation original) {
+      this.original = original;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object proceed() throws Throwable {
+      final Object result = original.proceed();
+      if (!(result instanceof Future)) {
+        return result;
+      }
+      final Future<?> future = (Future<?>) result;
+      try {
+        return future.get();
+      } catch (ExecutionException e) {
+        throw e.getCause();
+      } catch (InterruptedException e) {
+        future.cancel(true);
+        Thread.currentThread().interrupt();
+        throw new CancellationException("interrupted while waiting for the result of " + getMethod());
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Method getMethod() {
+      return original.getMethod();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object[] getArguments() {
+      return original.getArguments();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getThis() {
+      return original.getThis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AccessibleObject getStaticPart() {
+      return original.getStaticPart();
+    }
+  }
 }
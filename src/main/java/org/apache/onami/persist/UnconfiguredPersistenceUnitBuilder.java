@@ -20,6 +20,8 @@ package org.apache.onami.persist;
  */
 
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import javax.transaction.TransactionManager;
 
 /**
  * 4th step of the persistence unit builder process.
@@ -27,6 +29,138 @@ import java.util.Properties;
  */
 public interface UnconfiguredPersistenceUnitBuilder {
 
+  /**
+   * Defers the creation of the {@link javax.persistence.EntityManager} until it is first obtained from the
+   * {@link EntityManagerProvider}. Starting a {@link UnitOfWork} will then only mark it as active.
+   * Units of work which never use the entity manager will not create one at all.
+   *
+   * @return the current builder step.
+   */
+  UnconfiguredPersistenceUnitBuilder createEntityManagerLazily();
+
+  /**
+   * Defers the begin of a transaction until the {@link javax.persistence.EntityManager} is first obtained from the
+   * {@link EntityManagerProvider} within a {@link Transactional @Transactional} method. Transactions which never use
+   * the entity manager of this persistence unit are neither started nor committed.
+   * <p/>
+   * For JTA transactions the entity manager joins the user transaction upon first use. The user transaction is only
+   * started if it is not already active.
+   *
+   * @return the current builder step.
+   */
+  UnconfiguredPersistenceUnitBuilder deferTransactionBegin();
+
+  /**
+   * Defines the adapter which prepares the {@link javax.persistence.EntityManager} for read only transactions.
+   * By default only the JPA API is used. Use {@link HibernateReadOnlyTransactionAdapter} to enable the read only
+   * optimizations of Hibernate.
+   *
+   * @param adapter the adapter to use. Must not be {@code null}.
+   * @return the current builder step.
+   * @see Transactional#readOnly()
+   */
+  UnconfiguredPersistenceUnitBuilder useReadOnlyTransactionAdapter(ReadOnlyTransactionAdapter adapter);
+
+  /**
+   * Lets {@link PersistenceService#start()} return immediately and creates the
+   * {@link javax.persistence.EntityManagerFactory} on a background thread. Callers which need the entity manager
+   * factory before it is ready block until it becomes available or the timeout elapses.
+   * Use {@link PersistenceService#isReady()} to query the state without blocking.
+   *
+   * @param readyTimeout the maximum time to wait for the entity manager factory. Must be positive.
+   * @param unit the unit of the timeout. Must not be {@code null}.
+   * @return the current builder step.
+   */
+  UnconfiguredPersistenceUnitBuilder bootstrapInBackground(long readyTimeout, TimeUnit unit);
+
+  /**
+   * Runs {@link Transactional @Transactional} methods which return a {@link java.util.concurrent.Future} on a
+   * dedicated executor of this persistence unit. The caller immediately receives a future. The unit of work and the
+   * transaction stay open on the executor thread until the future returned by the method completes. The transaction
+   * is then committed or rolled back according to {@link Transactional#rollbackOn()} and
+   * {@link Transactional#ignore()}.
+   * <p/>
+   * The entity manager may only be used by the method itself and not by other threads completing its future.
+   * Methods called within an active unit of work of this persistence unit are still invoked synchronously.
+   * <p/>
+   * If all threads are busy and the queue is full, or the persistence service is not running, the method is not
+   * invoked and the caller receives a {@link java.util.concurrent.RejectedExecutionException} instead of a future.
+   *
+   * @param maxConcurrent the maximum number of asynchronous transactions running at the same time. Must be positive.
+   * @param maxQueued the maximum number of invocations waiting for a free thread. Must not be negative.
+   * @return the current builder step.
+   */
+  UnconfiguredPersistenceUnitBuilder runAsyncTransactions(int maxConcurrent, int maxQueued);
+
+  /**
+   * Limits the number of concurrent outer transactions of this persistence unit. Callers exceeding the limit wait in
+   * a fair queue. If the queue is full or the wait time elapses a {@link TransactionRejectedException} is thrown
+   * without starting a unit of work. Nested transactions are never limited.
+   * <p/>
+   * The queue depth and the wait times are available through {@link TransactionBulkheadStatistics}.
+   *
+   * @param maxConcurrent the maximum number of concurrent outer transactions. Must be positive.
+   * @param maxQueued the maximum number of transactions waiting for admission. Must not be negative.
+   * @param maxWait the maximum time to wait for admission. Must not be negative.
+   * @param unit the unit of the maximum wait time. Must not be {@code null}.
+   * @return the current builder step.
+   */
+  UnconfiguredPersistenceUnitBuilder limitConcurrentTransactions(int maxConcurrent, int maxQueued, long maxWait, TimeUnit unit);
+
+  /**
+   * Limits the number of concurrent outer transactions of this persistence unit like
+   * {@link #limitConcurrentTransactions(int, int, long, TimeUnit)} but adapts the limit automatically.
+   * <p/>
+   * The latency from the admission until the end of every outer transaction is measured. While the latency stays
+   * close to the lowest latency observed the limit is raised. When the latency grows because transactions queue up
+   * in the database or the connection pool the limit is lowered again. The current limit and the latency estimates
+   * are available through {@link TransactionBulkheadStatistics}.
+   *
+   * @param initialLimit the limit to start with. Must be positive and not larger than {@code maxLimit}.
+   * @param maxLimit the upper bound of the limit. i.e. the size of the connection pool.
+   * @param maxQueued the maximum number of transactions waiting for admission. Must not be negative.
+   * @param maxWait the maximum time to wait for admission. Must not be negative.
+   * @param unit the unit of the maximum wait time. Must not be {@code null}.
+   * @return the current builder step.
+   */
+  UnconfiguredPersistenceUnitBuilder limitConcurrentTransactionsAdaptively(
+      int initialLimit, int maxLimit, int maxQueued, long maxWait, TimeUnit unit);
+
+  /**
+   * Configures how {@link Transactional#groupCommit() group commit} invocations are batched. By default a batch
+   * contains at most 64 invocations and is formed from the invocations
+   * arriving while the previous batch is committed, without any additional waiting. Group commit is only supported
+   * for resource local transactions.
+   *
+   * @param maxBatchSize the maximum number of invocations sharing a transaction. Must be positive.
+   * @param window the time to wait for further invocations before a batch is run. Must not be negative.
+   * @param unit the unit of the window. Must not be {@code null}.
+   * @return the current builder step.
+   */
+  UnconfiguredPersistenceUnitBuilder configureGroupCommit(int maxBatchSize, long window, TimeUnit unit);
+
+  /**
+   * Defines the transaction manager used for suspending and resuming JTA transactions, i.e. for
+   * {@link Propagation#REQUIRES_NEW} and {@link Propagation#NOT_SUPPORTED}. Only required if the user transaction
+   * does not implement {@link TransactionManager} itself. Only supported for JTA transactions.
+   *
+   * @param transactionManager the transaction manager to use. Must not be {@code null}.
+   * @return the current builder step.
+   * @throws IllegalStateException if the persistence unit uses resource local transactions.
+   */
+  UnconfiguredPersistenceUnitBuilder useTransactionManager(TransactionManager transactionManager);
+
+  /**
+   * Defines the transaction manager used for suspending and resuming JTA transactions. The transaction manager is
+   * looked up when the injector is created, which fails if the lookup fails. Only supported for JTA transactions.
+   *
+   * @param tmJndiName the JNDI name to use for looking up the transaction manager. Must not be {@code null}.
+   * @return the current builder step.
+   * @throws IllegalStateException if the persistence unit uses resource local transactions.
+   * @see #useTransactionManager(TransactionManager)
+   */
+  UnconfiguredPersistenceUnitBuilder useTransactionManagerWithJndiName(String tmJndiName);
+
   /**
    * Defines additional properties to use. These properties overrule the ones defined in the persistence.xml
    *
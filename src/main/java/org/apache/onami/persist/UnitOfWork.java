@@ -19,6 +19,7 @@ package org.apache.onami.persist;
  * under the License.
  */
 
+import java.util.concurrent.Callable;
 import javax.persistence.EntityManager;
 
 /**
@@ -55,6 +56,7 @@ import javax.persistence.EntityManager;
  *   }
  * }
  * </pre>
+ * The same pattern is implemented by {@link ScopedUnitOfWork#run(UnitOfWork, Callable)}.
  */
 public interface UnitOfWork {
 
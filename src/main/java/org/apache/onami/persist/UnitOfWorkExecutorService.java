@@ -0,0 +1,248 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ExecutorService} which runs every task within its own {@link UnitOfWork}.
+ * <p/>
+ * The {@link UnitOfWork} is bound to a single thread. Tasks handed to a plain thread pool therefore either fail
+ * with "UnitOfWork is not running" or leave a unit of work open on the pooled thread. This executor wraps every
+ * task so that the worker thread begins a unit of work right before the task and ends it right after the task.
+ * No state of the unit of work remains on the pooled thread between two tasks.
+ * <p/>
+ * Each task gets its own {@link javax.persistence.EntityManager}. Entities loaded by a task are therefore detached
+ * from the entity manager of the submitting thread. If a task runs on a thread which already has an active unit of
+ * work (i.e. because of a {@link java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy}) it joins that unit of
+ * work instead.
+ * <p/>
+ * In addition the executor records the latency between the submission of a task and the moment a worker thread
+ * picks it up. See {@link #getHandoffStatistics()}.
+ * <p/>
+ * Usage:
+ * <pre>
+ * final ExecutorService executor = new UnitOfWorkExecutorService(Executors.newFixedThreadPool(4), unitOfWork);
+ * final Future&lt;Order&gt; order = executor.submit(new Callable&lt;Order&gt;() {
+ *   public Order call() {
+ *     return emProvider.get().find(Order.class, orderId);
+ *   }
+ * });
+ * </pre>
+ */
+public class UnitOfWorkExecutorService extends AbstractExecutorService {
+
+  /**
+   * The executor running the wrapped tasks.
+   */
+  private final ExecutorService delegate;
+
+  /**
+   * The unit of work to begin and end around every task.
+   */
+  private final UnitOfWork unitOfWork;
+
+  /**
+   * Latencies between the submission of a task and the start of its execution.
+   */
+  private final LatencyHistogram handoffLatencies = new LatencyHistogram();
+
+  private final AtomicLong completedTasks = new AtomicLong();
+
+  private final AtomicLong failedTasks = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param delegate the executor to run the tasks. Must not be {@code null}. The life cycle of the delegate is
+   * controlled by this executor.
+   * @param unitOfWork the unit of work to run every task in. Must not be {@code null}.
+   */
+  public UnitOfWorkExecutorService(ExecutorService delegate, UnitOfWork unitOfWork) {
+    this.delegate = checkNotNull(delegate, "delegate is mandatory!");
+    this.unitOfWork = checkNotNull(unitOfWork, "unitOfWork is mandatory!");
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * The task is run within a unit of work on the worker thread.
+   */
+  @Override
+  public void execute(Runnable command) {
+    checkNotNull(command, "command is mandatory!");
+    if (command instanceof UnitOfWorkFutureTask) {
+      delegate.execute(command);
+    } else {
+      delegate.execute(new UnitOfWorkRunnable(new UnitOfWorkCallable<Object>(Executors.callable(command))));
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * Failures to begin the unit of work are reported through the returned future.
+   */
+  @Override
+  protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+    return new UnitOfWorkFutureTask<T>(new UnitOfWorkCallable<T>(Executors.callable(runnable, value)));
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * Failures to begin the unit of work are reported through the returned future.
+   */
+  @Override
+  protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+    return new UnitOfWorkFutureTask<T>(new UnitOfWorkCallable<T>(callable));
+  }
+
+  /**
+   * @return a snapshot of the handoff latencies and the number of completed and failed tasks.
+   */
+  public HandoffStatistics getHandoffStatistics() {
+    return new HandoffStatistics(completedTasks.get(), failedTasks.get(), handoffLatencies.snapshot());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void shutdown() {
+    delegate.shutdown();
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * The returned tasks are the wrapped tasks. Running them still begins and ends a unit of work.
+   */
+  @Override
+  public List<Runnable> shutdownNow() {
+    return delegate.shutdownNow();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isShutdown() {
+    return delegate.isShutdown();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isTerminated() {
+    return delegate.isTerminated();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return delegate.awaitTermination(timeout, unit);
+  }
+
+  /**
+   * Callable which runs the wrapped task within the unit of work. Created when the task is submitted.
+   */
+  private final class UnitOfWorkCallable<T> implements Callable<T> {
+
+    private final Callable<T> task;
+
+    private final long submittedAt;
+
+    UnitOfWorkCallable(Callable<T> task) {
+      this.task = task;
+      this.submittedAt = System.nanoTime();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T call() throws Exception {
+      handoffLatencies.record(System.nanoTime() - submittedAt);
+      boolean completed = false;
+      try {
+        final T result = ScopedUnitOfWork.run(unitOfWork, task);
+        completed = true;
+        return result;
+      } finally {
+        if (completed) {
+          completedTasks.incrementAndGet();
+        } else {
+          failedTasks.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  /**
+   * Future of a task submitted to this executor. Its callable already runs within the unit of work.
+   */
+  private static final class UnitOfWorkFutureTask<T> extends FutureTask<T> {
+
+    UnitOfWorkFutureTask(Callable<T> callable) {
+      super(callable);
+    }
+  }
+
+  /**
+   * Runnable for tasks passed to {@link #execute(Runnable)}. Exceptions are propagated to the worker thread.
+   */
+  private static final class UnitOfWorkRunnable implements Runnable {
+
+    private final Callable<Object> callable;
+
+    UnitOfWorkRunnable(Callable<Object> callable) {
+      this.callable = callable;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+      try {
+        callable.call();
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        // cannot happen since the wrapped task is a Runnable
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
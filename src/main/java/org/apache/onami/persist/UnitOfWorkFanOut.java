@@ -0,0 +1,156 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs independent tasks against different persistence units concurrently and joins them with a deadline.
+ * <p/>
+ * Every task is run on a thread of the given executor within its own {@link UnitOfWork}. The unit of work is begun
+ * right before and ended right after the task. The total latency is therefore roughly the latency of the slowest
+ * task instead of the sum of all tasks.
+ * <p/>
+ * A fan out is a scope for a single group of tasks: fork all tasks, then call {@link #join(long, TimeUnit)} exactly
+ * once. The join waits for all tasks and reports all failures together. Tasks still running when the deadline is
+ * reached are cancelled. A fan out is meant to be used by a single thread and is not thread safe.
+ * <p/>
+ * Usage:
+ * <pre>
+ * final UnitOfWorkFanOut fanOut = new UnitOfWorkFanOut(executor);
+ * final Future&lt;Customer&gt; customer = fanOut.fork(crmUnitOfWork, loadCustomer);
+ * final Future&lt;List&lt;Order&gt;&gt; orders = fanOut.fork(shopUnitOfWork, loadOrders);
+ * fanOut.join(500, TimeUnit.MILLISECONDS);
+ * render(customer.get(), orders.get());
+ * </pre>
+ */
+public class UnitOfWorkFanOut {
+
+  /**
+   * The executor running the forked tasks.
+   */
+  private final Executor executor;
+
+  /**
+   * The forked tasks in the order they were forked.
+   */
+  private final List<FutureTask<?>> tasks = new ArrayList<FutureTask<?>>();
+
+  /**
+   * Flag indicating that {@link #join(long, TimeUnit)} has been called.
+   */
+  private boolean joined;
+
+  /**
+   * Constructor.
+   *
+   * @param executor the executor to run the tasks. Must not be {@code null}. It should provide at least as many
+   * threads as tasks are forked, otherwise the tasks do not run concurrently.
+   */
+  public UnitOfWorkFanOut(Executor executor) {
+    this.executor = checkNotNull(executor, "executor is mandatory!");
+  }
+
+  /**
+   * Submits a task to run within a unit of work on a thread of the executor.
+   *
+   * @param unitOfWork the unit of work of the persistence unit the task is using. Must not be {@code null}.
+   * @param task the task to run. Must not be {@code null}.
+   * @param <T> the type of the result of the task.
+   * @return the future of the task. Its result is available after {@link #join(long, TimeUnit)} succeeded.
+   * @throws IllegalStateException if the fan out has already been joined.
+   * @throws java.util.concurrent.RejectedExecutionException if the executor does not accept the task.
+   */
+  public <T> Future<T> fork(final UnitOfWork unitOfWork, final Callable<T> task) {
+    checkNotNull(unitOfWork, "unitOfWork is mandatory!");
+    checkNotNull(task, "task is mandatory!");
+    if (joined) {
+      throw new IllegalStateException("Cannot fork a task after the fan out has been joined.");
+    }
+    final FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        return ScopedUnitOfWork.run(unitOfWork, task);
+      }
+    });
+    executor.execute(future);
+    tasks.add(future);
+    return future;
+  }
+
+  /**
+   * Waits until all forked tasks completed or the deadline is reached. Tasks which have not completed by the
+   * deadline are cancelled.
+   *
+   * @param timeout the maximum time to wait for all tasks.
+   * @param unit the unit of the timeout. Must not be {@code null}.
+   * @throws AggregatedException if any task failed or did not complete in time. A single failure which is a
+   * {@link RuntimeException} is thrown as is.
+   * @throws InterruptedException if the current thread was interrupted while waiting. All tasks are cancelled.
+   * @throws IllegalStateException if the fan out has already been joined.
+   */
+  public void join(long timeout, TimeUnit unit) throws InterruptedException {
+    checkNotNull(unit, "unit is mandatory!");
+    if (joined) {
+      throw new IllegalStateException("The fan out has already been joined.");
+    }
+    joined = true;
+
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    final AggregatedException.Builder exceptionBuilder = new AggregatedException.Builder();
+    for (int i = 0; i < tasks.size(); i++) {
+      final FutureTask<?> task = tasks.get(i);
+      try {
+        task.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      } catch (ExecutionException e) {
+        exceptionBuilder.add(e.getCause());
+      } catch (CancellationException e) {
+        exceptionBuilder.add(e);
+      } catch (TimeoutException e) {
+        task.cancel(true);
+        exceptionBuilder.add(new TimeoutException("task " + i + " did not complete within " + timeout + " " + unit));
+      } catch (InterruptedException e) {
+        cancelAll();
+        throw e;
+      }
+    }
+    exceptionBuilder.throwRuntimeExceptionIfHasCauses("multiple exception occurred while running the forked tasks");
+  }
+
+  /**
+   * Cancels all forked tasks which have not yet completed.
+   */
+  private void cancelAll() {
+    for (FutureTask<?> task : tasks) {
+      task.cancel(true);
+    }
+  }
+}
@@ -0,0 +1,247 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.inject.Singleton;
+
+/**
+ * Reference count of the active units of work of a single persistence unit.
+ * <p/>
+ * Entering and leaving are lock free. Once the gate is closed no further units of work may enter and
+ * {@link #awaitDrained(long, TimeUnit)} can be used to wait for the active units of work to end.
+ * <p/>
+ * {@link Listener}s are notified when the gate opens and right before it closes. While being notified about the
+ * closing they may still begin units of work, i.e. to flush pending writes before the persistence unit stops. If
+ * several threads close the gate concurrently only one of them notifies the listeners. The others wait until the
+ * gate is closed.
+ */
+@Singleton
+class UnitOfWorkGate {
+
+  /**
+   * Bit of {@link #state} which is set while the gate is closed.
+   */
+  private static final int CLOSED = Integer.MIN_VALUE;
+
+  /**
+   * Bit of {@link #state} which is set while the listeners are notified about the closing.
+   */
+  private static final int CLOSING = 1 << 30;
+
+  /**
+   * Mask for the number of active units of work.
+   */
+  private static final int COUNT = ~(CLOSED | CLOSING);
+
+  /**
+   * The number of active units of work combined with the {@link #CLOSED} and {@link #CLOSING} bits.
+   */
+  private final AtomicInteger state = new AtomicInteger();
+
+  /**
+   * Listeners to notify when the gate opens and before it closes.
+   */
+  private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+  /**
+   * Registers a new unit of work.
+   *
+   * @return {@code true} if the unit of work may begin. {@code false} if the gate is closed.
+   */
+  boolean tryEnter() {
+    for (; ; ) {
+      final int current = state.get();
+      if ((current & CLOSED) != 0) {
+        return false;
+      }
+      if (state.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Deregisters a unit of work which was registered by {@link #tryEnter()}.
+   */
+  void exit() {
+    if (state.decrementAndGet() == CLOSED) {
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Registers a listener which is notified every time the gate opens and before it closes.
+   *
+   * @param listener the listener to notify. Must not be {@code null}.
+   */
+  void addListener(Listener listener) {
+    listeners.add(checkNotNull(listener, "listener is mandatory!"));
+  }
+
+  /**
+   * Rejects all further units of work. The listeners are notified first if the gate is open.
+   * Waits for the listeners without a time limit.
+   */
+  void close() {
+    close(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Rejects all further units of work. The listeners are notified first if the gate is open. If another thread is
+   * already notifying the listeners the calling thread waits up to the timeout for the gate to be closed.
+   *
+   * @param timeout the maximum time all listeners together may take. Every listener is passed the remaining time.
+   * @param unit the unit of the timeout.
+   */
+  void close(long timeout, TimeUnit unit) {
+    final long timeoutNanos = unit.toNanos(timeout);
+    final long start = System.nanoTime();
+    for (; ; ) {
+      final int current = state.get();
+      if ((current & CLOSED) != 0) {
+        return;
+      }
+      if ((current & CLOSING) != 0) {
+        awaitClosed(timeoutNanos - (System.nanoTime() - start));
+        return;
+      }
+      if (state.compareAndSet(current, current | CLOSING)) {
+        break;
+      }
+    }
+    try {
+      for (Listener listener : listeners) {
+        final long remaining = timeoutNanos - (System.nanoTime() - start);
+        listener.closing(Math.max(0L, remaining), TimeUnit.NANOSECONDS);
+      }
+    } finally {
+      for (; ; ) {
+        final int current = state.get();
+        if (state.compareAndSet(current, (current & ~CLOSING) | CLOSED)) {
+          break;
+        }
+      }
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Waits until the thread notifying the listeners has closed the gate. If the calling thread is interrupted the
+   * waiting is aborted and the interrupted flag is restored.
+   */
+  private void awaitClosed(long timeoutNanos) {
+    final long deadline = System.nanoTime() + timeoutNanos;
+    synchronized (this) {
+      long remaining = timeoutNanos;
+      while (!isClosed() && remaining > 0) {
+        try {
+          TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        remaining = deadline - System.nanoTime();
+      }
+    }
+  }
+
+  /**
+   * Accepts units of work again after the gate was closed. The listeners are notified afterwards.
+   */
+  void open() {
+    for (; ; ) {
+      final int current = state.get();
+      if ((current & CLOSED) == 0 || state.compareAndSet(current, current & ~CLOSED)) {
+        break;
+      }
+    }
+    for (Listener listener : listeners) {
+      listener.opened();
+    }
+  }
+
+  /**
+   * @return {@code true} if the gate is closed.
+   */
+  boolean isClosed() {
+    return (state.get() & CLOSED) != 0;
+  }
+
+  /**
+   * @return the number of active units of work.
+   */
+  int getActiveCount() {
+    return state.get() & COUNT;
+  }
+
+  /**
+   * Waits until all active units of work have ended. If the calling thread is interrupted the waiting is
+   * aborted and the interrupted flag is restored.
+   *
+   * @param timeout the maximum time to wait.
+   * @param unit the unit of the timeout.
+   * @return the number of units of work which are still active.
+   */
+  int awaitDrained(long timeout, TimeUnit unit) {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (this) {
+      long remaining = deadline - System.nanoTime();
+      while (getActiveCount() > 0 && remaining > 0) {
+        try {
+          TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        remaining = deadline - System.nanoTime();
+      }
+    }
+    return getActiveCount();
+  }
+
+  /**
+   * Listener for the opening and closing of the gate.
+   */
+  interface Listener {
+
+    /**
+     * Called after the gate has been opened.
+     */
+    void opened();
+
+    /**
+     * Called right before the gate closes. Units of work may still begin.
+     *
+     * @param timeout the maximum time the listener should take. {@link Long#MAX_VALUE} nanoseconds for no limit.
+     * @param unit the unit of the timeout.
+     */
+    void closing(long timeout, TimeUnit unit);
+  }
+}
@@ -0,0 +1,39 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Counters about the {@link javax.persistence.EntityManager entity managers} handled by a {@link UnitOfWork}.
+ * <p/>
+ * Is bound for every persistence unit the same way as the {@link UnitOfWork} is.
+ */
+public interface UnitOfWorkStatistics {
+
+  /**
+   * @return the number of entity managers which have been created since the injector was created.
+   */
+  long getEntityManagersCreated();
+
+  /**
+   * @return the number of units of work which ended without ever creating an entity manager.
+   * This is only different from 0 if the entity managers of the persistence unit are created lazily.
+   */
+  long getEntityManagerCreationsAvoided();
+}
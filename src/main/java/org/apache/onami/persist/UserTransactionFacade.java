@@ -31,7 +31,10 @@ import javax.transaction.HeuristicRollbackException;
 import javax.transaction.NotSupportedException;
 import javax.transaction.RollbackException;
 import javax.transaction.Status;
+import javax.transaction.InvalidTransactionException;
 import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
 import javax.transaction.UserTransaction;
 
 /**
@@ -52,6 +55,11 @@ class UserTransactionFacade {
    */
   private final UserTransaction txn;
 
+  /**
+   * The transaction manager for suspending and resuming transactions. {@code null} if none is configured.
+   */
+  private TransactionManager tm;
+
   /**
    * Constructor.
    *
@@ -62,6 +70,16 @@ class UserTransactionFacade {
     this.txn = checkNotNull(txn, "txn is mandatory!");
   }
 
+  /**
+   * Sets the transaction manager for suspending and resuming transactions. Only injected if one is configured.
+   *
+   * @param tm the transaction manager. Must not be {@code null}.
+   */
+  @com.google.inject.Inject(optional = true)
+  void setTransactionManager(TransactionManager tm) {
+    this.tm = checkNotNull(tm, "tm is mandatory!");
+  }
+
   /**
    * @see {@link javax.transaction.UserTransaction#begin()}.
    */
@@ -75,6 +93,36 @@ class UserTransactionFacade {
     }
   }
 
+  /**
+   * Begins a transaction with the given timeout. The timeout only applies to this transaction.
+   *
+   * @param timeoutSeconds the timeout in seconds. 0 for the default timeout.
+   * @see {@link javax.transaction.UserTransaction#setTransactionTimeout(int)}.
+   */
+  void begin(int timeoutSeconds) {
+    if (timeoutSeconds <= 0) {
+      begin();
+      return;
+    }
+    setTransactionTimeout(timeoutSeconds);
+    try {
+      begin();
+    } finally {
+      setTransactionTimeout(0);
+    }
+  }
+
+  /**
+   * @see {@link javax.transaction.UserTransaction#setTransactionTimeout(int)}.
+   */
+  private void setTransactionTimeout(int timeoutSeconds) {
+    try {
+      txn.setTransactionTimeout(timeoutSeconds);
+    } catch (SystemException e) {
+      throw new RuntimeException("unexpected error occurred", e);
+    }
+  }
+
   /**
    * @see {@link javax.transaction.UserTransaction#commit()}.
    */
@@ -124,6 +172,55 @@ class UserTransactionFacade {
     }
   }
 
+  /**
+   * Suspends the transaction associated with the current thread.
+   * Requires a configured transaction manager or the user transaction to also implement {@link TransactionManager}.
+   *
+   * @return the suspended transaction.
+   * @see {@link javax.transaction.TransactionManager#suspend()}.
+   */
+  Transaction suspend() {
+    try {
+      return transactionManager().suspend();
+    } catch (SystemException e) {
+      throw new RuntimeException("unexpected error occurred", e);
+    }
+  }
+
+  /**
+   * Resumes a transaction previously suspended by {@link #suspend()}.
+   *
+   * @param transaction the transaction to resume.
+   * @see {@link javax.transaction.TransactionManager#resume(Transaction)}.
+   */
+  void resume(Transaction transaction) {
+    try {
+      transactionManager().resume(transaction);
+    } catch (InvalidTransactionException e) {
+      throw new RuntimeException("invalid transaction " + transaction, e);
+    } catch (IllegalStateException e) {
+      throw new RuntimeException("thread is already associated with another transaction", e);
+    } catch (SystemException e) {
+      throw new RuntimeException("unexpected error occurred", e);
+    }
+  }
+
+  /**
+   * @return the configured transaction manager or else the user transaction as transaction manager.
+   * @throws UnsupportedOperationException if no transaction manager is configured and the user transaction does not
+   * implement {@link TransactionManager}.
+   */
+  private TransactionManager transactionManager() {
+    if (tm != null) {
+      return tm;
+    }
+    if (txn instanceof TransactionManager) {
+      return (TransactionManager) txn;
+    }
+    throw new UnsupportedOperationException("suspending transactions requires a transaction manager. Configure one "
+        + "with useTransactionManager() or use a user transaction implementing TransactionManager: " + txn);
+  }
+
   /**
    * @return {@code true} if this transaction may onl roll back. {@code false} otherwise.
    */
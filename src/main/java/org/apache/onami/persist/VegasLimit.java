@@ -0,0 +1,132 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Concurrency limit which adapts to the observed latency in the style of TCP Vegas.
+ * <p/>
+ * The smallest latency observed is taken as the latency without load. The ratio of the no-load latency to the
+ * smoothed current latency estimates how many of the admitted transactions are queued inside the database or the
+ * connection pool instead of doing work: {@code queue = limit * (1 - minRtt / smoothedRtt)}. If the estimate is below
+ * {@code alpha} the limit is raised, if it is above {@code beta} the limit is lowered. Both thresholds grow with the
+ * logarithm of the limit but never exceed a quarter respectively half of it.
+ * <p/>
+ * The no-load latency is measured again every {@value #PROBE_INTERVAL} samples so that the limit follows permanent
+ * changes like a slower database host. The limit is only raised if at least half of it is in use. Otherwise an idle
+ * persistence unit would grow its limit without bounds.
+ * <p/>
+ * All methods are synchronized. An update is a handful of arithmetic operations once per outer transaction.
+ */
+class VegasLimit {
+
+  /**
+   * Number of samples after which the no-load latency is measured again.
+   */
+  static final int PROBE_INTERVAL = 1000;
+
+  private final int minLimit;
+
+  private final int maxLimit;
+
+  private int limit;
+
+  private long minRtt = Long.MAX_VALUE;
+
+  private long smoothedRtt;
+
+  private int samplesSinceProbe;
+
+  /**
+   * Constructor.
+   *
+   * @param initialLimit the limit to start with. Must be between {@code minLimit} and {@code maxLimit}.
+   * @param minLimit the smallest limit. Must be positive.
+   * @param maxLimit the largest limit.
+   */
+  VegasLimit(int initialLimit, int minLimit, int maxLimit) {
+    if (minLimit < 1) {
+      throw new IllegalArgumentException("minLimit must be positive but was " + minLimit);
+    }
+    if (initialLimit < minLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException("initialLimit must be between " + minLimit + " and " + maxLimit
+          + " but was " + initialLimit);
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.limit = initialLimit;
+  }
+
+  /**
+   * Adds a latency sample and computes the new limit.
+   *
+   * @param rtt the latency of a completed transaction in nanoseconds.
+   * @param inFlight the number of transactions admitted when the sample was taken, including the sampled one.
+   * @return the new limit.
+   */
+  synchronized int update(long rtt, int inFlight) {
+    final long sample = Math.max(1L, rtt);
+    if (++samplesSinceProbe >= PROBE_INTERVAL) {
+      samplesSinceProbe = 0;
+      minRtt = sample;
+      smoothedRtt = sample;
+      return limit;
+    }
+    if (sample < minRtt) {
+      minRtt = sample;
+    }
+    // exponentially weighted moving average with a weight of 1/8 as in the TCP round trip estimation
+    smoothedRtt = smoothedRtt == 0 ? sample : smoothedRtt + (sample - smoothedRtt) / 8;
+
+    final double log = Math.max(1.0, Math.log10(limit));
+    final double queue = limit * (1.0 - (double) minRtt / Math.max(minRtt, smoothedRtt));
+    // the estimated queue can never exceed the limit. small limits therefore need smaller thresholds.
+    final double alpha = Math.min(3 * log, limit / 4.0);
+    final double beta = Math.min(6 * log, limit / 2.0);
+    if (queue < alpha) {
+      if (inFlight * 2 >= limit) {
+        limit = Math.min(maxLimit, limit + (int) log);
+      }
+    } else if (queue > beta) {
+      limit = Math.max(minLimit, limit - (int) log);
+    }
+    return limit;
+  }
+
+  /**
+   * @return the current limit.
+   */
+  synchronized int getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return the estimated latency without load in nanoseconds. 0 if there was no sample yet.
+   */
+  synchronized long getMinRtt() {
+    return minRtt == Long.MAX_VALUE ? 0L : minRtt;
+  }
+
+  /**
+   * @return the smoothed latency in nanoseconds. 0 if there was no sample yet.
+   */
+  synchronized long getSmoothedRtt() {
+    return smoothedRtt;
+  }
+}
@@ -0,0 +1,422 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+
+/**
+ * Queue which persists entities asynchronously in batches.
+ * <p/>
+ * Callers {@link #offer(Object) enqueue} entities without blocking and without a unit of work. A background writer
+ * thread takes the entities in batches of up to {@code batchSize} and persists every batch in its own unit of work
+ * and transaction. A batch is written as soon as it is full or the oldest entity in it has waited for the flush
+ * interval.
+ * <p/>
+ * The queue holds at most {@code capacity} entities. If it is full the {@link OverflowPolicy} decides whether the new
+ * entity is rejected or the oldest waiting entity is dropped. A batch whose transaction fails is rolled back and its
+ * entities are counted as failed. Write behind queues are therefore only suited for entities which may be lost,
+ * i.e. telemetry.
+ * <p/>
+ * Queues are created by the {@link WriteBehindQueueFactory} of a persistence unit. They are drained and closed
+ * before the {@link PersistenceService} stops and must be created again after it was restarted.
+ *
+ * @param <T> the type of the entities.
+ */
+public class WriteBehindQueue<T> {
+
+  /**
+   * What to do with a new entity if the queue is full.
+   */
+  public enum OverflowPolicy {
+
+    /**
+     * The new entity is not enqueued. {@link #offer(Object)} returns {@code false}.
+     */
+    REJECT,
+
+    /**
+     * The oldest waiting entity is dropped to make room for the new one.
+     */
+    DROP_OLDEST
+  }
+
+  /**
+   * Counter for naming the writer threads.
+   */
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private final EntityManagerProvider emProvider;
+
+  private final UnitOfWork unitOfWork;
+
+  private final TransactionFacadeFactory tfProvider;
+
+  private final BlockingQueue<Entry<T>> queue;
+
+  private final int batchSize;
+
+  private final long flushIntervalNanos;
+
+  private final OverflowPolicy overflowPolicy;
+
+  private final Thread writer;
+
+  private volatile boolean closed;
+
+  private final AtomicLong written = new AtomicLong();
+
+  private final AtomicLong failed = new AtomicLong();
+
+  private final AtomicLong rejected = new AtomicLong();
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * Time from enqueuing an entity until its transaction has been committed.
+   */
+  private final LatencyHistogram lags = new LatencyHistogram();
+
+  private volatile RuntimeException lastFailure;
+
+  /**
+   * Constructor.
+   *
+   * @param emProvider the provider for the entity manager of the persistence unit. Must not be {@code null}.
+   * @param unitOfWork the unit of work of the persistence unit. Must not be {@code null}.
+   * @param tfProvider the factory for the transactions of the persistence unit. Must not be {@code null}.
+   * @param capacity the maximum number of entities waiting to be written. Must be positive.
+   * @param batchSize the maximum number of entities written in a single transaction. Must be positive.
+   * @param flushInterval the maximum time an entity waits for its batch to fill up. Must be positive.
+   * @param unit the unit of the flush interval. Must not be {@code null}.
+   * @param overflowPolicy what to do if the queue is full. Must not be {@code null}.
+   */
+  WriteBehindQueue(
+      EntityManagerProvider emProvider,
+      UnitOfWork unitOfWork,
+      TransactionFacadeFactory tfProvider,
+      int capacity,
+      int batchSize,
+      long flushInterval,
+      TimeUnit unit,
+      OverflowPolicy overflowPolicy
+  ) {
+    this.emProvider = checkNotNull(emProvider, "emProvider is mandatory!");
+    this.unitOfWork = checkNotNull(unitOfWork, "unitOfWork is mandatory!");
+    this.tfProvider = checkNotNull(tfProvider, "tfProvider is mandatory!");
+    checkNotNull(unit, "unit is mandatory!");
+    this.overflowPolicy = checkNotNull(overflowPolicy, "overflowPolicy is mandatory!");
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive but was " + capacity);
+    }
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be positive but was " + batchSize);
+    }
+    if (flushInterval <= 0) {
+      throw new IllegalArgumentException("flushInterval must be positive but was " + flushInterval);
+    }
+    this.queue = new ArrayBlockingQueue<Entry<T>>(capacity);
+    this.batchSize = batchSize;
+    this.flushIntervalNanos = unit.toNanos(flushInterval);
+    this.writer = new Thread(new Writer(), "onami-persist-write-behind-" + THREAD_COUNT.incrementAndGet());
+    this.writer.setDaemon(true);
+  }
+
+  /**
+   * Starts the writer thread.
+   */
+  void start() {
+    writer.start();
+  }
+
+  /**
+   * Enqueues an entity to be persisted. Never blocks.
+   *
+   * @param entity the entity to persist. Must not be {@code null}.
+   * @return {@code true} if the entity has been enqueued. {@code false} if the queue is full and the overflow policy
+   * is {@link OverflowPolicy#REJECT} or if the queue has been closed.
+   */
+  public boolean offer(T entity) {
+    final Entry<T> entry = new Entry<T>(checkNotNull(entity, "entity is mandatory!"), System.nanoTime());
+    if (closed || !enqueue(entry)) {
+      rejected.incrementAndGet();
+      return false;
+    }
+    // the queue may have been closed concurrently and the writer may already have taken its last entity.
+    // if the entry is still there nobody would ever write it. otherwise the writer took care of it.
+    if (closed && queue.remove(entry)) {
+      rejected.incrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Adds the entry to the queue according to the overflow policy.
+   *
+   * @return {@code true} if the entry has been added.
+   */
+  private boolean enqueue(Entry<T> entry) {
+    if (queue.offer(entry)) {
+      return true;
+    }
+    if (overflowPolicy == OverflowPolicy.REJECT) {
+      return false;
+    }
+    do {
+      if (queue.poll() != null) {
+        dropped.incrementAndGet();
+      }
+    } while (!queue.offer(entry));
+    return true;
+  }
+
+  /**
+   * Stops accepting entities, writes all waiting entities and terminates the writer thread. Blocks until the
+   * writer thread has terminated.
+   */
+  void close() {
+    close(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Stops accepting entities, writes the waiting entities and terminates the writer thread. Called when the
+   * persistence service stops. If the writer does not finish within the timeout it is interrupted. It then stops
+   * after the current batch and the entities still waiting are counted as dropped.
+   *
+   * @param timeout the maximum time to wait for the waiting entities to be written.
+   * @param unit the unit of the timeout.
+   */
+  void close(long timeout, TimeUnit unit) {
+    closed = true;
+    if (Thread.currentThread() == writer) {
+      return;
+    }
+    final long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+    boolean interrupted = false;
+    while (writer.isAlive()) {
+      final long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        writer.interrupt();
+        break;
+      }
+      try {
+        TimeUnit.NANOSECONDS.timedJoin(writer, remaining);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return {@code true} if the queue no longer accepts entities.
+   */
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * @return the number of entities waiting to be written.
+   */
+  public int getQueuedEntities() {
+    return queue.size();
+  }
+
+  /**
+   * @return the number of entities which have been persisted.
+   */
+  public long getWrittenEntities() {
+    return written.get();
+  }
+
+  /**
+   * @return the number of entities which were lost because the transaction of their batch failed.
+   */
+  public long getFailedEntities() {
+    return failed.get();
+  }
+
+  /**
+   * @return the number of entities which were not enqueued because the queue was full or closed.
+   */
+  public long getRejectedEntities() {
+    return rejected.get();
+  }
+
+  /**
+   * @return the number of waiting entities which were dropped to make room for new ones or because the queue was
+   * not drained within the timeout of closing it.
+   */
+  public long getDroppedEntities() {
+    return dropped.get();
+  }
+
+  /**
+   * @return the time in nanoseconds the oldest waiting entity has been waiting. 0 if the queue is empty.
+   */
+  public long getCurrentLagNanos() {
+    final Entry<T> oldest = queue.peek();
+    return oldest == null ? 0L : Math.max(0L, System.nanoTime() - oldest.enqueuedAt);
+  }
+
+  /**
+   * @return the maximum time in nanoseconds from enqueuing an entity until it was committed.
+   */
+  public long getMaxLagNanos() {
+    return lags.snapshot().getMax();
+  }
+
+  /**
+   * @param percentile the percentile in the range [0, 100]. i.e. 99.9
+   * @return the time in nanoseconds from enqueuing until commit below which the given percentage of the written
+   * entities lies.
+   */
+  public long getLagPercentileNanos(double percentile) {
+    return lags.snapshot().getPercentile(percentile);
+  }
+
+  /**
+   * @return the exception of the last failed batch. {@code null} if no batch failed.
+   */
+  public RuntimeException getLastFailure() {
+    return lastFailure;
+  }
+
+  /**
+   * Persists a batch of entities within a unit of work and a transaction.
+   */
+  private void write(List<Entry<T>> batch) {
+    try {
+      unitOfWork.begin();
+    } catch (RuntimeException e) {
+      batchFailed(batch, e);
+      return;
+    }
+    try {
+      final TransactionFacade transactionFacade = tfProvider.createTransactionFacade();
+      transactionFacade.begin();
+      try {
+        // the entity manager is obtained after the begin. a deferred transaction begins on its first use.
+        final EntityManager em = emProvider.get();
+        // a single flush at commit lets the persistence provider batch the inserts
+        em.setFlushMode(FlushModeType.COMMIT);
+        for (Entry<T> entry : batch) {
+          em.persist(entry.entity);
+        }
+      } catch (RuntimeException e) {
+        transactionFacade.rollback();
+        throw e;
+      }
+      transactionFacade.commit();
+      final long committedAt = System.nanoTime();
+      for (Entry<T> entry : batch) {
+        lags.record(committedAt - entry.enqueuedAt);
+      }
+      written.addAndGet(batch.size());
+    } catch (RuntimeException e) {
+      batchFailed(batch, e);
+    } finally {
+      unitOfWork.end();
+    }
+  }
+
+  private void batchFailed(List<Entry<T>> batch, RuntimeException e) {
+    failed.addAndGet(batch.size());
+    lastFailure = e;
+  }
+
+  /**
+   * An enqueued entity.
+   */
+  private static final class Entry<T> {
+
+    private final T entity;
+
+    private final long enqueuedAt;
+
+    Entry(T entity, long enqueuedAt) {
+      this.entity = entity;
+      this.enqueuedAt = enqueuedAt;
+    }
+  }
+
+  /**
+   * Body of the writer thread. Waits at most one flush interval at a time so that it notices the queue being closed.
+ * Stops once the queue is closed and empty or when the thread is interrupted.
+   */
+  private class Writer implements Runnable {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+      final List<Entry<T>> batch = new ArrayList<Entry<T>>(batchSize);
+      try {
+        while (!Thread.currentThread().isInterrupted()) {
+          final boolean closing = closed;
+          final Entry<T> first = closing ? queue.poll() : queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+          if (first == null) {
+            if (closing) {
+              return;
+            }
+            continue;
+          }
+          batch.add(first);
+          fill(batch, first.enqueuedAt + flushIntervalNanos);
+          write(batch);
+          batch.clear();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      // interrupted while closing. the entities which are left will never be written.
+      while (queue.poll() != null) {
+        dropped.incrementAndGet();
+      }
+    }
+
+    /**
+     * Adds entities to the batch until it is full or the deadline is reached. Does not wait while closing.
+     */
+    private void fill(List<Entry<T>> batch, long deadline) throws InterruptedException {
+      while (batch.size() < batchSize) {
+        final long remaining = closed ? 0L : deadline - System.nanoTime();
+        final Entry<T> next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+        if (next == null) {
+          return;
+        }
+        batch.add(next);
+      }
+    }
+  }
+}
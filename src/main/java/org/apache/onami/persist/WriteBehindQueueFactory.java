@@ -0,0 +1,49 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory for {@link WriteBehindQueue write behind queues} of a persistence unit.
+ * <p/>
+ * Is bound for every persistence unit the same way as the {@link UnitOfWork} is. All queues created by the factory
+ * are drained and closed when the {@link PersistenceService} of the persistence unit is stopped.
+ */
+public interface WriteBehindQueueFactory {
+
+  /**
+   * Creates a new queue and starts its writer thread.
+   * <p/>
+   * Each batch is written with a single flush at the commit of its transaction. To let the persistence provider
+   * send the inserts as JDBC batches its batch size should be configured accordingly, i.e.
+   * {@code hibernate.jdbc.batch_size} or {@code eclipselink.jdbc.batch-writing}.
+   *
+   * @param capacity the maximum number of entities waiting to be written. Must be positive.
+   * @param batchSize the maximum number of entities written in a single transaction. Must be positive.
+   * @param flushInterval the maximum time an entity waits for its batch to fill up. Must be positive.
+   * @param unit the unit of the flush interval. Must not be {@code null}.
+   * @param overflowPolicy what to do if the queue is full. Must not be {@code null}.
+   * @param <T> the type of the entities.
+   * @return the new queue.
+   */
+  <T> WriteBehindQueue<T> newQueue(
+      int capacity, int batchSize, long flushInterval, TimeUnit unit, WriteBehindQueue.OverflowPolicy overflowPolicy);
+}
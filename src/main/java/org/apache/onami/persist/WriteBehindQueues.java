@@ -0,0 +1,109 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Implementation of {@link WriteBehindQueueFactory}. Keeps track of the created queues and drains them before the
+ * persistence unit stops.
+ */
+@Singleton
+class WriteBehindQueues implements WriteBehindQueueFactory {
+
+  private final EntityManagerProvider emProvider;
+
+  private final UnitOfWork unitOfWork;
+
+  private final TransactionFacadeFactory tfProvider;
+
+  /**
+   * The queues which have not yet been closed.
+   */
+  private final List<WriteBehindQueue<?>> queues = new CopyOnWriteArrayList<WriteBehindQueue<?>>();
+
+  /**
+   * Constructor.
+   *
+   * @param emProvider the provider for the entity manager of the persistence unit.
+   * @param unitOfWork the unit of work of the persistence unit.
+   * @param tfProvider the factory for the transactions of the persistence unit.
+   * @param gate the reference count of the units of work. The queues are drained before it closes.
+   */
+  @Inject
+  WriteBehindQueues(
+      EntityManagerProvider emProvider,
+      UnitOfWork unitOfWork,
+      TransactionFacadeFactory tfProvider,
+      UnitOfWorkGate gate
+  ) {
+    this.emProvider = emProvider;
+    this.unitOfWork = unitOfWork;
+    this.tfProvider = tfProvider;
+    gate.addListener(new UnitOfWorkGate.Listener() {
+      @Override
+      public void opened() {
+        // nothing to do
+      }
+
+      @Override
+      public void closing(long timeout, TimeUnit unit) {
+        closeAll(timeout, unit);
+      }
+    });
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <T> WriteBehindQueue<T> newQueue(
+      int capacity,
+      int batchSize,
+      long flushInterval,
+      TimeUnit unit,
+      WriteBehindQueue.OverflowPolicy overflowPolicy
+  ) {
+    final WriteBehindQueue<T> queue = new WriteBehindQueue<T>(
+        emProvider, unitOfWork, tfProvider, capacity, batchSize, flushInterval, unit, overflowPolicy);
+    queues.add(queue);
+    queue.start();
+    return queue;
+  }
+
+  /**
+   * Drains and closes all queues.
+   *
+   * @param timeout the maximum time for draining all queues together.
+   * @param unit the unit of the timeout.
+   */
+  void closeAll(long timeout, TimeUnit unit) {
+    final long timeoutNanos = unit.toNanos(timeout);
+    final long start = System.nanoTime();
+    for (WriteBehindQueue<?> queue : queues) {
+      queue.close(Math.max(0L, timeoutNanos - (System.nanoTime() - start)), TimeUnit.NANOSECONDS);
+      queues.remove(queue);
+    }
+  }
+}
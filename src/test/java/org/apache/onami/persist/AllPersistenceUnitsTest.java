@@ -23,6 +23,7 @@ import static com.google.inject.name.Names.named;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -32,8 +33,12 @@ import static org.mockito.Mockito.verify;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Key;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 /**
  * Test for {@link AllPersistenceUnits}.
@@ -68,10 +73,14 @@ public class AllPersistenceUnitsTest {
     uow2 = mock(UnitOfWork.class);
 
     // create subject under test
-    sut = new AllPersistenceUnits();
+    sut = createAllPersistenceUnits(1);
+  }
+
+  private AllPersistenceUnits createAllPersistenceUnits(int startupParallelism) {
+    final AllPersistenceUnits allPersistenceUnits = new AllPersistenceUnits(startupParallelism);
 
-    sut.add(PS_KEY_1, UOW_KEY_1);
-    sut.add(PS_KEY_2, UOW_KEY_2);
+    allPersistenceUnits.add(PS_KEY_1, UOW_KEY_1);
+    allPersistenceUnits.add(PS_KEY_2, UOW_KEY_2);
 
     // use guice to trigger the init method of AllPersistenceUnits
     Guice.createInjector(new AbstractModule() {
@@ -81,9 +90,10 @@ public class AllPersistenceUnitsTest {
         bind(PS_KEY_2).toInstance(ps2);
         bind(UOW_KEY_1).toInstance(uow1);
         bind(UOW_KEY_2).toInstance(uow2);
-        requestInjection(sut);
+        requestInjection(allPersistenceUnits);
       }
     });
+    return allPersistenceUnits;
   }
 
   @Test
@@ -132,6 +142,88 @@ public class AllPersistenceUnitsTest {
     fail("must throw AggregatedException");
   }
 
+  @Test
+  public void shouldRecordStartupDurations() throws Exception {
+    // given
+    doReturn(true).when(ps2).isRunning();
+
+    // when
+    sut.startAllStoppedPersistenceServices();
+
+    // then
+    assertThat(sut.getStartupDurations().containsKey(PS_KEY_1), is(true));
+    assertThat(sut.getStartupDurations().containsKey(PS_KEY_2), is(false));
+  }
+
+  @Test
+  public void shouldStartPersistenceServicesConcurrently() throws Exception {
+    // given
+    final CountDownLatch bothStarting = new CountDownLatch(2);
+    final Answer<Void> awaitOther = new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        bothStarting.countDown();
+        if (!bothStarting.await(5, TimeUnit.SECONDS)) {
+          throw new IllegalStateException("persistence services were not started concurrently");
+        }
+        return null;
+      }
+    };
+    doAnswer(awaitOther).when(ps1).start();
+    doAnswer(awaitOther).when(ps2).start();
+    sut = createAllPersistenceUnits(2);
+
+    // when
+    sut.startAllStoppedPersistenceServices();
+
+    // then
+    assertThat(bothStarting.getCount(), is(0L));
+    assertThat(sut.getStartupDurations().size(), is(2));
+  }
+
+  @Test
+  public void shouldStartInParallelEvenInCaseOfException() throws Exception {
+    // given
+    doThrow(new RuntimeException()).when(ps1).start();
+    doThrow(new RuntimeException()).when(ps2).start();
+    sut = createAllPersistenceUnits(2);
+
+    // when
+    try {
+      sut.startAllStoppedPersistenceServices();
+    }
+
+    // then
+    catch (AggregatedException e) {
+      verify(ps1).start();
+      verify(ps2).start();
+      assertThat(e.getNumCauses(), is(2));
+      return;
+    }
+
+    fail("must throw AggregatedException");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectNonPositiveParallelism() {
+    new AllPersistenceUnits(0);
+  }
+
+  @Test
+  public void shouldBeReadyOnlyIfAllPersistenceServicesAreReady() throws Exception {
+    // given
+    doReturn(true).when(ps1).isReady();
+
+    // then
+    assertThat(sut.areAllPersistenceServicesReady(), is(false));
+
+    // when
+    doReturn(true).when(ps2).isReady();
+
+    // then
+    assertThat(sut.areAllPersistenceServicesReady(), is(true));
+  }
+
   @Test
   public void shouldStopOnAllPersistenceServices() throws Exception {
     // when
@@ -22,15 +22,26 @@ package org.apache.onami.persist;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import javax.persistence.EntityManagerFactory;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 /**
  * Test for {@link ApplicationManagedEntityManagerFactoryProviderTest}.
@@ -131,4 +142,356 @@ public class ApplicationManagedEntityManagerFactoryProviderTest {
   public void emfFactoryIsMandatory() {
     new ApplicationManagedEntityManagerFactoryProvider(null);
   }
+
+  @Test
+  public void isReadyShouldReturnTrueAfterStarting() {
+    assertThat(sut.isReady(), is(false));
+
+    sut.start();
+
+    assertThat(sut.isReady(), is(true));
+  }
+
+  @Test
+  public void backgroundStartShouldReturnBeforeEmfIsCreated() throws Exception {
+    // given
+    final CountDownLatch release = new CountDownLatch(1);
+    doAnswer(awaitAndReturnEmf(release)).when(emfFactory).createApplicationManagedEntityManagerFactory();
+    sut = new ApplicationManagedEntityManagerFactoryProvider(emfFactory, 5000L);
+
+    // when
+    sut.start();
+
+    // then
+    assertThat(sut.isRunning(), is(true));
+    assertThat(sut.isReady(), is(false));
+
+    release.countDown();
+    assertThat(sut.get(), sameInstance(emf));
+    assertThat(sut.isReady(), is(true));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void getShouldThrowExceptionIfEmfIsNotReadyWithinTimeout() throws Exception {
+    // given
+    final CountDownLatch release = new CountDownLatch(1);
+    doAnswer(awaitAndReturnEmf(release)).when(emfFactory).createApplicationManagedEntityManagerFactory();
+    sut = new ApplicationManagedEntityManagerFactoryProvider(emfFactory, 10L);
+    sut.start();
+
+    // when
+    try {
+      sut.get();
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void getShouldReportFailureOfBackgroundStart() throws Exception {
+    // given
+    final RuntimeException failure = new RuntimeException();
+    doThrow(failure).when(emfFactory).createApplicationManagedEntityManagerFactory();
+    sut = new ApplicationManagedEntityManagerFactoryProvider(emfFactory, 5000L);
+    sut.start();
+
+    // when
+    try {
+      sut.get();
+    }
+
+    // then
+    catch (IllegalStateException e) {
+      assertThat(e.getCause(), sameInstance((Throwable) failure));
+      assertThat(sut.isRunning(), is(false));
+      assertThat(sut.isReady(), is(false));
+      return;
+    }
+    fail("expected IllegalStateException");
+  }
+
+  @Test
+  public void stopDuringBackgroundStartShouldCloseEmfOnceCreated() throws Exception {
+    // given
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch closed = new CountDownLatch(1);
+    doAnswer(awaitAndReturnEmf(release)).when(emfFactory).createApplicationManagedEntityManagerFactory();
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        closed.countDown();
+        return null;
+      }
+    }).when(emf).close();
+    sut = new ApplicationManagedEntityManagerFactoryProvider(emfFactory, 5000L);
+    sut.start();
+
+    // when
+    sut.stop();
+    release.countDown();
+
+    // then
+    assertThat(closed.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(sut.isRunning(), is(false));
+  }
+
+  @Test
+  public void stopWithTimeoutShouldWaitForActiveUnitsOfWork() throws Exception {
+    // given
+    final UnitOfWorkGate gate = new UnitOfWorkGate();
+    sut = new ApplicationManagedEntityManagerFactoryProvider(emfFactory, 0L, gate);
+    sut.start();
+    gate.tryEnter();
+    final Thread endUnitOfWork = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (!gate.isClosed()) {
+          Thread.yield();
+        }
+        gate.exit();
+      }
+    });
+    endUnitOfWork.start();
+
+    // when
+    final int forciblyEnded = sut.stop(5, TimeUnit.SECONDS);
+
+    // then
+    endUnitOfWork.join();
+    assertThat(forciblyEnded, is(0));
+    assertThat(sut.isRunning(), is(false));
+    verify(emf).close();
+  }
+
+  @Test
+  public void stopWithTimeoutShouldReportUnitsOfWorkStillActive() {
+    // given
+    final UnitOfWorkGate gate = new UnitOfWorkGate();
+    sut = new ApplicationManagedEntityManagerFactoryProvider(emfFactory, 0L, gate);
+    sut.start();
+    gate.tryEnter();
+    gate.tryEnter();
+
+    // when
+    final int forciblyEnded = sut.stop(10, TimeUnit.MILLISECONDS);
+
+    // then
+    assertThat(forciblyEnded, is(2));
+    assertThat(gate.tryEnter(), is(false));
+    verify(emf).close();
+  }
+
+  @Test
+  public void stopWithoutStartShouldNotCloseGate() {
+    // given
+    final UnitOfWorkGate gate = new UnitOfWorkGate();
+    final UnitOfWorkGate.Listener listener = mock(UnitOfWorkGate.Listener.class);
+    gate.addListener(listener);
+    sut = new ApplicationManagedEntityManagerFactoryProvider(emfFactory, 0L, gate);
+
+    // when
+    sut.stop();
+    final int stillActive = sut.stop(10, TimeUnit.MILLISECONDS);
+
+    // then
+    assertThat(stillActive, is(0));
+    assertThat(gate.isClosed(), is(false));
+    verify(listener, never()).closing(anyLong(), any(TimeUnit.class));
+  }
+
+  @Test
+  public void stopAfterFailedStartShouldCloseGate() {
+    // given
+    final UnitOfWorkGate gate = new UnitOfWorkGate();
+    sut = new ApplicationManagedEntityManagerFactoryProvider(emfFactory, 0L, gate);
+    doThrow(new IllegalStateException("bootstrap failed")).when(emfFactory).createApplicationManagedEntityManagerFactory();
+    try {
+      sut.start();
+    } catch (RuntimeException e) {
+      // expected
+    }
+
+    // when
+    sut.stop();
+
+    // then
+    assertThat(gate.isClosed(), is(true));
+  }
+
+  @Test
+  public void startShouldAcceptUnitsOfWorkAgain() {
+    // given
+    final UnitOfWorkGate gate = new UnitOfWorkGate();
+    sut = new ApplicationManagedEntityManagerFactoryProvider(emfFactory, 0L, gate);
+    sut.start();
+    sut.stop();
+
+    // when
+    sut.start();
+
+    // then
+    assertThat(gate.tryEnter(), is(true));
+  }
+
+  @Test
+  public void swapShouldCloseReplacedEmfAfterLastEntityManagerIsReleased() throws Exception {
+    // given
+    final EntityManagerFactory newEmf = mock(EntityManagerFactory.class);
+    sut.start();
+    final EntityManagerFactory leased = sut.acquire();
+    doReturn(newEmf).when(emfFactory).createApplicationManagedEntityManagerFactory();
+
+    // when
+    sut.swapEntityManagerFactory(null).get(5, TimeUnit.SECONDS);
+
+    // then
+    assertThat(sut.get(), sameInstance(newEmf));
+    assertThat(sut.acquire(), sameInstance(newEmf));
+    verify(emf, never()).close();
+
+    sut.release(leased);
+    verify(emf).close();
+    verify(newEmf, never()).close();
+  }
+
+  @Test
+  public void swapShouldCloseReplacedEmfImmediatelyIfUnused() throws Exception {
+    // given
+    final EntityManagerFactory newEmf = mock(EntityManagerFactory.class);
+    final Properties properties = new Properties();
+    sut.start();
+    doReturn(newEmf).when(emfFactory).createApplicationManagedEntityManagerFactory(properties);
+
+    // when
+    sut.swapEntityManagerFactory(properties).get(5, TimeUnit.SECONDS);
+
+    // then
+    assertThat(sut.get(), sameInstance(newEmf));
+    verify(emf).close();
+  }
+
+  @Test
+  public void failedSwapShouldKeepCurrentEmf() throws Exception {
+    // given
+    sut.start();
+    doThrow(new RuntimeException()).when(emfFactory).createApplicationManagedEntityManagerFactory();
+
+    // when
+    try {
+      sut.swapEntityManagerFactory(null).get(5, TimeUnit.SECONDS);
+    }
+
+    // then
+    catch (ExecutionException e) {
+      assertThat(sut.get(), sameInstance(emf));
+      assertThat(sut.isRunning(), is(true));
+      verify(emf, never()).close();
+      return;
+    }
+    fail("expected ExecutionException");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void swapShouldThrowExceptionWhenNotStarted() {
+    sut.swapEntityManagerFactory(null);
+  }
+
+  @Test
+  public void stopShouldCloseReplacedEmfWithOutstandingEntityManagers() throws Exception {
+    // given
+    final EntityManagerFactory newEmf = mock(EntityManagerFactory.class);
+    sut.start();
+    sut.acquire();
+    doReturn(newEmf).when(emfFactory).createApplicationManagedEntityManagerFactory();
+    sut.swapEntityManagerFactory(null).get(5, TimeUnit.SECONDS);
+
+    // when
+    sut.stop();
+
+    // then
+    verify(emf).close();
+    verify(newEmf).close();
+  }
+
+  @Test
+  public void lifecycleShouldMoveThroughStates() {
+    assertThat(sut.getState(), is(AbstractEntityManagerFactoryProvider.State.STOPPED));
+
+    sut.start();
+    assertThat(sut.getState(), is(AbstractEntityManagerFactoryProvider.State.RUNNING));
+
+    sut.stop();
+    assertThat(sut.getState(), is(AbstractEntityManagerFactoryProvider.State.STOPPED));
+  }
+
+  @Test
+  public void concurrentStartShouldShareOneBootstrap() throws Exception {
+    // given
+    final CountDownLatch release = new CountDownLatch(1);
+    doAnswer(awaitAndReturnEmf(release)).when(emfFactory).createApplicationManagedEntityManagerFactory();
+    final Thread first = startInNewThread();
+    awaitState(AbstractEntityManagerFactoryProvider.State.STARTING);
+    final Thread second = startInNewThread();
+    while (second.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+
+    // when
+    release.countDown();
+    first.join();
+    second.join();
+
+    // then
+    assertThat(sut.getState(), is(AbstractEntityManagerFactoryProvider.State.RUNNING));
+    assertThat(sut.get(), sameInstance(emf));
+    verify(emfFactory).createApplicationManagedEntityManagerFactory();
+  }
+
+  @Test
+  public void concurrentStartShouldNotWaitForBackgroundBootstrap() throws Exception {
+    // given
+    final CountDownLatch release = new CountDownLatch(1);
+    doAnswer(awaitAndReturnEmf(release)).when(emfFactory).createApplicationManagedEntityManagerFactory();
+    sut = new ApplicationManagedEntityManagerFactoryProvider(emfFactory, 5000L);
+    sut.start();
+
+    // when
+    sut.start();
+
+    // then
+    assertThat(sut.getState(), is(AbstractEntityManagerFactoryProvider.State.STARTING));
+    release.countDown();
+    assertThat(sut.get(), sameInstance(emf));
+    awaitState(AbstractEntityManagerFactoryProvider.State.RUNNING);
+    verify(emfFactory).createApplicationManagedEntityManagerFactory();
+  }
+
+  private Thread startInNewThread() {
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        sut.start();
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  private void awaitState(AbstractEntityManagerFactoryProvider.State state) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (sut.getState() != state && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertThat(sut.getState(), is(state));
+  }
+
+  private Answer<EntityManagerFactory> awaitAndReturnEmf(final CountDownLatch release) {
+    return new Answer<EntityManagerFactory>() {
+      @Override
+      public EntityManagerFactory answer(InvocationOnMock invocation) throws Throwable {
+        release.await(5, TimeUnit.SECONDS);
+        return emf;
+      }
+    };
+  }
 }
@@ -0,0 +1,157 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link AsyncTransactionExecutor}.
+ */
+public class AsyncTransactionExecutorTest {
+
+  private AsyncTransactionExecutor sut;
+
+  @Before
+  public void setUp() {
+    sut = new AsyncTransactionExecutor("test", 1, 1);
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void shouldRejectTasksBeforeStart() {
+    sut.submit(value("a"));
+  }
+
+  @Test
+  public void shouldRunTasksOnceOpened() throws Exception {
+    sut.opened();
+
+    assertThat(sut.submit(value("a")).get(1, TimeUnit.SECONDS), is("a"));
+  }
+
+  @Test
+  public void closingShouldWaitForSubmittedTasks() throws Exception {
+    // given
+    sut.opened();
+    final CountDownLatch release = new CountDownLatch(1);
+    final Future<String> running = sut.submit(new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        release.await();
+        return "running";
+      }
+    });
+    final Future<String> queued = sut.submit(value("queued"));
+    release.countDown();
+
+    // when
+    sut.closing(1, TimeUnit.SECONDS);
+
+    // then
+    assertThat(running.isDone(), is(true));
+    assertThat(queued.isDone(), is(true));
+  }
+
+  @Test
+  public void closingShouldCancelTasksAfterTimeout() throws Exception {
+    // given
+    sut.opened();
+    final Future<String> blocked = sut.submit(new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        new CountDownLatch(1).await();
+        return "never";
+      }
+    });
+    final Future<String> queued = sut.submit(value("queued"));
+
+    // when
+    sut.closing(10, TimeUnit.MILLISECONDS);
+
+    // then
+    assertThat(queued.isDone(), is(false));
+    try {
+      blocked.get(1, TimeUnit.SECONDS);
+    } catch (java.util.concurrent.ExecutionException e) {
+      assertThat(e.getCause() instanceof InterruptedException, is(true));
+    }
+  }
+
+  @Test
+  public void shouldRejectTasksIfQueueIsFull() throws Exception {
+    // given
+    sut.opened();
+    final CountDownLatch release = new CountDownLatch(1);
+    sut.submit(new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        release.await();
+        return "running";
+      }
+    });
+    final Future<String> queued = sut.submit(value("queued"));
+
+    // when
+    try {
+      sut.submit(value("rejected"));
+      fail("expected RejectedExecutionException");
+    } catch (RejectedExecutionException e) {
+      // then
+      assertThat(sut.getQueuedTasks(), is(1));
+    }
+    release.countDown();
+    assertThat(queued.get(1, TimeUnit.SECONDS), is("queued"));
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void shouldRejectTasksAfterClosing() {
+    sut.opened();
+    sut.closing(1, TimeUnit.SECONDS);
+
+    sut.submit(value("a"));
+  }
+
+  @Test
+  public void shouldAcceptTasksAgainAfterReopening() throws Exception {
+    sut.opened();
+    sut.closing(1, TimeUnit.SECONDS);
+    sut.opened();
+
+    assertThat(sut.submit(value("a")).get(1, TimeUnit.SECONDS), is("a"));
+  }
+
+  private static Callable<String> value(final String value) {
+    return new Callable<String>() {
+      @Override
+      public String call() {
+        return value;
+      }
+    };
+  }
+}
@@ -0,0 +1,137 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link DeferredJtaTransactionFacadeFactory}.
+ */
+public class DeferredJtaTransactionFacadeFactoryTest {
+
+  private DeferredJtaTransactionFacadeFactory sut;
+
+  private EntityManagerProviderImpl emProvider;
+
+  private UserTransactionFacade utFacade;
+
+  private EntityManager em;
+
+  @Before
+  public void setUp() {
+    // environment
+    final EntityManagerFactoryProvider emfProvider = mock(EntityManagerFactoryProvider.class);
+    final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+    em = mock(EntityManager.class);
+    doReturn(emf).when(emfProvider).acquire();
+    doReturn(em).when(emf).createEntityManager();
+
+    // input
+    utFacade = mock(UserTransactionFacade.class);
+    emProvider = new EntityManagerProviderImpl(emfProvider, null, true);
+    emProvider.begin();
+
+    // subject under test
+    sut = new DeferredJtaTransactionFacadeFactory(utFacade, emProvider);
+  }
+
+  @After
+  public void tearDown() {
+    emProvider.end();
+  }
+
+  @Test
+  public void shouldNotBeginNorJoinWhenEntityManagerIsNotUsed() {
+    final TransactionFacade facade = sut.createTransactionFacade();
+
+    facade.begin();
+    facade.commit();
+
+    verify(utFacade, never()).begin(anyInt());
+    verify(utFacade, never()).commit();
+    verify(em, never()).joinTransaction();
+  }
+
+  @Test
+  public void shouldBeginAndJoinOnFirstUseAndCommit() {
+    doReturn(false).when(utFacade).isActive();
+    final TransactionFacade facade = sut.createTransactionFacade();
+
+    facade.begin();
+    emProvider.get();
+    facade.commit();
+
+    verify(utFacade).begin(0);
+    verify(em).joinTransaction();
+    verify(utFacade).commit();
+  }
+
+  @Test
+  public void shouldOnlyJoinIfUserTransactionIsAlreadyActive() {
+    doReturn(true).when(utFacade).isActive();
+    final TransactionFacade facade = sut.createTransactionFacade();
+
+    facade.begin();
+    emProvider.get();
+    facade.commit();
+
+    verify(utFacade, never()).begin(anyInt());
+    verify(em).joinTransaction();
+    verify(utFacade, never()).commit();
+  }
+
+  @Test
+  public void shouldSetRollbackOnlyOnRollbackIfUserTransactionWasNotStartedByFacade() {
+    doReturn(true).when(utFacade).isActive();
+    final TransactionFacade facade = sut.createTransactionFacade();
+
+    facade.begin();
+    emProvider.get();
+    facade.rollback();
+
+    verify(utFacade, never()).rollback();
+    verify(utFacade).setRollbackOnly();
+  }
+
+  @Test
+  public void innerRollbackBeforeFirstUseShouldMarkOuterRollbackOnly() {
+    doReturn(false).when(utFacade).isActive();
+    final TransactionFacade outer = sut.createTransactionFacade();
+    outer.begin();
+
+    final TransactionFacade inner = sut.createTransactionFacade();
+    inner.begin();
+    inner.rollback();
+
+    emProvider.get();
+    verify(utFacade).begin(0);
+    verify(utFacade).setRollbackOnly();
+  }
+}
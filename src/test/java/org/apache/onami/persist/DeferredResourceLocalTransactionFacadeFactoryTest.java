@@ -0,0 +1,190 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.HashMap;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+/**
+ * Test for {@link DeferredResourceLocalTransactionFacadeFactory}.
+ */
+public class DeferredResourceLocalTransactionFacadeFactoryTest {
+
+  private DeferredResourceLocalTransactionFacadeFactory sut;
+
+  private EntityManagerProviderImpl emProvider;
+
+  private EntityTransaction txn;
+
+  private EntityManagerFactoryProvider emfProvider;
+
+  private EntityManager em;
+
+  @Before
+  public void setUp() {
+    // environment
+    emfProvider = mock(EntityManagerFactoryProvider.class);
+    final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+    em = mock(EntityManager.class);
+    txn = mock(EntityTransaction.class);
+    doReturn(emf).when(emfProvider).acquire();
+    doReturn(em).when(emf).createEntityManager();
+    doReturn(txn).when(em).getTransaction();
+
+    // input
+    emProvider = new EntityManagerProviderImpl(emfProvider, null, true);
+    emProvider.begin();
+
+    // subject under test
+    sut = new DeferredResourceLocalTransactionFacadeFactory(emProvider);
+  }
+
+  @After
+  public void tearDown() {
+    emProvider.end();
+  }
+
+  @Test
+  public void shouldNotBeginNorCommitWhenEntityManagerIsNotUsed() {
+    final TransactionFacade facade = sut.createTransactionFacade();
+
+    facade.begin();
+    facade.commit();
+
+    verify(txn, never()).begin();
+    verify(txn, never()).commit();
+  }
+
+  @Test
+  public void shouldBeginOnFirstUseAndCommit() {
+    final TransactionFacade facade = sut.createTransactionFacade();
+
+    facade.begin();
+    verify(txn, never()).begin();
+
+    emProvider.get();
+    verify(txn).begin();
+
+    facade.commit();
+    verify(txn).commit();
+  }
+
+  @Test
+  public void shouldRollbackWhenStarted() {
+    final TransactionFacade facade = sut.createTransactionFacade();
+
+    facade.begin();
+    emProvider.get();
+    facade.rollback();
+
+    verify(txn).rollback();
+  }
+
+  @Test
+  public void innerRollbackBeforeFirstUseShouldMarkOuterRollbackOnly() {
+    final TransactionFacade outer = sut.createTransactionFacade();
+    outer.begin();
+
+    final TransactionFacade inner = sut.createTransactionFacade();
+    inner.begin();
+    inner.rollback();
+
+    emProvider.get();
+    verify(txn).begin();
+    verify(txn).setRollbackOnly();
+  }
+
+  @Test
+  public void shouldNotBeginAgainForInnerTransactionAfterFirstUse() {
+    final TransactionFacade outer = sut.createTransactionFacade();
+    outer.begin();
+    emProvider.get();
+    doReturn(true).when(txn).isActive();
+
+    final TransactionFacade inner = sut.createTransactionFacade();
+    inner.begin();
+    emProvider.get();
+    inner.commit();
+
+    verify(txn).begin();
+    verify(txn, never()).commit();
+  }
+
+  @Test
+  public void readOnlyTransactionShouldStayDeferredUntilFirstUse() {
+    // given
+    final ReadOnlyTransactionAdapter adapter = mock(ReadOnlyTransactionAdapter.class);
+    doReturn(mock(Runnable.class)).when(adapter).beginReadOnly(em);
+    final TransactionFacade facade = new ReadOnlyTransactionFacade(sut.createTransactionFacade(), emProvider, adapter);
+
+    // when
+    facade.begin();
+
+    // then
+    verify(txn, never()).begin();
+    verify(adapter, never()).beginReadOnly(em);
+
+    emProvider.get();
+    final InOrder inOrder = inOrder(txn, adapter);
+    inOrder.verify(txn).begin();
+    inOrder.verify(adapter).beginReadOnly(em);
+  }
+
+  @Test
+  public void transactionWithTimeoutShouldStayDeferredUntilFirstUse() throws Exception {
+    // given
+    emProvider.end();
+    emProvider = new EntityManagerProviderImpl(emfProvider, null, false);
+    emProvider.begin();
+    sut = new DeferredResourceLocalTransactionFacadeFactory(emProvider);
+    final TransactionWatchdog watchdog = mock(TransactionWatchdog.class);
+    doReturn(mock(TransactionWatchdog.Timeout.class)).when(watchdog).schedule(any(Runnable.class), anyLong());
+    doReturn(new HashMap<String, Object>()).when(em).getProperties();
+    final TransactionFacade facade = new TimeoutTransactionFacade(sut.createTransactionFacade(), emProvider,
+        watchdog, 3, TestPersistenceUnit.class, Object.class.getMethod("toString"), null);
+
+    // when
+    facade.begin();
+
+    // then
+    verify(txn, never()).begin();
+    verify(em, never()).setProperty(eq(TimeoutTransactionFacade.QUERY_TIMEOUT_HINT), any());
+
+    emProvider.get();
+    final InOrder inOrder = inOrder(txn, em);
+    inOrder.verify(txn).begin();
+    inOrder.verify(em).setProperty(eq(TimeoutTransactionFacade.QUERY_TIMEOUT_HINT), any());
+  }
+}
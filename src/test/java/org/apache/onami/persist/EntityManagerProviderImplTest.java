@@ -25,7 +25,9 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -34,6 +36,7 @@ import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 
 /**
  * Test for {@link EntityManagerProviderImpl}.
@@ -61,7 +64,7 @@ public class EntityManagerProviderImplTest {
 
     // helpers
     emf = mock(EntityManagerFactory.class);
-    doReturn(emf).when(emfProvider).get();
+    doReturn(emf).when(emfProvider).acquire();
 
     em = mock(EntityManager.class);
     doReturn(em).when(emf).createEntityManager(properties);
@@ -162,4 +165,182 @@ public class EntityManagerProviderImplTest {
 
     verify(emf).createEntityManager();
   }
+
+  @Test
+  public void lazyShouldNotCreateEntityManagerWhenStarting() {
+    sut = new EntityManagerProviderImpl(emfProvider, properties, true);
+
+    sut.begin();
+
+    verify(emf, never()).createEntityManager(properties);
+    assertThat(sut.isActive(), is(true));
+  }
+
+  @Test
+  public void lazyShouldCreateEntityManagerOnlyOnceOnFirstUse() {
+    sut = new EntityManagerProviderImpl(emfProvider, properties, true);
+
+    sut.begin();
+    final EntityManager first = sut.get();
+    final EntityManager second = sut.get();
+
+    verify(emf, times(1)).createEntityManager(properties);
+    assertThat(first, sameInstance(em));
+    assertThat(second, sameInstance(em));
+    assertThat(sut.getEntityManagersCreated(), is(1L));
+  }
+
+  @Test
+  public void lazyShouldCountAvoidedEntityManagerWhenNeverUsed() {
+    sut = new EntityManagerProviderImpl(emfProvider, properties, true);
+
+    sut.begin();
+    sut.end();
+
+    verify(emf, never()).createEntityManager(properties);
+    assertThat(sut.isActive(), is(false));
+    assertThat(sut.getEntityManagersCreated(), is(0L));
+    assertThat(sut.getEntityManagerCreationsAvoided(), is(1L));
+  }
+
+  @Test
+  public void lazyShouldCloseEntityManagerWhenUsed() {
+    sut = new EntityManagerProviderImpl(emfProvider, properties, true);
+
+    sut.begin();
+    sut.get();
+    sut.end();
+
+    verify(em).close();
+    assertThat(sut.isActive(), is(false));
+    assertThat(sut.getEntityManagerCreationsAvoided(), is(0L));
+  }
+
+  @Test
+  public void suspendShouldDetachUnitOfWorkAndResumeShouldRestoreIt() {
+    final EntityManager otherEm = mock(EntityManager.class);
+    sut.begin();
+
+    final EntityManagerProviderImpl.ActiveUnitOfWork suspended = sut.suspend();
+    assertThat(sut.isActive(), is(false));
+
+    doReturn(otherEm).when(emf).createEntityManager(properties);
+    sut.begin();
+    assertThat(sut.get(), sameInstance(otherEm));
+    sut.end();
+
+    sut.resume(suspended);
+    assertThat(sut.get(), sameInstance(em));
+    verify(em, never()).close();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void resumeShouldFailIfUnitOfWorkIsActive() {
+    sut.begin();
+    final EntityManagerProviderImpl.ActiveUnitOfWork suspended = sut.suspend();
+    sut.begin();
+
+    sut.resume(suspended);
+  }
+
+  @Test
+  public void beginAndEndShouldBeCountedByGate() {
+    final UnitOfWorkGate gate = new UnitOfWorkGate();
+    sut = new EntityManagerProviderImpl(emfProvider, properties, false, gate);
+
+    sut.begin();
+    assertThat(gate.getActiveCount(), is(1));
+
+    sut.end();
+    assertThat(gate.getActiveCount(), is(0));
+  }
+
+  @Test
+  public void beginShouldBeRejectedIfGateIsClosed() {
+    final UnitOfWorkGate gate = new UnitOfWorkGate();
+    sut = new EntityManagerProviderImpl(emfProvider, properties, false, gate);
+    gate.close();
+
+    try {
+      sut.begin();
+    } catch (IllegalStateException e) {
+      assertThat(sut.isActive(), is(false));
+      verify(emfProvider, never()).acquire();
+      return;
+    }
+    fail("expected IllegalStateException");
+  }
+
+  @Test
+  public void failingBeginShouldNotBeCountedByGate() {
+    final UnitOfWorkGate gate = new UnitOfWorkGate();
+    sut = new EntityManagerProviderImpl(emfProvider, properties, false, gate);
+    doThrow(new IllegalStateException()).when(emfProvider).acquire();
+
+    try {
+      sut.begin();
+    } catch (IllegalStateException e) {
+      assertThat(gate.getActiveCount(), is(0));
+      return;
+    }
+    fail("expected IllegalStateException");
+  }
+
+  @Test
+  public void endShouldReleaseEntityManagerFactory() {
+    sut.begin();
+    sut.end();
+
+    verify(emfProvider).release(emf);
+  }
+
+  @Test
+  public void failingEntityManagerCreationShouldReleaseEntityManagerFactory() {
+    doThrow(new IllegalStateException()).when(emf).createEntityManager(properties);
+
+    try {
+      sut.begin();
+    } catch (IllegalStateException e) {
+      verify(emfProvider).release(emf);
+      return;
+    }
+    fail("expected IllegalStateException");
+  }
+
+  @Test
+  public void additionalUseListenerShouldBeNotifiedOnceAfterPendingListener() {
+    // given
+    final EntityManagerUseListener pending = mock(EntityManagerUseListener.class);
+    final EntityManagerUseListener additional = mock(EntityManagerUseListener.class);
+    sut.begin();
+    sut.notifyBeforeNextUse(pending);
+    sut.addUseListener(additional);
+
+    // when
+    sut.get();
+    sut.get();
+
+    // then
+    final InOrder inOrder = inOrder(pending, additional);
+    inOrder.verify(pending).beforeUse(em);
+    inOrder.verify(additional).beforeUse(em);
+    verify(additional, times(1)).beforeUse(em);
+    sut.end();
+  }
+
+  @Test
+  public void removedUseListenerShouldNotBeNotified() {
+    // given
+    final EntityManagerUseListener additional = mock(EntityManagerUseListener.class);
+    sut.begin();
+    sut.addUseListener(additional);
+
+    // when
+    sut.removeUseListener(additional);
+    sut.get();
+
+    // then
+    verify(additional, never()).beforeUse(em);
+    sut.end();
+  }
 }
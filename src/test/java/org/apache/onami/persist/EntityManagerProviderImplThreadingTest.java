@@ -56,7 +56,7 @@ public class EntityManagerProviderImplThreadingTest {
 
     // helpers
     emf = mock(EntityManagerFactory.class);
-    doReturn(emf).when(emfProvider).get();
+    doReturn(emf).when(emfProvider).acquire();
 
     doAnswer(new Answer() {
       public Object answer(InvocationOnMock invocation) throws Throwable {
@@ -0,0 +1,228 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.onami.persist.test.TestEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link GroupCommit}.
+ */
+public class GroupCommitTest {
+
+  private static final int BATCH_SIZE = 3;
+
+  private static final Method METHOD = methodOf("update", String.class);
+
+  private GroupCommit sut;
+
+  private RecordingBatch batch;
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    sut = new GroupCommit(BATCH_SIZE, 10, TimeUnit.SECONDS);
+    batch = new RecordingBatch();
+    executor = Executors.newFixedThreadPool(BATCH_SIZE);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    executor.awaitTermination(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void concurrentInvocationsShouldShareOneTransaction() throws Exception {
+    // when
+    final List<Future<Object>> results = invokeConcurrently();
+
+    // then
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      assertThat(results.get(i).get(5, TimeUnit.SECONDS), is((Object) "together"));
+    }
+    assertThat(batch.together.get(), is(1));
+    assertThat(batch.alone.get(), is(0));
+    assertThat(sut.getGroups(), is(1L));
+    assertThat(sut.getGroupedInvocations(), is((long) BATCH_SIZE));
+  }
+
+  @Test
+  public void failedBatchShouldRunEveryInvocationAlone() throws Exception {
+    // given
+    batch.failTogether = true;
+
+    // when
+    final List<Future<Object>> results = invokeConcurrently();
+
+    // then
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      assertThat(results.get(i).get(5, TimeUnit.SECONDS), is((Object) "alone"));
+    }
+    assertThat(batch.alone.get(), is(BATCH_SIZE));
+    assertThat(sut.getFallbacks(), is(1L));
+  }
+
+  @Test
+  public void singleInvocationShouldRunAlone() throws Throwable {
+    // given
+    sut = new GroupCommit(BATCH_SIZE, 0, TimeUnit.SECONDS);
+
+    // when
+    final Object result = sut.invoke(invocationOf(METHOD), batch);
+
+    // then
+    assertThat(result, is((Object) "alone"));
+    assertThat(batch.together.get(), is(0));
+  }
+
+  @Test
+  public void defaultConstructorShouldDisableGroupCommit() {
+    assertThat(new GroupCommit().isEnabled(), is(false));
+  }
+
+  @Test
+  public void methodsWithEntityParametersShouldBeRejected() throws Throwable {
+    final Method[] methods = {
+        methodOf("persist", TestEntity.class),
+        methodOf("persistAll", List.class),
+        methodOf("persistArray", TestEntity[].class),
+        methodOf("persistGeneric", TestEntity.class)
+    };
+    for (Method method : methods) {
+      try {
+        // when
+        sut.invoke(invocationOf(method), batch);
+        fail("expected rejection of " + method);
+      } catch (IllegalStateException e) {
+        // then
+        assertThat(batch.together.get(), is(0));
+        assertThat(batch.alone.get(), is(0));
+      }
+    }
+  }
+
+  @Test
+  public void methodsWithoutEntityParametersShouldBeAccepted() throws Throwable {
+    // given
+    sut = new GroupCommit(BATCH_SIZE, 0, TimeUnit.SECONDS);
+
+    // when
+    final Object result = sut.invoke(invocationOf(methodOf("find", Object.class)), batch);
+
+    // then
+    assertThat(result, is((Object) "alone"));
+  }
+
+  private static Method methodOf(String name, Class<?>... parameterTypes) {
+    try {
+      return Service.class.getMethod(name, parameterTypes);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static MethodInvocation invocationOf(Method method) {
+    final MethodInvocation invocation = mock(MethodInvocation.class);
+    doReturn(method).when(invocation).getMethod();
+    return invocation;
+  }
+
+  private List<Future<Object>> invokeConcurrently() {
+    final List<Future<Object>> results = new ArrayList<Future<Object>>();
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      results.add(executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          try {
+            return sut.invoke(invocationOf(METHOD), batch);
+          } catch (Exception e) {
+            throw e;
+          } catch (Throwable e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }));
+    }
+    return results;
+  }
+
+  private static class RecordingBatch implements GroupCommit.Batch {
+
+    private final AtomicInteger together = new AtomicInteger();
+
+    private final AtomicInteger alone = new AtomicInteger();
+
+    private volatile boolean failTogether;
+
+    @Override
+    public Object[] invokeTogether(List<MethodInvocation> invocations) throws Throwable {
+      together.incrementAndGet();
+      if (failTogether) {
+        throw new IllegalStateException("batch failed");
+      }
+      final Object[] results = new Object[invocations.size()];
+      for (int i = 0; i < results.length; i++) {
+        results[i] = "together";
+      }
+      return results;
+    }
+
+    @Override
+    public Object invokeAlone(MethodInvocation invocation) throws Throwable {
+      alone.incrementAndGet();
+      return "alone";
+    }
+  }
+
+  interface Service {
+
+    void update(String text);
+
+    Object find(Object id);
+
+    void persist(TestEntity entity);
+
+    void persistAll(List<? extends TestEntity> entities);
+
+    void persistArray(TestEntity[] entities);
+
+    <T extends TestEntity> void persistGeneric(T entity);
+  }
+}
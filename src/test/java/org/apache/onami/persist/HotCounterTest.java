@@ -0,0 +1,389 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Test for {@link HotCounter}.
+ */
+public class HotCounterTest {
+
+  private static final String UPDATE = "UPDATE Quota e SET e.used = e.used + :delta WHERE e.id = :id";
+
+  private static final String SELECT = "SELECT e.used FROM Quota e WHERE e.id = :id";
+
+  private UnitOfWork unitOfWork;
+
+  private TransactionFacadeFactory tfProvider;
+
+  private EntityManager em;
+
+  private TransactionFacade txFacade;
+
+  private Query update;
+
+  private HotCounter sut;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    final EntityManagerProvider emProvider = mock(EntityManagerProvider.class);
+    tfProvider = mock(TransactionFacadeFactory.class);
+    final Metamodel metamodel = mock(Metamodel.class);
+    final EntityType<Object> entityType = mock(EntityType.class);
+    unitOfWork = mock(UnitOfWork.class);
+    em = mock(EntityManager.class);
+    txFacade = mock(TransactionFacade.class);
+    update = mock(Query.class);
+    when(emProvider.get()).thenReturn(em);
+    when(tfProvider.createTransactionFacade()).thenReturn(txFacade);
+    when(em.getMetamodel()).thenReturn(metamodel);
+    doReturn(entityType).when(metamodel).entity(Object.class);
+    when(entityType.getName()).thenReturn("Quota");
+    when(em.createQuery(UPDATE)).thenReturn(update);
+    when(update.setParameter(anyString(), any())).thenReturn(update);
+    when(update.executeUpdate()).thenReturn(1);
+
+    sut = new HotCounter(emProvider, unitOfWork, tfProvider, Object.class, "id", "used", 1, TimeUnit.HOURS);
+  }
+
+  @After
+  public void tearDown() {
+    sut.close();
+  }
+
+  @Test
+  public void flushShouldUpdateEachChangedIdInOneTransaction() {
+    // given
+    sut.add(1L, 5);
+    sut.increment(1L);
+    sut.increment(2L);
+
+    // when
+    sut.flush();
+
+    // then
+    verify(unitOfWork).begin();
+    verify(txFacade).begin();
+    verify(update).setParameter("delta", 6L);
+    verify(update).setParameter("id", 1L);
+    verify(update).setParameter("delta", 1L);
+    verify(update).setParameter("id", 2L);
+    verify(txFacade).commit();
+    verify(unitOfWork).end();
+    assertThat(sut.getPending(1L), is(0L));
+    assertThat(sut.getUpdatedRows(), is(2L));
+    assertThat(sut.getFlushes(), is(1L));
+  }
+
+  @Test
+  public void flushShouldRunWithinDeferredTransaction() {
+    // given
+    final EntityManagerFactoryProvider emfProvider = mock(EntityManagerFactoryProvider.class);
+    final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+    final EntityTransaction txn = mock(EntityTransaction.class);
+    when(emfProvider.acquire()).thenReturn(emf);
+    when(emf.createEntityManager()).thenReturn(em);
+    when(em.getTransaction()).thenReturn(txn);
+    final EntityManagerProviderImpl deferredProvider = new EntityManagerProviderImpl(emfProvider, null, true);
+    final HotCounter deferred = new HotCounter(deferredProvider, deferredProvider,
+        new DeferredResourceLocalTransactionFacadeFactory(deferredProvider), Object.class, "id", "used", 1,
+        TimeUnit.HOURS);
+    deferred.add(1L, 5);
+
+    // when
+    deferred.flush();
+
+    // then
+    final InOrder inOrder = inOrder(txn, update);
+    inOrder.verify(txn).begin();
+    inOrder.verify(update).executeUpdate();
+    inOrder.verify(txn).commit();
+    assertThat(deferred.getFailedFlushes(), is(0L));
+    assertThat(deferred.getPending(1L), is(0L));
+  }
+
+  @Test
+  public void flushWithoutPendingDeltasShouldNotBeginUnitOfWork() {
+    // given
+    sut.add(1L, 3);
+    sut.add(1L, -3);
+
+    // when
+    sut.flush();
+
+    // then
+    verify(unitOfWork, never()).begin();
+    assertThat(sut.getFlushes(), is(0L));
+  }
+
+  @Test
+  public void failedFlushShouldKeepDeltasPending() {
+    // given
+    final RuntimeException failure = new RuntimeException();
+    when(update.executeUpdate()).thenThrow(failure);
+    sut.add(1L, 4);
+
+    // when
+    sut.flush();
+
+    // then
+    verify(txFacade).rollback();
+    verify(unitOfWork).end();
+    assertThat(sut.getPending(1L), is(4L));
+    assertThat(sut.getFailedFlushes(), is(1L));
+    assertThat(sut.getLastFailure(), sameInstance(failure));
+  }
+
+  @Test
+  public void updateOfMissingRowShouldBeCountedAsUnmatched() {
+    // given
+    when(update.executeUpdate()).thenReturn(0);
+    sut.add(1L, 4);
+
+    // when
+    sut.flush();
+
+    // then
+    assertThat(sut.getUnmatchedUpdates(), is(1L));
+    assertThat(sut.getPending(1L), is(0L));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void getShouldCombinePersistedAndPendingValue() {
+    // given
+    final TypedQuery<Number> select = mock(TypedQuery.class);
+    when(em.createQuery(SELECT, Number.class)).thenReturn(select);
+    when(select.setParameter("id", 1L)).thenReturn(select);
+    when(select.getResultList()).thenReturn(Arrays.<Number>asList(10L));
+    sut.add(1L, 3);
+
+    // when
+    final long value = sut.get(1L);
+
+    // then
+    assertThat(value, is(13L));
+    verify(unitOfWork).begin();
+    verify(unitOfWork).end();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void getShouldReadInNewUnitOfWorkWhileCallerUnitOfWorkIsSuspended() {
+    // given
+    final SuspendedTransaction suspended = mock(SuspendedTransaction.class);
+    when(unitOfWork.isActive()).thenReturn(true);
+    when(tfProvider.suspend()).thenReturn(suspended);
+    final TypedQuery<Number> select = mock(TypedQuery.class);
+    when(em.createQuery(SELECT, Number.class)).thenReturn(select);
+    when(select.setParameter("id", 1L)).thenReturn(select);
+    when(select.getResultList()).thenReturn(Arrays.<Number>asList(10L));
+
+    // when
+    final long value = sut.get(1L);
+
+    // then
+    assertThat(value, is(10L));
+    final InOrder inOrder = inOrder(tfProvider, unitOfWork, select, suspended);
+    inOrder.verify(tfProvider).suspend();
+    inOrder.verify(unitOfWork).begin();
+    inOrder.verify(select).getResultList();
+    inOrder.verify(unitOfWork).end();
+    inOrder.verify(suspended).resume();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void getOfMissingRowShouldReturnPendingValue() {
+    // given
+    final TypedQuery<Number> select = mock(TypedQuery.class);
+    when(em.createQuery(SELECT, Number.class)).thenReturn(select);
+    when(select.setParameter("id", 1L)).thenReturn(select);
+    when(select.getResultList()).thenReturn(Collections.<Number>emptyList());
+    sut.add(1L, 3);
+
+    // when
+    final long value = sut.get(1L);
+
+    // then
+    assertThat(value, is(3L));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void getShouldNotDeadlockWithFlushHoldingTheRowLock() throws Exception {
+    // given
+    final CountDownLatch updated = new CountDownLatch(1);
+    final CountDownLatch selecting = new CountDownLatch(1);
+    final CountDownLatch committed = new CountDownLatch(1);
+    when(update.executeUpdate()).thenAnswer(new Answer<Integer>() {
+      public Integer answer(InvocationOnMock invocation) {
+        updated.countDown();
+        return 1;
+      }
+    });
+    doAnswer(new Answer<Void>() {
+      public Void answer(InvocationOnMock invocation) throws InterruptedException {
+        // the commit must happen while the reader waits for the row
+        selecting.await(5, TimeUnit.SECONDS);
+        committed.countDown();
+        return null;
+      }
+    }).when(txFacade).commit();
+    final TypedQuery<Number> select = mock(TypedQuery.class);
+    when(em.createQuery(SELECT, Number.class)).thenReturn(select);
+    when(select.setParameter("id", 1L)).thenReturn(select);
+    when(select.getResultList()).thenAnswer(new Answer<List<Number>>() {
+      public List<Number> answer(InvocationOnMock invocation) throws InterruptedException {
+        // the row is locked by the update of the flush until it committed
+        selecting.countDown();
+        assertThat(committed.await(5, TimeUnit.SECONDS), is(true));
+        return Arrays.<Number>asList(15L);
+      }
+    });
+    sut.add(1L, 5);
+    final Thread flush = new Thread() {
+      @Override
+      public void run() {
+        sut.flush();
+      }
+    };
+    flush.start();
+    assertThat(updated.await(5, TimeUnit.SECONDS), is(true));
+
+    // when
+    final long value = sut.get(1L);
+
+    // then
+    flush.join();
+    assertThat(value, is(15L));
+    assertThat(sut.getPending(1L), is(0L));
+  }
+
+  @Test
+  public void closeShouldReturnAfterTimeout() throws Exception {
+    // given
+    final CountDownLatch release = new CountDownLatch(1);
+    doAnswer(new Answer<Void>() {
+      public Void answer(InvocationOnMock invocation) throws InterruptedException {
+        release.await();
+        return null;
+      }
+    }).when(txFacade).commit();
+    sut.start();
+    sut.add(1L, 2);
+
+    // when
+    final long start = System.nanoTime();
+    sut.close(50, TimeUnit.MILLISECONDS);
+
+    // then
+    assertThat(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), is(true));
+    assertThat(sut.isClosed(), is(true));
+    release.countDown();
+  }
+
+  @Test
+  public void closeShouldFlushPendingDeltas() {
+    // given
+    sut.start();
+    sut.add(1L, 2);
+
+    // when
+    sut.close();
+
+    // then
+    verify(txFacade).commit();
+    assertThat(sut.isClosed(), is(true));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void closedCounterShouldRejectDeltas() {
+    sut.close();
+
+    sut.increment(1L);
+  }
+
+  @Test
+  public void deltasAddedWhileClosingShouldNotBeLeftPending() throws Exception {
+    // given
+    sut.start();
+    final int adders = 4;
+    final CountDownLatch started = new CountDownLatch(adders);
+    final CountDownLatch done = new CountDownLatch(adders);
+    for (int i = 0; i < adders; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          started.countDown();
+          try {
+            for (; ; ) {
+              sut.increment(1L);
+            }
+          } catch (IllegalStateException e) {
+            // closed
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    started.await(5, TimeUnit.SECONDS);
+
+    // when
+    sut.close();
+    done.await(5, TimeUnit.SECONDS);
+
+    // then
+    assertThat(sut.getPending(1L), is(0L));
+  }
+}
@@ -19,6 +19,7 @@ package org.apache.onami.persist;
  * under the License.
  */
 
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -40,7 +41,7 @@ public class JtaTransactionFacadeProviderTest {
 
   private UserTransactionFacade utFacade;
 
-  private EntityManagerProvider emProvider;
+  private EntityManagerProviderImpl emProvider;
 
   private EntityManager em;
 
@@ -48,7 +49,7 @@ public class JtaTransactionFacadeProviderTest {
   public void setUp() {
     // input
     utFacade = mock(UserTransactionFacade.class);
-    emProvider = mock(EntityManagerProvider.class);
+    emProvider = mock(EntityManagerProviderImpl.class);
 
     // subject under test
     sut = new JtaTransactionFacadeFactory(utFacade, emProvider);
@@ -72,7 +73,7 @@ public class JtaTransactionFacadeProviderTest {
     public void beginShouldDoNothing() {
       sut.begin();
 
-      verify(utFacade, never()).begin();
+      verify(utFacade, never()).begin(anyInt());
       verify(em).joinTransaction();
     }
 
@@ -105,7 +106,7 @@ public class JtaTransactionFacadeProviderTest {
     public void beginShouldBeginTransaction() {
       sut.begin();
 
-      verify(utFacade).begin();
+      verify(utFacade).begin(0);
       verify(em).joinTransaction();
     }
 
@@ -0,0 +1,131 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.atomic.AtomicReference;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.apache.onami.persist.EntityManagerProviderImpl.ActiveUnitOfWork;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link PersistenceContexts}.
+ */
+public class PersistenceContextsTest {
+
+  private PersistenceContexts sut;
+
+  @Before
+  public void setUp() {
+    sut = new PersistenceContexts();
+  }
+
+  @Test
+  public void shouldAllocateDenseOrdinals() {
+    assertThat(sut.allocateOrdinal(), is(0));
+    assertThat(sut.allocateOrdinal(), is(1));
+  }
+
+  @Test
+  public void shouldKeepUnitsOfWorkOfPersistenceUnitsApart() {
+    final int first = sut.allocateOrdinal();
+    final int second = sut.allocateOrdinal();
+    final ActiveUnitOfWork unitOfWork = new ActiveUnitOfWork();
+
+    sut.set(second, unitOfWork);
+
+    assertThat(sut.get(first), is(nullValue()));
+    assertThat(sut.get(second), sameInstance(unitOfWork));
+  }
+
+  @Test
+  public void shouldGrowForOrdinalsAllocatedLater() {
+    final int first = sut.allocateOrdinal();
+    final ActiveUnitOfWork firstUnitOfWork = new ActiveUnitOfWork();
+    sut.set(first, firstUnitOfWork);
+    final ActiveUnitOfWork laterUnitOfWork = new ActiveUnitOfWork();
+
+    final int later = sut.allocateOrdinal();
+    sut.set(later, laterUnitOfWork);
+
+    assertThat(sut.get(first), sameInstance(firstUnitOfWork));
+    assertThat(sut.get(later), sameInstance(laterUnitOfWork));
+  }
+
+  @Test
+  public void shouldRemoveOnlyGivenUnitOfWork() {
+    final int first = sut.allocateOrdinal();
+    final int second = sut.allocateOrdinal();
+    final ActiveUnitOfWork unitOfWork = new ActiveUnitOfWork();
+    sut.set(first, unitOfWork);
+    sut.set(second, new ActiveUnitOfWork());
+
+    sut.remove(second);
+
+    assertThat(sut.get(first), sameInstance(unitOfWork));
+    assertThat(sut.get(second), is(nullValue()));
+  }
+
+  @Test
+  public void shouldIsolateThreads() throws Exception {
+    final int ordinal = sut.allocateOrdinal();
+    sut.set(ordinal, new ActiveUnitOfWork());
+    final AtomicReference<ActiveUnitOfWork> seenByOtherThread = new AtomicReference<ActiveUnitOfWork>();
+
+    final Thread other = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        seenByOtherThread.set(sut.get(ordinal));
+      }
+    });
+    other.start();
+    other.join();
+
+    assertThat(seenByOtherThread.get(), is(nullValue()));
+  }
+
+  @Test
+  public void providersSharingContextsShouldBeIndependent() {
+    final EntityManagerFactoryProvider emfProvider = mock(EntityManagerFactoryProvider.class);
+    final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+    doReturn(emf).when(emfProvider).acquire();
+    doReturn(mock(EntityManager.class)).when(emf).createEntityManager();
+    final EntityManagerProviderImpl first = new EntityManagerProviderImpl(emfProvider, null, false, new UnitOfWorkGate(), sut);
+    final EntityManagerProviderImpl second = new EntityManagerProviderImpl(emfProvider, null, false, new UnitOfWorkGate(), sut);
+
+    first.begin();
+    assertThat(first.isActive(), is(true));
+    assertThat(second.isActive(), is(false));
+
+    second.begin();
+    first.end();
+    assertThat(first.isActive(), is(false));
+    assertThat(second.isActive(), is(true));
+    second.end();
+  }
+}
@@ -28,8 +28,10 @@ import com.google.inject.Key;
 import com.google.inject.TypeLiteral;
 import java.lang.annotation.Annotation;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Provider;
 import javax.persistence.EntityManagerFactory;
+import javax.transaction.TransactionManager;
 import javax.transaction.UserTransaction;
 import org.junit.Before;
 import org.junit.Test;
@@ -58,6 +60,94 @@ public class PersistenceUnitModuleConfigurationTest {
     assertThat(sut.getAnnotation(), sameInstance((Class) annotation));
   }
 
+  @Test
+  public void shouldCreateEntityManagerEagerlyByDefault() {
+    assertThat(sut.isLazyEntityManagerCreation(), is(false));
+  }
+
+  @Test
+  public void shouldHandleLazyEntityManagerCreation() {
+    // when
+    sut.createEntityManagerLazily();
+
+    // then
+    assertThat(sut.isLazyEntityManagerCreation(), is(true));
+  }
+
+  @Test
+  public void shouldHandleDeferredTransactionBegin() {
+    // when
+    sut.deferTransactionBegin();
+
+    // then
+    assertThat(sut.isDeferredTransactionBegin(), is(true));
+  }
+
+  @Test
+  public void shouldHandleReadOnlyTransactionAdapter() {
+    // given
+    final ReadOnlyTransactionAdapter adapter = new HibernateReadOnlyTransactionAdapter();
+
+    // when
+    sut.useReadOnlyTransactionAdapter(adapter);
+
+    // then
+    assertThat(sut.getReadOnlyTransactionAdapter(), sameInstance(adapter));
+  }
+
+  @Test
+  public void shouldBootstrapSynchronouslyByDefault() {
+    assertThat(sut.getBackgroundBootstrapTimeout(), is(0L));
+  }
+
+  @Test
+  public void shouldHandleBackgroundBootstrap() {
+    // when
+    sut.bootstrapInBackground(2, TimeUnit.SECONDS);
+
+    // then
+    assertThat(sut.getBackgroundBootstrapTimeout(), is(2000L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectNonPositiveBackgroundBootstrapTimeout() {
+    sut.bootstrapInBackground(0, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void shouldHandleAsyncTransactions() {
+    // when
+    sut.runAsyncTransactions(4, 100);
+
+    // then
+    assertThat(sut.getMaxConcurrentAsyncTransactions(), is(4));
+    assertThat(sut.getMaxQueuedAsyncTransactions(), is(100));
+  }
+
+  @Test
+  public void shouldNotLimitConcurrentTransactionsByDefault() {
+    assertThat(sut.getTransactionBulkhead().isEnabled(), is(false));
+  }
+
+  @Test
+  public void shouldHandleConcurrentTransactionLimit() {
+    // when
+    sut.limitConcurrentTransactions(10, 20, 1, TimeUnit.SECONDS);
+
+    // then
+    assertThat(sut.getTransactionBulkhead().isEnabled(), is(true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectNonPositiveAsyncConcurrency() {
+    sut.runAsyncTransactions(0, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectNegativeAsyncQueue() {
+    sut.runAsyncTransactions(1, -1);
+  }
+
   @Test
   public void shouldHandleResourceLocale() {
     // when
@@ -288,4 +378,38 @@ public class PersistenceUnitModuleConfigurationTest {
       return mock(EntityManagerFactory.class);
     }
   }
+
+  @Test
+  public void shouldHandleTransactionManagerForJta() {
+    // given
+    final TransactionManager tm = mock(TransactionManager.class);
+    sut.useGlobalTransaction(mock(UserTransaction.class));
+
+    // when
+    sut.useTransactionManager(tm);
+
+    // then
+    assertThat(sut.isTransactionManagerProvidedByInstance(), is(true));
+    assertThat(sut.getTransactionManager(), sameInstance(tm));
+  }
+
+  @Test
+  public void shouldHandleTransactionManagerJndiNameForJta() {
+    // given
+    sut.useGlobalTransactionWithJndiName("ut");
+
+    // when
+    sut.useTransactionManagerWithJndiName("tm");
+
+    // then
+    assertThat(sut.isTransactionManagerProvidedByJndiLookup(), is(true));
+    assertThat(sut.getTmJndiName(), is("tm"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectTransactionManagerForLocalTransactions() {
+    sut.useLocalTransaction();
+
+    sut.useTransactionManager(mock(TransactionManager.class));
+  }
 }
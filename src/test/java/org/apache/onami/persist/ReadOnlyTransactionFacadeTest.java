@@ -0,0 +1,159 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import javax.persistence.EntityManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+/**
+ * Test for {@link ReadOnlyTransactionFacade}.
+ */
+public class ReadOnlyTransactionFacadeTest {
+
+  private ReadOnlyTransactionFacade sut;
+
+  private TransactionFacade delegate;
+
+  private ReadOnlyTransactionAdapter adapter;
+
+  private EntityManager em;
+
+  private Runnable restore;
+
+  private EntityManagerProviderImpl emProvider;
+
+  @Before
+  public void setUp() {
+    delegate = mock(TransactionFacade.class);
+    adapter = mock(ReadOnlyTransactionAdapter.class);
+    emProvider = mock(EntityManagerProviderImpl.class);
+    em = mock(EntityManager.class);
+    restore = mock(Runnable.class);
+
+    doReturn(true).when(emProvider).hasEntityManager();
+    doReturn(em).when(emProvider).get();
+    doReturn(restore).when(adapter).beginReadOnly(em);
+
+    sut = new ReadOnlyTransactionFacade(delegate, emProvider, adapter);
+  }
+
+  @Test
+  public void beginShouldPrepareEntityManagerAfterBegin() {
+    sut.begin();
+
+    final InOrder inOrder = inOrder(delegate, adapter);
+    inOrder.verify(delegate).begin();
+    inOrder.verify(adapter).beginReadOnly(em);
+  }
+
+  @Test
+  public void commitShouldRestoreAndRollback() {
+    sut.begin();
+    sut.commit();
+
+    final InOrder inOrder = inOrder(delegate, restore);
+    inOrder.verify(restore).run();
+    inOrder.verify(delegate).rollback();
+    verify(delegate, never()).commit();
+  }
+
+  @Test
+  public void rollbackShouldRestoreAndRollback() {
+    sut.begin();
+    sut.rollback();
+
+    final InOrder inOrder = inOrder(delegate, restore);
+    inOrder.verify(restore).run();
+    inOrder.verify(delegate).rollback();
+  }
+
+  @Test
+  public void rollbackShouldRollbackIfRestoreFails() {
+    doThrow(new IllegalStateException()).when(restore).run();
+    sut.begin();
+
+    try {
+      sut.rollback();
+    } catch (IllegalStateException e) {
+      verify(delegate).rollback();
+      return;
+    }
+    throw new AssertionError("expected IllegalStateException to be thrown");
+  }
+
+  @Test
+  public void beginShouldRollbackIfAdapterFails() {
+    doThrow(new IllegalStateException()).when(adapter).beginReadOnly(em);
+
+    try {
+      sut.begin();
+    } catch (IllegalStateException e) {
+      verify(delegate).rollback();
+      return;
+    }
+    throw new AssertionError("expected IllegalStateException to be thrown");
+  }
+
+  @Test
+  public void beginShouldNotUseEntityManagerWhileUseListenerIsPending() {
+    // given
+    doReturn(mock(EntityManagerUseListener.class)).when(emProvider).getPendingUseListener();
+
+    // when
+    sut.begin();
+
+    // then
+    verify(emProvider, never()).get();
+    final ArgumentCaptor<EntityManagerUseListener> prepareOnUse = ArgumentCaptor.forClass(EntityManagerUseListener.class);
+    verify(emProvider).addUseListener(prepareOnUse.capture());
+    verify(adapter, never()).beginReadOnly(em);
+
+    prepareOnUse.getValue().beforeUse(em);
+    verify(adapter).beginReadOnly(em);
+    sut.rollback();
+    verify(restore).run();
+  }
+
+  @Test
+  public void rollbackShouldRemoveUnusedListener() {
+    // given
+    doReturn(false).when(emProvider).hasEntityManager();
+    sut.begin();
+
+    // when
+    sut.rollback();
+
+    // then
+    final ArgumentCaptor<EntityManagerUseListener> prepareOnUse = ArgumentCaptor.forClass(EntityManagerUseListener.class);
+    verify(emProvider).addUseListener(prepareOnUse.capture());
+    verify(emProvider).removeUseListener(prepareOnUse.getValue());
+    verify(delegate).rollback();
+  }
+}
@@ -39,7 +39,7 @@ public class ResourceLocalTransactionFacadeProviderTest {
 
   private ResourceLocalTransactionFacadeFactory sut;
 
-  private EntityManagerProvider emProvider;
+  private EntityManagerProviderImpl emProvider;
 
   private EntityManager em;
 
@@ -48,7 +48,7 @@ public class ResourceLocalTransactionFacadeProviderTest {
   @Before
   public void setUp() {
     // input
-    emProvider = mock(EntityManagerProvider.class);
+    emProvider = mock(EntityManagerProviderImpl.class);
 
     // subject under test
     sut = new ResourceLocalTransactionFacadeFactory(emProvider);
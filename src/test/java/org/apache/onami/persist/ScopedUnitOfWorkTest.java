@@ -0,0 +1,97 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.Callable;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+/**
+ * Test for {@link ScopedUnitOfWork}.
+ */
+public class ScopedUnitOfWorkTest {
+
+  private UnitOfWork unitOfWork;
+
+  private Object result;
+
+  private Callable<Object> work;
+
+  @Before
+  public void setUp() {
+    unitOfWork = mock(UnitOfWork.class);
+    result = new Object();
+    work = new Callable<Object>() {
+      @Override
+      public Object call() {
+        return result;
+      }
+    };
+  }
+
+  @Test
+  public void runShouldBeginAndEndUnitOfWork() throws Exception {
+    final Object actual = ScopedUnitOfWork.run(unitOfWork, work);
+
+    assertThat(actual, sameInstance(result));
+    final InOrder inOrder = inOrder(unitOfWork);
+    inOrder.verify(unitOfWork).begin();
+    inOrder.verify(unitOfWork).end();
+  }
+
+  @Test
+  public void runShouldJoinActiveUnitOfWork() throws Exception {
+    doReturn(true).when(unitOfWork).isActive();
+
+    ScopedUnitOfWork.run(unitOfWork, work);
+
+    verify(unitOfWork, never()).begin();
+    verify(unitOfWork, never()).end();
+  }
+
+  @Test
+  public void runShouldEndUnitOfWorkIfWorkFails() throws Exception {
+    final Exception exc = new Exception();
+    try {
+      ScopedUnitOfWork.run(unitOfWork, new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          throw exc;
+        }
+      });
+    } catch (Exception e) {
+      assertThat(e, is(sameInstance(exc)));
+      verify(unitOfWork).end();
+      return;
+    }
+    fail("expected Exception");
+  }
+}
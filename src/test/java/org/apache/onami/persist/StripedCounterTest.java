@@ -0,0 +1,76 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+/**
+ * Test for {@link StripedCounter}.
+ */
+public class StripedCounterTest {
+
+  @Test
+  public void drainShouldReturnSumAndReset() {
+    // given
+    final StripedCounter sut = new StripedCounter();
+    sut.add(5);
+    sut.add(-2);
+
+    // when
+    final long drained = sut.drain();
+
+    // then
+    assertThat(drained, is(3L));
+    assertThat(sut.sum(), is(0L));
+  }
+
+  @Test
+  public void shouldNotLoseConcurrentUpdates() throws Exception {
+    // given
+    final StripedCounter sut = new StripedCounter();
+    final int threads = 4;
+    final int increments = 10000;
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int i = 0; i < threads; i++) {
+      new Thread(new Runnable() {
+        public void run() {
+          for (int j = 0; j < increments; j++) {
+            sut.add(1);
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+
+    // when
+    long drained = 0;
+    while (done.getCount() > 0) {
+      drained += sut.drain();
+    }
+    drained += sut.drain();
+
+    // then
+    assertThat(drained, is((long) threads * increments));
+  }
+}
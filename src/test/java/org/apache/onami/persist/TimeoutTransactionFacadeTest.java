@@ -0,0 +1,155 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.RollbackException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Test for {@link TimeoutTransactionFacade}.
+ */
+public class TimeoutTransactionFacadeTest {
+
+  private TimeoutTransactionFacade sut;
+
+  private TransactionFacade delegate;
+
+  private EntityManagerProviderImpl emProvider;
+
+  private TransactionWatchdog watchdog;
+
+  private TransactionWatchdog.Timeout timeout;
+
+  private TransactionListener listener;
+
+  private EntityManager em;
+
+  @Before
+  public void setUp() throws Exception {
+    delegate = mock(TransactionFacade.class);
+    emProvider = mock(EntityManagerProviderImpl.class);
+    watchdog = mock(TransactionWatchdog.class);
+    timeout = mock(TransactionWatchdog.Timeout.class);
+    listener = mock(TransactionListener.class);
+    em = mock(EntityManager.class);
+
+    doReturn(timeout).when(watchdog).schedule(any(Runnable.class), anyLong());
+    doReturn(true).when(emProvider).hasEntityManager();
+    doReturn(em).when(emProvider).get();
+    doReturn(new HashMap<String, Object>()).when(em).getProperties();
+    doReturn(true).when(em).isOpen();
+
+    sut = new TimeoutTransactionFacade(delegate, emProvider, watchdog, 3, TestPersistenceUnit.class,
+        Object.class.getMethod("toString"), listener);
+  }
+
+  @Test
+  public void beginShouldPassTimeoutAndScheduleWatchdog() {
+    sut.begin();
+
+    verify(delegate).setTimeout(3);
+    verify(delegate).begin();
+    verify(watchdog).schedule(any(Runnable.class), eq(TimeUnit.SECONDS.toMillis(3)));
+    verify(em).setProperty(TimeoutTransactionFacade.QUERY_TIMEOUT_HINT, 3000);
+  }
+
+  @Test
+  public void commitShouldCommitAndCancelWatchdog() {
+    sut.begin();
+    sut.commit();
+
+    verify(delegate).commit();
+    verify(timeout).cancel();
+    verify(em).setProperty(TimeoutTransactionFacade.QUERY_TIMEOUT_HINT, 0);
+  }
+
+  @Test
+  public void commitShouldRollbackIfTimedOut() {
+    doReturn(true).when(timeout).isExpired();
+    sut.begin();
+
+    try {
+      sut.commit();
+    } catch (RollbackException e) {
+      verify(delegate).rollback();
+      verify(delegate, never()).commit();
+      verify(timeout).cancel();
+      return;
+    }
+    fail("expected RollbackException to be thrown");
+  }
+
+  @Test
+  public void shouldSetHintOnFirstUseWithoutEntityManager() {
+    // given
+    doReturn(false).when(emProvider).hasEntityManager();
+
+    // when
+    sut.begin();
+
+    // then
+    verify(emProvider, never()).get();
+    final ArgumentCaptor<EntityManagerUseListener> hintOnUse = ArgumentCaptor.forClass(EntityManagerUseListener.class);
+    verify(emProvider).addUseListener(hintOnUse.capture());
+    hintOnUse.getValue().beforeUse(em);
+    verify(em).setProperty(eq(TimeoutTransactionFacade.QUERY_TIMEOUT_HINT), any());
+  }
+
+  @Test
+  public void shouldNotUseEntityManagerWhileUseListenerIsPending() {
+    // given
+    doReturn(mock(EntityManagerUseListener.class)).when(emProvider).getPendingUseListener();
+
+    // when
+    sut.begin();
+    sut.rollback();
+
+    // then
+    verify(emProvider, never()).get();
+    final ArgumentCaptor<EntityManagerUseListener> hintOnUse = ArgumentCaptor.forClass(EntityManagerUseListener.class);
+    verify(emProvider).addUseListener(hintOnUse.capture());
+    verify(emProvider).removeUseListener(hintOnUse.getValue());
+    verify(delegate).rollback();
+    verify(timeout).cancel();
+  }
+
+  @Test
+  public void isOuterShouldDelegate() {
+    doReturn(true).when(delegate).isOuter();
+
+    assertThat(sut.isOuter(), is(true));
+  }
+}
@@ -0,0 +1,156 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link TransactionBulkhead}.
+ */
+public class TransactionBulkheadTest {
+
+  private TransactionBulkhead sut;
+
+  @Before
+  public void setUp() {
+    sut = new TransactionBulkhead(1, 1, 10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void shouldAdmitUpToMaxConcurrent() {
+    sut.enter();
+
+    assertThat(sut.getActiveTransactions(), is(1));
+    assertThat(sut.getAdmittedTransactions(), is(1L));
+
+    sut.exit();
+
+    assertThat(sut.getActiveTransactions(), is(0));
+  }
+
+  @Test
+  public void shouldRejectWhenQueueIsFull() throws Exception {
+    // given
+    sut.enter();
+    final Thread waiting = enterInBackground();
+    awaitQueued(1);
+
+    // when
+    try {
+      sut.enter();
+      fail("expected TransactionRejectedException");
+    } catch (TransactionRejectedException e) {
+      // then
+      assertThat(sut.getRejectedBecauseQueueFull(), is(1L));
+    }
+
+    sut.exit();
+    waiting.join(1000);
+    assertThat(sut.getQueuedTransactions(), is(0));
+    assertThat(sut.getAdmittedTransactions(), is(2L));
+  }
+
+  @Test
+  public void shouldRejectAfterMaxWait() {
+    // given
+    sut = new TransactionBulkhead(1, 1, 10, TimeUnit.MILLISECONDS);
+    sut.enter();
+
+    // when
+    try {
+      sut.enter();
+      fail("expected TransactionRejectedException");
+    } catch (TransactionRejectedException e) {
+      // then
+      assertThat(sut.getRejectedBecauseTimeout(), is(1L));
+      assertThat(sut.getQueuedTransactions(), is(0));
+    }
+  }
+
+  @Test
+  public void disabledBulkheadShouldReportZeros() {
+    sut = new TransactionBulkhead();
+
+    assertThat(sut.isEnabled(), is(false));
+    assertThat(sut.getActiveTransactions(), is(0));
+    assertThat(sut.getMaxWaitNanos(), is(0L));
+  }
+
+  @Test
+  public void adaptiveLimitShouldShrinkWithGrowingLatency() throws Exception {
+    // given
+    sut = new TransactionBulkhead(new VegasLimit(20, 1, 20), 0, 0, TimeUnit.SECONDS);
+    sut.enter();
+    sut.exit();
+
+    // when
+    for (int i = 0; i < 50; i++) {
+      sut.enter();
+      sut.recordLatency(TimeUnit.MILLISECONDS.toNanos(2 + i));
+      sut.exit();
+    }
+
+    // then
+    assertThat(sut.getLimit() < 20, is(true));
+    assertThat(sut.getActiveTransactions(), is(0));
+    assertThat(sut.getMinRttNanos() > 0, is(true));
+    assertThat(sut.getSmoothedRttNanos() > sut.getMinRttNanos(), is(true));
+  }
+
+  @Test
+  public void fixedLimitShouldNotMeasureLatency() {
+    sut.enter();
+    sut.recordLatency(TimeUnit.MILLISECONDS.toNanos(5));
+    sut.exit();
+
+    assertThat(sut.getLimit(), is(1));
+    assertThat(sut.getSmoothedRttNanos(), is(0L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectNonPositiveMaxConcurrent() {
+    new TransactionBulkhead(0, 1, 1, TimeUnit.SECONDS);
+  }
+
+  private Thread enterInBackground() {
+    final Thread thread = new Thread() {
+      @Override
+      public void run() {
+        sut.enter();
+        sut.exit();
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  private void awaitQueued(int expected) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 1000;
+    while (sut.getQueuedTransactions() < expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.Method;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link TransactionMetrics} and {@link LatencyHistogram}.
+ */
+public class TransactionMetricsTest {
+
+  private TransactionMetrics sut;
+
+  private Method method;
+
+  @Before
+  public void setUp() throws Exception {
+    sut = new TransactionMetrics();
+    method = Object.class.getMethod("toString");
+  }
+
+  @Test
+  public void countsCommitsAndRollbacksOfOuterTransactions() {
+    sut.transactionBegun(TestPersistenceUnit.class, method, true);
+    sut.transactionCommitted(TestPersistenceUnit.class, method, true, 100L);
+    sut.transactionBegun(TestPersistenceUnit.class, method, true);
+    sut.exceptionThrown(TestPersistenceUnit.class, method, true, new RuntimeException());
+    sut.transactionRolledBack(TestPersistenceUnit.class, method, true, 300L);
+
+    final TransactionStatistics stats = sut.getUnitStatistics(TestPersistenceUnit.class);
+    assertThat(stats.getCommits(), is(1L));
+    assertThat(stats.getRollbacks(), is(1L));
+    assertThat(stats.getExceptions(), is(1L));
+    assertThat(stats.getActiveTransactions(), is(0L));
+    assertThat(stats.getCount(), is(2L));
+    assertThat(stats.getMaxNanos(), is(300L));
+    assertThat(stats.getMeanNanos(), is(200L));
+    assertThat(sut.getMethodStatistics(method).getCount(), is(2L));
+  }
+
+  @Test
+  public void innerTransactionsAreOnlyCounted() {
+    sut.transactionBegun(TestPersistenceUnit.class, method, false);
+    sut.transactionCommitted(TestPersistenceUnit.class, method, false, 100L);
+
+    final TransactionStatistics stats = sut.getUnitStatistics(TestPersistenceUnit.class);
+    assertThat(stats.getInnerTransactions(), is(1L));
+    assertThat(stats.getCommits(), is(0L));
+    assertThat(stats.getCount(), is(0L));
+  }
+
+  @Test
+  public void tracksActiveTransactions() {
+    sut.transactionBegun(null, method, true);
+
+    assertThat(sut.getUnitStatistics(null).getActiveTransactions(), is(1L));
+    assertThat(sut.getUnitStatistics(TestPersistenceUnit.class).getActiveTransactions(), is(0L));
+  }
+
+  @Test
+  public void unknownKeysAreNotRegistered() {
+    sut.getMethodStatistics(method);
+
+    assertThat(sut.getAllMethodStatistics().isEmpty(), is(true));
+  }
+
+  @Test
+  public void bucketsCoverTheirHighestValue() {
+    for (long value : new long[] { 0L, 1L, 15L, 16L, 17L, 1000L, 123456789L, Long.MAX_VALUE }) {
+      final int bucket = LatencyHistogram.bucketOf(value);
+      assertThat(LatencyHistogram.highestValueOf(bucket) >= value, is(true));
+      assertThat(LatencyHistogram.bucketOf(LatencyHistogram.highestValueOf(bucket)), is(bucket));
+    }
+  }
+
+  @Test
+  public void percentileIsWithinRelativeErrorOfBucket() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (long i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+
+    final long p50 = histogram.snapshot().getPercentile(50.0);
+    assertThat(p50 >= 500000L && p50 <= 500000L * 17 / 16, is(true));
+    assertThat(histogram.snapshot().getPercentile(100.0), is(1000000L));
+  }
+
+  @Test
+  public void countsRetries() {
+    sut.transactionRetried(TestPersistenceUnit.class, method, 1, new RuntimeException());
+    sut.transactionRetried(TestPersistenceUnit.class, method, 2, new RuntimeException());
+
+    assertThat(sut.getUnitStatistics(TestPersistenceUnit.class).getRetries(), is(2L));
+    assertThat(sut.getMethodStatistics(method).getRetries(), is(2L));
+  }
+
+  @Test
+  public void countsTimeouts() {
+    sut.transactionTimedOut(TestPersistenceUnit.class, method, 1000L);
+
+    assertThat(sut.getUnitStatistics(TestPersistenceUnit.class).getTimeouts(), is(1L));
+    assertThat(sut.getMethodStatistics(method).getTimeouts(), is(1L));
+  }
+}
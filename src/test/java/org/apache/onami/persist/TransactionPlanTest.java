@@ -0,0 +1,97 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import javax.persistence.OptimisticLockException;
+import javax.persistence.RollbackException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link TransactionPlan}.
+ */
+public class TransactionPlanTest {
+
+  private Transactional txnal;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    txnal = mock(Transactional.class);
+    doReturn(new Class[] { OptimisticLockException.class }).when(txnal).retryOn();
+    doReturn(3).when(txnal).maxRetries();
+    doReturn(10L).when(txnal).retryBackoffMillis();
+    doReturn(50L).when(txnal).maxRetryBackoffMillis();
+  }
+
+  @Test
+  public void shouldRetryOnMatchingException() {
+    final TransactionPlan sut = new TransactionPlan(txnal);
+
+    assertThat(sut.isRetryNecessaryFor(new OptimisticLockException()), is(true));
+    assertThat(sut.isRetryNecessaryFor(new RuntimeException()), is(false));
+  }
+
+  @Test
+  public void shouldRetryOnMatchingCause() {
+    final TransactionPlan sut = new TransactionPlan(txnal);
+
+    assertThat(sut.isRetryNecessaryFor(new RollbackException(new OptimisticLockException())), is(true));
+  }
+
+  @Test
+  public void backoffShouldGrowExponentiallyUpToMaximum() {
+    final TransactionPlan sut = new TransactionPlan(txnal);
+
+    assertThat(sut.retryBackoffMillis(1, 0.0), is(5L));
+    assertThat(sut.retryBackoffMillis(2, 0.0), is(10L));
+    assertThat(sut.retryBackoffMillis(3, 0.99), is(39L));
+    assertThat(sut.retryBackoffMillis(10, 0.0), is(25L));
+    assertThat(sut.retryBackoffMillis(100, 0.99), is(49L));
+  }
+
+  @Test
+  public void shouldNotRetryByDefault() {
+    final TransactionPlan sut = new TransactionPlan(mock(Transactional.class));
+
+    assertThat(sut.getMaxRetries(), is(0));
+    assertThat(sut.isRetryNecessaryFor(new OptimisticLockException()), is(false));
+  }
+
+  @Test
+  public void groupCommitShouldBeEligibleForRequiredPropagation() {
+    doReturn(true).when(txnal).groupCommit();
+
+    assertThat(new TransactionPlan(txnal).isGroupCommit(), is(true));
+  }
+
+  @Test
+  public void groupCommitShouldNotApplyToReadOnlyTransactions() {
+    doReturn(true).when(txnal).groupCommit();
+    doReturn(true).when(txnal).readOnly();
+
+    assertThat(new TransactionPlan(txnal).isGroupCommit(), is(false));
+  }
+}
@@ -0,0 +1,168 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link TransactionWatchdog}.
+ */
+public class TransactionWatchdogTest {
+
+  private TransactionWatchdog sut;
+
+  @Before
+  public void setUp() {
+    sut = new TransactionWatchdog(5, TimeUnit.MILLISECONDS);
+  }
+
+  @After
+  public void tearDown() {
+    sut.stop();
+  }
+
+  @Test
+  public void shouldRunTaskAfterDelay() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    final TransactionWatchdog.Timeout timeout = sut.schedule(new CountDown(latch), 20);
+
+    assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(timeout.isExpired(), is(true));
+    assertThat(timeout.cancel(), is(false));
+  }
+
+  @Test
+  public void shouldRunTaskWithDelayLongerThanOneRound() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    sut.schedule(new CountDown(latch), 3000);
+
+    assertThat(latch.await(1, TimeUnit.SECONDS), is(false));
+    assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void shouldNotRunCancelledTask() throws Exception {
+    final CountDownLatch cancelled = new CountDownLatch(1);
+    final CountDownLatch other = new CountDownLatch(1);
+
+    final TransactionWatchdog.Timeout timeout = sut.schedule(new CountDown(cancelled), 20);
+    assertThat(timeout.cancel(), is(true));
+    sut.schedule(new CountDown(other), 40);
+
+    assertThat(other.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(cancelled.getCount(), is(1L));
+    assertThat(timeout.isExpired(), is(false));
+  }
+
+  @Test
+  public void shouldKeepRunningWhileUnitIsRunning() throws Exception {
+    // given
+    final UnitOfWorkGate.Listener unit = sut.newUnitListener();
+    unit.opened();
+
+    // when
+    sut.schedule(new CountDown(new CountDownLatch(1)), 20000).cancel();
+    Thread.sleep(50);
+
+    // then
+    assertThat(sut.isRunning(), is(true));
+  }
+
+  @Test
+  public void shouldTerminateOnceNoUnitIsRunningAndNoTimeoutIsScheduled() throws Exception {
+    // given
+    final UnitOfWorkGate.Listener unit = sut.newUnitListener();
+    unit.opened();
+    final TransactionWatchdog.Timeout timeout = sut.schedule(new CountDown(new CountDownLatch(1)), 20000);
+
+    // when
+    unit.closing(1, TimeUnit.SECONDS);
+    Thread.sleep(50);
+
+    // then
+    assertThat(sut.isRunning(), is(true));
+
+    // when
+    timeout.cancel();
+
+    // then
+    assertThat(awaitTerminated(), is(true));
+  }
+
+  @Test
+  public void repeatedNotificationsShouldCountUnitOnce() throws Exception {
+    // given
+    final UnitOfWorkGate.Listener unit = sut.newUnitListener();
+    unit.opened();
+    unit.opened();
+
+    // when
+    unit.closing(1, TimeUnit.SECONDS);
+    sut.schedule(new CountDown(new CountDownLatch(1)), 20000).cancel();
+
+    // then
+    assertThat(awaitTerminated(), is(true));
+  }
+
+  @Test
+  public void shouldRestartAfterTermination() throws Exception {
+    // given
+    sut.schedule(new CountDown(new CountDownLatch(1)), 20000).cancel();
+    assertThat(awaitTerminated(), is(true));
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    // when
+    sut.schedule(new CountDown(latch), 20);
+
+    // then
+    assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+  }
+
+  private boolean awaitTerminated() throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (sut.isRunning() && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    return !sut.isRunning();
+  }
+
+  private static class CountDown implements Runnable {
+
+    private final CountDownLatch latch;
+
+    CountDown(CountDownLatch latch) {
+      this.latch = latch;
+    }
+
+    @Override
+    public void run() {
+      latch.countDown();
+    }
+  }
+}
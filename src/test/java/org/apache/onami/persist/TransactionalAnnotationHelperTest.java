@@ -21,6 +21,7 @@ package org.apache.onami.persist;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 
@@ -33,6 +34,8 @@ import org.aopalliance.intercept.MethodInvocation;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 /**
  * Test for {@link TransactionalAnnotationHelper}.
@@ -59,7 +62,13 @@ public class TransactionalAnnotationHelperTest {
     invocation = mock(MethodInvocation.class);
     txnal = mock(Transactional.class);
 
-    doReturn(txnal).when(txnAnnoReader).readAnnotationFrom(invocation);
+    // the plan is built on each call since the tests stub the annotation after the set up
+    doAnswer(new Answer<TransactionPlan>() {
+      @Override
+      public TransactionPlan answer(InvocationOnMock invocationOnMock) throws Throwable {
+        return new TransactionPlan(txnal);
+      }
+    }).when(txnAnnoReader).readTransactionPlanFrom(invocation);
   }
 
   public class WithoutPuAnnotation {
@@ -39,39 +39,46 @@ public class TransactionalAnnotationReaderTest {
   }
 
   @Test
-  public void shouldReadFromMethodWithAnnotation() throws Exception {
-    final MethodInvocation invocation = methodInvocation(new WithMethodAnnotations(), "withAnno");
-    final Transactional result = sut.readAnnotationFrom(invocation);
-
-    Assert.assertThat(result, TransactionalAnnotationMatcher.transactionalAnnotation(
-        new Class[]{OtherPersistenceUnit.class}, new Class[]{NullPointerException.class}, new Class[]{}));
+  public void shouldReuseCachedPlanForSameMethod() throws Exception {
+    final TransactionPlan first = sut.readTransactionPlanFrom(methodInvocation(new WithMethodAnnotations(), "withAnno"));
+    final TransactionPlan second = sut.readTransactionPlanFrom(methodInvocation(new WithMethodAnnotations(), "withAnno"));
+
+    Assert.assertSame(first, second);
+    Assert.assertTrue(first.participates(OtherPersistenceUnit.class));
+    Assert.assertFalse(first.participates(TestPersistenceUnit.class));
+    Assert.assertTrue(first.isRollbackNecessaryFor(new NullPointerException()));
+    Assert.assertFalse(first.isRollbackNecessaryFor(new IllegalStateException()));
   }
 
   @Test
-  public void shouldReadFromClassWithAnnotation() throws Exception {
-    final MethodInvocation invocation = methodInvocation(new WithClassAnnotations(), "noAnno");
-    final Transactional result = sut.readAnnotationFrom(invocation);
+  public void shouldReadPlanFromClassWithAnnotation() throws Exception {
+    final TransactionPlan result = sut.readTransactionPlanFrom(methodInvocation(new WithClassAnnotations(), "noAnno"));
 
-    Assert.assertThat(result, TransactionalAnnotationMatcher.transactionalAnnotation(
-        new Class[]{TestPersistenceUnit.class}, new Class[]{IllegalArgumentException.class}, new Class[]{}));
+    Assert.assertTrue(result.participates(TestPersistenceUnit.class));
+    Assert.assertFalse(result.participates(OtherPersistenceUnit.class));
+    Assert.assertTrue(result.isRollbackNecessaryFor(new IllegalArgumentException()));
+    Assert.assertFalse(result.isRollbackNecessaryFor(new NullPointerException()));
   }
 
   @Test
-  public void shouldReadFromDefaultsClassAndMethodWithoutAnnotation() throws Exception {
-    final MethodInvocation invocation = methodInvocation(new WithoutAnyAnnotations(), "noAnno");
-    final Transactional result = sut.readAnnotationFrom(invocation);
+  public void shouldReadPlanFromDefaultsClassAndMethodWithoutAnnotation() throws Exception {
+    final TransactionPlan result = sut.readTransactionPlanFrom(methodInvocation(new WithoutAnyAnnotations(), "noAnno"));
 
-    Assert.assertThat(result, TransactionalAnnotationMatcher.transactionalAnnotation(new Class[]{}, new Class[]{
-        RuntimeException.class}, new Class[]{}));
+    Assert.assertTrue(result.participates(TestPersistenceUnit.class));
+    Assert.assertTrue(result.participates(OtherPersistenceUnit.class));
+    Assert.assertTrue(result.isRollbackNecessaryFor(new RuntimeException()));
+    Assert.assertFalse(result.isRollbackNecessaryFor(new Exception()));
   }
 
   @Test
-  public void shouldReadFromMethodWithAnnotationWhenBothClassAndMethodAnnotationAreGiven() throws Exception {
-    final MethodInvocation invocation = methodInvocation(new WithClassAndMethodAnnotations(), "withAnno");
-    final Transactional result = sut.readAnnotationFrom(invocation);
-
-    Assert.assertThat(result, TransactionalAnnotationMatcher.transactionalAnnotation(
-        new Class[]{OtherPersistenceUnit.class}, new Class[]{NullPointerException.class}, new Class[]{}));
+  public void shouldReadPlanFromMethodWhenBothClassAndMethodAnnotationAreGiven() throws Exception {
+    final TransactionPlan result =
+        sut.readTransactionPlanFrom(methodInvocation(new WithClassAndMethodAnnotations(), "withAnno"));
+
+    Assert.assertTrue(result.participates(OtherPersistenceUnit.class));
+    Assert.assertFalse(result.participates(TestPersistenceUnit.class));
+    Assert.assertTrue(result.isRollbackNecessaryFor(new NullPointerException()));
+    Assert.assertFalse(result.isRollbackNecessaryFor(new IllegalArgumentException()));
   }
 
   // classes and methods to pass to the TransactionalAnnotationReader for testing
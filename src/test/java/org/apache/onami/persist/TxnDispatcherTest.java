@@ -0,0 +1,131 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Test for {@link TxnDispatcher}.
+ */
+public class TxnDispatcherTest {
+
+  private TxnDispatcher sut;
+
+  private TxnInterceptor first;
+
+  private TxnInterceptor second;
+
+  private MethodInvocation invocation;
+
+  private Object result;
+
+  @Before
+  public void setUp() throws Throwable {
+    final TransactionalAnnotationReader txnAnnoReader = mock(TransactionalAnnotationReader.class);
+    first = mock(TxnInterceptor.class);
+    second = mock(TxnInterceptor.class);
+    invocation = mock(MethodInvocation.class);
+    result = new Object();
+
+    doReturn(new TransactionPlan(mock(Transactional.class))).when(txnAnnoReader).readTransactionPlanFrom(invocation);
+    doReturn(result).when(invocation).proceed();
+    doAnswer(new ProceedAnswer()).when(first).invokeInTransactionAndUnitOfWork(any(MethodInvocation.class));
+    doAnswer(new ProceedAnswer()).when(second).invokeInTransactionAndUnitOfWork(any(MethodInvocation.class));
+
+    sut = new TxnDispatcher();
+    sut.init(txnAnnoReader);
+    sut.add(first);
+    sut.add(second);
+  }
+
+  @Test
+  public void proceedsDirectlyWhenNoUnitParticipates() throws Throwable {
+    doReturn(false).when(first).persistenceUnitParticipatesInTransactionFor(invocation);
+    doReturn(false).when(second).persistenceUnitParticipatesInTransactionFor(invocation);
+
+    assertThat(sut.invoke(invocation), sameInstance(result));
+
+    verify(first, never()).invokeInTransactionAndUnitOfWork(any(MethodInvocation.class));
+    verify(second, never()).invokeInTransactionAndUnitOfWork(any(MethodInvocation.class));
+    verify(invocation).proceed();
+  }
+
+  @Test
+  public void invokesOnlyParticipatingUnit() throws Throwable {
+    doReturn(false).when(first).persistenceUnitParticipatesInTransactionFor(invocation);
+    doReturn(true).when(second).persistenceUnitParticipatesInTransactionFor(invocation);
+
+    assertThat(sut.invoke(invocation), sameInstance(result));
+
+    verify(first, never()).invokeInTransactionAndUnitOfWork(any(MethodInvocation.class));
+    verify(second).invokeInTransactionAndUnitOfWork(invocation);
+    verify(invocation).proceed();
+  }
+
+  @Test
+  public void chainsAllParticipatingUnitsInOrder() throws Throwable {
+    doReturn(true).when(first).persistenceUnitParticipatesInTransactionFor(invocation);
+    doReturn(true).when(second).persistenceUnitParticipatesInTransactionFor(invocation);
+
+    assertThat(sut.invoke(invocation), sameInstance(result));
+
+    final InOrder inOrder = inOrder(first, second, invocation);
+    inOrder.verify(first).invokeInTransactionAndUnitOfWork(any(MethodInvocation.class));
+    inOrder.verify(second).invokeInTransactionAndUnitOfWork(any(MethodInvocation.class));
+    inOrder.verify(invocation).proceed();
+  }
+
+  @Test
+  public void computesParticipantsOnlyOncePerPlan() throws Throwable {
+    doReturn(true).when(first).persistenceUnitParticipatesInTransactionFor(invocation);
+    doReturn(false).when(second).persistenceUnitParticipatesInTransactionFor(invocation);
+
+    sut.invoke(invocation);
+    sut.invoke(invocation);
+
+    verify(first, times(1)).persistenceUnitParticipatesInTransactionFor(invocation);
+    verify(second, times(1)).persistenceUnitParticipatesInTransactionFor(invocation);
+    verify(first, times(2)).invokeInTransactionAndUnitOfWork(invocation);
+  }
+
+  private static class ProceedAnswer implements Answer<Object> {
+
+    @Override
+    public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+      return ((MethodInvocation) invocationOnMock.getArguments()[0]).proceed();
+    }
+  }
+}
@@ -19,22 +19,39 @@ package org.apache.onami.persist;
  * under the License.
  */
 
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import de.bechte.junit.runners.context.HierarchicalContextRunner;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.TransactionRequiredException;
 import org.aopalliance.intercept.MethodInvocation;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 /**
  * Test for {@link TxnInterceptor}
@@ -64,6 +81,7 @@ public class TxnInterceptorTest {
     sut.init(unitOfWork, tfProvider, txnAnnotationHelper);
 
     invocation = mock(MethodInvocation.class);
+    doReturn(Propagation.REQUIRED).when(txnAnnotationHelper).propagationFor(invocation);
   }
 
   public class NotParticipatingInTransaction {
@@ -310,4 +328,671 @@ public class TxnInterceptorTest {
       }
     }
   }
+
+  public class WithTransactionListener {
+
+    private TransactionListener listener;
+
+    private Method method;
+
+    @Before
+    public void setUp() throws Exception {
+      listener = mock(TransactionListener.class);
+      sut = new TxnInterceptor(TestPersistenceUnit.class, listener);
+      sut.init(unitOfWork, tfProvider, txnAnnotationHelper);
+
+      method = Object.class.getMethod("toString");
+      doReturn(method).when(invocation).getMethod();
+      doReturn(true).when(txnAnnotationHelper).persistenceUnitParticipatesInTransactionFor(invocation);
+
+      txnFacade = mock(TransactionFacade.class);
+      doReturn(true).when(txnFacade).isOuter();
+      doReturn(txnFacade).when(tfProvider).createTransactionFacade();
+    }
+
+    @Test
+    public void notifiesBeginAndCommit() throws Throwable {
+      sut.invoke(invocation);
+
+      final InOrder inOrder = inOrder(listener);
+      inOrder.verify(listener).transactionBegun(TestPersistenceUnit.class, method, true);
+      inOrder.verify(listener).transactionCommitted(eq(TestPersistenceUnit.class), eq(method), eq(true), anyLong());
+    }
+
+    @Test
+    public void notifiesExceptionAndRollback() throws Throwable {
+      // given
+      final RuntimeException exc = new RuntimeException();
+      doThrow(exc).when(invocation).proceed();
+      doReturn(true).when(txnAnnotationHelper).isRollbackNecessaryFor(invocation, exc);
+
+      // when
+      try {
+        sut.invoke(invocation);
+      }
+
+      // then
+      catch (RuntimeException e) {
+        final InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).transactionBegun(TestPersistenceUnit.class, method, true);
+        inOrder.verify(listener).exceptionThrown(TestPersistenceUnit.class, method, true, exc);
+        inOrder.verify(listener).transactionRolledBack(eq(TestPersistenceUnit.class), eq(method), eq(true), anyLong());
+        return;
+      }
+      fail("expected RuntimeException to be thrown");
+    }
+
+    @Test
+    public void failingCommitIsReportedAsRollback() throws Throwable {
+      // given
+      final RuntimeException exc = new RuntimeException();
+      doThrow(exc).when(txnFacade).commit();
+
+      // when
+      try {
+        sut.invoke(invocation);
+      }
+
+      // then
+      catch (RuntimeException e) {
+        verify(listener).transactionRolledBack(eq(TestPersistenceUnit.class), eq(method), eq(true), anyLong());
+        verify(listener, never()).transactionCommitted(eq(TestPersistenceUnit.class), eq(method), eq(true), anyLong());
+        assertThat(e, sameInstance(exc));
+        return;
+      }
+      fail("expected RuntimeException to be thrown");
+    }
+
+    @Test
+    public void failingRollbackIsStillReported() throws Throwable {
+      // given
+      final RuntimeException exc = new RuntimeException();
+      doThrow(exc).when(invocation).proceed();
+      doReturn(true).when(txnAnnotationHelper).isRollbackNecessaryFor(invocation, exc);
+      doThrow(new RuntimeException()).when(txnFacade).rollback();
+
+      // when
+      try {
+        sut.invoke(invocation);
+      }
+
+      // then
+      catch (RuntimeException e) {
+        verify(listener).transactionRolledBack(eq(TestPersistenceUnit.class), eq(method), eq(true), anyLong());
+        assertThat(e, sameInstance(exc));
+        return;
+      }
+      fail("expected RuntimeException to be thrown");
+    }
+  }
+
+  public class WithPropagation {
+
+    private SuspendedTransaction suspended;
+
+    private InOrder inOrder;
+
+    @Before
+    public void setUp() throws Exception {
+      doReturn(true).when(txnAnnotationHelper).persistenceUnitParticipatesInTransactionFor(invocation);
+
+      txnFacade = mock(TransactionFacade.class);
+      doReturn(txnFacade).when(tfProvider).createTransactionFacade();
+
+      suspended = mock(SuspendedTransaction.class);
+      doReturn(suspended).when(tfProvider).suspend();
+
+      inOrder = inOrder(tfProvider, unitOfWork, txnFacade, invocation, suspended);
+    }
+
+    @Test
+    public void requiresNewSuspendsAndStartsNewTransaction() throws Throwable {
+      // given
+      doReturn(Propagation.REQUIRES_NEW).when(txnAnnotationHelper).propagationFor(invocation);
+      doReturn(true).when(tfProvider).isTransactionActive();
+
+      // when
+      sut.invoke(invocation);
+
+      // then
+      inOrder.verify(tfProvider).suspend();
+      inOrder.verify(unitOfWork).begin();
+      inOrder.verify(txnFacade).begin();
+      inOrder.verify(invocation).proceed();
+      inOrder.verify(txnFacade).commit();
+      inOrder.verify(unitOfWork).end();
+      inOrder.verify(suspended).resume();
+    }
+
+    @Test
+    public void requiresNewResumesIfExceptionIsThrown() throws Throwable {
+      // given
+      final RuntimeException exc = new RuntimeException();
+      doReturn(Propagation.REQUIRES_NEW).when(txnAnnotationHelper).propagationFor(invocation);
+      doThrow(exc).when(invocation).proceed();
+      doThrow(new IllegalStateException()).when(suspended).resume();
+
+      // when
+      try {
+        sut.invoke(invocation);
+      }
+
+      // then
+      catch (RuntimeException e) {
+        verify(suspended).resume();
+        assertThat(e, sameInstance(exc));
+        return;
+      }
+      fail("expected RuntimeException to be thrown");
+    }
+
+    @Test
+    public void supportsJoinsRunningTransaction() throws Throwable {
+      // given
+      doReturn(Propagation.SUPPORTS).when(txnAnnotationHelper).propagationFor(invocation);
+      doReturn(true).when(tfProvider).isTransactionActive();
+
+      // when
+      sut.invoke(invocation);
+
+      // then
+      inOrder.verify(txnFacade).begin();
+      inOrder.verify(invocation).proceed();
+      inOrder.verify(txnFacade).commit();
+    }
+
+    @Test
+    public void supportsRunsWithoutTransactionIfNoneIsRunning() throws Throwable {
+      // given
+      doReturn(Propagation.SUPPORTS).when(txnAnnotationHelper).propagationFor(invocation);
+      doReturn(false).when(tfProvider).isTransactionActive();
+
+      // when
+      sut.invoke(invocation);
+
+      // then
+      inOrder.verify(unitOfWork).begin();
+      inOrder.verify(invocation).proceed();
+      inOrder.verify(unitOfWork).end();
+      verify(tfProvider, never()).createTransactionFacade();
+    }
+
+    @Test
+    public void notSupportedSuspendsRunningTransaction() throws Throwable {
+      // given
+      doReturn(Propagation.NOT_SUPPORTED).when(txnAnnotationHelper).propagationFor(invocation);
+      doReturn(true).when(tfProvider).isTransactionActive();
+
+      // when
+      sut.invoke(invocation);
+
+      // then
+      inOrder.verify(tfProvider).suspend();
+      inOrder.verify(invocation).proceed();
+      inOrder.verify(suspended).resume();
+      verify(tfProvider, never()).createTransactionFacade();
+    }
+
+    @Test
+    public void notSupportedDoesNotSuspendIfNoTransactionIsRunning() throws Throwable {
+      // given
+      doReturn(Propagation.NOT_SUPPORTED).when(txnAnnotationHelper).propagationFor(invocation);
+      doReturn(false).when(tfProvider).isTransactionActive();
+
+      // when
+      sut.invoke(invocation);
+
+      // then
+      verify(invocation).proceed();
+      verify(tfProvider, never()).suspend();
+      verify(tfProvider, never()).createTransactionFacade();
+    }
+
+    @Test(expected = TransactionRequiredException.class)
+    public void mandatoryFailsIfNoTransactionIsRunning() throws Throwable {
+      // given
+      doReturn(Propagation.MANDATORY).when(txnAnnotationHelper).propagationFor(invocation);
+      doReturn(false).when(tfProvider).isTransactionActive();
+
+      // when
+      sut.invoke(invocation);
+    }
+
+    @Test
+    public void mandatoryJoinsRunningTransaction() throws Throwable {
+      // given
+      doReturn(Propagation.MANDATORY).when(txnAnnotationHelper).propagationFor(invocation);
+      doReturn(true).when(tfProvider).isTransactionActive();
+
+      // when
+      sut.invoke(invocation);
+
+      // then
+      inOrder.verify(txnFacade).begin();
+      inOrder.verify(invocation).proceed();
+      inOrder.verify(txnFacade).commit();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void neverFailsIfTransactionIsRunning() throws Throwable {
+      // given
+      doReturn(Propagation.NEVER).when(txnAnnotationHelper).propagationFor(invocation);
+      doReturn(true).when(tfProvider).isTransactionActive();
+
+      // when
+      sut.invoke(invocation);
+    }
+
+    @Test
+    public void neverRunsWithoutTransaction() throws Throwable {
+      // given
+      doReturn(Propagation.NEVER).when(txnAnnotationHelper).propagationFor(invocation);
+      doReturn(false).when(tfProvider).isTransactionActive();
+
+      // when
+      sut.invoke(invocation);
+
+      // then
+      verify(invocation).proceed();
+      verify(tfProvider, never()).createTransactionFacade();
+    }
+  }
+
+  public class WithRetries {
+
+    private TransactionListener listener;
+
+    private OptimisticLockException exc;
+
+    @Before
+    public void setUp() throws Exception {
+      listener = mock(TransactionListener.class);
+      sut = new TxnInterceptor(TestPersistenceUnit.class, listener);
+      sut.init(unitOfWork, tfProvider, txnAnnotationHelper);
+
+      doReturn(true).when(txnAnnotationHelper).persistenceUnitParticipatesInTransactionFor(invocation);
+      doReturn(2).when(txnAnnotationHelper).maxRetriesFor(invocation);
+      doReturn(0L).when(txnAnnotationHelper).retryBackoffMillisFor(eq(invocation), anyInt());
+
+      txnFacade = mock(TransactionFacade.class);
+      doReturn(txnFacade).when(tfProvider).createTransactionFacade();
+
+      exc = new OptimisticLockException();
+      doReturn(true).when(txnAnnotationHelper).isRetryNecessaryFor(invocation, exc);
+      doReturn(true).when(txnAnnotationHelper).isRollbackNecessaryFor(invocation, exc);
+    }
+
+    @Test
+    public void retriesInNewUnitOfWorkUntilSuccess() throws Throwable {
+      // given
+      final Object result = new Object();
+      doThrow(exc).doThrow(exc).doReturn(result).when(invocation).proceed();
+
+      // when
+      final Object actual = sut.invoke(invocation);
+
+      // then
+      assertThat(actual, sameInstance(result));
+      verify(invocation, times(3)).proceed();
+      verify(unitOfWork, times(3)).begin();
+      verify(unitOfWork, times(3)).end();
+      verify(txnFacade, times(2)).rollback();
+      verify(txnFacade).commit();
+      verify(listener).transactionRetried(eq(TestPersistenceUnit.class), any(Method.class), eq(1), eq(exc));
+      verify(listener).transactionRetried(eq(TestPersistenceUnit.class), any(Method.class), eq(2), eq(exc));
+    }
+
+    @Test
+    public void throwsExceptionOfLastAttempt() throws Throwable {
+      // given
+      doThrow(exc).when(invocation).proceed();
+
+      // when
+      try {
+        sut.invoke(invocation);
+      }
+
+      // then
+      catch (OptimisticLockException e) {
+        verify(invocation, times(3)).proceed();
+        assertThat(e, sameInstance(exc));
+        return;
+      }
+      fail("expected OptimisticLockException to be thrown");
+    }
+
+    @Test
+    public void doesNotRetryOtherExceptions() throws Throwable {
+      // given
+      final RuntimeException other = new RuntimeException();
+      doThrow(other).when(invocation).proceed();
+
+      // when
+      try {
+        sut.invoke(invocation);
+      }
+
+      // then
+      catch (RuntimeException e) {
+        verify(invocation).proceed();
+        assertThat(e, sameInstance(other));
+        return;
+      }
+      fail("expected RuntimeException to be thrown");
+    }
+
+    @Test
+    public void doesNotRetryIfUnitOfWorkIsActive() throws Throwable {
+      // given
+      doReturn(true).when(unitOfWork).isActive();
+      doThrow(exc).when(invocation).proceed();
+
+      // when
+      try {
+        sut.invoke(invocation);
+      }
+
+      // then
+      catch (OptimisticLockException e) {
+        verify(invocation).proceed();
+        return;
+      }
+      fail("expected OptimisticLockException to be thrown");
+    }
+  }
+
+  public class AsyncTransactions {
+
+    private AsyncServiceStub service;
+
+    @Before
+    public void setUp() throws Exception {
+      service = new AsyncServiceStub();
+      doReturn(service).when(invocation).getThis();
+      doReturn(new Object[0]).when(invocation).getArguments();
+      final AsyncTransactionExecutor asyncExecutor = new AsyncTransactionExecutor("test", 1, 10);
+      asyncExecutor.start();
+      sut = new TxnInterceptor(null, null, new TransactionWatchdog(), asyncExecutor);
+      sut.init(unitOfWork, tfProvider, txnAnnotationHelper);
+
+      doReturn(true).when(txnAnnotationHelper).persistenceUnitParticipatesInTransactionFor(any(MethodInvocation.class));
+      doReturn(Propagation.REQUIRED).when(txnAnnotationHelper).propagationFor(any(MethodInvocation.class));
+      doReturn(AsyncService.class.getMethod("load")).when(invocation).getMethod();
+
+      txnFacade = mock(TransactionFacade.class);
+      doReturn(txnFacade).when(tfProvider).createTransactionFacade();
+      doReturn(false).when(unitOfWork).isActive();
+    }
+
+    @Test
+    public void commitsWhenReturnedFutureCompletes() throws Throwable {
+      // given
+      service.result = completedFuture("value", null);
+
+      // when
+      final Future<?> result = (Future<?>) sut.invoke(invocation);
+
+      // then
+      assertThat(result.get(1, TimeUnit.SECONDS), is((Object) "value"));
+      verify(invocation, never()).proceed();
+      final InOrder inOrder = inOrder(unitOfWork, txnFacade);
+      inOrder.verify(unitOfWork).begin();
+      inOrder.verify(txnFacade).begin();
+      inOrder.verify(txnFacade).commit();
+      inOrder.verify(unitOfWork).end();
+    }
+
+    @Test
+    public void rollsBackWhenReturnedFutureFails() throws Throwable {
+      // given
+      final RuntimeException exc = new RuntimeException();
+      doReturn(true).when(txnAnnotationHelper).isRollbackNecessaryFor(any(MethodInvocation.class), eq(exc));
+      service.result = completedFuture(null, exc);
+
+      // when
+      final Future<?> result = (Future<?>) sut.invoke(invocation);
+
+      // then
+      try {
+        result.get(1, TimeUnit.SECONDS);
+        fail("expected ExecutionException");
+      } catch (ExecutionException e) {
+        assertThat(e.getCause(), sameInstance((Throwable) exc));
+      }
+      verify(txnFacade).rollback();
+      verify(txnFacade, never()).commit();
+      verify(unitOfWork).end();
+    }
+
+    @Test
+    public void joinsActiveUnitOfWorkSynchronously() throws Throwable {
+      // given
+      doReturn(true).when(unitOfWork).isActive();
+      final Future<Object> future = completedFuture("value", null);
+      doReturn(future).when(invocation).proceed();
+
+      // when
+      final Object result = sut.invoke(invocation);
+
+      // then
+      assertThat(result, sameInstance((Object) future));
+      verify(unitOfWork, never()).begin();
+    }
+
+    public class AcrossPersistenceUnits {
+
+      private UnitOfWork innerUnitOfWork;
+
+      private TransactionFacade innerTxnFacade;
+
+      private AsyncTransactionExecutor innerAsyncExecutor;
+
+      private TxnInterceptor inner;
+
+      private TxnDispatcher dispatcher;
+
+      @Before
+      public void setUp() throws Exception {
+        innerUnitOfWork = mock(UnitOfWork.class);
+        final TransactionFacadeFactory innerTfProvider = mock(TransactionFacadeFactory.class);
+        final TransactionalAnnotationHelper innerTxnAnnotationHelper = mock(TransactionalAnnotationHelper.class);
+        innerTxnFacade = mock(TransactionFacade.class);
+        doReturn(innerTxnFacade).when(innerTfProvider).createTransactionFacade();
+        doReturn(true).when(innerTxnAnnotationHelper)
+            .persistenceUnitParticipatesInTransactionFor(any(MethodInvocation.class));
+        doReturn(Propagation.REQUIRED).when(innerTxnAnnotationHelper).propagationFor(any(MethodInvocation.class));
+
+        innerAsyncExecutor = mock(AsyncTransactionExecutor.class);
+        inner = new TxnInterceptor(null, null, new TransactionWatchdog(), innerAsyncExecutor);
+        inner.init(innerUnitOfWork, innerTfProvider, innerTxnAnnotationHelper);
+
+        final TransactionalAnnotationReader reader = mock(TransactionalAnnotationReader.class);
+        doReturn(new TransactionPlan(mock(Transactional.class))).when(reader)
+            .readTransactionPlanFrom(any(MethodInvocation.class));
+        dispatcher = new TxnDispatcher();
+        dispatcher.init(reader);
+      }
+
+      @Test
+      public void innerUnitRunsInlineOnTheThreadOfTheOuterUnit() throws Throwable {
+        // given
+        dispatcher.add(sut);
+        dispatcher.add(inner);
+        final Thread[] threads = new Thread[2];
+        doAnswer(recordThread(threads, 0)).when(txnFacade).begin();
+        doAnswer(recordThread(threads, 1)).when(innerTxnFacade).begin();
+        service.result = completedFuture("value", null);
+
+        // when
+        final Future<?> result = (Future<?>) dispatcher.invoke(invocation);
+
+        // then
+        assertThat(result.get(1, TimeUnit.SECONDS), is((Object) "value"));
+        assertThat(threads[0] == Thread.currentThread(), is(false));
+        assertThat(threads[1], sameInstance(threads[0]));
+        verify(innerAsyncExecutor, never()).submit(any(Callable.class));
+        final InOrder inOrder = inOrder(txnFacade, innerTxnFacade);
+        inOrder.verify(innerTxnFacade).commit();
+        inOrder.verify(txnFacade).commit();
+      }
+
+      @Test
+      public void innerUnitDoesNotRunAsyncBelowSynchronousOuterUnit() throws Throwable {
+        // given
+        doReturn(true).when(unitOfWork).isActive();
+        dispatcher.add(sut);
+        dispatcher.add(inner);
+        final Future<Object> future = completedFuture("value", null);
+        doReturn(future).when(invocation).proceed();
+
+        // when
+        final Object result = dispatcher.invoke(invocation);
+
+        // then
+        assertThat(result, sameInstance((Object) future));
+        verify(innerAsyncExecutor, never()).submit(any(Callable.class));
+        verify(innerUnitOfWork).begin();
+        verify(innerTxnFacade).commit();
+      }
+
+      private Answer<Void> recordThread(final Thread[] threads, final int index) {
+        return new Answer<Void>() {
+          @Override
+          public Void answer(InvocationOnMock invocation) {
+            threads[index] = Thread.currentThread();
+            return null;
+          }
+        };
+      }
+    }
+
+    private Future<Object> completedFuture(final Object value, final RuntimeException exc) {
+      final FutureTask<Object> future = new FutureTask<Object>(new Callable<Object>() {
+        @Override
+        public Object call() {
+          if (exc != null) {
+            throw exc;
+          }
+          return value;
+        }
+      });
+      future.run();
+      return future;
+    }
+  }
+
+  public class WithBulkhead {
+
+    private TransactionBulkhead bulkhead;
+
+    @Before
+    public void setUp() throws Exception {
+      bulkhead = new TransactionBulkhead(1, 0, 0, TimeUnit.MILLISECONDS);
+      sut.initBulkhead(bulkhead);
+
+      doReturn(true).when(txnAnnotationHelper).persistenceUnitParticipatesInTransactionFor(invocation);
+      txnFacade = mock(TransactionFacade.class);
+      doReturn(txnFacade).when(tfProvider).createTransactionFacade();
+    }
+
+    @Test
+    public void rejectsOuterTransactionWhenSaturated() throws Throwable {
+      // given
+      doReturn(false).when(unitOfWork).isActive();
+      bulkhead.enter();
+
+      // when
+      try {
+        sut.invoke(invocation);
+        fail("expected TransactionRejectedException");
+      } catch (TransactionRejectedException e) {
+        // then
+        verify(unitOfWork, never()).begin();
+        verify(invocation, never()).proceed();
+      }
+    }
+
+    @Test
+    public void releasesAdmissionAfterOuterTransaction() throws Throwable {
+      // given
+      doReturn(false).when(unitOfWork).isActive();
+
+      // when
+      sut.invoke(invocation);
+
+      // then
+      verify(invocation).proceed();
+      assertThat(bulkhead.getActiveTransactions(), is(0));
+      assertThat(bulkhead.getAdmittedTransactions(), is(1L));
+    }
+
+    @Test
+    public void retryBackoffIsNotMeasuredAsLatency() throws Throwable {
+      // given
+      bulkhead = new TransactionBulkhead(new VegasLimit(20, 1, 20), 0, 0, TimeUnit.MILLISECONDS);
+      sut.initBulkhead(bulkhead);
+      doReturn(false).when(unitOfWork).isActive();
+      final OptimisticLockException exc = new OptimisticLockException();
+      doReturn(1).when(txnAnnotationHelper).maxRetriesFor(invocation);
+      doReturn(100L).when(txnAnnotationHelper).retryBackoffMillisFor(eq(invocation), anyInt());
+      doReturn(true).when(txnAnnotationHelper).isRetryNecessaryFor(invocation, exc);
+      doThrow(exc).doReturn(null).when(invocation).proceed();
+
+      // when
+      sut.invoke(invocation);
+
+      // then
+      verify(invocation, times(2)).proceed();
+      assertThat(bulkhead.getSmoothedRttNanos() > 0, is(true));
+      assertThat(bulkhead.getSmoothedRttNanos() < TimeUnit.MILLISECONDS.toNanos(100), is(true));
+    }
+
+    @Test
+    public void groupCommitWindowIsNotMeasuredAsLatency() throws Throwable {
+      // given
+      bulkhead = new TransactionBulkhead(new VegasLimit(20, 1, 20), 0, 0, TimeUnit.MILLISECONDS);
+      sut.initBulkhead(bulkhead);
+      sut.initGroupCommit(new GroupCommit(2, 100, TimeUnit.MILLISECONDS));
+      doReturn(Object.class.getMethod("toString")).when(invocation).getMethod();
+      doReturn(false).when(unitOfWork).isActive();
+      doReturn(true).when(txnAnnotationHelper).isGroupCommit(invocation);
+
+      // when
+      sut.invoke(invocation);
+
+      // then
+      verify(txnFacade).commit();
+      assertThat(bulkhead.getSmoothedRttNanos() > 0, is(true));
+      assertThat(bulkhead.getSmoothedRttNanos() < TimeUnit.MILLISECONDS.toNanos(100), is(true));
+    }
+
+    @Test
+    public void innerTransactionBypassesBulkhead() throws Throwable {
+      // given
+      doReturn(true).when(unitOfWork).isActive();
+      bulkhead.enter();
+
+      // when
+      sut.invoke(invocation);
+
+      // then
+      verify(invocation).proceed();
+    }
+  }
+
+  interface AsyncService {
+
+    Future<String> load();
+  }
+
+  static class AsyncServiceStub implements AsyncService {
+
+    private volatile Future<Object> result;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Future<String> load() {
+      return (Future) result;
+    }
+  }
 }
@@ -0,0 +1,168 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link UnitOfWorkExecutorService}.
+ */
+public class UnitOfWorkExecutorServiceTest {
+
+  private UnitOfWorkExecutorService sut;
+
+  private EntityManagerProviderImpl unitOfWork;
+
+  private ExecutorService delegate;
+
+  private UnitOfWorkGate gate;
+
+  private EntityManager em;
+
+  @Before
+  public void setUp() {
+    // input
+    final EntityManagerFactoryProvider emfProvider = mock(EntityManagerFactoryProvider.class);
+    final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+    final Properties properties = new Properties();
+    em = mock(EntityManager.class);
+    doReturn(emf).when(emfProvider).acquire();
+    doReturn(em).when(emf).createEntityManager(properties);
+    gate = new UnitOfWorkGate();
+    unitOfWork = new EntityManagerProviderImpl(emfProvider, properties, false, gate);
+
+    // subject under test
+    delegate = Executors.newSingleThreadExecutor();
+    sut = new UnitOfWorkExecutorService(delegate, unitOfWork);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    sut.shutdownNow();
+    sut.awaitTermination(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void taskShouldRunWithinUnitOfWork() throws Exception {
+    // when
+    final Future<EntityManager> result = sut.submit(new Callable<EntityManager>() {
+      public EntityManager call() {
+        return unitOfWork.get();
+      }
+    });
+
+    // then
+    assertThat(result.get(1, TimeUnit.SECONDS), sameInstance(em));
+  }
+
+  @Test
+  public void unitOfWorkShouldBeEndedAfterTask() throws Exception {
+    // when
+    final Future<Boolean> result = sut.submit(new Callable<Boolean>() {
+      public Boolean call() {
+        return unitOfWork.isActive();
+      }
+    });
+    result.get(1, TimeUnit.SECONDS);
+    final Future<Boolean> activeAfterwards = delegate.submit(new Callable<Boolean>() {
+      public Boolean call() {
+        return unitOfWork.isActive();
+      }
+    });
+
+    // then
+    assertThat(result.get(), is(true));
+    verify(em).close();
+    assertThat(activeAfterwards.get(1, TimeUnit.SECONDS), is(false));
+    assertThat(gate.getActiveCount(), is(0));
+  }
+
+  @Test
+  public void failureToBeginUnitOfWorkShouldBeReportedThroughFuture() throws Exception {
+    // given
+    gate.close();
+
+    // when
+    final Future<?> result = sut.submit(new Runnable() {
+      public void run() {
+        fail("task must not run");
+      }
+    });
+
+    // then
+    try {
+      result.get(1, TimeUnit.SECONDS);
+      fail("expected ExecutionException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+    }
+    assertThat(sut.getHandoffStatistics().getFailedTasks(), is(1L));
+  }
+
+  @Test
+  public void shouldRecordHandoffLatency() throws Exception {
+    // when
+    sut.submit(new Runnable() {
+      public void run() {
+      }
+    }).get(1, TimeUnit.SECONDS);
+    sut.submit(new Runnable() {
+      public void run() {
+      }
+    }).get(1, TimeUnit.SECONDS);
+
+    // then
+    final HandoffStatistics statistics = sut.getHandoffStatistics();
+    assertThat(statistics.getCount(), is(2L));
+    assertThat(statistics.getCompletedTasks(), is(2L));
+    assertThat(statistics.getFailedTasks(), is(0L));
+    assertThat(statistics.getMaxNanos() >= statistics.getPercentileNanos(50), is(true));
+  }
+
+  @Test
+  public void shutdownShouldBeDelegated() throws Exception {
+    // when
+    sut.shutdown();
+
+    // then
+    assertThat(delegate.isShutdown(), is(true));
+    assertThat(sut.awaitTermination(1, TimeUnit.SECONDS), is(true));
+  }
+}
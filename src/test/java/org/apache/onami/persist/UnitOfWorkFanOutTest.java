@@ -0,0 +1,196 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link UnitOfWorkFanOut}.
+ */
+public class UnitOfWorkFanOutTest {
+
+  private UnitOfWorkFanOut sut;
+
+  private ExecutorService executor;
+
+  private EntityManagerProviderImpl firstUnit;
+
+  private EntityManagerProviderImpl secondUnit;
+
+  private EntityManager firstEm;
+
+  private EntityManager secondEm;
+
+  @Before
+  public void setUp() {
+    // input
+    executor = Executors.newFixedThreadPool(2);
+    final PersistenceContexts contexts = new PersistenceContexts();
+    firstEm = mock(EntityManager.class);
+    secondEm = mock(EntityManager.class);
+    firstUnit = newUnitOfWork(firstEm, contexts);
+    secondUnit = newUnitOfWork(secondEm, contexts);
+
+    // subject under test
+    sut = new UnitOfWorkFanOut(executor);
+  }
+
+  private static EntityManagerProviderImpl newUnitOfWork(EntityManager em, PersistenceContexts contexts) {
+    final EntityManagerFactoryProvider emfProvider = mock(EntityManagerFactoryProvider.class);
+    final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+    doReturn(emf).when(emfProvider).acquire();
+    doReturn(em).when(emf).createEntityManager();
+    return new EntityManagerProviderImpl(emfProvider, null, false, new UnitOfWorkGate(), contexts);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    executor.awaitTermination(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void tasksShouldRunConcurrentlyWithinTheirUnitOfWork() throws Exception {
+    // given
+    final CountDownLatch bothRunning = new CountDownLatch(2);
+
+    // when
+    final Future<EntityManager> first = sut.fork(firstUnit, new AwaitingTask(bothRunning, firstUnit));
+    final Future<EntityManager> second = sut.fork(secondUnit, new AwaitingTask(bothRunning, secondUnit));
+    sut.join(5, TimeUnit.SECONDS);
+
+    // then
+    assertThat(first.get(), sameInstance(firstEm));
+    assertThat(second.get(), sameInstance(secondEm));
+    assertThat(firstUnit.isActive(), is(false));
+  }
+
+  @Test
+  public void singleRuntimeExceptionShouldBeThrownAsIs() throws Exception {
+    // given
+    final IllegalArgumentException failure = new IllegalArgumentException();
+    sut.fork(firstUnit, new FailingTask(failure));
+    sut.fork(secondUnit, new AwaitingTask(new CountDownLatch(0), secondUnit));
+
+    // when
+    try {
+      sut.join(5, TimeUnit.SECONDS);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // then
+      assertThat(e, sameInstance(failure));
+    }
+  }
+
+  @Test
+  public void failuresShouldBeAggregated() throws Exception {
+    // given
+    sut.fork(firstUnit, new FailingTask(new IllegalArgumentException()));
+    sut.fork(secondUnit, new FailingTask(new Exception()));
+
+    // when
+    try {
+      sut.join(5, TimeUnit.SECONDS);
+      fail("expected AggregatedException");
+    } catch (AggregatedException e) {
+      // then
+      assertThat(e.getNumCauses(), is(2));
+      assertThat(e.getCauses()[0], instanceOf(IllegalArgumentException.class));
+    }
+  }
+
+  @Test
+  public void tasksExceedingTheDeadlineShouldBeCancelled() throws Exception {
+    // given
+    final Future<EntityManager> blocked = sut.fork(firstUnit, new AwaitingTask(new CountDownLatch(2), firstUnit));
+
+    // when
+    try {
+      sut.join(10, TimeUnit.MILLISECONDS);
+      fail("expected AggregatedException");
+    } catch (AggregatedException e) {
+      // then
+      assertThat(e.getCauses()[0], instanceOf(TimeoutException.class));
+    }
+    assertThat(blocked.isCancelled(), is(true));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void forkAfterJoinShouldThrowException() throws Exception {
+    // given
+    sut.join(1, TimeUnit.SECONDS);
+
+    // when
+    sut.fork(firstUnit, new FailingTask(new Exception()));
+  }
+
+  private static class AwaitingTask implements Callable<EntityManager> {
+
+    private final CountDownLatch latch;
+
+    private final EntityManagerProvider emProvider;
+
+    AwaitingTask(CountDownLatch latch, EntityManagerProvider emProvider) {
+      this.latch = latch;
+      this.emProvider = emProvider;
+    }
+
+    @Override
+    public EntityManager call() throws Exception {
+      latch.countDown();
+      latch.await();
+      return emProvider.get();
+    }
+  }
+
+  private static class FailingTask implements Callable<EntityManager> {
+
+    private final Exception failure;
+
+    FailingTask(Exception failure) {
+      this.failure = failure;
+    }
+
+    @Override
+    public EntityManager call() throws Exception {
+      throw failure;
+    }
+  }
+}
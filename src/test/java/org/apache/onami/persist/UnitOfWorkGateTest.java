@@ -0,0 +1,252 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Test for {@link UnitOfWorkGate}.
+ */
+public class UnitOfWorkGateTest {
+
+  private UnitOfWorkGate sut;
+
+  @Before
+  public void setUp() {
+    sut = new UnitOfWorkGate();
+  }
+
+  @Test
+  public void shouldCountEnteredUnitsOfWork() {
+    assertThat(sut.tryEnter(), is(true));
+    assertThat(sut.tryEnter(), is(true));
+    sut.exit();
+
+    assertThat(sut.getActiveCount(), is(1));
+  }
+
+  @Test
+  public void closedGateShouldRejectAndKeepCount() {
+    sut.tryEnter();
+    sut.close();
+
+    assertThat(sut.isClosed(), is(true));
+    assertThat(sut.tryEnter(), is(false));
+    assertThat(sut.getActiveCount(), is(1));
+  }
+
+  @Test
+  public void openShouldAcceptAgain() {
+    sut.close();
+    sut.open();
+
+    assertThat(sut.isClosed(), is(false));
+    assertThat(sut.tryEnter(), is(true));
+  }
+
+  @Test
+  public void listenerShouldBeNotifiedWhileGateIsStillOpen() {
+    final boolean[] enteredWhileClosing = new boolean[1];
+    sut.addListener(new UnitOfWorkGate.Listener() {
+      public void opened() {
+      }
+
+      public void closing(long timeout, TimeUnit unit) {
+        enteredWhileClosing[0] = sut.tryEnter();
+      }
+    });
+
+    sut.close();
+
+    assertThat(enteredWhileClosing[0], is(true));
+    assertThat(sut.isClosed(), is(true));
+  }
+
+  @Test
+  public void listenerShouldNotBeNotifiedIfAlreadyClosed() {
+    final UnitOfWorkGate.Listener listener = mock(UnitOfWorkGate.Listener.class);
+    sut.addListener(listener);
+
+    sut.close();
+    sut.close();
+
+    verify(listener, times(1)).closing(anyLong(), any(TimeUnit.class));
+  }
+
+  @Test
+  public void concurrentCloseShouldNotifyListenersOnce() throws Exception {
+    // given
+    final CountDownLatch notified = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger closings = new AtomicInteger();
+    sut.addListener(new UnitOfWorkGate.Listener() {
+      public void opened() {
+      }
+
+      public void closing(long timeout, TimeUnit unit) {
+        closings.incrementAndGet();
+        notified.countDown();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    final Thread first = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        sut.close();
+      }
+    });
+    first.start();
+    assertThat(notified.await(5, TimeUnit.SECONDS), is(true));
+    final Thread second = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        sut.close();
+      }
+    });
+    second.start();
+
+    // when
+    second.join(100);
+
+    // then
+    assertThat(second.isAlive(), is(true));
+    assertThat(sut.isClosed(), is(false));
+
+    // when
+    release.countDown();
+    first.join(5000);
+    second.join(5000);
+
+    // then
+    assertThat(second.isAlive(), is(false));
+    assertThat(sut.isClosed(), is(true));
+    assertThat(closings.get(), is(1));
+  }
+
+  @Test
+  public void closeShouldOnlyWaitUpToTimeoutForConcurrentClose() throws Exception {
+    // given
+    final CountDownLatch notified = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    sut.addListener(new UnitOfWorkGate.Listener() {
+      public void opened() {
+      }
+
+      public void closing(long timeout, TimeUnit unit) {
+        notified.countDown();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    final Thread first = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        sut.close();
+      }
+    });
+    first.start();
+    assertThat(notified.await(5, TimeUnit.SECONDS), is(true));
+
+    // when
+    sut.close(10, TimeUnit.MILLISECONDS);
+
+    // then
+    assertThat(sut.isClosed(), is(false));
+    release.countDown();
+    first.join(5000);
+    assertThat(sut.isClosed(), is(true));
+  }
+
+  @Test
+  public void listenerShouldGetRemainingTimeout() {
+    final UnitOfWorkGate.Listener listener = mock(UnitOfWorkGate.Listener.class);
+    sut.addListener(listener);
+
+    sut.close(1, TimeUnit.SECONDS);
+
+    final ArgumentCaptor<Long> timeout = ArgumentCaptor.forClass(Long.class);
+    verify(listener).closing(timeout.capture(), eq(TimeUnit.NANOSECONDS));
+    assertThat(timeout.getValue() <= TimeUnit.SECONDS.toNanos(1), is(true));
+    assertThat(timeout.getValue() > 0, is(true));
+  }
+
+  @Test
+  public void listenerShouldBeNotifiedWhenOpened() {
+    final UnitOfWorkGate.Listener listener = mock(UnitOfWorkGate.Listener.class);
+    sut.addListener(listener);
+
+    sut.close();
+    sut.open();
+
+    verify(listener).opened();
+  }
+
+  @Test
+  public void awaitDrainedShouldReturnActiveCountAfterTimeout() {
+    sut.tryEnter();
+    sut.close();
+
+    assertThat(sut.awaitDrained(10, TimeUnit.MILLISECONDS), is(1));
+  }
+
+  @Test
+  public void awaitDrainedShouldReturnOnceLastUnitOfWorkExits() throws Exception {
+    sut.tryEnter();
+    sut.close();
+    final CountDownLatch waiting = new CountDownLatch(1);
+    final Thread other = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          waiting.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        sut.exit();
+      }
+    });
+    other.start();
+
+    waiting.countDown();
+    assertThat(sut.awaitDrained(5, TimeUnit.SECONDS), is(0));
+    other.join();
+  }
+}
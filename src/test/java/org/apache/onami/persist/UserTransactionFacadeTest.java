@@ -32,9 +32,12 @@ import static javax.transaction.Status.STATUS_ROLLING_BACK;
 import static javax.transaction.Status.STATUS_UNKNOWN;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -43,10 +46,13 @@ import javax.transaction.HeuristicRollbackException;
 import javax.transaction.NotSupportedException;
 import javax.transaction.RollbackException;
 import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
 import javax.transaction.UserTransaction;
 import org.hamcrest.Matcher;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.internal.matchers.GreaterThan;
 
 /**
@@ -70,6 +76,24 @@ public class UserTransactionFacadeTest {
     verify(txn).begin();
   }
 
+  @Test
+  public void beginWithTimeoutSetsAndResetsTimeout() throws Exception {
+    sut.begin(5);
+
+    final InOrder inOrder = inOrder(txn);
+    inOrder.verify(txn).setTransactionTimeout(5);
+    inOrder.verify(txn).begin();
+    inOrder.verify(txn).setTransactionTimeout(0);
+  }
+
+  @Test
+  public void beginWithoutTimeoutDoesNotTouchTimeout() throws Exception {
+    sut.begin(0);
+
+    verify(txn).begin();
+    verify(txn, never()).setTransactionTimeout(anyInt());
+  }
+
   @Test(expected = RuntimeException.class)
   public void beginWithNotSupportedException() throws Exception {
     doThrow(new NotSupportedException()).when(txn).begin();
@@ -243,4 +267,26 @@ public class UserTransactionFacadeTest {
   private Matcher<Long> greaterThan(long expected) {
     return new GreaterThan<Long>(expected);
   }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void suspendWithoutTransactionManagerShouldFail() throws Exception {
+    sut.suspend();
+  }
+
+  @Test
+  public void suspendAndResumeShouldUseConfiguredTransactionManager() throws Exception {
+    // given
+    final TransactionManager tm = mock(TransactionManager.class);
+    final Transaction transaction = mock(Transaction.class);
+    doReturn(transaction).when(tm).suspend();
+    sut.setTransactionManager(tm);
+
+    // when
+    final Transaction suspended = sut.suspend();
+    sut.resume(suspended);
+
+    // then
+    assertThat(suspended, is(transaction));
+    verify(tm).resume(transaction);
+  }
 }
@@ -0,0 +1,115 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link VegasLimit}.
+ */
+public class VegasLimitTest {
+
+  private VegasLimit sut;
+
+  @Before
+  public void setUp() {
+    sut = new VegasLimit(10, 1, 100);
+  }
+
+  @Test
+  public void shouldRaiseLimitWhileLatencyStaysAtBaseline() {
+    // when
+    for (int i = 0; i < 20; i++) {
+      sut.update(1000L, sut.getLimit());
+    }
+
+    // then
+    assertThat(sut.getLimit() > 10, is(true));
+    assertThat(sut.getMinRtt(), is(1000L));
+  }
+
+  @Test
+  public void shouldNotRaiseLimitWhileMostOfItIsUnused() {
+    // when
+    for (int i = 0; i < 20; i++) {
+      sut.update(1000L, 1);
+    }
+
+    // then
+    assertThat(sut.getLimit(), is(10));
+  }
+
+  @Test
+  public void shouldLowerLimitWhenLatencyGrows() {
+    // given
+    sut.update(1000L, 10);
+
+    // when
+    for (int i = 0; i < 50; i++) {
+      sut.update(10000L, 10);
+    }
+
+    // then
+    assertThat(sut.getLimit() < 10, is(true));
+    assertThat(sut.getSmoothedRtt() > 5000L, is(true));
+  }
+
+  @Test
+  public void shouldStayWithinBounds() {
+    // given
+    sut = new VegasLimit(2, 2, 3);
+
+    // when
+    for (int i = 0; i < 20; i++) {
+      sut.update(1000L, sut.getLimit());
+    }
+    final int raised = sut.getLimit();
+    for (int i = 0; i < 50; i++) {
+      sut.update(100000L, sut.getLimit());
+    }
+
+    // then
+    assertThat(raised, is(3));
+    assertThat(sut.getLimit(), is(2));
+  }
+
+  @Test
+  public void shouldMeasureBaselineAgainAfterProbeInterval() {
+    // given
+    sut.update(1000L, 10);
+
+    // when
+    for (int i = 1; i < VegasLimit.PROBE_INTERVAL; i++) {
+      sut.update(5000L, 10);
+    }
+
+    // then
+    assertThat(sut.getMinRtt(), is(5000L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectInitialLimitAboveMaximum() {
+    new VegasLimit(10, 1, 5);
+  }
+}
@@ -0,0 +1,327 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
+import org.apache.onami.persist.WriteBehindQueue.OverflowPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Test for {@link WriteBehindQueue}.
+ */
+public class WriteBehindQueueTest {
+
+  private EntityManagerProvider emProvider;
+
+  private UnitOfWork unitOfWork;
+
+  private TransactionFacadeFactory tfProvider;
+
+  private EntityManager em;
+
+  private TransactionFacade txFacade;
+
+  private WriteBehindQueue<String> sut;
+
+  @Before
+  public void setUp() {
+    emProvider = mock(EntityManagerProvider.class);
+    unitOfWork = mock(UnitOfWork.class);
+    tfProvider = mock(TransactionFacadeFactory.class);
+    em = mock(EntityManager.class);
+    txFacade = mock(TransactionFacade.class);
+    when(emProvider.get()).thenReturn(em);
+    when(tfProvider.createTransactionFacade()).thenReturn(txFacade);
+  }
+
+  @After
+  public void tearDown() {
+    if (sut != null) {
+      sut.close();
+    }
+  }
+
+  private WriteBehindQueue<String> newQueue(int capacity, int batchSize, OverflowPolicy overflowPolicy) {
+    return new WriteBehindQueue<String>(emProvider, unitOfWork, tfProvider, capacity, batchSize, 10,
+        TimeUnit.MILLISECONDS, overflowPolicy);
+  }
+
+  @Test
+  public void closeShouldWriteQueuedEntitiesInBatches() {
+    // given
+    sut = newQueue(10, 2, OverflowPolicy.REJECT);
+    sut.offer("a");
+    sut.offer("b");
+    sut.offer("c");
+
+    // when
+    sut.start();
+    sut.close();
+
+    // then
+    final InOrder inOrder = inOrder(unitOfWork, em, txFacade);
+    inOrder.verify(unitOfWork).begin();
+    inOrder.verify(txFacade).begin();
+    inOrder.verify(em).setFlushMode(FlushModeType.COMMIT);
+    inOrder.verify(em).persist("a");
+    inOrder.verify(em).persist("b");
+    inOrder.verify(txFacade).commit();
+    inOrder.verify(unitOfWork).end();
+    inOrder.verify(unitOfWork).begin();
+    inOrder.verify(em).persist("c");
+    inOrder.verify(txFacade).commit();
+    inOrder.verify(unitOfWork).end();
+    assertThat(sut.getWrittenEntities(), is(3L));
+    assertThat(sut.getQueuedEntities(), is(0));
+    assertThat(sut.getCurrentLagNanos(), is(0L));
+    assertThat(sut.getMaxLagNanos() > 0, is(true));
+  }
+
+  @Test
+  public void shouldWriteWithinDeferredTransaction() {
+    // given
+    final EntityManagerFactoryProvider emfProvider = mock(EntityManagerFactoryProvider.class);
+    final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+    final EntityTransaction txn = mock(EntityTransaction.class);
+    when(emfProvider.acquire()).thenReturn(emf);
+    when(emf.createEntityManager()).thenReturn(em);
+    when(em.getTransaction()).thenReturn(txn);
+    final EntityManagerProviderImpl deferredProvider = new EntityManagerProviderImpl(emfProvider, null, true);
+    sut = new WriteBehindQueue<String>(deferredProvider, deferredProvider,
+        new DeferredResourceLocalTransactionFacadeFactory(deferredProvider), 10, 10, 10, TimeUnit.MILLISECONDS,
+        OverflowPolicy.REJECT);
+    sut.offer("a");
+
+    // when
+    sut.start();
+    sut.close();
+
+    // then
+    final InOrder inOrder = inOrder(txn, em);
+    inOrder.verify(txn).begin();
+    inOrder.verify(em).persist("a");
+    inOrder.verify(txn).commit();
+    assertThat(sut.getWrittenEntities(), is(1L));
+  }
+
+  @Test
+  public void shouldWritePartialBatchAfterFlushInterval() throws Exception {
+    // given
+    final CountDownLatch committed = new CountDownLatch(1);
+    doAnswer(new Answer<Void>() {
+      public Void answer(InvocationOnMock invocation) {
+        committed.countDown();
+        return null;
+      }
+    }).when(txFacade).commit();
+    sut = newQueue(10, 100, OverflowPolicy.REJECT);
+    sut.start();
+
+    // when
+    sut.offer("a");
+
+    // then
+    assertThat(committed.await(5, TimeUnit.SECONDS), is(true));
+    verify(em).persist("a");
+  }
+
+  @Test
+  public void fullQueueShouldRejectNewEntities() {
+    // given
+    sut = newQueue(2, 10, OverflowPolicy.REJECT);
+
+    // when
+    sut.offer("a");
+    sut.offer("b");
+    final boolean accepted = sut.offer("c");
+
+    // then
+    assertThat(accepted, is(false));
+    assertThat(sut.getRejectedEntities(), is(1L));
+    assertThat(sut.getQueuedEntities(), is(2));
+  }
+
+  @Test
+  public void fullQueueShouldDropOldestEntity() {
+    // given
+    sut = newQueue(2, 10, OverflowPolicy.DROP_OLDEST);
+    sut.offer("a");
+    sut.offer("b");
+
+    // when
+    final boolean accepted = sut.offer("c");
+    sut.start();
+    sut.close();
+
+    // then
+    assertThat(accepted, is(true));
+    assertThat(sut.getDroppedEntities(), is(1L));
+    verify(em, never()).persist("a");
+    verify(em).persist("b");
+    verify(em).persist("c");
+  }
+
+  @Test
+  public void closedQueueShouldRejectNewEntities() {
+    // given
+    sut = newQueue(2, 10, OverflowPolicy.DROP_OLDEST);
+    sut.start();
+    sut.close();
+
+    // when
+    final boolean accepted = sut.offer("a");
+
+    // then
+    assertThat(accepted, is(false));
+    assertThat(sut.isClosed(), is(true));
+    assertThat(sut.getRejectedEntities(), is(1L));
+  }
+
+  @Test
+  public void entitiesOfferedWhileClosingShouldNeverBeLostSilently() throws Exception {
+    for (int round = 0; round < 10; round++) {
+      // given
+      sut = newQueue(100000, 10, OverflowPolicy.REJECT);
+      sut.start();
+      final int perThread = 1000;
+      final Thread[] producers = new Thread[2];
+      for (int i = 0; i < producers.length; i++) {
+        producers[i] = new Thread() {
+          @Override
+          public void run() {
+            for (int j = 0; j < perThread; j++) {
+              sut.offer("e");
+            }
+          }
+        };
+        producers[i].start();
+      }
+
+      // when
+      sut.close();
+      for (Thread producer : producers) {
+        producer.join();
+      }
+
+      // then
+      assertThat(sut.getQueuedEntities(), is(0));
+      assertThat(sut.getWrittenEntities() + sut.getRejectedEntities(), is((long) producers.length * perThread));
+    }
+  }
+
+  @Test
+  public void closeShouldInterruptWriterAfterTimeout() throws Exception {
+    // given
+    final CountDownLatch persisting = new CountDownLatch(1);
+    doAnswer(new Answer<Void>() {
+      public Void answer(InvocationOnMock invocation) {
+        persisting.countDown();
+        try {
+          new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return null;
+      }
+    }).when(em).persist("a");
+    sut = newQueue(10, 1, OverflowPolicy.REJECT);
+    sut.offer("a");
+    sut.offer("b");
+    sut.start();
+    assertThat(persisting.await(5, TimeUnit.SECONDS), is(true));
+
+    // when
+    final long start = System.nanoTime();
+    sut.close(50, TimeUnit.MILLISECONDS);
+
+    // then
+    assertThat(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), is(true));
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (sut.getDroppedEntities() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertThat(sut.getDroppedEntities(), is(1L));
+    assertThat(sut.getQueuedEntities(), is(0));
+    verify(em, never()).persist("b");
+  }
+
+  @Test
+  public void failedBatchShouldBeRolledBackAndCounted() {
+    // given
+    final RuntimeException failure = new RuntimeException();
+    doThrow(failure).when(em).persist("b");
+    sut = newQueue(10, 2, OverflowPolicy.REJECT);
+    sut.offer("a");
+    sut.offer("b");
+    sut.offer("c");
+
+    // when
+    sut.start();
+    sut.close();
+
+    // then
+    verify(txFacade).rollback();
+    verify(txFacade).commit();
+    verify(unitOfWork, times(2)).end();
+    assertThat(sut.getFailedEntities(), is(2L));
+    assertThat(sut.getWrittenEntities(), is(1L));
+    assertThat(sut.getLastFailure(), sameInstance(failure));
+  }
+
+  @Test
+  public void currentLagShouldReflectOldestQueuedEntity() throws Exception {
+    // given
+    sut = newQueue(10, 10, OverflowPolicy.REJECT);
+    sut.offer("a");
+
+    // when
+    Thread.sleep(5);
+
+    // then
+    assertThat(sut.getCurrentLagNanos() >= TimeUnit.MILLISECONDS.toNanos(5), is(true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectNonPositiveBatchSize() {
+    newQueue(10, 0, OverflowPolicy.REJECT);
+  }
+}
@@ -0,0 +1,173 @@
+package org.apache.onami.persist.test.transaction;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.matcher.Matchers;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.PersistenceModule;
+import org.apache.onami.persist.PersistenceService;
+import org.apache.onami.persist.Transactional;
+import org.apache.onami.persist.UnitOfWork;
+import org.apache.onami.persist.test.TestEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests running asynchronous transactions through a real injector.
+ */
+public class AsyncTransactionTest {
+
+  private Injector injector;
+
+  private AsyncWorker worker;
+
+  private final List<Thread> proceedingThreads = new CopyOnWriteArrayList<Thread>();
+
+  @Before
+  public void setUp() {
+    final PersistenceModule pm = new PersistenceModule() {
+
+      @Override
+      protected void configurePersistence() {
+        bindApplicationManagedPersistenceUnit("testUnit").runAsyncTransactions(2, 1000);
+      }
+    };
+    // records the threads on which the intercepted invocations are proceeded
+    final AbstractModule recording = new AbstractModule() {
+      @Override
+      protected void configure() {
+        bindInterceptor(Matchers.subclassesOf(AsyncWorker.class), Matchers.any(), new MethodInterceptor() {
+          @Override
+          public Object invoke(MethodInvocation invocation) throws Throwable {
+            proceedingThreads.add(Thread.currentThread());
+            return invocation.proceed();
+          }
+        });
+      }
+    };
+    injector = Guice.createInjector(pm, recording);
+
+    //startup persistence
+    injector.getInstance(PersistenceService.class).start();
+    worker = injector.getInstance(AsyncWorker.class);
+  }
+
+  @After
+  public void tearDown() {
+    injector.getInstance(PersistenceService.class).stop();
+    injector = null;
+  }
+
+  @Test
+  public void methodShouldRunInTransactionOnAnotherThread() throws Exception {
+    // given
+    final TestEntity entity = new TestEntity();
+
+    // when
+    final Future<UUID> result = worker.persist(entity, Thread.currentThread());
+
+    // then
+    final UUID id = result.get(5, TimeUnit.SECONDS);
+    assertThat(id, is(notNullValue()));
+    assertThat(worker.find(id), is(notNullValue()));
+  }
+
+  @Test
+  public void manyConcurrentCallsShouldAllComplete() throws Exception {
+    // given
+    final List<Future<UUID>> results = new ArrayList<Future<UUID>>();
+
+    // when
+    for (int i = 0; i < 200; i++) {
+      results.add(worker.persist(new TestEntity(), Thread.currentThread()));
+    }
+
+    // then
+    for (Future<UUID> result : results) {
+      assertThat(worker.find(result.get(5, TimeUnit.SECONDS)), is(notNullValue()));
+    }
+  }
+
+  @Test
+  public void interceptedInvocationShouldOnlyBeProceededOnTheCallingThread() throws Exception {
+    // when
+    worker.persist(new TestEntity(), Thread.currentThread()).get(5, TimeUnit.SECONDS);
+
+    // then
+    for (Thread thread : proceedingThreads) {
+      assertThat(thread, is(sameInstance(Thread.currentThread())));
+    }
+  }
+
+  public static class AsyncWorker {
+
+    @Inject
+    private EntityManagerProvider emProvider;
+
+    @Inject
+    private UnitOfWork unitOfWork;
+
+    @Transactional
+    public Future<UUID> persist(final TestEntity entity, Thread caller) {
+      if (Thread.currentThread() == caller || !unitOfWork.isActive()) {
+        throw new IllegalStateException("expected to run in a unit of work on another thread");
+      }
+      emProvider.get().persist(entity);
+      emProvider.get().flush();
+      return completed(entity);
+    }
+
+    @Transactional
+    public TestEntity find(UUID id) {
+      return emProvider.get().find(TestEntity.class, id);
+    }
+
+    private static Future<UUID> completed(final TestEntity entity) {
+      final FutureTask<UUID> future = new FutureTask<UUID>(new Callable<UUID>() {
+        @Override
+        public UUID call() {
+          return entity.getId();
+        }
+      });
+      future.run();
+      return future;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package org.apache.onami.persist.test.transaction;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.PersistenceModule;
+import org.apache.onami.persist.PersistenceService;
+import org.apache.onami.persist.Transactional;
+import org.apache.onami.persist.test.TestEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests group commit through a real injector.
+ */
+public class GroupCommitTransactionTest {
+
+  private Injector injector;
+
+  private GroupWorker worker;
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    final PersistenceModule pm = new PersistenceModule() {
+
+      @Override
+      protected void configurePersistence() {
+        // the leader waits for the second invocation so that both share a transaction
+        bindApplicationManagedPersistenceUnit("testUnit").configureGroupCommit(2, 5, TimeUnit.SECONDS);
+      }
+    };
+    injector = Guice.createInjector(pm);
+
+    //startup persistence
+    injector.getInstance(PersistenceService.class).start();
+    worker = injector.getInstance(GroupWorker.class);
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    executor.awaitTermination(5, TimeUnit.SECONDS);
+    injector.getInstance(PersistenceService.class).stop();
+    injector = null;
+  }
+
+  @Test
+  public void entityPersistedByRolledBackBatchShouldBePersistedOnceWhenRunAlone() throws Exception {
+    // given
+    final long before = worker.count();
+
+    // when
+    final Future<UUID> succeeding = executor.submit(persistNew(false));
+    final Future<UUID> failing = executor.submit(persistNew(true));
+
+    // then
+    final UUID id = succeeding.get(10, TimeUnit.SECONDS);
+    try {
+      failing.get(10, TimeUnit.SECONDS);
+      fail("expected the failing invocation to fail");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause() instanceof IllegalArgumentException, is(true));
+    }
+    assertThat(worker.find(id), is(notNullValue()));
+    assertThat(worker.count(), is(before + 1));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void groupCommitOfMethodWithEntityParameterShouldBeRejected() {
+    worker.persist(new TestEntity());
+  }
+
+  @Test
+  public void rejectedEntityShouldNotBePersisted() {
+    // given
+    final TestEntity entity = new TestEntity();
+
+    // when
+    try {
+      worker.persist(entity);
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    // then
+    assertThat(worker.find(entity.getId()) == null, is(true));
+  }
+
+  private Callable<UUID> persistNew(final boolean fail) {
+    return new Callable<UUID>() {
+      @Override
+      public UUID call() {
+        return worker.persistNew(fail);
+      }
+    };
+  }
+
+  public static class GroupWorker {
+
+    @Inject
+    private EntityManagerProvider emProvider;
+
+    @Transactional(groupCommit = true)
+    public UUID persistNew(boolean fail) {
+      final TestEntity entity = new TestEntity();
+      emProvider.get().persist(entity);
+      emProvider.get().flush();
+      if (fail) {
+        throw new IllegalArgumentException("failing invocation");
+      }
+      return entity.getId();
+    }
+
+    @Transactional(groupCommit = true)
+    public void persist(TestEntity entity) {
+      emProvider.get().persist(entity);
+    }
+
+    @Transactional
+    public TestEntity find(UUID id) {
+      return emProvider.get().find(TestEntity.class, id);
+    }
+
+    @Transactional
+    public long count() {
+      return emProvider.get().createQuery("SELECT COUNT(e) FROM TestEntity e", Long.class).getSingleResult();
+    }
+  }
+}
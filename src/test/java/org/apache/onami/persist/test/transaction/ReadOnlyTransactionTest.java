@@ -0,0 +1,193 @@
+package org.apache.onami.persist.test.transaction;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import javax.inject.Inject;
+import javax.persistence.FlushModeType;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.HibernateReadOnlyTransactionAdapter;
+import org.apache.onami.persist.PersistenceModule;
+import org.apache.onami.persist.PersistenceService;
+import org.apache.onami.persist.Transactional;
+import org.apache.onami.persist.UnitOfWork;
+import org.apache.onami.persist.test.TestEntity;
+import org.hibernate.Session;
+import org.hibernate.engine.jdbc.connections.internal.DriverManagerConnectionProviderImpl;
+import org.hibernate.jdbc.Work;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests running read only transactions with the hibernate adapter.
+ */
+public class ReadOnlyTransactionTest {
+
+  private Injector injector;
+
+  private ReadOnlyWorker worker;
+
+  @Before
+  public void setUp() {
+    final PersistenceModule pm = createPersistenceModuleForTest();
+    injector = Guice.createInjector(pm);
+
+    //startup persistence
+    injector.getInstance(PersistenceService.class).start();
+    worker = injector.getInstance(ReadOnlyWorker.class);
+  }
+
+  private PersistenceModule createPersistenceModuleForTest() {
+    return new PersistenceModule() {
+
+      @Override
+      protected void configurePersistence() {
+        // release the connection to the pool at the end of every transaction
+        final Properties properties = new Properties();
+        properties.setProperty("hibernate.connection.release_mode", "after_transaction");
+        properties.setProperty("hibernate.connection.provider_class", RecordingConnectionProvider.class.getName());
+        bindApplicationManagedPersistenceUnit("testUnit")
+            .useReadOnlyTransactionAdapter(new HibernateReadOnlyTransactionAdapter())
+            .setProperties(properties);
+      }
+    };
+  }
+
+  @After
+  public void tearDown() {
+    injector.getInstance(PersistenceService.class).stop();
+    injector = null;
+  }
+
+  @Test
+  public void readOnlyTransactionShouldNotPersistChanges() {
+    // given
+    final TestEntity entity = new TestEntity();
+
+    // when
+    worker.persistReadOnly(entity);
+
+    // then
+    assertThat(worker.find(entity), is(nullValue()));
+  }
+
+  @Test
+  public void readOnlyTransactionShouldPrepareSession() {
+    final ReadOnlyWorker.State state = worker.readState();
+
+    assertThat(state.defaultReadOnly, is(true));
+    assertThat(state.connectionReadOnly, is(true));
+  }
+
+  @Test
+  public void entityManagerShouldBeRestoredAfterReadOnlyTransaction() {
+    final UnitOfWork unitOfWork = injector.getInstance(UnitOfWork.class);
+    final EntityManagerProvider emProvider = injector.getInstance(EntityManagerProvider.class);
+    unitOfWork.begin();
+    try {
+      worker.readState();
+
+      assertThat(emProvider.get().unwrap(Session.class).isDefaultReadOnly(), is(false));
+      assertThat(emProvider.get().getFlushMode(), is(FlushModeType.AUTO));
+    } finally {
+      unitOfWork.end();
+    }
+  }
+
+  @Test
+  public void connectionShouldBeRestoredBeforeItIsReturnedToThePool() {
+    RecordingConnectionProvider.readOnlyConnectionReturned = false;
+
+    worker.readState();
+
+    assertThat(RecordingConnectionProvider.readOnlyConnectionReturned, is(false));
+    assertThat(worker.readWritableState().connectionReadOnly, is(false));
+  }
+
+  public static class ReadOnlyWorker {
+
+    @Inject
+    private EntityManagerProvider emProvider;
+
+    @Transactional(readOnly = true)
+    public void persistReadOnly(TestEntity entity) {
+      emProvider.get().persist(entity);
+    }
+
+    @Transactional
+    public TestEntity find(TestEntity entity) {
+      return emProvider.get().find(TestEntity.class, entity.getId());
+    }
+
+    @Transactional(readOnly = true)
+    public State readState() {
+      return state();
+    }
+
+    @Transactional
+    public State readWritableState() {
+      return state();
+    }
+
+    private State state() {
+      final Session session = emProvider.get().unwrap(Session.class);
+      final State state = new State();
+      state.defaultReadOnly = session.isDefaultReadOnly();
+      session.doWork(new Work() {
+        @Override
+        public void execute(Connection connection) throws SQLException {
+          state.connectionReadOnly = connection.isReadOnly();
+        }
+      });
+      return state;
+    }
+
+    static class State {
+      boolean defaultReadOnly;
+
+      boolean connectionReadOnly;
+    }
+  }
+
+  /**
+   * Connection pool which records whether a read only connection was returned to it.
+   */
+  public static class RecordingConnectionProvider extends DriverManagerConnectionProviderImpl {
+
+    static volatile boolean readOnlyConnectionReturned;
+
+    @Override
+    public void closeConnection(Connection conn) throws SQLException {
+      if (conn.isReadOnly()) {
+        readOnlyConnectionReturned = true;
+      }
+      super.closeConnection(conn);
+    }
+  }
+}
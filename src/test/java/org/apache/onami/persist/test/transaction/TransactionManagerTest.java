@@ -0,0 +1,165 @@
+package org.apache.onami.persist.test.transaction;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.inject.CreationException;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import javax.naming.Context;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.transaction.Status;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.UserTransaction;
+import org.apache.onami.persist.InitialContextFactoryStub;
+import org.apache.onami.persist.PersistenceModule;
+import org.apache.onami.persist.PersistenceService;
+import org.apache.onami.persist.Propagation;
+import org.apache.onami.persist.Transactional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+/**
+ * Tests suspending JTA transactions with a configured transaction manager through a real injector.
+ */
+public class TransactionManagerTest {
+
+  private static final String TM_JNDI_NAME = "java:/TransactionManager";
+
+  private EntityManagerFactory emf;
+
+  private UserTransaction ut;
+
+  private TransactionManager tm;
+
+  private Transaction suspended;
+
+  private Injector injector;
+
+  @Before
+  public void setUp() throws Exception {
+    emf = mock(EntityManagerFactory.class);
+    doReturn(mock(EntityManager.class)).when(emf).createEntityManager();
+    // the user transaction does not implement TransactionManager
+    ut = mock(UserTransaction.class);
+    when(ut.getStatus()).thenReturn(Status.STATUS_ACTIVE);
+    tm = mock(TransactionManager.class);
+    suspended = mock(Transaction.class);
+    when(tm.suspend()).thenReturn(suspended);
+  }
+
+  @After
+  public void tearDown() {
+    InitialContextFactoryStub.registerContext(null);
+    if (injector != null) {
+      injector.getInstance(PersistenceService.class).stop();
+    }
+  }
+
+  @Test
+  public void requiresNewShouldSuspendWithTransactionManagerInstance() throws Exception {
+    // given
+    startInjector(new PersistenceModule() {
+      @Override
+      protected void configurePersistence() {
+        bindContainerManagedPersistenceUnit(emf).useGlobalTransaction(ut).useTransactionManager(tm);
+      }
+    });
+
+    // when
+    injector.getInstance(Worker.class).requiresNew();
+
+    // then
+    final InOrder inOrder = inOrder(tm);
+    inOrder.verify(tm).suspend();
+    inOrder.verify(tm).resume(suspended);
+  }
+
+  @Test
+  public void requiresNewShouldSuspendWithTransactionManagerFromJndi() throws Exception {
+    // given
+    final Context context = mock(Context.class);
+    when(context.lookup(TM_JNDI_NAME)).thenReturn(tm);
+    InitialContextFactoryStub.registerContext(context);
+    startInjector(new PersistenceModule() {
+      @Override
+      protected void configurePersistence() {
+        bindContainerManagedPersistenceUnit(emf).useGlobalTransaction(ut).useTransactionManagerWithJndiName(TM_JNDI_NAME);
+      }
+    });
+
+    // when
+    injector.getInstance(Worker.class).requiresNew();
+
+    // then
+    final InOrder inOrder = inOrder(tm);
+    inOrder.verify(tm).suspend();
+    inOrder.verify(tm).resume(suspended);
+  }
+
+  @Test(expected = CreationException.class)
+  public void failingLookupOfTransactionManagerShouldFailInjectorCreation() throws Exception {
+    // given
+    final Context context = mock(Context.class);
+    when(context.lookup(anyString())).thenReturn(null);
+    InitialContextFactoryStub.registerContext(context);
+
+    // when
+    Guice.createInjector(new PersistenceModule() {
+      @Override
+      protected void configurePersistence() {
+        bindContainerManagedPersistenceUnit(emf).useGlobalTransaction(ut).useTransactionManagerWithJndiName(TM_JNDI_NAME);
+      }
+    });
+  }
+
+  @Test(expected = CreationException.class)
+  public void transactionManagerForResourceLocalTransactionsShouldFailInjectorCreation() {
+    Guice.createInjector(new PersistenceModule() {
+      @Override
+      protected void configurePersistence() {
+        bindContainerManagedPersistenceUnit(emf).useTransactionManager(tm);
+      }
+    });
+  }
+
+  private void startInjector(PersistenceModule module) {
+    injector = Guice.createInjector(module);
+    injector.getInstance(PersistenceService.class).start();
+  }
+
+  public static class Worker {
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void requiresNew() {
+      // nothing to do
+    }
+  }
+}